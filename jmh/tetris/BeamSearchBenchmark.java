@@ -0,0 +1,60 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// One four-piece plan on a mid-game board per operation; the nodes counter gives boards generated per second.
+// threads = 0 expands on the benchmark thread, otherwise on a ForkJoinPool of that size
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeamSearchBenchmark {
+
+    @Param({"1", "4", "16", "64"})
+    public int width;
+
+    @Param({"0", "1", "2", "4"})
+    public int threads;
+
+    private final GameEngine engine = new GameEngine(3);
+    private final Action[] path = new Action[PlacementSearch.MAX_PATH];
+    private ForkJoinPool pool;
+    private BeamSearch search;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Nodes {
+        public long nodes;
+    }
+
+    @Setup
+    public void setup() {
+        Policy policy = Policy.greedy(Heuristic.DEFAULT);
+        while (engine.getPiecesLocked() < 100) {
+            policy.act(engine);
+            engine.tick();
+        }
+        pool = threads == 0 ? null : new ForkJoinPool(threads);
+        search = new BeamSearch(pool, Heuristic.DEFAULT, width, 4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int plan(Nodes counter) {
+        long before = search.nodes();
+        int length = search.plan(engine, Long.MAX_VALUE, path);
+        counter.nodes += search.nodes() - before;
+        return length;
+    }
+}
@@ -0,0 +1,119 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// The same work on N separate Boards and on one struct-of-arrays BoardBatch: a collision test of one pose,
+// the three heuristic features, and a lock that completes a row followed by the line clear
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BoardBatchBenchmark {
+
+    @Param({"1000", "100000"})
+    public int boards;
+
+    private Board[] templates;
+    private Board[] separate;
+    private BoardBatch template;
+    private BoardBatch batch;
+    private boolean[] fits;
+    private int[] out;
+    private int[] holes;
+    private int[] bumpiness;
+
+    // Random stacks about eight rows high whose bottom row is full except for columns 0..3
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(1);
+        templates = new Board[boards];
+        separate = new Board[boards];
+        template = new BoardBatch(boards);
+        batch = new BoardBatch(boards);
+        fits = new boolean[boards];
+        out = new int[boards];
+        holes = new int[boards];
+        bumpiness = new int[boards];
+        for (int b = 0; b < boards; b++) {
+            Board board = new Board();
+            for (int x = 4; x < Board.WIDTH; x++) {
+                board.set(x, Board.HEIGHT - 1, 1);
+            }
+            for (int y = Board.HEIGHT - 8; y < Board.HEIGHT - 1; y++) {
+                for (int x = 0; x < Board.WIDTH; x++) {
+                    if (random.nextInt(3) != 0 && x >= 4) {
+                        board.set(x, y, 1);
+                    }
+                }
+            }
+            templates[b] = board;
+            separate[b] = new Board();
+            separate[b].copyFrom(board);
+            template.load(b, board);
+        }
+        batch.copyFrom(template);
+    }
+
+    @Benchmark
+    public int canPlaceSeparate() {
+        int n = 0;
+        for (Board board : separate) {
+            n += board.canPlace(Tetromino.I, 0, 1, Board.HEIGHT - 1) ? 1 : 0;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public boolean[] canPlaceBatch() {
+        batch.canPlace(Tetromino.I, 0, 1, Board.HEIGHT - 1, fits);
+        return fits;
+    }
+
+    @Benchmark
+    public int featuresSeparate() {
+        int n = 0;
+        for (Board board : separate) {
+            n += board.aggregateHeight() + board.holes() + board.bumpiness();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int[] featuresBatch() {
+        batch.aggregateHeight(out);
+        batch.holes(out);
+        batch.bumpiness(out);
+        return out;
+    }
+
+    @Benchmark
+    public int[] featuresBatchFused() {
+        batch.features(out, holes, bumpiness);
+        return out;
+    }
+
+    // Both sides start from a copy of the templates so every invocation clears a row
+    @Benchmark
+    public int lockAndClearSeparate() {
+        int n = 0;
+        for (int b = 0; b < boards; b++) {
+            Board board = separate[b];
+            board.copyFrom(templates[b]);
+            board.lock(Tetromino.I, 0, 1, Board.HEIGHT - 1);
+            n += board.clearLines();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int lockAndClearBatch() {
+        batch.copyFrom(template);
+        batch.lock(Tetromino.I, 0, 1, Board.HEIGHT - 1, null);
+        return batch.clearLines(out);
+    }
+}
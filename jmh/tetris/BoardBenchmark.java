@@ -0,0 +1,89 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Board hot paths on empty, sparse and nearly-full boards
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    @Param({"empty", "sparse", "nearlyFull"})
+    public String fill;
+
+    private final Board template = new Board();
+    private final Board board = new Board();
+    private final Piece piece = new Piece(Tetromino.T, Board.WIDTH / 2, 1);
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        // nearlyFull: every row below the spawn area has one hole, the bottom four rows are complete
+        int firstRow = fill.equals("empty") ? Board.HEIGHT : 4;
+        for (int y = firstRow; y < Board.HEIGHT; y++) {
+            int hole = random.nextInt(Board.WIDTH);
+            for (int x = 0; x < Board.WIDTH; x++) {
+                boolean filled = fill.equals("sparse") ? random.nextInt(4) == 0 : x != hole || y >= Board.HEIGHT - 4;
+                if (filled) {
+                    template.set(x, y, 1 + random.nextInt(7));
+                }
+            }
+        }
+        board.copyFrom(template);
+    }
+
+    @Benchmark
+    public boolean canPlace() {
+        return board.canPlace(piece);
+    }
+
+    @Benchmark
+    public boolean canPlacePrimitive() {
+        return board.canPlace(Tetromino.T, 0, Board.WIDTH / 2, 1);
+    }
+
+    // Locking the same piece again writes the same cells, so the board stays unchanged between calls
+    @Benchmark
+    public Board lock() {
+        board.lock(piece);
+        return board;
+    }
+
+    // Restores the board before clearing; compare with copyOnly for the cost of clearLines itself
+    @Benchmark
+    public int clearLines() {
+        board.copyFrom(template);
+        return board.clearLines();
+    }
+
+    @Benchmark
+    public Board copyOnly() {
+        board.copyFrom(template);
+        return board;
+    }
+
+    @Benchmark
+    public int[][] snapshot() {
+        return board.snapshot();
+    }
+
+    // O(1) copy-on-write copy, as taken by GameEngine.snapshot()
+    @Benchmark
+    public Board copy() {
+        return template.copy();
+    }
+
+    // A copy followed by the write that makes it clone the shared arrays
+    @Benchmark
+    public Board copyThenLock() {
+        Board copy = template.copy();
+        copy.lock(piece);
+        return copy;
+    }
+}
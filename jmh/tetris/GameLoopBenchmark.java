@@ -0,0 +1,29 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// A full seeded headless game with the random-input policy, from spawn to game over
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameLoopBenchmark {
+
+    private long seed;
+
+    @Benchmark
+    public int seededGame() {
+        long s = seed++;
+        GameEngine engine = new GameEngine(s);
+        Policy policy = Policy.random(s);
+        while (!engine.isGameOver()) {
+            policy.act(engine);
+            engine.tick();
+        }
+        return engine.getScore();
+    }
+}
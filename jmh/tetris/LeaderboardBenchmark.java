@@ -0,0 +1,64 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Score submission throughput from 8 threads: the concurrent Leaderboard versus HighScores behind a monitor
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class LeaderboardBenchmark {
+
+    private Path file;
+    private Leaderboard leaderboard;
+    private final HighScores highScores = new HighScores();
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("tetris-bench", ".db");
+        Files.delete(file);
+        leaderboard = new Leaderboard(ScoreStore.open(file, 100_000), 5);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        leaderboard.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Leaderboard submitConcurrent() {
+        leaderboard.submit("player", ThreadLocalRandom.current().nextInt(1_000_000));
+        return leaderboard;
+    }
+
+    @Benchmark
+    public HighScores addSynchronized() {
+        synchronized (highScores) {
+            highScores.add("player", ThreadLocalRandom.current().nextInt(1_000_000));
+        }
+        return highScores;
+    }
+
+    @Benchmark
+    public List<HighScores.Entry> topConcurrent() {
+        return leaderboard.top(10);
+    }
+
+    @Benchmark
+    public List<HighScores.Entry> topSynchronized() {
+        synchronized (highScores) {
+            return highScores.top();
+        }
+    }
+}
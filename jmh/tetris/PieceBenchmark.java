@@ -0,0 +1,42 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Point;
+import java.util.concurrent.TimeUnit;
+
+// Piece accessors and copy-on-move helpers
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceBenchmark {
+
+    private final Piece piece = new Piece(Tetromino.L, 4, 10);
+
+    @Benchmark
+    public Point[] cells() {
+        return piece.cells();
+    }
+
+    @Benchmark
+    public int cellCoordinates() {
+        int sum = 0;
+        for (int i = 0; i < 4; i++) {
+            sum += piece.cellX(i) * 31 + piece.cellY(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public Piece moved() {
+        return piece.moved(1, 0);
+    }
+
+    @Benchmark
+    public Piece rotated() {
+        return piece.rotated(1);
+    }
+}
@@ -0,0 +1,37 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of drawing one piece from each randomizer, with and without a 5-piece preview
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceGeneratorBenchmark {
+
+    @Param({"BAG", "MEMORYLESS", "HISTORY"})
+    public PieceGenerator.Kind kind;
+
+    private PieceGenerator generator;
+    private final Tetromino[] preview = new Tetromino[5];
+
+    @Setup
+    public void setup() {
+        generator = kind.create(42);
+    }
+
+    @Benchmark
+    public Tetromino next() {
+        return generator.next();
+    }
+
+    @Benchmark
+    public Tetromino nextWithPreview() {
+        generator.peek(preview, 0, preview.length);
+        return generator.next();
+    }
+}
@@ -0,0 +1,49 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Enumerating and scoring every placement of one piece on an empty and on a mid-game board
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlacementBenchmark {
+
+    @Param({"empty", "midGame"})
+    public String fill;
+
+    @Param({"I", "O", "T", "S"})
+    public Tetromino type;
+
+    private final PlacementSearch search = new PlacementSearch();
+    private Board board = new Board();
+
+    // midGame: the board a greedy bot leaves after 200 pieces
+    @Setup
+    public void setup() {
+        if (fill.equals("midGame")) {
+            GameEngine engine = new GameEngine(3);
+            Policy policy = Policy.greedy(Heuristic.DEFAULT);
+            while (engine.getPiecesLocked() < 200) {
+                policy.act(engine);
+                engine.tick();
+            }
+            board = engine.getBoard();
+        }
+    }
+
+    @Benchmark
+    public int search() {
+        return search.search(board, type, 0, GameEngine.SPAWN_X, GameEngine.SPAWN_Y);
+    }
+
+    @Benchmark
+    public int searchAndEvaluate() {
+        search.search(board, type, 0, GameEngine.SPAWN_X, GameEngine.SPAWN_Y);
+        return search.best(Heuristic.DEFAULT);
+    }
+}
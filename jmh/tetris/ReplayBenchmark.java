@@ -0,0 +1,46 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Verifying a recorded random-input game from spawn to game over
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayBenchmark {
+
+    private byte[] replay;
+
+    @Setup
+    public void setup() throws IOException {
+        GameEngine engine = new GameEngine(5);
+        Random random = new Random(5);
+        Action[] actions = Action.values();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ReplayRecorder recorder = new ReplayRecorder(engine, bytes, 0)) {
+            long time = 0;
+            while (!engine.isGameOver()) {
+                if (random.nextBoolean()) {
+                    recorder.apply(actions[random.nextInt(actions.length)], time + 5);
+                }
+                time += 16;
+                recorder.tick(time);
+            }
+            recorder.finish(time);
+        }
+        replay = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public ReplayVerifier.Result verify() throws IOException {
+        return ReplayVerifier.verify(new ByteArrayInputStream(replay));
+    }
+}
@@ -0,0 +1,88 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// SRS rotation resolution over 256 rotations of pieces that fit where they are: KickTable's precomputed
+// window masks against trying each kick test with canPlace. "open" rotations almost never kick; "stack" ones
+// sit in a ragged, holey stack where most need one or more kicks or fail
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RotationBenchmark {
+
+    private static final int CASES = 256;
+    private static final Tetromino[] TYPES = Tetromino.values();
+
+    @Param({"open", "stack"})
+    public String board;
+
+    private final Board b = new Board();
+    private final Tetromino[] types = new Tetromino[CASES];
+    private final int[] from = new int[CASES];
+    private final int[] to = new int[CASES];
+    private final int[] xs = new int[CASES];
+    private final int[] ys = new int[CASES];
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(7);
+        if (board.equals("stack")) {
+            for (int y = 8; y < Board.HEIGHT; y++) {
+                for (int x = 0; x < Board.WIDTH; x++) {
+                    if (random.nextInt(5) < 3) {
+                        b.set(x, y, 1);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < CASES; ) {
+            Tetromino type = TYPES[random.nextInt(TYPES.length)];
+            int r = random.nextInt(4);
+            int x = random.nextInt(Board.WIDTH);
+            int y = board.equals("stack") ? 6 + random.nextInt(Board.HEIGHT - 6) : random.nextInt(Board.HEIGHT);
+            if (b.canPlace(type, r, x, y)) {
+                types[i] = type;
+                from[i] = r;
+                to[i] = (r + (random.nextBoolean() ? 1 : 3)) & 3;
+                xs[i] = x;
+                ys[i] = y;
+                i++;
+            }
+        }
+    }
+
+    @Benchmark
+    public int kickTable() {
+        KickTable kicks = KickTable.SRS;
+        int sum = 0;
+        for (int i = 0; i < CASES; i++) {
+            sum += kicks.resolve(b, types[i], from[i], to[i], xs[i], ys[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int firstFit() {
+        KickTable kicks = KickTable.SRS;
+        int sum = 0;
+        for (int i = 0; i < CASES; i++) {
+            Tetromino type = types[i];
+            int found = -1;
+            for (int k = 0; k < kicks.tests(type); k++) {
+                if (b.canPlace(type, to[i], xs[i] + kicks.x(type, from[i], to[i], k),
+                        ys[i] + kicks.y(type, from[i], to[i], k))) {
+                    found = k;
+                    break;
+                }
+            }
+            sum += found;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,67 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// BoardBatch's same-pose collision test and lock + line clear with the scalar and the Vector API row kernels,
+// from a single board up to 10^5, to show where the vector loop starts to pay for its tail and setup
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "--add-modules=jdk.incubator.vector"})
+public class RowKernelsBenchmark {
+
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    @Param({"1", "10", "100", "1000", "10000", "100000"})
+    public int boards;
+
+    private BoardBatch template;
+    private BoardBatch batch;
+    private boolean[] fits;
+    private int[] cleared;
+
+    // Same stacks as BoardBatchBenchmark: about eight rows high, bottom row full except for columns 0..3
+    @Setup
+    public void setup() {
+        RowKernels rowKernels = kernels.equals("vector") ? new VectorRowKernels() : RowKernels.SCALAR;
+        SplittableRandom random = new SplittableRandom(1);
+        template = new BoardBatch(boards, rowKernels);
+        batch = new BoardBatch(boards, rowKernels);
+        fits = new boolean[boards];
+        cleared = new int[boards];
+        for (int b = 0; b < boards; b++) {
+            Board board = new Board();
+            for (int x = 4; x < Board.WIDTH; x++) {
+                board.set(x, Board.HEIGHT - 1, 1);
+            }
+            for (int y = Board.HEIGHT - 8; y < Board.HEIGHT - 1; y++) {
+                for (int x = 4; x < Board.WIDTH; x++) {
+                    if (random.nextInt(3) != 0) {
+                        board.set(x, y, 1);
+                    }
+                }
+            }
+            template.load(b, board);
+        }
+        batch.copyFrom(template);
+    }
+
+    @Benchmark
+    public boolean[] canPlace() {
+        batch.canPlace(Tetromino.T, 0, 1, Board.HEIGHT - 3, fits);
+        return fits;
+    }
+
+    @Benchmark
+    public int lockAndClear() {
+        batch.copyFrom(template);
+        batch.lock(Tetromino.I, 0, 1, Board.HEIGHT - 1, null);
+        return batch.clearLines(cleared);
+    }
+}
@@ -0,0 +1,63 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Collision test, lock + line clear and a greedy placement on the standard board and on a wide and a tall
+// variant, to show the board size is a field load and not a per-call cost
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleSetBenchmark {
+
+    @Param({"10x22", "64x22", "10x60"})
+    public String size;
+
+    private RuleSet rules;
+    private Board template;
+    private Board board;
+    private PlacementSearch search;
+    private int bottom;
+
+    // Bottom row full except for the first four columns, a few rows of scattered blocks above it
+    @Setup
+    public void setup() {
+        int w = Integer.parseInt(size.substring(0, size.indexOf('x')));
+        int h = Integer.parseInt(size.substring(size.indexOf('x') + 1));
+        rules = w == Board.WIDTH && h == Board.HEIGHT ? RuleSet.STANDARD : RuleSet.STANDARD.withSize(w, h, 2);
+        template = new Board(rules);
+        bottom = h - 1;
+        for (int x = 4; x < w; x++) {
+            template.set(x, bottom, 1);
+        }
+        for (int y = h - 6; y < bottom; y++) {
+            for (int x = (y * 7) % 5; x < w; x += 3) {
+                template.set(x, y, 2);
+            }
+        }
+        board = new Board(rules);
+        search = new PlacementSearch();
+    }
+
+    @Benchmark
+    public boolean canPlace() {
+        return template.canPlace(Tetromino.T, 0, 2, bottom - 8);
+    }
+
+    @Benchmark
+    public int lockAndClear() {
+        board.copyFrom(template);
+        board.lock(Tetromino.I, 0, 1, bottom);
+        return board.clearLines();
+    }
+
+    @Benchmark
+    public int searchAndEvaluate() {
+        search.search(template, Tetromino.T, 0, rules.spawnX(), rules.spawnY());
+        return search.best(Heuristic.DEFAULT);
+    }
+}
@@ -0,0 +1,60 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Insert, rank and top-k latency of the memory-mapped leaderboard holding 10^6 entries
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoreStoreBenchmark {
+
+    @Param({"1000000"})
+    public int entries;
+
+    private Path file;
+    private ScoreStore store;
+    private final SplittableRandom random = new SplittableRandom(7);
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("tetris-bench", ".db");
+        Files.delete(file);
+        // Capacity keeps the store at `entries` live records while inserts keep arriving
+        store = ScoreStore.open(file, entries);
+        for (int i = 0; i < entries; i++) {
+            store.add("player", random.nextInt(1_000_000));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public ScoreStore insert() throws IOException {
+        store.add("player", random.nextInt(1_000_000));
+        return store;
+    }
+
+    @Benchmark
+    public int rankOf() {
+        return store.rankOf(random.nextInt(1_000_000));
+    }
+
+    @Benchmark
+    public List<HighScores.Entry> top10() {
+        return store.top();
+    }
+}
@@ -0,0 +1,99 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Saving and loading game state and high scores through Serializer
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+    private File saveFile;
+    private File binaryFile;
+    private final SaveCodec codec = new SaveCodec();
+    private final SaveCodec decoder = new SaveCodec();
+    private ByteBuffer encoded;
+    private File scoresFile;
+    private GameSave save;
+    private HighScores scores;
+
+    @Setup
+    public void setup() throws IOException {
+        GameEngine engine = new GameEngine(42);
+        for (int i = 0; i < 20; i++) {
+            engine.apply(i % 2 == 0 ? Action.LEFT : Action.RIGHT);
+            engine.apply(Action.HARD_DROP);
+        }
+        save = engine.snapshot();
+        scores = new HighScores();
+        for (int i = 0; i < 10; i++) {
+            scores.add("player" + i, i * 1000);
+        }
+        saveFile = File.createTempFile("tetris-bench", ".save");
+        scoresFile = File.createTempFile("tetris-bench", ".ser");
+        Serializer.save(saveFile, save);
+        Serializer.save(scoresFile, scores);
+        binaryFile = File.createTempFile("tetris-bench", ".bin");
+        Serializer.saveGame(binaryFile, save);
+        ByteBuffer bytes = new SaveCodec().encode(save);
+        encoded = ByteBuffer.allocate(bytes.remaining()).put(bytes).flip();
+    }
+
+    @TearDown
+    public void tearDown() {
+        saveFile.delete();
+        scoresFile.delete();
+        binaryFile.delete();
+    }
+
+    @Benchmark
+    public File saveGame() throws IOException {
+        Serializer.save(saveFile, save);
+        return saveFile;
+    }
+
+    @Benchmark
+    public GameSave loadGame() throws Exception {
+        return Serializer.load(saveFile, GameSave.class);
+    }
+
+    @Benchmark
+    public File saveScores() throws IOException {
+        Serializer.save(scoresFile, scores);
+        return scoresFile;
+    }
+
+    @Benchmark
+    public HighScores loadScores() throws Exception {
+        return Serializer.load(scoresFile, HighScores.class);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBinary() {
+        return codec.encode(save);
+    }
+
+    @Benchmark
+    public GameSave decodeBinary() throws IOException {
+        return decoder.decode(encoded.duplicate());
+    }
+
+    @Benchmark
+    public File saveGameBinary() throws IOException {
+        Serializer.saveGame(binaryFile, save);
+        return binaryFile;
+    }
+
+    @Benchmark
+    public GameSave loadGameBinary() throws Exception {
+        return Serializer.loadGame(binaryFile);
+    }
+}
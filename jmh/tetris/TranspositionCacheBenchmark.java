@@ -0,0 +1,70 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Cache lookups against evaluating the heuristic directly, with a cache that fits in L2 and one that does not
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranspositionCacheBenchmark {
+
+    @Param({"4096", "4194304"})
+    public int capacity;
+
+    private static final int KEYS = 1 << 12;
+
+    private TranspositionCache cache;
+    private Heuristic cached;
+    private final Board board = new Board();
+    private final long[] keys = new long[KEYS];
+    private int next;
+
+    @Setup
+    public void setup() {
+        cache = new TranspositionCache(capacity);
+        cached = Heuristic.cached(Heuristic.DEFAULT, cache);
+        GameEngine engine = new GameEngine(3);
+        Policy policy = Policy.greedy(Heuristic.DEFAULT);
+        while (engine.getPiecesLocked() < 100) {
+            policy.act(engine);
+            engine.tick();
+        }
+        board.copyFrom(engine.getBoard());
+        // Keys spread over the whole table so the large cache is read from memory, not cache lines already hot
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = (i + 1) * 0x9E3779B97F4A7C15L;
+            cache.put(keys[i], i);
+        }
+        cached.evaluate(board, 0);
+    }
+
+    @Benchmark
+    public double getHit() {
+        return cache.get(keys[next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public double getMiss() {
+        return cache.get(~keys[next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public void put() {
+        cache.put(keys[next++ & (KEYS - 1)], next);
+    }
+
+    @Benchmark
+    public double evaluate() {
+        return Heuristic.DEFAULT.evaluate(board, 0);
+    }
+
+    @Benchmark
+    public double evaluateCached() {
+        return cached.evaluate(board, 0);
+    }
+}
@@ -0,0 +1,11 @@
+package tetris;
+
+// Player inputs understood by the GameEngine
+public enum Action {
+    LEFT,
+    RIGHT,
+    SOFT_DROP,
+    ROTATE_CW,
+    ROTATE_CCW,
+    HARD_DROP
+}
@@ -0,0 +1,298 @@
+package tetris;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+// Crash-safe background autosave: a full checkpoint plus an append-only journal of the locks made since.
+//
+//   checkpoint.save   a SaveCodec save (so File > Load can open it too), replaced atomically
+//   journal.bin       'T' 'J' | version | 0 | CRC32 of the checkpoint it extends (int) | records...
+//   record            type << 2 | rotation | x | y | current piece | next piece | lines (3 bytes) | score (int) |
+//                     CRC32 (int)
+//
+// Journal version 2 records SRS rotation states and lines; a version 1 journal is ignored, so recovering a
+// checkpoint written before SRS loses only the locks made since it (SaveCodec migrates the checkpoint itself)
+//
+// The game thread only hands over what a lock changed (see pieceLocked) and O(1) copy-on-write snapshots;
+// all I/O runs on one background thread, which also keeps a shadow copy of the saved game by applying each
+// record the way recovery will. Every CHECKPOINT_RECORDS records, and every checkpoint period while there
+// are any, that shadow becomes the new checkpoint and the journal starts over. Recovery takes the checkpoint
+// and replays every intact record of a journal that belongs to it; a torn last record is ignored
+public final class AutoSaver implements GameEngine.LockListener, Closeable {
+
+    static final String CHECKPOINT_FILE = "checkpoint.save";
+    static final String JOURNAL_FILE = "journal.bin";
+
+    static final int CHECKPOINT_RECORDS = 100;
+    static final long CHECKPOINT_MILLIS = 30_000;
+
+    private static final byte MAGIC_0 = 'T';
+    private static final byte MAGIC_1 = 'J';
+    private static final byte VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    static final int RECORD_SIZE = 16;
+
+    private final Path checkpoint;
+    private final Path journal;
+    private final int checkpointRecords;
+    private final ScheduledExecutorService executor;
+
+    // Owned by the executor thread
+    private final SaveCodec codec = new SaveCodec();
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private FileChannel journalChannel;
+    private int journalRecords;
+    private Shadow shadow;
+
+    private volatile IOException lastError;
+
+    public AutoSaver(Path dir) throws IOException {
+        this(dir, CHECKPOINT_RECORDS, CHECKPOINT_MILLIS);
+    }
+
+    AutoSaver(Path dir, int checkpointRecords, long checkpointMillis) throws IOException {
+        Files.createDirectories(dir);
+        this.checkpoint = dir.resolve(CHECKPOINT_FILE);
+        this.journal = dir.resolve(JOURNAL_FILE);
+        this.checkpointRecords = checkpointRecords;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "autosave");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> run(this::periodicCheckpoint),
+                checkpointMillis, checkpointMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Starts a new checkpoint from a snapshot, e.g. when the game starts or after a restore or undo.
+    // Locks reported before the first checkpoint are not saved
+    public void checkpoint(GameSave save) {
+        executor.execute(() -> run(() -> {
+            shadow = new Shadow(save);
+            writeCheckpoint();
+        }));
+    }
+
+    // Called on the game thread after each lock: packs the record there and queues the write
+    @Override
+    public void pieceLocked(GameEngine engine, Tetromino type, int rotation, int x, int y) {
+        long packed = (long) (type.ordinal() << 2 | rotation) << 56
+                | (long) (x & 0xFF) << 48
+                | (long) (y & 0xFF) << 40
+                | (long) engine.getCurrentPiece().type.ordinal() << 32
+                | (long) engine.getNextPiece().ordinal() << 24
+                | Math.min(engine.getLinesCleared(), 0xFFFFFF);
+        int newScore = engine.getScore();
+        executor.execute(() -> run(() -> append(packed, newScore)));
+    }
+
+    // Forgets the saved game, e.g. once it is over
+    public void discard() {
+        executor.execute(() -> run(() -> {
+            closeJournal();
+            shadow = null;
+            Files.deleteIfExists(journal);
+            Files.deleteIfExists(checkpoint);
+        }));
+    }
+
+    // Waits until everything queued so far is on disk
+    public void flush() throws IOException {
+        try {
+            executor.submit(() -> {
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while flushing autosave", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        IOException error = lastError;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // The most recent write failure, if any. Failures never reach the game thread
+    public IOException lastError() {
+        return lastError;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.execute(() -> run(this::closeJournal));
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException error = lastError;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    private void run(IoTask task) {
+        try {
+            task.run();
+        } catch (IOException e) {
+            lastError = e;
+            System.err.println("Autosave failed: " + e.getMessage());
+        }
+    }
+
+    private void append(long packed, int newScore) throws IOException {
+        if (shadow == null) {
+            return;
+        }
+        if (journalChannel == null) {
+            // The last checkpoint or record write failed part-way; the shadow still matches what was saved
+            writeCheckpoint();
+        }
+        long start = Metrics.start();
+        ByteBuffer buf = record.clear();
+        buf.putLong(packed).putInt(newScore);
+        crc.reset();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue()).flip();
+
+        try {
+            while (buf.hasRemaining()) {
+                journalChannel.write(buf);
+            }
+            journalChannel.force(false);
+        } catch (IOException e) {
+            // Recovery stops at a torn record, so nothing may follow it: the next append starts a new checkpoint
+            try {
+                closeJournal();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        shadow.apply(buf.flip());
+        Metrics.AUTOSAVE.recordSince(start);
+        if (++journalRecords >= checkpointRecords) {
+            writeCheckpoint();
+        }
+    }
+
+    private void periodicCheckpoint() throws IOException {
+        if (shadow != null && (journalRecords > 0 || journalChannel == null)) {
+            writeCheckpoint();
+        }
+    }
+
+    // Replaces the checkpoint with the shadow state, then the journal with an empty one pointing at it.
+    // A crash in between leaves a journal whose checkpoint CRC no longer matches, so recovery ignores it
+    private void writeCheckpoint() throws IOException {
+        closeJournal();
+        ByteBuffer encoded = codec.encode(shadow.save());
+        int checkpointCrc = encoded.getInt(encoded.limit() - 4);
+        Serializer.writeAtomically(checkpoint, encoded);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC_0).put(MAGIC_1).put(VERSION).put((byte) 0).putInt(checkpointCrc).flip();
+        Serializer.writeAtomically(journal, header);
+        journalChannel = FileChannel.open(journal, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journalRecords = 0;
+    }
+
+    private void closeJournal() throws IOException {
+        FileChannel channel = journalChannel;
+        journalChannel = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    // The saved game as recovery will see it: the checkpoint with the journal applied so far
+    private static final class Shadow {
+        private final Board board;
+        private Piece piece;
+        private Tetromino next;
+        private int score;
+        private int lines;
+
+        Shadow(GameSave save) {
+            board = save.board.copy();
+            piece = new Piece(save.currentPiece);
+            next = save.nextPiece;
+            score = save.score;
+            lines = save.lines;
+        }
+
+        // Applies one record: the piece locks, lines clear and the next piece spawns
+        void apply(ByteBuffer in) {
+            int typeAndRotation = in.get() & 0xFF;
+            int x = in.get();
+            int y = in.get();
+            Tetromino current = Tetromino.values()[in.get()];
+            next = Tetromino.values()[in.get()];
+            lines = (in.get() & 0xFF) << 16 | (in.getShort() & 0xFFFF);
+            score = in.getInt();
+            in.getInt();
+
+            board.lock(Tetromino.values()[typeAndRotation >>> 2], typeAndRotation & 3, x, y);
+            board.clearLines();
+            piece = new Piece(current, board.rules().spawnX(), board.rules().spawnY());
+        }
+
+        GameSave save() {
+            return new GameSave(board.copy(), new Piece(piece), next, score, lines);
+        }
+    }
+
+    // Rebuilds the autosaved game from dir, or returns null if there is none. A missing or stale journal
+    // is not an error; a damaged checkpoint is
+    public static GameSave recover(Path dir) throws IOException {
+        Path checkpoint = dir.resolve(CHECKPOINT_FILE);
+        ByteBuffer encoded;
+        try {
+            encoded = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        SaveCodec codec = new SaveCodec();
+        GameSave save = codec.decode(encoded.duplicate());
+        int checkpointCrc = encoded.getInt(encoded.limit() - 4);
+
+        ByteBuffer records;
+        try {
+            records = ByteBuffer.wrap(Files.readAllBytes(dir.resolve(JOURNAL_FILE)));
+        } catch (NoSuchFileException e) {
+            return save;
+        }
+        if (records.remaining() < HEADER_SIZE || records.get() != MAGIC_0 || records.get() != MAGIC_1
+                || records.get() != VERSION || records.get() != 0 || records.getInt() != checkpointCrc) {
+            return save;
+        }
+
+        Shadow shadow = new Shadow(save);
+        CRC32 crc = new CRC32();
+        while (records.remaining() >= RECORD_SIZE) {
+            int start = records.position();
+            crc.reset();
+            crc.update(records.array(), start, RECORD_SIZE - 4);
+            if ((int) crc.getValue() != records.getInt(start + RECORD_SIZE - 4)) {
+                break;
+            }
+            shadow.apply(records);
+        }
+        return shadow.save();
+    }
+}
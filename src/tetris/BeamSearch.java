@@ -0,0 +1,214 @@
+package tetris;
+
+import java.io.Serial;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lookahead player: searches the current piece, the preview piece and whatever follows from the 7-bag (the
+// rest of the current bag) with a beam. Reading further into the generator's hidden queue is an explicit
+// opt-in, since no player gets to see it. Each level places the next known piece on every surviving board, keeps one board per
+// distinct position (a transposition table keyed by Board.zobrist()) and carries the best beamWidth
+// boards, ranked by the heuristic, to the next level. The answer is the first placement of the best board at
+// the deepest level finished within the time budget.
+// Boards of one level are expanded in parallel on the given ForkJoinPool, or on the calling thread
+// when the pool is null (simulations already run one game per worker). Instances are not thread-safe
+public final class BeamSearch {
+
+    // Beam nodes expanded by one leaf task
+    private static final int LEAF_NODES = 2;
+
+    private static final Comparator<Node> BEST_FIRST = (a, b) -> Double.compare(b.value, a.value);
+
+    private static final ThreadLocal<PlacementSearch> SEARCH = ThreadLocal.withInitial(PlacementSearch::new);
+
+    private final ForkJoinPool pool;
+    private final Heuristic heuristic;
+    private final int beamWidth;
+    private final int maxDepth;
+    private final boolean peekHidden;
+
+    private final PlacementSearch rootSearch = new PlacementSearch();
+    // Pieces of one plan in order: current, preview, then the known ones after it
+    private final Tetromino[] pieces;
+    private final LongAdder nodes = new LongAdder();
+    private int lastDepth;
+
+    // Transposition table for one level: open addressing on the board hash, sized for the widest level
+    private long[] tableKeys = new long[0];
+    private Node[] tableNodes = new Node[0];
+
+    // A board reached by placing the pieces so far, and the first placement that led to it
+    private record Node(Board board, int root, int lines, double value) {
+    }
+
+    public BeamSearch(ForkJoinPool pool, Heuristic heuristic, int beamWidth, int maxDepth) {
+        this(pool, heuristic, beamWidth, maxDepth, false);
+    }
+
+    // With peekHidden, every level up to maxDepth reads the generator's upcoming pieces, whether or not a
+    // player could know them; meant for experiments, not for play or simulation stats
+    public BeamSearch(ForkJoinPool pool, Heuristic heuristic, int beamWidth, int maxDepth, boolean peekHidden) {
+        if (beamWidth < 1 || maxDepth < 1) {
+            throw new IllegalArgumentException("beamWidth and maxDepth must be positive");
+        }
+        this.pool = pool;
+        this.heuristic = heuristic;
+        this.beamWidth = beamWidth;
+        this.maxDepth = maxDepth;
+        this.peekHidden = peekHidden;
+        this.pieces = new Tetromino[Math.max(maxDepth, 2)];
+    }
+
+    // Chooses where to put the engine's current piece and writes the inputs that take it there into out
+    // (see PlacementSearch.maxPath); a HARD_DROP then locks it. Returns the input count, or -1 if the
+    // piece has nowhere to go. Levels past the first are skipped once budgetNanos has elapsed
+    public int plan(GameEngine engine, long budgetNanos, Action[] out) {
+        long started = System.nanoTime();
+        Piece current = engine.getCurrentPiece();
+        pieces[0] = current.type;
+        pieces[1] = engine.getNextPiece();
+        int depth = maxDepth;
+        if (depth > 2) {
+            int ahead = peekHidden ? depth - 2 : Math.min(depth - 2, engine.getDeduciblePieces());
+            engine.peekPieces(pieces, 2, ahead);
+            depth = 2 + ahead;
+        }
+
+        int roots = rootSearch.search(engine.getBoard(), current.type, current.rotation, current.x, current.y);
+        if (roots == 0) {
+            return -1;
+        }
+        Node[] beam = new Node[roots];
+        for (int i = 0; i < roots; i++) {
+            beam[i] = child(engine.getBoard(), current.type, rootSearch.rotation(i), rootSearch.x(i), rootSearch.y(i), i, 0);
+        }
+        nodes.add(roots);
+        int size = select(beam, roots);
+        lastDepth = 1;
+
+        for (int level = 1; level < depth && System.nanoTime() - started < budgetNanos; level++) {
+            Node[][] children = new Node[size][];
+            Expand task = new Expand(beam, children, 0, size, pieces[level]);
+            if (pool == null) {
+                task.compute();
+            } else {
+                pool.invoke(task);
+            }
+            int total = 0;
+            for (Node[] c : children) {
+                total += c.length;
+            }
+            if (total == 0) {
+                break; // every line of play tops out; keep the best board of the previous level
+            }
+            Node[] next = new Node[total];
+            int at = 0;
+            for (Node[] c : children) {
+                System.arraycopy(c, 0, next, at, c.length);
+                at += c.length;
+            }
+            nodes.add(total);
+            beam = next;
+            size = select(beam, total);
+            lastDepth = level + 1;
+        }
+        return rootSearch.path(beam[0].root, out);
+    }
+
+    // Removes transpositions, keeping the better node of each position, and moves the best beamWidth
+    // nodes to the front in order. Returns how many survive
+    private int select(Node[] nodes, int count) {
+        int capacity = Integer.highestOneBit(Math.max(count, 8) * 2 - 1) << 1;
+        if (tableKeys.length < capacity) {
+            tableKeys = new long[capacity];
+            tableNodes = new Node[capacity];
+        } else {
+            Arrays.fill(tableNodes, 0, capacity, null);
+        }
+        int mask = capacity - 1;
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            Node n = nodes[i];
+            long key = n.board.zobrist();
+            int slot = (int) (key ^ (key >>> 32)) & mask;
+            while (tableNodes[slot] != null && tableKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (tableNodes[slot] == null) {
+                tableKeys[slot] = key;
+                tableNodes[slot] = n;
+                unique++;
+            } else if (n.value > tableNodes[slot].value) {
+                tableNodes[slot] = n;
+            }
+        }
+        int at = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (tableNodes[slot] != null) {
+                nodes[at++] = tableNodes[slot];
+            }
+        }
+        Arrays.sort(nodes, 0, unique, BEST_FIRST);
+        return Math.min(unique, beamWidth);
+    }
+
+    private Node child(Board parent, Tetromino type, int rotation, int x, int y, int root, int lines) {
+        Board board = new Board(parent.rules());
+        board.copyFrom(parent);
+        board.lock(type, rotation, x, y);
+        int total = lines + board.clearLines();
+        return new Node(board, root, total, heuristic.evaluate(board, total));
+    }
+
+    // Places one piece on every board in beam[from, to), splitting the range across the pool
+    private final class Expand extends RecursiveAction {
+        @Serial private static final long serialVersionUID = 1L;
+
+        private final Node[] beam;
+        private final Node[][] children;
+        private final int from;
+        private final int to;
+        private final Tetromino type;
+
+        Expand(Node[] beam, Node[][] children, int from, int to, Tetromino type) {
+            this.beam = beam;
+            this.children = children;
+            this.from = from;
+            this.to = to;
+            this.type = type;
+        }
+
+        @Override
+        protected void compute() {
+            if (pool != null && to - from > LEAF_NODES) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Expand(beam, children, from, mid, type), new Expand(beam, children, mid, to, type));
+                return;
+            }
+            PlacementSearch search = SEARCH.get();
+            for (int i = from; i < to; i++) {
+                Node parent = beam[i];
+                RuleSet rules = parent.board.rules();
+                int count = search.search(parent.board, type, 0, rules.spawnX(), rules.spawnY());
+                Node[] out = new Node[count];
+                for (int p = 0; p < count; p++) {
+                    out[p] = child(parent.board, type, search.rotation(p), search.x(p), search.y(p), parent.root, parent.lines);
+                }
+                children[i] = out;
+            }
+        }
+    }
+
+    // Boards generated since this search was created
+    public long nodes() {
+        return nodes.sum();
+    }
+
+    // Pieces looked at by the last plan(), including the current one
+    public int lastDepth() {
+        return lastDepth;
+    }
+}
@@ -1,35 +1,198 @@
 package tetris;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serial;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Objects;
+import java.util.SplittableRandom;
 
-// Represents the logical game board grid and line-clearing logic
+// Represents the logical game board grid and line-clearing logic. The size comes from a RuleSet
+// (10x22 by default, up to 64 columns) and is kept in fields next to the rows, so the hot paths load it
+// with the arrays they already touch.
+// Each row keeps an occupancy bitmask (bit x set when cell x is filled) next to a flat color plane,
+// so full-line detection is a mask compare and collision is a few shifted-mask ANDs.
+// A Zobrist hash of the occupied cells is kept up to date by every mutation; equal boards have equal hashes.
+// copy() is O(1): both boards share their arrays until either one is written, which first clones them.
+// Shared arrays are never written again, so a copy handed to another thread (safely published) stays
+// readable while the original keeps changing.
+// After checkpoint() a board also logs its locks, line clears and garbage, a few bytes each, so delta() can tell
+// a receiver holding the checkpointed board how to catch up without sending the grid
 public class Board implements Serializable {
     @Serial private static final long serialVersionUID = 1L;
 
+    // Size of the standard board, RuleSet.STANDARD
     public static final int WIDTH = 10;
     public static final int HEIGHT = 22;
 
-    private final int[][] grid = new int[HEIGHT][WIDTH];
+    // Row mask with every cell filled on the standard board
+    static final long FULL_ROW = (1L << WIDTH) - 1;
 
+    // Largest cell value, the color of the last tetromino
+    static final int MAX_COLOR = 7;
+
+    // Row colors are packed 3 bits per cell, 21 cells to a long
+    static final int CELLS_PER_COLOR_WORD = 21;
+
+    // Keeps the serialized form identical to the original int[][] grid so older saves still load
+    @Serial private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("grid", int[][].class)
+    };
+
+    // Zobrist keys for one board size: one fixed random key per cell, XORed into the hash while the cell is
+    // occupied. rows[y * chunks + c][pattern] is the XOR of the keys of row y's chunk c cells set in pattern,
+    // so a whole row hashes with `chunks` lookups. Built once per size and shared through RuleSet
+    static final class Keys {
+        private static final int CHUNK_BITS = 5;
+
+        final long[] cells;
+        final long[][] rows;
+        final int chunks;
+
+        Keys(int width, int height) {
+            chunks = (width + CHUNK_BITS - 1) / CHUNK_BITS;
+            cells = new long[height * width];
+            rows = new long[height * chunks][1 << CHUNK_BITS];
+            SplittableRandom random = new SplittableRandom(0x7E7215L);
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = random.nextLong();
+            }
+            for (int y = 0; y < height; y++) {
+                for (int c = 0; c < chunks; c++) {
+                    long[] keys = rows[y * chunks + c];
+                    for (int pattern = 1; pattern < keys.length; pattern++) {
+                        int bit = Integer.numberOfTrailingZeros(pattern);
+                        int x = c * CHUNK_BITS + bit;
+                        long key = x < width ? cells[y * width + x] : 0;
+                        keys[pattern] = keys[pattern & (pattern - 1)] ^ key;
+                    }
+                }
+            }
+        }
+    }
+
+    private transient RuleSet rules;
+    private transient int width;
+    private transient long fullRow;
+    private transient long[] cellKeys;
+    private transient long[] rows;
+    private transient byte[] cells;
+    private transient long hash;
+    private transient boolean shared;
+
+    // Change log since checkpoint(), null while there is none; broken once a change it cannot express happened
+    private transient byte[] log;
+    private transient int logLength;
+    private transient boolean logBroken;
+
+    // An empty standard board
+    public Board() {
+        this(RuleSet.STANDARD);
+    }
+
+    // An empty board of the rule set's size
+    public Board(RuleSet rules) {
+        init(rules);
+    }
+
+    private Board(Board source) {
+        this.rules = source.rules;
+        this.width = source.width;
+        this.fullRow = source.fullRow;
+        this.cellKeys = source.cellKeys;
+        this.rows = source.rows;
+        this.cells = source.cells;
+        this.hash = source.hash;
+        this.shared = true;
+    }
+
+    private void init(RuleSet rules) {
+        this.rules = rules;
+        this.width = rules.width();
+        this.fullRow = -1L >>> (64 - width);
+        this.cellKeys = rules.keys.cells;
+        this.rows = new long[rules.height()];
+        this.cells = new byte[rules.height() * width];
+    }
+
+    // The rules this board was made for; only their size matters to the board itself
+    public RuleSet rules() {
+        return rules;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return rows.length;
+    }
+
+    // Cell values are tetromino colors (0 = empty, 1..7 = Tetromino ordinal + 1)
     public int get(int x, int y) {
-        return grid[y][x];
+        return cells[index(x, y)];
     }
 
+    // Anything outside 0..7 is refused: the occupancy bits, the 3-bit color plane and undo history would disagree
     public void set(int x, int y, int value) {
-        grid[y][x] = value;
+        if (value < 0 || value > MAX_COLOR) {
+            throw new IllegalArgumentException("cell value " + value + " outside 0.." + MAX_COLOR);
+        }
+        int i = index(x, y);
+        own();
+        untracked();
+        if ((cells[i] != 0) != (value != 0)) {
+            hash ^= cellKeys[i];
+        }
+        cells[i] = (byte) value;
+        if (value != 0) {
+            rows[y] |= 1L << x;
+        } else {
+            rows[y] &= ~(1L << x);
+        }
+    }
+
+    // Gives this board private arrays before its first write after copy()
+    private void own() {
+        if (shared) {
+            rows = rows.clone();
+            cells = cells.clone();
+            shared = false;
+        }
+    }
+
+    private int index(int x, int y) {
+        return Objects.checkIndex(y, rows.length) * width + Objects.checkIndex(x, width);
     }
 
     // Checks if the given coordinates are inside the board
     public boolean inBounds(int x, int y) {
-        return (x >= 0) && (x < WIDTH) && (y >= 0) && (y < HEIGHT);
+        return (x >= 0) && (x < width) && (y >= 0) && (y < rows.length);
     }
 
     // Checks if the given piece can be placed on the board without collisions
     public boolean canPlace(Piece piece) {
-        for (var cell : piece.cells()) {
-            if (!inBounds(cell.x, cell.y) || get(cell.x, cell.y) != 0) {
+        return canPlace(piece.type, piece.rotation, piece.x, piece.y);
+    }
+
+    // Allocation-free variant of canPlace(Piece): tests the piece's row masks, shifted to column x,
+    // against the occupied rows it would cover
+    public boolean canPlace(Tetromino type, int rotation, int x, int y) {
+        Metrics.CAN_PLACE.increment();
+        int left = x + type.minX[rotation];
+        int top = y + type.minY[rotation];
+        long[] rows = this.rows;
+        if (left < 0 || x + type.maxX[rotation] >= width || top < 0 || y + type.maxY[rotation] >= rows.length) {
+            return false;
+        }
+        long[] masks = type.rowMasks[rotation];
+        for (int i = 0; i < masks.length; i++) {
+            if ((rows[top + i] & (masks[i] << left)) != 0) {
                 return false;
             }
         }
@@ -39,49 +202,441 @@ public class Board implements Serializable {
 
     // Locks the given piece cells into the board grid
     public void lock(Piece piece) {
-        int value = piece.type.ordinal() + 1;
-        for (var cell : piece.cells()) {
-            if (inBounds(cell.x, cell.y)) {
-                set(cell.x, cell.y, value);
+        lock(piece.type, piece.rotation, piece.x, piece.y);
+    }
+
+    // Allocation-free variant of lock(Piece); cells outside the board are dropped
+    public void lock(Tetromino type, int rotation, int x, int y) {
+        own();
+        if (log != null) {
+            ensureLog(3);
+            log[logLength++] = (byte) (Delta.LOCK | type.ordinal() << 2 | rotation);
+            log[logLength++] = (byte) x;
+            log[logLength++] = (byte) y;
+        }
+        int value = type.ordinal() + 1;
+        for (int packed : type.offsets[rotation]) {
+            int cx = x + Tetromino.unpackX(packed);
+            int cy = y + Tetromino.unpackY(packed);
+            if (inBounds(cx, cy)) {
+                int i = cy * width + cx;
+                if (cells[i] == 0) {
+                    hash ^= cellKeys[i];
+                }
+                cells[i] = (byte) value;
+                rows[cy] |= 1L << cx;
             }
         }
     }
 
 
-    // Clears all full lines and compacts the board down. Returns count of cleared lines
+    // Clears all full lines and compacts the board down in place. Returns count of cleared lines
     public int clearLines() {
         int cleared = 0;
-        int write = HEIGHT - 1;
-
-        for (int y = HEIGHT - 1; y >= 0; y--) {
-            boolean full = true;
-            for (int x = 0; x < WIDTH; x++) {
-                if (grid[y][x] == 0) {
-                    full = false;
-                    break;
-                }
+        long full = fullRow;
+        for (long row : rows) {
+            if (row == full) {
+                cleared++;
             }
-            if (!full) {
+        }
+        if (cleared == 0) {
+            return 0;
+        }
+        own();
+        if (log != null) {
+            logClear(cleared);
+        }
+
+        int write = rows.length - 1;
+        for (int y = rows.length - 1; y >= 0; y--) {
+            if (rows[y] != full) {
                 if (write != y) {
-                    grid[write] = Arrays.copyOf(grid[y], WIDTH);
+                    rows[write] = rows[y];
+                    System.arraycopy(cells, y * width, cells, write * width, width);
                 }
                 write--;
-            } else {
-                cleared++;
             }
         }
-        while (write >= 0) {
-            Arrays.fill(grid[write--], 0);
-        }
+        Arrays.fill(rows, 0, write + 1, 0L);
+        Arrays.fill(cells, 0, (write + 1) * width, (byte) 0);
+        // Every surviving row below a cleared one moved, so rehash from the row masks
+        hash = computeHash();
+        Metrics.LINES_CLEARED.add(cleared);
         return cleared;
     }
 
-    // Returns a copy of the board grid
+    // Undoes lock() for a piece that was placed without overlapping anything
+    void unlock(Tetromino type, int rotation, int x, int y) {
+        own();
+        untracked();
+        for (int packed : type.offsets[rotation]) {
+            int cx = x + Tetromino.unpackX(packed);
+            int cy = y + Tetromino.unpackY(packed);
+            if (inBounds(cx, cy)) {
+                int i = cy * width + cx;
+                if (cells[i] != 0) {
+                    hash ^= cellKeys[i];
+                }
+                cells[i] = 0;
+                rows[cy] &= ~(1L << cx);
+            }
+        }
+    }
+
+    // True when every cell of row y is filled
+    boolean isFullRow(int y) {
+        return rows[y] == fullRow;
+    }
+
+    // Longs needed by rowColors() for one row: one on the standard board, up to four on a 64-wide one
+    int colorWords() {
+        return (width + CELLS_PER_COLOR_WORD - 1) / CELLS_PER_COLOR_WORD;
+    }
+
+    // Colors of row y packed 3 bits per cell into dst[offset..offset + colorWords()), cell x at bit
+    // 3 * (x % 21) of word x / 21. The top bit of every word stays clear
+    void rowColors(int y, long[] dst, int offset) {
+        for (int w = 0; w < colorWords(); w++) {
+            long colors = 0;
+            int from = w * CELLS_PER_COLOR_WORD;
+            int to = Math.min(width, from + CELLS_PER_COLOR_WORD);
+            for (int x = from; x < to; x++) {
+                colors |= (long) cells[y * width + x] << (3 * (x - from));
+            }
+            dst[offset + w] = colors;
+        }
+    }
+
+    // Undoes the clearing of one full row: rows 1..y move up one and row y is refilled from rowColors().
+    // Row 0 must be empty. Rows cleared together are reinserted from the lowest (highest y) up
+    void insertFullRow(int y, long[] colors, int offset) {
+        own();
+        untracked();
+        System.arraycopy(rows, 1, rows, 0, y);
+        System.arraycopy(cells, width, cells, 0, y * width);
+        rows[y] = fullRow;
+        for (int x = 0; x < width; x++) {
+            long word = colors[offset + x / CELLS_PER_COLOR_WORD];
+            cells[y * width + x] = (byte) ((word >>> (3 * (x % CELLS_PER_COLOR_WORD))) & 7);
+        }
+        hash = computeHash();
+    }
+
+    // Pushes every row up by lines and fills the bottom ones with garbage: all cells but column hole, in the
+    // given color. Returns true when occupied cells were pushed out over the top
+    boolean addGarbage(int lines, int hole, int color) {
+        Objects.checkIndex(hole, width);
+        lines = Math.min(lines, rows.length);
+        own();
+        if (log != null) {
+            ensureLog(4);
+            log[logLength++] = (byte) Delta.GARBAGE;
+            log[logLength++] = (byte) lines;
+            log[logLength++] = (byte) hole;
+            log[logLength++] = (byte) color;
+        }
+        boolean overflow = false;
+        for (int y = 0; y < lines; y++) {
+            overflow |= rows[y] != 0;
+        }
+        int kept = rows.length - lines;
+        System.arraycopy(rows, lines, rows, 0, kept);
+        System.arraycopy(cells, lines * width, cells, 0, kept * width);
+        for (int y = kept; y < rows.length; y++) {
+            rows[y] = fullRow & ~(1L << hole);
+            Arrays.fill(cells, y * width, (y + 1) * width, (byte) color);
+            cells[y * width + hole] = 0;
+        }
+        hash = computeHash();
+        return overflow;
+    }
+
+    // Starts a new change log from the current contents; delta() then describes every change made since.
+    // There is one log per board, so it serves one consumer, e.g. the stream that sends this board out
+    public void checkpoint() {
+        if (log == null) {
+            log = new byte[64];
+        }
+        logLength = 0;
+        logBroken = false;
+    }
+
+    // The locks, line clears and garbage since checkpoint(), or null when there was no checkpoint or the board
+    // changed in a way the log cannot express since (set, undo, copyFrom); the receiver needs the full grid then
+    public Delta delta() {
+        if (log == null || logBroken) {
+            return null;
+        }
+        return new Delta(Arrays.copyOf(log, logLength));
+    }
+
+    // A change outside lock, clearLines and addGarbage: the log can no longer reproduce this board
+    private void untracked() {
+        if (log != null) {
+            logBroken = true;
+        }
+    }
+
+    private void ensureLog(int bytes) {
+        if (logLength + bytes > log.length) {
+            log = Arrays.copyOf(log, Math.max(log.length * 2, logLength + bytes));
+        }
+    }
+
+    // Logs the full rows clearLines() is about to remove, before it moves anything
+    private void logClear(int cleared) {
+        if (cleared > Delta.MAX_CLEARED) {
+            logBroken = true;
+            return;
+        }
+        ensureLog(1 + cleared);
+        log[logLength++] = (byte) (Delta.CLEAR | cleared);
+        for (int y = 0; y < rows.length; y++) {
+            if (rows[y] == fullRow) {
+                log[logLength++] = (byte) y;
+            }
+        }
+    }
+
+    // What changed on a board between checkpoint() and delta(), as log entries in the order they happened.
+    // The top two bits of an entry's first byte give its kind:
+    //   lock     00 type rotation (2 bits) | x | y                         3 bytes
+    //   clear    01 row count (6 bits) | the cleared rows, top to bottom   1 + rows bytes
+    //   garbage  10 000000 | lines | hole column | color                   4 bytes
+    // Applying it to a board equal to the checkpointed one makes that board equal to the logged one
+    public static final class Delta {
+        static final int LOCK = 0x00;
+        static final int CLEAR = 0x40;
+        static final int GARBAGE = 0x80;
+        private static final int KIND = 0xC0;
+        static final int MAX_CLEARED = 0x3F;
+
+        private static final Tetromino[] TYPES = Tetromino.values();
+
+        private final byte[] bytes;
+
+        private Delta(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        // Reads a delta of size bytes written by writeTo
+        public static Delta read(ByteBuffer in, int size) {
+            byte[] bytes = new byte[size];
+            in.get(bytes);
+            return new Delta(bytes);
+        }
+
+        public void writeTo(ByteBuffer out) {
+            out.put(bytes);
+        }
+
+        // Encoded size in bytes
+        public int size() {
+            return bytes.length;
+        }
+
+        public boolean isEmpty() {
+            return bytes.length == 0;
+        }
+
+        // Replays the log on the board. Throws IllegalArgumentException when an entry is malformed or does not
+        // fit the board, which then no longer matches the checkpoint and needs a full copy
+        public void applyTo(Board board) {
+            int i = 0;
+            while (i < bytes.length) {
+                int head = bytes[i] & 0xFF;
+                switch (head & KIND) {
+                    case LOCK -> {
+                        check(i + 3 <= bytes.length && head >>> 2 < TYPES.length, i);
+                        Tetromino type = TYPES[head >>> 2];
+                        int rotation = head & 3, x = bytes[i + 1], y = bytes[i + 2];
+                        check(board.canPlace(type, rotation, x, y), i);
+                        board.lock(type, rotation, x, y);
+                        i += 3;
+                    }
+                    case CLEAR -> {
+                        int count = head & MAX_CLEARED;
+                        check(i + 1 + count <= bytes.length, i);
+                        for (int k = 1; k <= count; k++) {
+                            int y = bytes[i + k];
+                            check(y >= 0 && y < board.height() && board.isFullRow(y), i);
+                        }
+                        check(board.clearLines() == count, i);
+                        i += 1 + count;
+                    }
+                    case GARBAGE -> {
+                        check(head == GARBAGE && i + 4 <= bytes.length, i);
+                        int lines = bytes[i + 1], hole = bytes[i + 2], color = bytes[i + 3];
+                        check(lines > 0 && hole >= 0 && hole < board.width() && color > 0 && color <= TYPES.length, i);
+                        board.addGarbage(lines, hole, color);
+                        i += 4;
+                    }
+                    default -> check(false, i);
+                }
+            }
+        }
+
+        private static void check(boolean valid, int offset) {
+            if (!valid) {
+                throw new IllegalArgumentException("board delta entry at byte " + offset + " does not fit the board");
+            }
+        }
+    }
+
+    // Zobrist hash of the occupied cells, recomputed from scratch
+    long computeHash() {
+        Keys keys = rules.keys;
+        long h = 0;
+        for (int y = 0; y < rows.length; y++) {
+            long row = rows[y];
+            for (int c = 0; row != 0; c++, row >>>= Keys.CHUNK_BITS) {
+                h ^= keys.rows[y * keys.chunks + c][(int) row & ((1 << Keys.CHUNK_BITS) - 1)];
+            }
+        }
+        return h;
+    }
+
+    // 64-bit Zobrist hash of which cells are occupied; colors are not part of it
+    public long zobrist() {
+        return hash;
+    }
+
+    // Occupancy mask of row y: bit x is set when cell (x, y) is filled
+    long rowMask(int y) {
+        return rows[y];
+    }
+
+    // Overwrites this board with the contents of another one of the same size; allocates only if this
+    // board's arrays are shared
+    public void copyFrom(Board other) {
+        if (other.width != width || other.rows.length != rows.length) {
+            throw new IllegalArgumentException("board sizes differ: " + other.width + "x" + other.rows.length
+                    + " into " + width + "x" + rows.length);
+        }
+        if (shared) {
+            rows = new long[rows.length];
+            cells = new byte[cells.length];
+            shared = false;
+        }
+        untracked();
+        System.arraycopy(other.rows, 0, rows, 0, rows.length);
+        System.arraycopy(other.cells, 0, cells, 0, cells.length);
+        hash = other.hash;
+    }
+
+    // O(1) copy sharing this board's arrays; whichever board is written next clones them first
+    public Board copy() {
+        Board copy = new Board(this);
+        shared = true;
+        return copy;
+    }
+
+    // Copies the cell values, row-major, into dst (length width() * height())
+    public void copyCellsTo(byte[] dst) {
+        System.arraycopy(cells, 0, dst, 0, cells.length);
+    }
+
+    // Height of the stack: number of rows from the topmost occupied row down to the floor
+    public int stackHeight() {
+        for (int y = 0; y < rows.length; y++) {
+            if (rows[y] != 0) {
+                return rows.length - y;
+            }
+        }
+        return 0;
+    }
+
+    // Sum of the column heights. A cell counts once every row above and including it is covered by
+    // some occupied cell of the same column, so the running OR of the rows is the filled-in skyline
+    public int aggregateHeight() {
+        int total = 0;
+        long covered = 0;
+        for (int y = 0; y < rows.length; y++) {
+            covered |= rows[y];
+            total += Long.bitCount(covered);
+        }
+        return total;
+    }
+
+    // Empty cells with an occupied cell somewhere above them in the same column
+    public int holes() {
+        int total = 0;
+        long covered = 0;
+        for (int y = 0; y < rows.length; y++) {
+            total += Long.bitCount(covered & ~rows[y]);
+            covered |= rows[y];
+        }
+        return total;
+    }
+
+    // Sum of absolute height differences between neighbouring columns: every row in which exactly one
+    // of two neighbours is covered adds one to their difference
+    public int bumpiness() {
+        int total = 0;
+        long covered = 0;
+        long pairs = fullRow >>> 1;
+        for (int y = 0; y < rows.length; y++) {
+            covered |= rows[y];
+            total += Long.bitCount((covered ^ (covered >>> 1)) & pairs);
+        }
+        return total;
+    }
+
+    // Returns a copy of the board grid as a fresh int[][]; copy() is the cheap way to keep a board
     public int[][] snapshot() {
-        int[][] copy = new int[HEIGHT][WIDTH];
-        for (int y = 0; y < HEIGHT; y++) {
-            copy[y] = Arrays.copyOf(grid[y], WIDTH);
+        int[][] copy = new int[rows.length][width];
+        for (int y = 0; y < rows.length; y++) {
+            for (int x = 0; x < width; x++) {
+                copy[y][x] = cells[y * width + x];
+            }
         }
         return copy;
     }
+
+    // Boards are equal when every cell holds the same value
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Board other && hash == other.hash && width == other.width
+                && Arrays.equals(cells, other.cells);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash);
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.putFields().put("grid", snapshot());
+        out.writeFields();
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        int[][] grid = (int[][]) in.readFields().get("grid", null);
+        try {
+            init(grid == null || grid.length == 0 ? RuleSet.STANDARD : rulesFor(grid[0].length, grid.length));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException("unsupported board size: " + e.getMessage());
+        }
+        if (grid != null) {
+            try {
+                for (int y = 0; y < Math.min(rows.length, grid.length); y++) {
+                    for (int x = 0; x < Math.min(width, grid[y].length); x++) {
+                        set(x, y, grid[y][x]);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                throw new InvalidObjectException(e.getMessage());
+            }
+        }
+    }
+
+    // Rules for a board read back without its rule set: the standard ones, resized when the grid is not 10x22
+    static RuleSet rulesFor(int width, int height) {
+        if (width == WIDTH && height == HEIGHT) {
+            return RuleSet.STANDARD;
+        }
+        return RuleSet.STANDARD.withSize(width, height, Math.min(RuleSet.STANDARD.hiddenRows(), height - 1));
+    }
 }
@@ -0,0 +1,361 @@
+package tetris;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// Many boards in one primitive array, stored as a struct of arrays: row y of every board is contiguous
+// (rows[y * size + board]), one row-mask word per row and no colors. A million boards take 176 MB in a
+// single object instead of millions of Boards. Collision tests, locks and the full-row scan walk one row of
+// all boards at a time with the same mask through RowKernels, several boards per instruction when the Vector
+// API is available; the feature scans follow one board down its rows, which for neighbouring boards stay in
+// the same cache lines. Placements that differ per board (the xs/ys variants) have to gather, but still touch
+// only the rows they cover.
+// A BoardBatch is not thread-safe; split work between threads by board range and separate batches
+public final class BoardBatch {
+
+    private static final int WIDTH = Board.WIDTH;
+    private static final int HEIGHT = Board.HEIGHT;
+    private static final long FULL_ROW = Board.FULL_ROW;
+
+    private final int size;
+    private final long[] rows;
+    private final RowKernels kernels;
+
+    // Per-board scratch: collision accumulator for canPlace, full-row bits for clearLines
+    private final long[] hits;
+
+    public BoardBatch(int size) {
+        this(size, RowKernels.DEFAULT);
+    }
+
+    BoardBatch(int size, RowKernels kernels) {
+        if ((long) size * HEIGHT > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many boards for one batch: " + size);
+        }
+        this.size = size;
+        this.rows = new long[size * HEIGHT];
+        this.hits = new long[size];
+        this.kernels = kernels;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Copies a board's occupancy into slot `board`; batches hold standard 10x22 boards only
+    public void load(int board, Board source) {
+        if (source.width() != WIDTH || source.height() != HEIGHT) {
+            throw new IllegalArgumentException("not a standard board: " + source.width() + "x" + source.height());
+        }
+        for (int y = 0; y < HEIGHT; y++) {
+            rows[y * size + board] = source.rowMask(y);
+        }
+    }
+
+    // Copies every board of another batch of the same size
+    public void copyFrom(BoardBatch other) {
+        if (other.size != size) {
+            throw new IllegalArgumentException("batch sizes differ: " + other.size + " != " + size);
+        }
+        System.arraycopy(other.rows, 0, rows, 0, rows.length);
+    }
+
+    public long rowMask(int board, int y) {
+        return rows[y * size + board];
+    }
+
+    // Tests one pose on every board. The bounds check is the same for all boards, so the loop body is
+    // just an AND over the rows the piece covers
+    public void canPlace(Tetromino type, int rotation, int x, int y, boolean[] out) {
+        int left = x + type.minX[rotation];
+        int top = y + type.minY[rotation];
+        if (left < 0 || x + type.maxX[rotation] >= WIDTH || top < 0 || y + type.maxY[rotation] >= HEIGHT) {
+            Arrays.fill(out, 0, size, false);
+            return;
+        }
+        long[] masks = type.rowMasks[rotation];
+        Arrays.fill(hits, 0);
+        for (int i = 0; i < masks.length; i++) {
+            kernels.collide(rows, (top + i) * size, masks[i] << left, hits, size);
+        }
+        for (int b = 0; b < size; b++) {
+            out[b] = hits[b] == 0;
+        }
+    }
+
+    // Tests a pose per board: xs[b], ys[b] for board b
+    public void canPlace(Tetromino type, int rotation, int[] xs, int[] ys, boolean[] out) {
+        long[] masks = type.rowMasks[rotation];
+        int minX = type.minX[rotation], maxX = type.maxX[rotation];
+        int minY = type.minY[rotation], maxY = type.maxY[rotation];
+        for (int b = 0; b < size; b++) {
+            int left = xs[b] + minX;
+            int top = ys[b] + minY;
+            if (left < 0 || xs[b] + maxX >= WIDTH || top < 0 || ys[b] + maxY >= HEIGHT) {
+                out[b] = false;
+                continue;
+            }
+            long hit = 0;
+            for (int i = 0; i < masks.length; i++) {
+                hit |= rows[(top + i) * size + b] & (masks[i] << left);
+            }
+            out[b] = hit == 0;
+        }
+    }
+
+    // Locks one pose into every board where `where` is true, or into all boards when it is null.
+    // A pose that sticks out of the board is not locked anywhere; use canPlace first
+    public void lock(Tetromino type, int rotation, int x, int y, boolean[] where) {
+        int left = x + type.minX[rotation];
+        int top = y + type.minY[rotation];
+        if (left < 0 || x + type.maxX[rotation] >= WIDTH || top < 0 || y + type.maxY[rotation] >= HEIGHT) {
+            return;
+        }
+        long[] masks = type.rowMasks[rotation];
+        for (int i = 0; i < masks.length; i++) {
+            kernels.lock(rows, (top + i) * size, masks[i] << left, where, size);
+        }
+    }
+
+    // Locks a pose per board (xs[b], ys[b] for board b) where `where` is true, or on all boards when it is
+    // null. Poses that are locked must be inside the board
+    public void lock(Tetromino type, int rotation, int[] xs, int[] ys, boolean[] where) {
+        long[] masks = type.rowMasks[rotation];
+        int minX = type.minX[rotation], minY = type.minY[rotation];
+        for (int b = 0; b < size; b++) {
+            if (where != null && !where[b]) {
+                continue;
+            }
+            int left = xs[b] + minX;
+            int top = ys[b] + minY;
+            for (int i = 0; i < masks.length; i++) {
+                rows[(top + i) * size + b] |= masks[i] << left;
+            }
+        }
+    }
+
+    // Clears full rows on every board, writing each board's count into cleared (if not null), and returns
+    // the total. One branch-free pass over all rows marks each board's full rows as bits of a word; only
+    // boards with a mark are then compacted, row by row down their column of the array
+    public int clearLines(int[] cleared) {
+        long[] full = hits;
+        Arrays.fill(full, 0);
+        for (int y = 0; y < HEIGHT; y++) {
+            kernels.markFull(rows, y * size, 1L << y, full, size);
+        }
+        int total = 0;
+        for (int b = 0; b < size; b++) {
+            int count = Long.bitCount(full[b]);
+            if (cleared != null) {
+                cleared[b] = count;
+            }
+            if (count != 0) {
+                total += count;
+                compact(b, full[b]);
+            }
+        }
+        return total;
+    }
+
+    // Drops the rows whose bits are set in fullRows and moves the others down
+    private void compact(int b, long fullRows) {
+        int write = HEIGHT - 1;
+        for (int y = HEIGHT - 1; y >= 0; y--) {
+            if ((fullRows >>> y & 1) == 0) {
+                rows[write * size + b] = rows[y * size + b];
+                write--;
+            }
+        }
+        for (int y = write; y >= 0; y--) {
+            rows[y * size + b] = 0;
+        }
+    }
+
+    // Board.aggregateHeight, holes and bumpiness of every board in one pass that keeps each board's scan in
+    // registers. Board b reads one word from each of 22 cache lines, and boards b+1..b+7 find the same lines
+    // still in L1, so the strided walk costs about one line fill per 8 boards and row
+    public void features(int[] aggregateHeight, int[] holes, int[] bumpiness) {
+        for (int b = 0; b < size; b++) {
+            int height = 0, hole = 0, bump = 0;
+            long cover = 0;
+            for (int i = b; i < rows.length; i += size) {
+                long row = rows[i];
+                hole += Long.bitCount(cover & ~row);
+                cover |= row;
+                height += Long.bitCount(cover);
+                bump += Long.bitCount((cover ^ (cover >>> 1)) & (FULL_ROW >>> 1));
+            }
+            aggregateHeight[b] = height;
+            holes[b] = hole;
+            bumpiness[b] = bump;
+        }
+    }
+
+    // Board.aggregateHeight for every board
+    public void aggregateHeight(int[] out) {
+        for (int b = 0; b < size; b++) {
+            int total = 0;
+            long cover = 0;
+            for (int i = b; i < rows.length; i += size) {
+                cover |= rows[i];
+                total += Long.bitCount(cover);
+            }
+            out[b] = total;
+        }
+    }
+
+    // Board.holes for every board
+    public void holes(int[] out) {
+        for (int b = 0; b < size; b++) {
+            int total = 0;
+            long cover = 0;
+            for (int i = b; i < rows.length; i += size) {
+                total += Long.bitCount(cover & ~rows[i]);
+                cover |= rows[i];
+            }
+            out[b] = total;
+        }
+    }
+
+    // Board.bumpiness for every board
+    public void bumpiness(int[] out) {
+        for (int b = 0; b < size; b++) {
+            int total = 0;
+            long cover = 0;
+            for (int i = b; i < rows.length; i += size) {
+                cover |= rows[i];
+                total += Long.bitCount((cover ^ (cover >>> 1)) & (FULL_ROW >>> 1));
+            }
+            out[b] = total;
+        }
+    }
+
+    // A reusable window onto one board of the batch with Board's method names, for code that works on one
+    // board at a time. Point it at another board with moveTo instead of allocating a new view
+    public View view(int board) {
+        return new View().moveTo(board);
+    }
+
+    public final class View {
+        private int board;
+
+        private View() {
+        }
+
+        public View moveTo(int board) {
+            this.board = Objects.checkIndex(board, size);
+            return this;
+        }
+
+        public int index() {
+            return board;
+        }
+
+        // 1 for an occupied cell, 0 for an empty one; batches do not keep colors
+        public int get(int x, int y) {
+            Objects.checkIndex(x, WIDTH);
+            Objects.checkIndex(y, HEIGHT);
+            return (int) (rows[y * size + board] >>> x) & 1;
+        }
+
+        public void set(int x, int y, int value) {
+            Objects.checkIndex(x, WIDTH);
+            Objects.checkIndex(y, HEIGHT);
+            int i = y * size + board;
+            rows[i] = value != 0 ? rows[i] | 1L << x : rows[i] & ~(1L << x);
+        }
+
+        public long rowMask(int y) {
+            return rows[y * size + board];
+        }
+
+        public boolean canPlace(Tetromino type, int rotation, int x, int y) {
+            int left = x + type.minX[rotation];
+            int top = y + type.minY[rotation];
+            if (left < 0 || x + type.maxX[rotation] >= WIDTH || top < 0 || y + type.maxY[rotation] >= HEIGHT) {
+                return false;
+            }
+            long[] masks = type.rowMasks[rotation];
+            for (int i = 0; i < masks.length; i++) {
+                if ((rows[(top + i) * size + board] & (masks[i] << left)) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Like Board.lock, cells outside the board are dropped
+        public void lock(Tetromino type, int rotation, int x, int y) {
+            for (int packed : type.offsets[rotation]) {
+                int cx = x + Tetromino.unpackX(packed);
+                int cy = y + Tetromino.unpackY(packed);
+                if (cx >= 0 && cx < WIDTH && cy >= 0 && cy < HEIGHT) {
+                    rows[cy * size + board] |= 1L << cx;
+                }
+            }
+        }
+
+        public int clearLines() {
+            long full = 0;
+            for (int y = 0; y < HEIGHT; y++) {
+                if (rows[y * size + board] == FULL_ROW) {
+                    full |= 1L << y;
+                }
+            }
+            if (full != 0) {
+                compact(board, full);
+            }
+            return Long.bitCount(full);
+        }
+
+        public int stackHeight() {
+            for (int y = 0; y < HEIGHT; y++) {
+                if (rows[y * size + board] != 0) {
+                    return HEIGHT - y;
+                }
+            }
+            return 0;
+        }
+
+        public int aggregateHeight() {
+            int total = 0;
+            long cover = 0;
+            for (int y = 0; y < HEIGHT; y++) {
+                cover |= rows[y * size + board];
+                total += Long.bitCount(cover);
+            }
+            return total;
+        }
+
+        public int holes() {
+            int total = 0;
+            long cover = 0;
+            for (int y = 0; y < HEIGHT; y++) {
+                long row = rows[y * size + board];
+                total += Long.bitCount(cover & ~row);
+                cover |= row;
+            }
+            return total;
+        }
+
+        public int bumpiness() {
+            int total = 0;
+            long cover = 0;
+            for (int y = 0; y < HEIGHT; y++) {
+                cover |= rows[y * size + board];
+                total += Long.bitCount((cover ^ (cover >>> 1)) & (FULL_ROW >>> 1));
+            }
+            return total;
+        }
+
+        // Copies this board's occupancy into dst, marking occupied cells with the given color value
+        public void copyTo(Board dst, int value) {
+            for (int y = 0; y < HEIGHT; y++) {
+                long row = rows[y * size + board];
+                for (int x = 0; x < WIDTH; x++) {
+                    dst.set(x, y, (row >>> x & 1) != 0 ? value : 0);
+                }
+            }
+        }
+    }
+}
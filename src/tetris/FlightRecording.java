@@ -0,0 +1,102 @@
+package tetris;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+// Continuous flight recording kept in a ring buffer (the last few minutes, bounded in size) and written to
+// a .jfr file when something goes wrong: a game over or an uncaught exception. Started from TetrisMain with
+// -Dtetris.jfr=true; the dumps land in recordings/ and open in JDK Mission Control
+public final class FlightRecording {
+
+    static final Duration MAX_AGE = Duration.ofMinutes(5);
+    static final long MAX_SIZE = 64L << 20;
+
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private static volatile FlightRecording active;
+
+    private final Recording recording;
+    private final Path dir;
+    private final Thread.UncaughtExceptionHandler previousHandler;
+
+    private FlightRecording(Recording recording, Path dir, Thread.UncaughtExceptionHandler previousHandler) {
+        this.recording = recording;
+        this.dir = dir;
+        this.previousHandler = previousHandler;
+    }
+
+    // Starts the recording with the JDK's low-overhead "default" settings plus every game event
+    public static synchronized FlightRecording start(Path dir) throws IOException, ParseException {
+        if (active != null) {
+            return active;
+        }
+        Files.createDirectories(dir);
+        Recording recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName("tetris");
+        recording.setToDisk(true);
+        recording.setMaxAge(MAX_AGE);
+        recording.setMaxSize(MAX_SIZE);
+        for (Class<?> type : GameEvents.class.getDeclaredClasses()) {
+            recording.enable(type.asSubclass(Event.class)).withThreshold(Duration.ZERO);
+        }
+        recording.start();
+
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        FlightRecording started = new FlightRecording(recording, dir, previous);
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> {
+            started.dumpNow("error");
+            if (previous != null) {
+                previous.uncaughtException(thread, e);
+            } else {
+                System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+                e.printStackTrace();
+            }
+        });
+        active = started;
+        return started;
+    }
+
+    // The running recording, or null when none was started
+    public static FlightRecording active() {
+        return active;
+    }
+
+    // Writes the buffer to a file in the background, so the game thread that noticed the problem goes on
+    public void dump(String reason) {
+        Thread t = new Thread(() -> dumpNow(reason), "jfr-dump");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Writes the buffer to recordings/tetris-<reason>-<time>.jfr and returns the file, or null if it failed
+    Path dumpNow(String reason) {
+        Path file = dir.resolve("tetris-" + reason + "-" + STAMP.format(LocalDateTime.now()) + ".jfr");
+        try {
+            recording.dump(file);
+            return file;
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("Could not dump flight recording: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Ends the recording without dumping it and puts back the previous uncaught exception handler
+    public void stop() {
+        synchronized (FlightRecording.class) {
+            recording.close();
+            if (active == this) {
+                active = null;
+                Thread.setDefaultUncaughtExceptionHandler(previousHandler);
+            }
+        }
+    }
+}
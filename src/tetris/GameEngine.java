@@ -0,0 +1,414 @@
+package tetris;
+
+import java.util.Arrays;
+
+// Headless game rules: spawning, gravity, movement, wall kicks, T-spins, garbage and scoring, with pieces from a
+// PieceGenerator. Board size, spawn point, kicks, scoring and levels come from a RuleSet, RuleSet.STANDARD unless given.
+// Given the same seed, randomizer, rules and sequence of apply()/tick() calls it always produces the same game,
+// and it has no dependency on AWT, Swing or the event dispatch thread
+public final class GameEngine {
+
+    // Spawn position under RuleSet.STANDARD
+    public static final int SPAWN_X = Board.WIDTH / 2;
+    public static final int SPAWN_Y = 1;
+
+    // Locks remembered for undo by default
+    public static final int DEFAULT_HISTORY = 100;
+
+    private final long seed;
+    private final RuleSet rules;
+    private final PieceGenerator pieces;
+
+    private Board board;
+    private final Piece currentPiece;
+    private Tetromino nextPiece;
+    private int score;
+    private int linesCleared;
+    private int piecesLocked;
+    private boolean gameOver;
+
+    // Kick test of the rotation that was the falling piece's last successful move, -1 if its last move was not
+    // a rotation; decides whether the lock is a T-spin
+    private int lastKick = -1;
+    private TSpin lastSpin = TSpin.NONE;
+
+    // Told about every lock once the next piece has spawned; runs on the thread driving the engine
+    @FunctionalInterface
+    public interface LockListener {
+        void pieceLocked(GameEngine engine, Tetromino type, int rotation, int x, int y);
+    }
+
+    private LockListener lockListener;
+
+    // Garbage waiting to rise under the stack at the next lock, one entry per attack packed as
+    // lines << 16 | hole << 8 | color
+    private int[] garbage = new int[4];
+    private int garbageCount;
+
+    private final MoveHistory history;
+    private final int[] clearedRows = new int[4];
+    private final long[] clearedColors;
+
+    // Starts a new game whose piece sequence is fully determined by the seed
+    public GameEngine(long seed) {
+        this(seed, DEFAULT_HISTORY);
+    }
+
+    // As GameEngine(seed), remembering the last historyMoves locks for undo()
+    public GameEngine(long seed, int historyMoves) {
+        this(seed, historyMoves, PieceGenerator.Kind.BAG);
+    }
+
+    // As GameEngine(seed, historyMoves), drawing pieces from the given randomizer
+    public GameEngine(long seed, int historyMoves, PieceGenerator.Kind randomizer) {
+        this(seed, historyMoves, randomizer, RuleSet.STANDARD);
+    }
+
+    // As GameEngine(seed, historyMoves, randomizer), played by the given rules
+    public GameEngine(long seed, int historyMoves, PieceGenerator.Kind randomizer, RuleSet rules) {
+        this.seed = seed;
+        this.rules = rules;
+        this.board = new Board(rules);
+        this.history = new MoveHistory(historyMoves, board.colorWords());
+        this.clearedColors = new long[clearedRows.length * board.colorWords()];
+        this.pieces = randomizer.create(seed);
+        currentPiece = new Piece(pieces.next(), rules.spawnX(), rules.spawnY());
+        nextPiece = pieces.next();
+        gameOver = !board.canPlace(currentPiece);
+    }
+
+    // Spawns the next falling piece and updates the preview, checking for game over
+    private void spawnNext() {
+        currentPiece.set(nextPiece, 0, rules.spawnX(), rules.spawnY());
+        lastKick = -1;
+        nextPiece = pieces.next();
+        if (!board.canPlace(currentPiece)) {
+            gameOver = true;
+        }
+        GameEvents.Spawn event = new GameEvents.Spawn();
+        if (event.shouldCommit()) {
+            event.piece = currentPiece.type.name();
+            event.gameOver = gameOver;
+            event.commit();
+        }
+    }
+
+    // Applies a single player input. Returns true if the game state changed
+    public boolean apply(Action action) {
+        if (gameOver) {
+            return false;
+        }
+        return switch (action) {
+            case LEFT -> tryMove(-1, 0);
+            case RIGHT -> tryMove(1, 0);
+            case SOFT_DROP -> tryMove(0, 1);
+            case ROTATE_CW -> tryRotate(+1);
+            case ROTATE_CCW -> tryRotate(-1);
+            case HARD_DROP -> {
+                hardDrop();
+                yield true;
+            }
+        };
+    }
+
+    // Advances gravity by one row, locking the piece when it cannot fall further
+    public void tick() {
+        Metrics.TICKS.increment();
+        GameEvents.Tick event = new GameEvents.Tick();
+        event.begin();
+        if (!gameOver) {
+            int locked = piecesLocked;
+            stepDown();
+            event.locked = piecesLocked != locked;
+        }
+        event.commit();
+    }
+
+    // Moves the piece down one cell or locks it and clears lines if it cannot move
+    private void stepDown() {
+        Piece p = currentPiece;
+        if (board.canPlace(p.type, p.rotation, p.x, p.y + 1)) {
+            p.y++;
+            lastKick = -1;
+        } else {
+            history.clearRedo();
+            lockPiece(TSpin.detect(board, p.type, p.rotation, p.x, p.y, lastKick));
+        }
+    }
+
+    // Locks the current piece, records the move for undo, clears lines, scores and spawns the next piece
+    private void lockPiece(TSpin spin) {
+        Piece p = currentPiece;
+        GameEvents.Lock lockEvent = new GameEvents.Lock();
+        if (lockEvent.shouldCommit()) {
+            lockEvent.piece = p.type.name();
+            lockEvent.rotation = p.rotation;
+            lockEvent.x = p.x;
+            lockEvent.y = p.y;
+            lockEvent.commit();
+        }
+        board.lock(p.type, p.rotation, p.x, p.y);
+        piecesLocked++;
+        Metrics.PIECES_LOCKED.increment();
+        int full = 0;
+        for (int y = 0; y < board.height() && full < clearedRows.length; y++) {
+            if (board.isFullRow(y)) {
+                board.rowColors(y, clearedColors, full * board.colorWords());
+                clearedRows[full++] = y;
+            }
+        }
+        history.push(MoveHistory.header(p.type, p.rotation, p.x, p.y, spin, full, clearedRows), clearedColors);
+
+        GameEvents.LineClear clearEvent = new GameEvents.LineClear();
+        clearEvent.begin();
+        int cleared = board.clearLines();
+        score += rules.lockScore(cleared, spin);
+        lastSpin = spin;
+        if (cleared > 0 || spin != TSpin.NONE) {
+            linesCleared += cleared;
+            clearEvent.lines = cleared;
+            clearEvent.tSpin = spin.name();
+            clearEvent.score = score;
+            clearEvent.commit();
+        }
+        boolean toppedOut = riseGarbage();
+        Tetromino type = p.type;
+        int rotation = p.rotation, x = p.x, y = p.y;
+        spawnNext();
+        gameOver |= toppedOut;
+        if (lockListener != null) {
+            lockListener.pieceLocked(this, type, rotation, x, y);
+        }
+    }
+
+    // Queues lines of garbage sent by an opponent: they rise under the stack when the current piece locks, with
+    // an empty cell in column hole and the other cells in the color of the sending piece
+    public void addGarbage(int lines, int hole, Tetromino from) {
+        if (lines <= 0) {
+            return;
+        }
+        if (hole < 0 || hole >= board.width()) {
+            throw new IllegalArgumentException("garbage hole " + hole + " outside a board " + board.width() + " wide");
+        }
+        if (garbageCount == garbage.length) {
+            garbage = Arrays.copyOf(garbage, garbageCount * 2);
+        }
+        garbage[garbageCount++] = Math.min(lines, board.height()) << 16 | hole << 8 | from.ordinal() + 1;
+    }
+
+    // Lines of garbage queued for the next lock
+    public int getPendingGarbage() {
+        int lines = 0;
+        for (int i = 0; i < garbageCount; i++) {
+            lines += garbage[i] >>> 16;
+        }
+        return lines;
+    }
+
+    // Raises the queued garbage after a lock. It cannot be taken back, so undo history ends here.
+    // Returns true when the stack was pushed out over the top
+    private boolean riseGarbage() {
+        if (garbageCount == 0) {
+            return false;
+        }
+        boolean toppedOut = false;
+        for (int i = 0; i < garbageCount; i++) {
+            int g = garbage[i];
+            toppedOut |= board.addGarbage(g >>> 16, g >>> 8 & 0xFF, g & 0xFF);
+        }
+        garbageCount = 0;
+        history.clear();
+        return toppedOut;
+    }
+
+    // Takes back the last lock: the cleared rows come back, the piece returns to the spawn position
+    // and the preview and bag are rewound. Returns false when there is nothing to undo
+    public boolean undo() {
+        if (history.undoMoves() == 0) {
+            return false;
+        }
+        long move = history.popUndo(clearedColors);
+        int cleared = MoveHistory.cleared(move);
+        for (int i = cleared - 1; i >= 0; i--) {
+            board.insertFullRow(MoveHistory.clearedRow(move, i), clearedColors, i * board.colorWords());
+        }
+        Tetromino type = MoveHistory.type(move);
+        board.unlock(type, MoveHistory.rotation(move), MoveHistory.x(move), MoveHistory.y(move));
+        piecesLocked--;
+        linesCleared -= cleared;
+        score -= rules.lockScore(cleared, MoveHistory.spin(move));
+        lastSpin = TSpin.NONE;
+        lastKick = -1;
+
+        pieces.pushBack(nextPiece);
+        nextPiece = currentPiece.type;
+        currentPiece.set(type, 0, rules.spawnX(), rules.spawnY());
+        gameOver = false;
+        history.pushRedo(move);
+        return true;
+    }
+
+    // Locks the last undone piece where it was before. Returns false when there is nothing to redo
+    public boolean redo() {
+        if (history.redoMoves() == 0) {
+            return false;
+        }
+        long move = history.popRedo();
+        currentPiece.set(MoveHistory.type(move), MoveHistory.rotation(move), MoveHistory.x(move), MoveHistory.y(move));
+        lockPiece(MoveHistory.spin(move));
+        return true;
+    }
+
+    public void setLockListener(LockListener listener) {
+        this.lockListener = listener;
+    }
+
+    public int getUndoMoves() {
+        return history.undoMoves();
+    }
+
+    public int getRedoMoves() {
+        return history.redoMoves();
+    }
+
+    // Longs held by the undo log, for checking its per-move cost
+    int historySize() {
+        return history.size();
+    }
+
+    // Attempts to move the current piece by the given delta
+    private boolean tryMove(int dx, int dy) {
+        Piece p = currentPiece;
+        if (board.canPlace(p.type, p.rotation, p.x + dx, p.y + dy)) {
+            p.x += dx;
+            p.y += dy;
+            lastKick = -1;
+            return true;
+        }
+        return false;
+    }
+
+    // Attempts to rotate the current piece with the rule set's wall kicks
+    private boolean tryRotate(int dir) {
+        Piece p = currentPiece;
+        int rotation = (p.rotation + dir) & 3;
+        KickTable kicks = rules.kicks;
+        int kick = kicks.resolve(board, p.type, p.rotation, rotation, p.x, p.y);
+        if (kick < 0) {
+            return false;
+        }
+        p.set(p.type, rotation, p.x + kicks.x(p.type, p.rotation, rotation, kick),
+                p.y + kicks.y(p.type, p.rotation, rotation, kick));
+        lastKick = kick;
+        return true;
+    }
+
+    // Instantly drops the piece to the lowest valid position and locks it; a drop of no rows keeps a T-spin
+    private void hardDrop() {
+        Piece p = currentPiece;
+        int from = p.y;
+        while (board.canPlace(p.type, p.rotation, p.x, p.y + 1)) {
+            p.y++;
+        }
+        if (p.y != from) {
+            lastKick = -1;
+        }
+        stepDown();
+    }
+
+    // Creates a serializable snapshot of the current game state. The board is an O(1) copy-on-write copy,
+    // so the save keeps its contents while the game goes on and may be read from another thread
+    public GameSave snapshot() {
+        return new GameSave(board.copy(), new Piece(currentPiece), nextPiece, score, linesCleared);
+    }
+
+    // Restores game state from a previously saved snapshot; the save itself is not modified later.
+    // The saved board must have this game's size. Undo history does not reach back past a restore, and the
+    // level comes from the save's lines rather than from the session it replaces
+    public void restore(GameSave save) {
+        if (save.board.rules() == rules) {
+            board = save.board.copy();
+        } else if (save.board.rules().sameBoardSize(rules)) {
+            board = new Board(rules);
+            board.copyFrom(save.board);
+        } else {
+            throw new IllegalArgumentException("saved board is " + save.board.width() + "x" + save.board.height()
+                    + ", this game is " + rules.width() + "x" + rules.height());
+        }
+        history.clear();
+        Piece p = save.currentPiece;
+        currentPiece.set(p.type, p.rotation, p.x, p.y);
+        nextPiece = save.nextPiece;
+        score = save.score;
+        linesCleared = save.lines;
+        piecesLocked = 0;
+        gameOver = false;
+        lastKick = -1;
+        lastSpin = TSpin.NONE;
+        garbageCount = 0;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public RuleSet getRules() {
+        return rules;
+    }
+
+    public PieceGenerator.Kind getRandomizer() {
+        return pieces.kind();
+    }
+
+    // The live board; callers must treat it as read-only
+    public Board getBoard() {
+        return board;
+    }
+
+    // The live falling piece; callers must treat it as read-only
+    public Piece getCurrentPiece() {
+        return currentPiece;
+    }
+
+    public Tetromino getNextPiece() {
+        return nextPiece;
+    }
+
+    // Copies the n pieces that follow the preview piece into dst[offset..offset+n), like a longer preview.
+    // Only the first getDeduciblePieces() of them are something a player could know
+    public void peekPieces(Tetromino[] dst, int offset, int n) {
+        pieces.peek(dst, offset, n);
+    }
+
+    // How many pieces after the preview follow from the ones already seen: the rest of the current 7-bag,
+    // none for the other randomizers
+    public int getDeduciblePieces() {
+        return pieces.deducible();
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    // How the most recent lock counted as a T-spin, NONE for ordinary locks
+    public TSpin getLastSpin() {
+        return lastSpin;
+    }
+
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+
+    // Level rises by one every RuleSet lines-per-level cleared lines, 10 in the standard rules
+    public int getLevel() {
+        return rules.level(linesCleared);
+    }
+
+    public int getPiecesLocked() {
+        return piecesLocked;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+}
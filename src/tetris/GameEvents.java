@@ -0,0 +1,115 @@
+package tetris;
+
+import jdk.jfr.*;
+
+// Java Flight Recorder events for the game, shown under "Tetris" in JDK Mission Control next to GC,
+// safepoint and thread events, so a stutter can be traced to its cause.
+// Disabled events cost one check: the JIT scalar-replaces the event object, so nothing is allocated
+final class GameEvents {
+
+    private GameEvents() {
+    }
+
+    @Name("tetris.Tick")
+    @Label("Tick")
+    @Description("One row of gravity, including any lock it caused")
+    @Category({"Tetris", "Engine"})
+    @StackTrace(false)
+    static final class Tick extends Event {
+        @Label("Locked")
+        boolean locked;
+    }
+
+    @Name("tetris.Spawn")
+    @Label("Piece Spawn")
+    @Category({"Tetris", "Engine"})
+    @StackTrace(false)
+    static final class Spawn extends Event {
+        @Label("Piece")
+        String piece;
+
+        @Label("Game Over")
+        boolean gameOver;
+    }
+
+    @Name("tetris.Lock")
+    @Label("Piece Lock")
+    @Category({"Tetris", "Engine"})
+    @StackTrace(false)
+    static final class Lock extends Event {
+        @Label("Piece")
+        String piece;
+
+        @Label("Rotation")
+        int rotation;
+
+        @Label("X")
+        int x;
+
+        @Label("Y")
+        int y;
+    }
+
+    @Name("tetris.LineClear")
+    @Label("Line Clear")
+    @Category({"Tetris", "Engine"})
+    @StackTrace(false)
+    static final class LineClear extends Event {
+        @Label("Lines")
+        int lines;
+
+        @Label("T-Spin")
+        String tSpin;
+
+        @Label("Score")
+        int score;
+    }
+
+    @Name("tetris.Render")
+    @Label("Frame Render")
+    @Description("One paintComponent call")
+    @Category({"Tetris", "Rendering"})
+    @StackTrace(false)
+    static final class Render extends Event {
+        @Label("Cells Drawn")
+        int cellsDrawn;
+
+        @Label("Board Redrawn")
+        boolean boardRedrawn;
+    }
+
+    @Name("tetris.Save")
+    @Label("Save")
+    @Category({"Tetris", "Persistence"})
+    static final class Save extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("tetris.Load")
+    @Label("Load")
+    @Category({"Tetris", "Persistence"})
+    static final class Load extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("tetris.HighScore")
+    @Label("High Score Update")
+    @Category({"Tetris", "Persistence"})
+    static final class HighScore extends Event {
+        @Label("Name")
+        String name;
+
+        @Label("Score")
+        int score;
+    }
+}
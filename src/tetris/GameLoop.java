@@ -0,0 +1,501 @@
+package tetris;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Drives a GameEngine from its own thread with a fixed 60 Hz timestep measured by System.nanoTime.
+// Each frame applies queued input, key repeat (DAS/ARR), level-based gravity and lock delay; afterwards an
+// immutable Frame is handed to the renderer. Other threads never touch the engine: they post input and tasks,
+// which the loop runs at the start of its next iteration, so input-to-render latency stays within a frame or two
+public final class GameLoop implements Runnable {
+
+    public static final int FRAMES_PER_SECOND = 60;
+    static final long FRAME_NANOS = 1_000_000_000L / FRAMES_PER_SECOND;
+
+    // After a stall at most this many frames are simulated to catch up; the rest of the backlog is dropped
+    private static final int MAX_CATCH_UP_FRAMES = 5;
+
+    // Delayed auto shift: frames a direction is held before it repeats, then frames between repeats
+    static final int DAS_FRAMES = 10;
+    static final int ARR_FRAMES = 2;
+    static final int SOFT_DROP_FRAMES = 2;
+
+    // Frames a grounded piece may still move before it locks, and how often moving may reset that delay
+    static final int LOCK_DELAY_FRAMES = 30;
+    static final int MAX_LOCK_RESETS = 15;
+
+    // Autoplay places one piece every this many frames and gives each plan at most this much time
+    static final int AUTOPLAY_FRAMES = 12;
+    static final long AUTOPLAY_BUDGET_NANOS = FRAME_NANOS / 2;
+
+    // Immutable view of the game handed to the renderer. cells (row-major, width per row) must not be modified;
+    // it is shared between frames until the board changes, which is signalled by a new boardVersion
+    public record Frame(long number, byte[] cells, int width, long boardVersion,
+                        Tetromino pieceType, int pieceRotation, int pieceX, int pieceY,
+                        Tetromino nextPiece, int score, int lines, int level,
+                        boolean paused, boolean gameOver) {
+
+        public int cell(int x, int y) {
+            return cells[y * width + x];
+        }
+    }
+
+    private final GameEngine engine;
+    private final Consumer<Frame> renderer;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private ReplayRecorder recorder;
+
+    private volatile boolean running;
+    private volatile Frame latest;
+    private Thread thread;
+
+    private long frameNumber;
+    private boolean paused;
+    private long boardVersion;
+    private int seenLocks;
+
+    // Held keys and their repeat counters
+    private int horizontal;
+    private boolean leftHeld, rightHeld, softDropHeld;
+    private int dasCounter, softDropCounter;
+
+    private int gravityCounter;
+    private int lockCounter;
+    private int lockResets;
+
+    // Plays the game instead of the keyboard while set
+    private BeamSearch autoplay;
+    private int autoplayCounter;
+    private final Action[] autoplayPath;
+
+    // Journals every lock in the background; dropped once the game is over
+    private AutoSaver autoSaver;
+
+    // Drives the engine; every input and tick goes through the recorder when one is given.
+    // The renderer is called on the loop thread whenever the visible state changed
+    public GameLoop(GameEngine engine, ReplayRecorder recorder, Consumer<Frame> renderer) {
+        this.engine = engine;
+        this.recorder = recorder;
+        this.renderer = renderer;
+        this.seenLocks = engine.getPiecesLocked();
+        this.autoplayPath = new Action[PlacementSearch.maxPath(engine.getRules())];
+        this.latest = buildFrame(null);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "game-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops the loop, finishes the replay and waits for the thread to exit; start() then runs it again,
+    // without the replay
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            running = false;
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(1_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                if (thread == t && !t.isAlive()) {
+                    thread = null;
+                }
+            }
+        } else {
+            stopRecording();
+        }
+    }
+
+    // The most recently published frame
+    public Frame latestFrame() {
+        return latest;
+    }
+
+    // Input from other threads: a key went down or up
+    public void press(Action action) {
+        post(() -> onPress(action));
+    }
+
+    public void release(Action action) {
+        post(() -> onRelease(action));
+    }
+
+    public void togglePause() {
+        post(() -> paused = !paused);
+    }
+
+    // Hands the game to a bot, or back to the player when search is null
+    public void setAutoplay(BeamSearch search) {
+        post(() -> {
+            autoplay = search;
+            autoplayCounter = 0;
+        });
+    }
+
+    // Starts autosaving from the current state, or stops when saver is null. The saver only ever
+    // receives snapshots and lock records, so its disk writes never hold up a frame
+    public void setAutoSaver(AutoSaver saver) {
+        post(() -> {
+            autoSaver = saver;
+            engine.setLockListener(saver);
+            checkpointAutosave();
+        });
+    }
+
+    // Runs a task on the loop thread before the next frame
+    public void post(Runnable task) {
+        tasks.add(task);
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    // Runs a task on the loop thread and waits for its result. When the loop is not running the task runs here.
+    // Checking and posting happen under the lock the exiting loop takes to clear running, so the task is either
+    // queued before the loop's final drain or sees it stopped
+    public <T> T call(Callable<T> task) throws Exception {
+        FutureTask<T> future = new FutureTask<>(task);
+        synchronized (this) {
+            if (!running) {
+                return task.call();
+            }
+            post(future);
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ex ? ex : e;
+        }
+    }
+
+    // Snapshot taken on the loop thread; its board is copy-on-write, so the save never changes afterwards
+    public GameSave snapshot() throws Exception {
+        return call(engine::snapshot);
+    }
+
+    // Restores a save on the loop thread. A restored game can no longer be reproduced from its seed, so the replay ends
+    public void restore(GameSave save) {
+        post(() -> {
+            stopRecording();
+            engine.restore(save);
+            paused = false;
+            boardVersion++;
+            seenLocks = engine.getPiecesLocked();
+            resetPieceCounters();
+            checkpointAutosave();
+        });
+    }
+
+    // Takes back or re-plays the last lock. Like restore, this ends the replay recording
+    public void undo() {
+        post(() -> {
+            if (!paused && engine.getUndoMoves() > 0) {
+                stopRecording();
+                engine.undo();
+                afterRewind();
+            }
+        });
+    }
+
+    public void redo() {
+        post(() -> {
+            if (!paused && engine.getRedoMoves() > 0) {
+                stopRecording();
+                engine.redo();
+                afterRewind();
+            }
+        });
+    }
+
+    private void afterRewind() {
+        boardVersion++;
+        seenLocks = engine.getPiecesLocked();
+        resetPieceCounters();
+        checkpointAutosave();
+    }
+
+    // Undo and restore change the game in ways the journal cannot express, so they start a new checkpoint
+    private void checkpointAutosave() {
+        if (autoSaver != null && !engine.isGameOver()) {
+            autoSaver.checkpoint(engine.snapshot());
+        }
+    }
+
+    // An exception from a frame or a task ends the loop and goes to the thread's uncaught exception handler. The loop
+    // is marked stopped either way and the tasks still queued are run, so call() and snapshot() never wait on
+    // a thread that is gone, and start() can run it again
+    @Override
+    public void run() {
+        long previous = System.nanoTime();
+        long accumulator = 0;
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                accumulator += now - previous;
+                previous = now;
+
+                runTasks();
+                int frames = 0;
+                while (accumulator >= FRAME_NANOS) {
+                    if (frames++ < MAX_CATCH_UP_FRAMES) {
+                        step();
+                    }
+                    accumulator -= FRAME_NANOS;
+                }
+                publish();
+
+                long sleep = FRAME_NANOS - accumulator - (System.nanoTime() - now);
+                if (sleep > 0 && tasks.isEmpty()) {
+                    LockSupport.parkNanos(this, sleep);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                running = false;
+            }
+            drainTasks();
+            stopRecording();
+            synchronized (this) {
+                if (thread == Thread.currentThread()) {
+                    thread = null;
+                }
+            }
+        }
+    }
+
+    // Runs what is left in the queue as the loop exits; one failing task does not keep the others from running
+    private void drainTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Task failed after the game loop stopped: " + e);
+            }
+        }
+    }
+
+    void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    // Simulates one frame
+    void step() {
+        frameNumber++;
+        if (paused || engine.isGameOver()) {
+            return;
+        }
+
+        if (autoplay != null && ++autoplayCounter >= AUTOPLAY_FRAMES) {
+            autoplayCounter = 0;
+            playAutoplayMove();
+        }
+        if (horizontal != 0 && ++dasCounter >= DAS_FRAMES && (dasCounter - DAS_FRAMES) % ARR_FRAMES == 0) {
+            move(horizontal < 0 ? Action.LEFT : Action.RIGHT);
+        }
+        if (softDropHeld && ++softDropCounter % SOFT_DROP_FRAMES == 0) {
+            if (apply(Action.SOFT_DROP)) {
+                gravityCounter = 0;
+            }
+        }
+
+        Piece p = engine.getCurrentPiece();
+        boolean grounded = !engine.getBoard().canPlace(p.type, p.rotation, p.x, p.y + 1);
+        if (grounded) {
+            gravityCounter = 0;
+            if (++lockCounter >= LOCK_DELAY_FRAMES) {
+                tick();
+            }
+        } else {
+            lockCounter = 0;
+            if (++gravityCounter >= engine.getRules().framesPerRow(engine.getLevel())) {
+                gravityCounter = 0;
+                tick();
+            }
+        }
+        afterStep();
+    }
+
+    // Plans the current piece and plays it through apply(), so a recorded replay still verifies
+    private void playAutoplayMove() {
+        int length = autoplay.plan(engine, AUTOPLAY_BUDGET_NANOS, autoplayPath);
+        if (length < 0) {
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            apply(autoplayPath[i]);
+        }
+        apply(Action.HARD_DROP);
+        afterStep();
+    }
+
+    private void onPress(Action action) {
+        switch (action) {
+            case LEFT, RIGHT -> {
+                boolean left = action == Action.LEFT;
+                if (left ? leftHeld : rightHeld) {
+                    return; // keyboard auto-repeat; repeats are generated by DAS instead
+                }
+                if (left) {
+                    leftHeld = true;
+                } else {
+                    rightHeld = true;
+                }
+                horizontal = left ? -1 : 1;
+                dasCounter = 0;
+                move(action);
+            }
+            case SOFT_DROP -> {
+                if (!softDropHeld) {
+                    softDropHeld = true;
+                    softDropCounter = 0;
+                    if (apply(Action.SOFT_DROP)) {
+                        gravityCounter = 0;
+                    }
+                }
+            }
+            case ROTATE_CW, ROTATE_CCW -> move(action);
+            case HARD_DROP -> apply(Action.HARD_DROP);
+        }
+        afterStep();
+    }
+
+    private void onRelease(Action action) {
+        switch (action) {
+            case LEFT -> {
+                leftHeld = false;
+                horizontal = rightHeld ? 1 : 0;
+                dasCounter = 0;
+            }
+            case RIGHT -> {
+                rightHeld = false;
+                horizontal = leftHeld ? -1 : 0;
+                dasCounter = 0;
+            }
+            case SOFT_DROP -> softDropHeld = false;
+            default -> {
+            }
+        }
+    }
+
+    // Moves or rotates; a successful move of a grounded piece restarts its lock delay a limited number of times
+    private void move(Action action) {
+        if (apply(action) && lockCounter > 0 && lockResets < MAX_LOCK_RESETS) {
+            lockCounter = 0;
+            lockResets++;
+        }
+    }
+
+    // Detects locks (from gravity, lock delay or hard drop) and starts the next piece's counters
+    private void afterStep() {
+        if (engine.getPiecesLocked() != seenLocks) {
+            seenLocks = engine.getPiecesLocked();
+            boardVersion++;
+            resetPieceCounters();
+        }
+        if (engine.isGameOver()) {
+            stopRecording();
+            if (autoSaver != null) {
+                engine.setLockListener(null);
+                autoSaver.discard();
+                autoSaver = null;
+            }
+        }
+    }
+
+    private void resetPieceCounters() {
+        gravityCounter = 0;
+        lockCounter = 0;
+        lockResets = 0;
+    }
+
+    // Frame-based clock for replay timestamps, so replays do not depend on wall-clock jitter
+    private long nowMillis() {
+        return frameNumber * 1000 / FRAMES_PER_SECOND;
+    }
+
+    private boolean apply(Action action) {
+        if (paused || engine.isGameOver()) {
+            return false;
+        }
+        if (recorder != null) {
+            try {
+                return recorder.apply(action, nowMillis());
+            } catch (IOException e) {
+                stopRecording();
+            }
+        }
+        return engine.apply(action);
+    }
+
+    private void tick() {
+        if (recorder != null) {
+            try {
+                recorder.tick(nowMillis());
+                return;
+            } catch (IOException e) {
+                stopRecording();
+            }
+        }
+        engine.tick();
+    }
+
+    private void stopRecording() {
+        if (recorder == null) {
+            return;
+        }
+        try (ReplayRecorder r = recorder) {
+            r.finish(nowMillis());
+        } catch (IOException e) {
+            System.err.println("Could not finish replay: " + e.getMessage());
+        }
+        recorder = null;
+    }
+
+    // Hands a new frame to the renderer if anything visible changed since the last one
+    void publish() {
+        Frame previous = latest;
+        Piece p = engine.getCurrentPiece();
+        if (previous.boardVersion == boardVersion && previous.pieceType == p.type
+                && previous.pieceRotation == p.rotation && previous.pieceX == p.x && previous.pieceY == p.y
+                && previous.paused == paused && previous.gameOver == engine.isGameOver()
+                && previous.nextPiece == engine.getNextPiece() && previous.score == engine.getScore()) {
+            return;
+        }
+        Frame frame = buildFrame(previous);
+        latest = frame;
+        renderer.accept(frame);
+    }
+
+    private Frame buildFrame(Frame previous) {
+        byte[] cells;
+        if (previous != null && previous.boardVersion == boardVersion) {
+            cells = previous.cells;
+        } else {
+            Board board = engine.getBoard();
+            cells = new byte[board.width() * board.height()];
+            board.copyCellsTo(cells);
+        }
+        Piece p = engine.getCurrentPiece();
+        return new Frame(frameNumber, cells, engine.getBoard().width(), boardVersion, p.type, p.rotation, p.x, p.y,
+                engine.getNextPiece(), engine.getScore(), engine.getLinesCleared(), engine.getLevel(),
+                paused, engine.isGameOver());
+    }
+}
@@ -3,30 +3,37 @@ package tetris;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
-// Main game panel: handles rendering, game loop, and input
-public class GamePanel extends JPanel implements ActionListener, KeyListener {
+// Main game panel: renders frames published by the GameLoop and forwards keyboard input to it.
+// The engine itself runs on the loop thread; this panel only reads immutable GameLoop.Frame snapshots.
+// As a client of a MatchServer it renders the frames a NetClient receives and sends the keys there instead
+public class GamePanel extends JPanel implements KeyListener {
 
     private static final int CELL_SIZE = 28;
-    private static final int TICK_MS = 500;
 
-    //timer to drive the game loop
-    private final javax.swing.Timer timer = new javax.swing.Timer(TICK_MS, this);
+    // Headless rules engine, driven by the fixed-timestep loop thread; both are null for a networked game
+    private final GameEngine engine;
+    private final GameLoop loop;
 
+    // The server connection of a networked game, null for a local one
+    private final NetClient client;
+    private boolean matchOverShown;
 
-    private Board board = new Board();
-    private Piece currentPiece;
-    private Tetromino nextPiece;
-    private int score;
-    private boolean paused = false;
-    private boolean gameOver = false;
+    // Board size and the hidden rows above the drawn field, from the engine's rules
+    private final int columns;
+    private final int rows;
+    private final int hidden;
 
-    // Queue for 7-bag tetromino randomization
-    private final Deque<Tetromino> pieceQueue = new ArrayDeque<>();
-    private final Random random = new Random();
+    // Latest frame from the loop; painted on the EDT
+    private volatile GameLoop.Frame frame;
+    private static final File REPLAY_DIR = new File("replays");
 
     private static final Map<Tetromino, Color> COLORS = new EnumMap<>(Tetromino.class);
 
@@ -41,241 +48,398 @@ public class GamePanel extends JPanel implements ActionListener, KeyListener {
         COLORS.put(Tetromino.L, new Color(240, 160, 0));
     }
 
-    // Initializes the game panel, sets up input, pieces, and starts the timer
-    public GamePanel() {
-        setPreferredSize(new Dimension(Board.WIDTH * CELL_SIZE, (Board.HEIGHT - 2) * CELL_SIZE));
-        setBackground(Color.BLACK);
-        setFocusable(true);
-        addKeyListener(this);
-
-        refillBag();
-        spawnFirstPieces();
-        timer.start();
-    }
+    private static final Tetromino[] TYPES = Tetromino.values();
+    private static final int SMALL_SIZE = 16;
 
-    // Fills the piece queue with a shuffled set of all 7 tetrominoes
-    private void refillBag() {
-        List<Tetromino> list = new ArrayList<>(Arrays.asList(Tetromino.values()));
-        Collections.shuffle(list, random);
-        pieceQueue.addAll(list);
-    }
+    // Pre-rendered cells: index 0 is an empty board cell, 1..7 are the tetromino colors
+    private static final BufferedImage[] CELL_SPRITES = new BufferedImage[TYPES.length + 1];
+    private static final BufferedImage[] SMALL_SPRITES = new BufferedImage[TYPES.length + 1];
 
-    // Returns the next tetromino from the bag, refilling when empty
-    private Tetromino nextFromBag() {
-        if (pieceQueue.isEmpty()) {
-            refillBag();
+    static {
+        for (int value = 0; value <= TYPES.length; value++) {
+            Color color = value == 0 ? new Color(25, 25, 25) : COLORS.get(TYPES[value - 1]);
+            CELL_SPRITES[value] = sprite(color, CELL_SIZE, CELL_SIZE - 1);
+            SMALL_SPRITES[value] = sprite(color, SMALL_SIZE + 1, SMALL_SIZE);
         }
-        return pieceQueue.removeFirst();
     }
 
-    // Spawns the initial current and next pieces and checks for immediate game over
-    private void spawnFirstPieces() {
-        currentPiece = new Piece(nextFromBag(), Board.WIDTH / 2, 1);
-        nextPiece = nextFromBag();
-        if (!board.canPlace(currentPiece)) {
-            gameOver = true;
-            timer.stop();
-        }
-    }
+    // Locked cells of the visible board, re-rendered only after a lock, line clear or restore
+    private final BufferedImage boardImage;
+    private long renderedBoardVersion = -1;
 
-    // Spawns the next falling piece and updates the preview, checking for game over
-    private void spawnNext() {
-        currentPiece = new Piece(nextPiece, Board.WIDTH / 2, 1);
-        nextPiece = nextFromBag();
-        if (!board.canPlace(currentPiece)) {
-            gameOver = true;
-            timer.stop();
-        }
+    // Autoplay, toggled with A; only touched on the EDT
+    private boolean autoplay;
+
+    // Background autosave, started by startAutosave
+    private AutoSaver autoSaver;
+
+    // Frame time overlay, toggled with F3
+    private volatile boolean showFrameTime = false;
+    private long lastFrameNanos;
+    private double averageFrameNanos;
+
+    // Initializes the game panel and input; the game loop starts once the panel is displayed
+    public GamePanel() {
+        this(RuleSet.STANDARD);
     }
 
-    // Creates a serializable snapshot of the current game state
-    public GameSave snapshot() {
-        return new GameSave(board, currentPiece, nextPiece, score);
+    // A game played by other rules, e.g. a wider or taller board. Replays are only recorded under the
+    // standard rules, since replay files do not carry a rule set
+    public GamePanel(RuleSet rules) {
+        engine = new GameEngine(new Random().nextLong(), GameEngine.DEFAULT_HISTORY, PieceGenerator.Kind.BAG, rules);
+        client = null;
+        columns = rules.width();
+        rows = rules.height();
+        hidden = rules.hiddenRows();
+        boardImage = new BufferedImage(columns * CELL_SIZE, (rows - hidden) * CELL_SIZE, BufferedImage.TYPE_INT_RGB);
+        setUp();
+
+        loop = new GameLoop(engine, rules == RuleSet.STANDARD ? startRecording() : null, this::onFrame);
+        frame = loop.latestFrame();
     }
 
+    // Plays a match on a server. The server runs the game, so there is no pause, undo, autoplay or autosave
+    public GamePanel(NetClient client) {
+        this.client = client;
+        engine = null;
+        loop = null;
+        columns = Board.WIDTH;
+        rows = Board.HEIGHT;
+        hidden = RuleSet.STANDARD.hiddenRows();
+        boardImage = new BufferedImage(columns * CELL_SIZE, (rows - hidden) * CELL_SIZE, BufferedImage.TYPE_INT_RGB);
+        setUp();
+        frame = client.latestFrame();
+    }
 
-    // Restores game state from a previously saved snapshot
-    public void restore(GameSave save) {
-        this.board = save.board;
-        this.currentPiece = save.currentPiece;
-        this.nextPiece = save.nextPiece;
-        this.score = save.score;
-        this.gameOver = false;
-        this.paused = false;
-        repaint();
+    private void setUp() {
+        setPreferredSize(new Dimension(columns * CELL_SIZE, (rows - hidden) * CELL_SIZE));
+        setBackground(Color.BLACK);
+        setFocusable(true);
+        addKeyListener(this);
     }
 
+    // False for a networked game
+    public boolean isLocal() {
+        return client == null;
+    }
 
-    // Returns the current score
-    public int getScore() {
-        return score;
+    // Opens a replay file for this game; the game still runs if it cannot be created
+    private ReplayRecorder startRecording() {
+        try {
+            REPLAY_DIR.mkdirs();
+            File file = new File(REPLAY_DIR, "replay-" + System.currentTimeMillis() + ".rpl");
+            return new ReplayRecorder(engine, new FileOutputStream(file), 0);
+        } catch (IOException e) {
+            System.err.println("Replay recording disabled: " + e.getMessage());
+            return null;
+        }
     }
 
     @Override
-    public void actionPerformed(ActionEvent e) {
-        if (!paused && !gameOver) {
-            stepDown();
+    public void addNotify() {
+        super.addNotify();
+        if (client != null) {
+            client.start(this::onFrame);
+        } else {
+            loop.start();
         }
     }
 
-
-    // Moves the piece down one cell or locks it and clears lines if it cannot move
-    private void stepDown() {
-        Piece down = currentPiece.moved(0, 1);
-        if (board.canPlace(down)) {
-            currentPiece = down;
+    @Override
+    public void removeNotify() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the connection: " + e.getMessage());
+            }
         } else {
-            board.lock(currentPiece);
-            int cleared = board.clearLines();
-            if (cleared > 0) {
-                score += switch (cleared) {
-                    case 1 -> 100;
-                    case 2 -> 300;
-                    case 3 -> 500;
-                    default -> 800;
-                };
+            loop.stop();
+        }
+        if (autoSaver != null) {
+            try {
+                autoSaver.close();
+            } catch (IOException e) {
+                System.err.println("Could not finish autosave: " + e.getMessage());
             }
-            spawnNext();
+            autoSaver = null;
         }
-        repaint();
+        super.removeNotify();
     }
 
-
-    // Attempts to move the current piece by the given delta
-    private void tryMove(int dx, int dy) {
-        Piece moved = currentPiece.moved(dx, dy);
-        if (board.canPlace(moved)) {
-            currentPiece = moved;
-            repaint();
+    // Autosaves this game into dir from now on; the game still runs if the directory cannot be created
+    public void startAutosave(Path dir) {
+        if (client != null) {
+            return;
+        }
+        try {
+            autoSaver = new AutoSaver(dir);
+            loop.setAutoSaver(autoSaver);
+        } catch (IOException e) {
+            System.err.println("Autosave disabled: " + e.getMessage());
         }
     }
 
+    // Stops autosaving and deletes the autosave, e.g. when the player abandons this game for a new one
+    public void discardAutosave() {
+        if (autoSaver != null) {
+            loop.setAutoSaver(null);
+            autoSaver.discard();
+        }
+    }
 
-    // Attempts to rotate the current piece with simple wall kicks
-    private void tryRotate(int dir) {
-        Piece rotated = currentPiece.rotated(dir);
+    // Creates a serializable snapshot of the current game state, taken on the loop thread
+    public GameSave snapshot() throws Exception {
+        return client != null ? client.snapshot() : loop.snapshot();
+    }
 
-        int[][] kicks = {
-                {0, 0},
-                {-1, 0},
-                {1, 0},
-                {0, -1}
-        };
 
-        for (int[] kick : kicks) {
-            Piece candidate = new Piece(rotated.type, rotated.x + kick[0], rotated.y + kick[1]);
-            candidate.rotation = rotated.rotation;
-            if (board.canPlace(candidate)) {
-                currentPiece = candidate;
-                repaint();
-                return;
-            }
+    // Restores game state from a previously saved snapshot
+    public void restore(GameSave save) {
+        if (client != null) {
+            throw new IllegalStateException("A networked game cannot be restored");
         }
+        loop.restore(save);
     }
 
 
-    // Instantly drops the piece to the lowest valid position and locks it
-    private void hardDrop() {
-        while (board.canPlace(currentPiece.moved(0, 1))) {
-            currentPiece = currentPiece.moved(0, 1);
-        }
-        stepDown();
+    // Returns the current score
+    public int getScore() {
+        return frame.score();
     }
 
     public void togglePause() {
-        paused = !paused;
-        repaint();
+        if (client == null) {
+            loop.togglePause();
+        }
+    }
+
+    // Lets the beam-search bot play, or hands control back
+    public void toggleAutoplay() {
+        if (client != null) {
+            return;
+        }
+        autoplay = !autoplay;
+        loop.setAutoplay(autoplay ? new BeamSearch(ForkJoinPool.commonPool(), Heuristic.DEFAULT, 16, 4) : null);
     }
 
 
-    // Renders the board, current piece, next preview, score, and status text
+    // Renders the cached board image, current piece, next preview, score, and status text
 
     @Override
     protected void paintComponent(Graphics g) {
+        long frameStart = System.nanoTime();
+        GameEvents.Render event = new GameEvents.Render();
+        event.begin();
         super.paintComponent(g);
         Graphics2D g2 = (Graphics2D) g;
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-        for (int y = 2; y < Board.HEIGHT; y++) {
-            for (int x = 0; x < Board.WIDTH; x++) {
-                int value = board.get(x, y);
-                drawCell(g2, x, y - 2, value);
-            }
-        }
+        GameLoop.Frame f = frame;
+        Tetromino nextPiece = f.nextPiece();
 
-        if (!gameOver) {
-            for (var c : currentPiece.cells()) {
-                if (c.y >= 2) {
-                    drawCell(g2, c.x, c.y - 2, currentPiece.type.ordinal() + 1);
+        int cellsDrawn = 0;
+        if (renderedBoardVersion != f.boardVersion()) {
+            renderBoardImage(f);
+            event.boardRedrawn = true;
+            cellsDrawn += columns * (rows - hidden);
+        }
+        g2.drawImage(boardImage, 0, 0, null);
+
+        if (!f.gameOver()) {
+            BufferedImage sprite = CELL_SPRITES[f.pieceType().ordinal() + 1];
+            for (int packed : f.pieceType().offsets[f.pieceRotation()]) {
+                int cy = f.pieceY() + Tetromino.unpackY(packed);
+                if (cy >= hidden) {
+                    g2.drawImage(sprite, (f.pieceX() + Tetromino.unpackX(packed)) * CELL_SIZE, (cy - hidden) * CELL_SIZE, null);
+                    cellsDrawn++;
                 }
             }
         }
 
         g.setColor(Color.WHITE);
-        g.drawString("Score: " + score, 5, 15);
+        g.drawString("Score: " + f.score(), 5, 15);
 
         g.drawString("Next:", 5, 35);
-        int boxX = Board.WIDTH * CELL_SIZE - 90;
+        int boxX = columns * CELL_SIZE - 90;
         int boxY = 10;
         g.drawRect(boxX, boxY, 80, 80);
 
-        Piece preview = new Piece(nextPiece, 4, 3);
-        for (var c : preview.cells()) {
-            int px = boxX + 8 + (c.x - 3) * 16;
-            int py = boxY + 8 + (c.y - 2) * 16;
-            drawSmall(g2, px, py, nextPiece.ordinal() + 1);
+        // Preview piece is drawn as if centered at (4, 3)
+        BufferedImage small = SMALL_SPRITES[nextPiece.ordinal() + 1];
+        for (int packed : nextPiece.offsets[0]) {
+            int px = boxX + 8 + (Tetromino.unpackX(packed) + 1) * SMALL_SIZE;
+            int py = boxY + 8 + (Tetromino.unpackY(packed) + 1) * SMALL_SIZE;
+            g2.drawImage(small, px, py, null);
+            cellsDrawn++;
         }
 
-        if (paused) {
+        if (f.paused()) {
             g.drawString("PAUSED", getWidth() / 2 - 20, 20);
         }
-        if (gameOver) {
+        if (client != null && client.isMatchOver()) {
+            boolean won = client.winner() == client.playerId() && !client.isSpectating();
+            g.drawString(won ? "YOU WIN" : "MATCH OVER", getWidth() / 2 - 35, 35);
+        }
+        if (f.gameOver()) {
             g.drawString("GAME OVER", getWidth() / 2 - 30, 20);
         }
+
+        lastFrameNanos = System.nanoTime() - frameStart;
+        Metrics.PAINT.record(lastFrameNanos);
+        event.cellsDrawn = cellsDrawn;
+        event.commit();
+        averageFrameNanos += (lastFrameNanos - averageFrameNanos) * 0.1;
+        if (showFrameTime) {
+            g.setColor(Color.WHITE);
+            Rectangle r = overlayBounds();
+            g.drawString(String.format("frame %.3f ms (avg %.3f)", lastFrameNanos / 1e6, averageFrameNanos / 1e6),
+                    r.x + 5, r.y + r.height - 5);
+        }
     }
 
+    // Redraws the locked cells of the visible rows into the cached board image
+    private void renderBoardImage(GameLoop.Frame f) {
+        Graphics2D g = boardImage.createGraphics();
+        try {
+            for (int y = hidden; y < rows; y++) {
+                for (int x = 0; x < columns; x++) {
+                    g.drawImage(CELL_SPRITES[f.cell(x, y)], x * CELL_SIZE, (y - hidden) * CELL_SIZE, null);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        renderedBoardVersion = f.boardVersion();
+    }
 
-    // Draws a single cell of the main board at the given grid position
-    private void drawCell(Graphics2D g, int cx, int cy, int value) {
-        int x = cx * CELL_SIZE;
-        int y = cy * CELL_SIZE;
-        if (value == 0) {
-            g.setColor(new Color(25, 25, 25));
-        } else {
-            Tetromino t = Tetromino.values()[value - 1];
-            g.setColor(COLORS.getOrDefault(t, new Color(60, 60, 60)));
+    // Renders one cell: a filled square of the given color with a dark outline
+    private static BufferedImage sprite(Color color, int size, int inner) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(color);
+            g.fillRect(0, 0, inner, inner);
+            g.setColor(Color.DARK_GRAY);
+            g.drawRect(0, 0, inner, inner);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    // Called on the loop thread (or the client's reader thread) with each new frame; repaint requests are
+    // safe from any thread
+    private void onFrame(GameLoop.Frame next) {
+        GameLoop.Frame previous = frame;
+        frame = next;
+        FlightRecording recording = FlightRecording.active();
+        if (recording != null && next.gameOver() && !previous.gameOver()) {
+            recording.dump("gameover");
+        }
+        if (client != null && client.isMatchOver() && !matchOverShown) {
+            matchOverShown = true;
+            repaint();
+            return;
+        }
+        repaintStep(previous, next);
+    }
+
+    // Pixel bounds of the frame's piece cells that are visible, or null when it is still above the visible rows
+    private Rectangle pieceBounds(GameLoop.Frame f) {
+        Tetromino type = f.pieceType();
+        int r = f.pieceRotation();
+        int top = Math.max(f.pieceY() + type.minY[r], hidden);
+        int bottom = f.pieceY() + type.maxY[r];
+        if (bottom < top) {
+            return null;
         }
-        g.fillRect(x, y, CELL_SIZE - 1, CELL_SIZE - 1);
-        g.setColor(Color.DARK_GRAY);
-        g.drawRect(x, y, CELL_SIZE - 1, CELL_SIZE - 1);
+        int left = f.pieceX() + type.minX[r];
+        int right = f.pieceX() + type.maxX[r];
+        return new Rectangle(left * CELL_SIZE, (top - hidden) * CELL_SIZE,
+                (right - left + 1) * CELL_SIZE, (bottom - top + 1) * CELL_SIZE);
     }
 
+    // Repaints only what changed between two frames: the old and new piece bounds while the piece is falling,
+    // the whole panel once the board, score, preview or status changes
+    private void repaintStep(GameLoop.Frame before, GameLoop.Frame after) {
+        if (before.boardVersion() != after.boardVersion() || before.score() != after.score()
+                || before.nextPiece() != after.nextPiece() || before.paused() != after.paused()
+                || before.gameOver() != after.gameOver()) {
+            repaint();
+            return;
+        }
+        Rectangle oldBounds = pieceBounds(before);
+        Rectangle newBounds = pieceBounds(after);
+        Rectangle dirty = oldBounds == null ? newBounds : newBounds == null ? oldBounds : oldBounds.union(newBounds);
+        if (dirty != null) {
+            repaint(dirty);
+        }
+        if (showFrameTime) {
+            repaint(overlayBounds());
+        }
+    }
 
+    private Rectangle overlayBounds() {
+        return new Rectangle(0, getHeight() - 20, 220, 20);
+    }
 
-    private void drawSmall(Graphics2D g, int x, int y, int value) {
-        Tetromino t = Tetromino.values()[value - 1];
-        g.setColor(COLORS.getOrDefault(t, new Color(60, 60, 60)));
-        g.fillRect(x, y, 16, 16);
-        g.setColor(Color.DARK_GRAY);
-        g.drawRect(x, y, 16, 16);
+    // Shows or hides the frame time overlay
+    public void toggleFrameTime() {
+        showFrameTime = !showFrameTime;
+        repaint();
     }
 
 
     @Override
     public void keyPressed(KeyEvent e) {
-        if (gameOver) return;
-
+        if (e.isControlDown()) {
+            if (client != null) {
+                return;
+            }
+            switch (e.getKeyCode()) {
+                case KeyEvent.VK_Z -> loop.undo();
+                case KeyEvent.VK_Y -> loop.redo();
+                default -> {
+                }
+            }
+            return;
+        }
         switch (e.getKeyCode()) {
-            case KeyEvent.VK_LEFT -> tryMove(-1, 0);
-            case KeyEvent.VK_RIGHT -> tryMove(1, 0);
-            case KeyEvent.VK_DOWN -> tryMove(0, 1);
-            case KeyEvent.VK_UP, KeyEvent.VK_X -> tryRotate(+1);
-            case KeyEvent.VK_Z -> tryRotate(-1);
-            case KeyEvent.VK_SPACE -> hardDrop();
             case KeyEvent.VK_P -> togglePause();
+            case KeyEvent.VK_F3 -> toggleFrameTime();
+            case KeyEvent.VK_A -> toggleAutoplay();
+            default -> {
+                Action action = actionFor(e.getKeyCode());
+                if (action != null && client != null) {
+                    client.press(action);
+                } else if (action != null) {
+                    loop.press(action);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+        Action action = actionFor(e.getKeyCode());
+        if (action != null && client != null) {
+            client.release(action);
+        } else if (action != null) {
+            loop.release(action);
         }
     }
 
-    @Override public void keyReleased(KeyEvent e) { }
     @Override public void keyTyped(KeyEvent e) { }
+
+    private static Action actionFor(int keyCode) {
+        return switch (keyCode) {
+            case KeyEvent.VK_LEFT -> Action.LEFT;
+            case KeyEvent.VK_RIGHT -> Action.RIGHT;
+            case KeyEvent.VK_DOWN -> Action.SOFT_DROP;
+            case KeyEvent.VK_UP, KeyEvent.VK_X -> Action.ROTATE_CW;
+            case KeyEvent.VK_Z -> Action.ROTATE_CCW;
+            case KeyEvent.VK_SPACE -> Action.HARD_DROP;
+            default -> null;
+        };
+    }
 }
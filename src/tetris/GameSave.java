@@ -11,12 +11,20 @@ public class GameSave implements Serializable {
     public final Piece currentPiece;
     public final Tetromino nextPiece;
     public final int score;
+    // Lines cleared so far, which set the level and gravity; saves written before this field read as 0
+    public final int lines;
 
     //// Stores all required components of the game state.
-    public GameSave(Board board, Piece currentPiece, Tetromino nextPiece, int score) {
+    public GameSave(Board board, Piece currentPiece, Tetromino nextPiece, int score, int lines) {
         this.board = board;
         this.currentPiece = currentPiece;
         this.nextPiece = nextPiece;
         this.score = score;
+        this.lines = lines;
+    }
+
+    // A save at level 0, with no lines cleared
+    public GameSave(Board board, Piece currentPiece, Tetromino nextPiece, int score) {
+        this(board, currentPiece, nextPiece, score, 0);
     }
 }
@@ -0,0 +1,34 @@
+package tetris;
+
+// Scores a board after a piece has been locked and its lines cleared; higher is better.
+// PlacementSearch.best() picks the placement whose resulting board scores highest
+@FunctionalInterface
+public interface Heuristic {
+
+    double evaluate(Board board, int linesCleared);
+
+    // Weights tuned for this feature set by Yiyuan Lee's genetic search ("Tetris AI: the (near) perfect bot")
+    Heuristic DEFAULT = weighted(-0.510066, 0.760666, -0.35663, -0.184483);
+
+    // Linear combination of the four classic features
+    static Heuristic weighted(double aggregateHeight, double completeLines, double holes, double bumpiness) {
+        return (board, linesCleared) -> aggregateHeight * board.aggregateHeight()
+                + completeLines * linesCleared
+                + holes * board.holes()
+                + bumpiness * board.bumpiness();
+    }
+
+    // Remembers another heuristic's scores in a cache keyed by the board's Zobrist hash and the line count,
+    // so positions met again in later moves or other games are not re-evaluated
+    static Heuristic cached(Heuristic heuristic, TranspositionCache cache) {
+        return (board, linesCleared) -> {
+            long key = board.zobrist() ^ linesCleared * 0xC2B2AE3D27D4EB4FL;
+            double value = cache.get(key);
+            if (Double.isNaN(value)) {
+                value = heuristic.evaluate(board, linesCleared);
+                cache.put(key, value);
+            }
+            return value;
+        };
+    }
+}
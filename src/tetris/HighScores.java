@@ -20,9 +20,14 @@ public class HighScores implements Serializable {
 
         // Creates a new score entry
         public Entry(String name, int score) {
+            this(name, score, LocalDateTime.now());
+        }
+
+        // Recreates an entry that was recorded earlier
+        public Entry(String name, int score, LocalDateTime createdAt) {
             this.name = name;
             this.score = score;
-            this.createdAt = LocalDateTime.now();
+            this.createdAt = createdAt;
         }
     }
 
@@ -31,11 +36,20 @@ public class HighScores implements Serializable {
 
     //Adds a new result and sorts entries
     public void add(String name, int score) {
+        long start = Metrics.start();
+        GameEvents.HighScore event = new GameEvents.HighScore();
+        event.begin();
         entries.add(new Entry(name, score));
         entries.sort(Comparator.comparingInt((Entry e) -> e.score).reversed());
         if (entries.size() > 10) {
             entries.remove(entries.size() - 1);
         }
+        Metrics.HIGH_SCORE_ADD.recordSince(start);
+        if (event.shouldCommit()) {
+            event.name = name;
+            event.score = score;
+            event.commit();
+        }
     }
 
     public List<Entry> top() {
@@ -0,0 +1,205 @@
+package tetris;
+
+import java.util.Arrays;
+
+// Wall kicks of a rule set: for every piece and rotation transition, the (x, y) offsets tried in order until
+// the rotated piece fits. Each table is precomputed into one occupancy mask per test over a small window of
+// the board around the piece (at most 64 cells, one bit each), so resolving a rotation reads the window's
+// rows once and returns the first test whose mask misses the occupancy: no per-test bounds checks, no
+// allocation. Immutable and shared by every game of the rule set
+final class KickTable {
+
+    private static final Tetromino[] TYPES = Tetromino.values();
+    private static final int TRANSITIONS = 8;
+
+    static final KickTable SRS = srs();
+
+    private final String name;
+    // Test index of SRS's T-spin triple kick, which makes any T-spin it ends a full one; -1 in tables without it
+    private final int tripleKick;
+
+    // Tests per transition of each piece; offsets of test i of transition t are kickX[type][t * tests + i]
+    private final int[] tests;
+    private final int[][] kickX;
+    private final int[][] kickY;
+
+    // Per (type, transition), c = type * TRANSITIONS + t: the window's corner relative to the piece, its size,
+    // and the mask of each test's cells in it (bit (y - top) * cols + x - left). masks[c] is null when the
+    // window would exceed 64 cells, which only very wide custom tables reach; those fall back to canPlace
+    private final int[] left;
+    private final int[] top;
+    private final int[] cols;
+    private final int[] rows;
+    private final long[][] masks;
+
+    private KickTable(String name, int tripleKick, int[] tests, int[][] kickX, int[][] kickY) {
+        this.name = name;
+        this.tripleKick = tripleKick;
+        this.tests = tests;
+        this.kickX = kickX;
+        this.kickY = kickY;
+        int combos = TYPES.length * TRANSITIONS;
+        left = new int[combos];
+        top = new int[combos];
+        cols = new int[combos];
+        rows = new int[combos];
+        masks = new long[combos][];
+        for (Tetromino type : TYPES) {
+            for (int t = 0; t < TRANSITIONS; t++) {
+                precompute(type, t);
+            }
+        }
+    }
+
+    private static KickTable srs() {
+        int[] tests = new int[TYPES.length];
+        int[][] kickX = new int[TYPES.length][];
+        int[][] kickY = new int[TYPES.length][];
+        for (Tetromino type : TYPES) {
+            kickX[type.ordinal()] = type.srsKickX();
+            kickY[type.ordinal()] = type.srsKickY();
+            tests[type.ordinal()] = type.srsKickX().length / TRANSITIONS;
+        }
+        return new KickTable("SRS", Tetromino.SRS_TESTS - 1, tests, kickX, kickY);
+    }
+
+    // The same offsets for every piece and transition, like the original four-offset table
+    static KickTable uniform(int[] x, int[] y) {
+        if (x.length != y.length || x.length == 0) {
+            throw new IllegalArgumentException("kick table needs matching, non-empty x and y offsets");
+        }
+        int[] allX = new int[x.length * TRANSITIONS];
+        int[] allY = new int[y.length * TRANSITIONS];
+        for (int t = 0; t < TRANSITIONS; t++) {
+            System.arraycopy(x, 0, allX, t * x.length, x.length);
+            System.arraycopy(y, 0, allY, t * y.length, y.length);
+        }
+        int[] tests = new int[TYPES.length];
+        int[][] kickX = new int[TYPES.length][];
+        int[][] kickY = new int[TYPES.length][];
+        Arrays.fill(tests, x.length);
+        Arrays.fill(kickX, allX);
+        Arrays.fill(kickY, allY);
+        return new KickTable("uniform " + x.length, -1, tests, kickX, kickY);
+    }
+
+    // Index of the clockwise (from -> from + 1) or counter-clockwise (from -> from - 1) transition
+    static int transition(int from, int to) {
+        if (to == ((from + 1) & 3)) {
+            return from * 2;
+        }
+        if (to == ((from + 3) & 3)) {
+            return from * 2 + 1;
+        }
+        throw new IllegalArgumentException("no kick table for rotation " + from + " -> " + to);
+    }
+
+    // Bounding box of all tests' cells, then each test's cells as bits of it
+    private void precompute(Tetromino type, int t) {
+        int c = type.ordinal() * TRANSITIONS + t;
+        int n = tests[type.ordinal()];
+        int to = t % 2 == 0 ? (t / 2 + 1) & 3 : (t / 2 + 3) & 3;
+        int x0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE, y0 = Integer.MAX_VALUE, y1 = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            int kx = kickX[type.ordinal()][t * n + i], ky = kickY[type.ordinal()][t * n + i];
+            x0 = Math.min(x0, kx + type.minX[to]);
+            x1 = Math.max(x1, kx + type.maxX[to]);
+            y0 = Math.min(y0, ky + type.minY[to]);
+            y1 = Math.max(y1, ky + type.maxY[to]);
+        }
+        left[c] = x0;
+        top[c] = y0;
+        cols[c] = x1 - x0 + 1;
+        rows[c] = y1 - y0 + 1;
+        if (cols[c] * rows[c] > 64) {
+            return;
+        }
+        long[] m = new long[n];
+        for (int i = 0; i < n; i++) {
+            int kx = kickX[type.ordinal()][t * n + i], ky = kickY[type.ordinal()][t * n + i];
+            for (int packed : type.offsets[to]) {
+                int wx = kx + Tetromino.unpackX(packed) - x0;
+                int wy = ky + Tetromino.unpackY(packed) - y0;
+                m[i] |= 1L << (wy * cols[c] + wx);
+            }
+        }
+        masks[c] = m;
+    }
+
+    // Rotates (type, from) at (x, y) to `to`: returns the index of the first test that fits, or -1 if none does.
+    // The first test is almost always a plain rotation in open space, so it is tried straight on the board
+    int resolve(Board board, Tetromino type, int from, int to, int x, int y) {
+        int t = transition(from, to);
+        int n = tests[type.ordinal()];
+        int[] kx = kickX[type.ordinal()], ky = kickY[type.ordinal()];
+        if (board.canPlace(type, to, x + kx[t * n], y + ky[t * n])) {
+            return 0;
+        }
+        int c = type.ordinal() * TRANSITIONS + t;
+        long[] m = masks[c];
+        if (m == null) {
+            for (int i = 1; i < n; i++) {
+                if (board.canPlace(type, to, x + kx[t * n + i], y + ky[t * n + i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        long window = window(board, x + left[c], y + top[c], cols[c], rows[c]);
+        for (int i = 1; i < n; i++) {
+            if ((window & m[i]) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Occupancy of the cols x rows cells from (wx, wy), row by row; cells outside the board read as occupied
+    private static long window(Board board, int wx, int wy, int cols, int rows) {
+        long colMask = -1L >>> (64 - cols);
+        long outside = ~(-1L >>> (64 - board.width()));
+        long window = 0;
+        for (int r = 0; r < rows; r++) {
+            int y = wy + r;
+            long bits;
+            if (y < 0 || y >= board.height() || wx >= 64 || wx <= -64) {
+                bits = -1L;
+            } else {
+                long row = board.rowMask(y) | outside;
+                bits = wx >= 0 ? row >>> wx | (wx == 0 ? 0 : -1L << (64 - wx)) : row << -wx | ~(-1L << -wx);
+            }
+            window |= (bits & colMask) << (r * cols);
+        }
+        return window;
+    }
+
+    int tripleKick() {
+        return tripleKick;
+    }
+
+    int tests(Tetromino type) {
+        return tests[type.ordinal()];
+    }
+
+    // All offsets of a piece, indexed [transition * tests(type) + i]
+    int[] kickX(Tetromino type) {
+        return kickX[type.ordinal()];
+    }
+
+    int[] kickY(Tetromino type) {
+        return kickY[type.ordinal()];
+    }
+
+    int x(Tetromino type, int from, int to, int i) {
+        return kickX[type.ordinal()][transition(from, to) * tests[type.ordinal()] + i];
+    }
+
+    int y(Tetromino type, int from, int to, int i) {
+        return kickY[type.ordinal()][transition(from, to) * tests[type.ordinal()] + i];
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
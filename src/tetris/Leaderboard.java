@@ -0,0 +1,176 @@
+package tetris;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Thread-safe leaderboard over a ScoreStore. Submissions are lock-free: they go onto a concurrent queue and
+// return immediately. A single background writer drains the queue in batches, applies each batch to the store
+// under the write lock and flushes it to disk. Readers share the read lock, so top(k) and rankOf always see the
+// state between two whole batches, never a half-applied one. Compaction rewrites the file outside the lock;
+// only swapping the result in takes the write lock
+public final class Leaderboard implements Closeable {
+
+    // Upper bound on entries applied per write-lock hold, so readers are never blocked for long
+    private static final int MAX_BATCH = 256;
+
+    private final ScoreStore store;
+    private final ConcurrentLinkedQueue<HighScores.Entry> pending = new ConcurrentLinkedQueue<>();
+    private final LongAdder submitted = new LongAdder();
+    // Entries taken off the queue and appended to the store; writer thread only
+    private long applied;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService writer;
+    private final ScheduledFuture<?> drainTask;
+    // Why the last drain failed: an IOException from the disk, or a RuntimeException from the store
+    private volatile Exception failure;
+
+    // Wraps the store and drains submissions into it every flushMillis milliseconds.
+    // The leaderboard takes ownership of the store and closes it on close()
+    public Leaderboard(ScoreStore store, long flushMillis) {
+        this.store = store;
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "leaderboard-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.drainTask = writer.scheduleWithFixedDelay(this::drainQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Queues a result; never blocks. It becomes visible to readers after the next background batch
+    public void submit(String name, int score) {
+        submit(new HighScores.Entry(name, score));
+    }
+
+    public void submit(HighScores.Entry entry) {
+        pending.add(entry);
+        submitted.increment();
+    }
+
+    // Total number of results submitted so far, applied or not
+    public long submitted() {
+        return submitted.sum();
+    }
+
+    // The best k applied entries, best first
+    public List<HighScores.Entry> top(int k) {
+        lock.readLock().lock();
+        try {
+            return store.top(k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 1-based rank a result with this score would get among the applied entries
+    public int rankOf(int score) {
+        lock.readLock().lock();
+        try {
+            return store.rankOf(score);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Number of applied entries
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return store.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Applies everything submitted before this call and waits until it is on disk
+    public void flush() throws IOException {
+        try {
+            writer.submit(this::drainQuietly).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing leaderboard", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        Exception error = failure;
+        if (error instanceof IOException e) {
+            throw e;
+        }
+        if (error != null) {
+            throw (RuntimeException) error;
+        }
+    }
+
+    // Runs on the writer thread only. A drain that succeeds clears the failure of an earlier one; a failed one
+    // leaves the entry it could not append at the head of the queue for the next drain. Unchecked exceptions are
+    // caught too: one escaping would make the executor cancel the periodic drain without a word
+    private void drainQuietly() {
+        try {
+            drain();
+            failure = null;
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+    }
+
+    // Applies the entries submitted before it started, so producers that keep submitting cannot hold it up.
+    // An entry leaves the queue only once the store has it
+    private void drain() throws IOException {
+        long target = submitted.sum();
+        while (applied < target) {
+            lock.writeLock().lock();
+            try {
+                HighScores.Entry entry;
+                int n = 0;
+                while (n < MAX_BATCH && applied < target && (entry = pending.peek()) != null) {
+                    store.append(entry);
+                    pending.poll();
+                    applied++;
+                    n++;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            store.flush();
+            if (store.needsCompaction()) {
+                // Only this thread changes the store, so readers can go on while the new file is written. A
+                // failed compaction is logged and retried later rather than failing the drain, whose entries are in
+                store.compactQuietly(() -> {
+                    ScoreStore.Compaction compaction = store.prepareCompaction();
+                    lock.writeLock().lock();
+                    try {
+                        store.commit(compaction);
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                });
+            }
+        }
+    }
+
+    // Applies pending submissions, stops the writer and closes the store
+    @Override
+    public void close() throws IOException {
+        drainTask.cancel(false);
+        try {
+            flush();
+        } finally {
+            writer.shutdown();
+            lock.writeLock().lock();
+            try {
+                store.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package tetris;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+// Hosts competitive matches over TCP with NetProtocol. One thread owns a Selector, every connection and every
+// game: each player gets a GameEngine driven by its own GameLoop, stepped by hand rather than on a loop thread,
+// so the server runs thousands of games without locks or extra threads. Every 1/60 s it applies the inputs that
+// arrived since the last tick, steps every game, routes garbage between the players of a match and then writes
+// each client the tick's messages at once (a changed frame, garbage events) with one write call.
+// Players are grouped into matches of playersPerMatch in order of arrival; everyone in a match gets the same
+// seed, so the same pieces. Clearing lines sends garbage to the next player of the match still standing, and
+// the last one standing wins the match. Spectators watch one player's game and receive the same frames.
+// A changed board is sent either as its changed rows or, usually shorter, as the Board.Delta logged since the
+// frame before, which is taken once per tick and player and shared by every connection showing that game
+public final class MatchServer implements Runnable, Closeable {
+
+    // Garbage lines sent for clearing 0..4 lines, and for a full T-spin per cleared line
+    private static final int[] ATTACK = {0, 0, 1, 2, 4};
+    private static final int T_SPIN_ATTACK = 2;
+
+    // Outgoing bytes a client may fall behind by before it is dropped; a tick writes well under 200
+    private static final int OUT_BUFFER = 16 * 1024;
+    private static final int IN_BUFFER = 1024;
+
+    // Ticks whose latency is kept for percentiles
+    private static final int LATENCY_WINDOW = 1 << 16;
+
+    // After a stall the tick clock skips ahead rather than running this many ticks back to back
+    private static final int MAX_LATE_TICKS = 5;
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final int playersPerMatch;
+    private final long seed;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private final List<Player> players = new ArrayList<>();
+    private final List<Match> matches = new ArrayList<>();
+    private final List<Player> dropped = new ArrayList<>();
+    private Match filling;
+    private int nextPlayerId;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    // Time from each tick's deadline until its last write was issued, in a ring of the latest ticks
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long ticks;
+    private long bytesSent;
+    private long writes;
+
+    // A connection and, once it said HELLO, its game; or once it said SPECTATE, the player it watches
+    private final class Player implements GameEngine.LockListener {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(IN_BUFFER);
+        final ByteBuffer out = ByteBuffer.allocateDirect(OUT_BUFFER);
+
+        int id = -1;
+        Match match;
+        GameEngine engine;
+        GameLoop loop;
+        GameLoop.Frame sent;
+        int lines;
+        boolean closed;
+        // Set when the client fell behind; it is dropped at the end of the tick
+        boolean lagging;
+
+        // The game's last frame sent to its viewers; every viewer that has had a frame is at this one
+        GameLoop.Frame published;
+        final List<Player> spectators = new ArrayList<>(0);
+        Player watching;
+
+        Player(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        boolean joined() {
+            return engine != null || watching != null;
+        }
+
+        // Still in the game: connected and not topped out
+        boolean standing() {
+            return !closed && !engine.isGameOver();
+        }
+
+        // Room for an event message; a client that lets this much pile up is dropped at the end of the tick
+        boolean hasRoom() {
+            return !closed && out.remaining() >= NetProtocol.HEADER + NetProtocol.MAX_PAYLOAD;
+        }
+
+        // Routes the attack of every lock; the engine calls this on the server thread during step()
+        @Override
+        public void pieceLocked(GameEngine engine, Tetromino type, int rotation, int x, int y) {
+            int cleared = engine.getLinesCleared() - lines;
+            lines = engine.getLinesCleared();
+            int attack = attack(cleared, engine.getLastSpin());
+            if (attack > 0) {
+                match.sendGarbage(this, attack, type);
+            }
+        }
+    }
+
+    private final class Match {
+        final int id;
+        final long seed;
+        final Random holes;
+        final List<Player> players = new ArrayList<>();
+        boolean over;
+
+        Match(int id) {
+            this.id = id;
+            this.seed = MatchServer.this.seed + id;
+            this.holes = new Random(seed);
+        }
+
+        // Queues garbage on the next player after from who is still playing
+        void sendGarbage(Player from, int lines, Tetromino type) {
+            int i = players.indexOf(from);
+            for (int n = 1; n < players.size(); n++) {
+                Player target = players.get((i + n) % players.size());
+                if (target.standing()) {
+                    int hole = holes.nextInt(Board.WIDTH);
+                    target.engine.addGarbage(lines, hole, type);
+                    if (target.hasRoom()) {
+                        NetProtocol.putGarbage(target.out, from.id, lines, hole);
+                    }
+                    for (Player s : target.spectators) {
+                        if (s.hasRoom()) {
+                            NetProtocol.putGarbage(s.out, from.id, lines, hole);
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+
+        // Ends a full match once at most one player is left standing
+        void checkOver() {
+            if (over || players.size() < playersPerMatch) {
+                return;
+            }
+            Player standing = null;
+            for (Player p : players) {
+                if (p.standing()) {
+                    if (standing != null) {
+                        return;
+                    }
+                    standing = p;
+                }
+            }
+            over = true;
+            int winner = standing == null ? -1 : standing.id;
+            for (Player p : players) {
+                if (p.hasRoom()) {
+                    NetProtocol.putMatchOver(p.out, winner);
+                }
+                for (Player s : p.spectators) {
+                    if (s.hasRoom()) {
+                        NetProtocol.putMatchOver(s.out, winner);
+                    }
+                }
+            }
+        }
+    }
+
+    // Binds to the address (port 0 picks a free one); the server runs once start() is called.
+    // Match seeds are seed + match id
+    public MatchServer(InetSocketAddress address, int playersPerMatch, long seed) throws IOException {
+        if (playersPerMatch < 1) {
+            throw new IllegalArgumentException("a match needs at least one player");
+        }
+        this.playersPerMatch = playersPerMatch;
+        this.seed = seed;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(address, 4096);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "match-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // The bound port, for servers started on port 0
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    // Stops the server thread and closes every connection. The connections belong to the server thread, which
+    // closes them on its way out; a server that never started has none. Closing the selector makes a thread
+    // that outlived the join stop at its next select
+    @Override
+    public void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            running = false;
+        }
+        if (t != null) {
+            selector.wakeup();
+            try {
+                t.join(1_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        server.close();
+        selector.close();
+    }
+
+    // Runs a task on the server thread and waits for its result; games may only be touched from there.
+    // Checking and queueing happen under the lock the exiting server takes to clear running, so the task is
+    // either queued before the server's final runTasks() or sees it stopped
+    <T> T call(Callable<T> task) throws Exception {
+        FutureTask<T> future = new FutureTask<>(task);
+        synchronized (this) {
+            if (!running) {
+                return task.call();
+            }
+            tasks.add(future);
+        }
+        selector.wakeup();
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ex ? ex : e;
+        }
+    }
+
+    // The game loop of a connected player, for use inside call()
+    GameLoop loop(int playerId) {
+        for (Player p : players) {
+            if (p.id == playerId) {
+                return p.loop;
+            }
+        }
+        throw new IllegalArgumentException("no player " + playerId);
+    }
+
+    // Tick latency (deadline to last write) and traffic over the ticks so far
+    public record Stats(long ticks, int players, long p50Nanos, long p90Nanos, long p99Nanos, long p999Nanos,
+                        long maxNanos, long bytesSent, long writes) {
+
+        @Override
+        public String toString() {
+            return String.format("ticks: %d, players: %d%n"
+                            + "tick latency: p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n"
+                            + "sent: %d bytes in %d writes (%.1f bytes/write, %.1f writes/tick)%n",
+                    ticks, players, p50Nanos / 1e6, p90Nanos / 1e6, p99Nanos / 1e6, p999Nanos / 1e6, maxNanos / 1e6,
+                    bytesSent, writes, (double) bytesSent / Math.max(writes, 1), (double) writes / Math.max(ticks, 1));
+        }
+    }
+
+    public Stats stats() throws Exception {
+        return call(() -> {
+            long[] sorted = Arrays.copyOf(latencies, (int) Math.min(ticks, LATENCY_WINDOW));
+            Arrays.sort(sorted);
+            return new Stats(ticks, players.size(), percentile(sorted, 50), percentile(sorted, 90),
+                    percentile(sorted, 99), percentile(sorted, 99.9),
+                    sorted.length == 0 ? 0 : sorted[sorted.length - 1], bytesSent, writes);
+        });
+    }
+
+    // Starts the tick statistics over, e.g. once a load test's clients have all connected
+    void resetStats() throws Exception {
+        call(() -> {
+            ticks = 0;
+            bytesSent = 0;
+            writes = 0;
+            return null;
+        });
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    // Garbage sent for a lock: nothing for a single, then 1, 2 and 4 lines; a full T-spin sends two per line
+    static int attack(int cleared, TSpin spin) {
+        return spin == TSpin.FULL ? cleared * T_SPIN_ATTACK : ATTACK[cleared];
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.nanoTime() + GameLoop.FRAME_NANOS;
+        try {
+            while (running) {
+                long wait = deadline - System.nanoTime();
+                if (wait > 0) {
+                    selector.select(Math.max(1, wait / 1_000_000));
+                } else {
+                    selector.selectNow();
+                }
+                handleKeys();
+                runTasks();
+                long now = System.nanoTime();
+                if (now >= deadline) {
+                    tick();
+                    long latency = System.nanoTime() - deadline;
+                    latencies[(int) (ticks++ % LATENCY_WINDOW)] = latency;
+                    Metrics.SERVER_TICK.record(latency);
+                    deadline += GameLoop.FRAME_NANOS;
+                    if (now - deadline > MAX_LATE_TICKS * GameLoop.FRAME_NANOS) {
+                        deadline = now + GameLoop.FRAME_NANOS;
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                System.err.println("Match server stopped: " + e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Match server failed: " + e);
+            e.printStackTrace();
+        } finally {
+            synchronized (this) {
+                running = false;
+            }
+            runTasks();
+            closeConnections();
+        }
+    }
+
+    // Runs on the server thread as it exits, so clients see their connection end instead of waiting on it
+    private void closeConnections() {
+        for (Player p : players) {
+            p.closed = true;
+            try {
+                p.channel.close();
+            } catch (IOException ignored) {
+                // already gone
+            }
+        }
+        players.clear();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void handleKeys() throws IOException {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                accept();
+                continue;
+            }
+            Player p = (Player) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    read(p);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush(p);
+                }
+            } catch (IOException | BufferUnderflowException e) {
+                disconnect(p);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Player p = new Player(channel, key);
+            key.attach(p);
+            players.add(p);
+        }
+    }
+
+    // Reads whatever arrived and handles every complete message; a HELLO starts the player's game, a SPECTATE
+    // attaches the connection to another player's
+    private void read(Player p) throws IOException {
+        if (p.channel.read(p.in) < 0) {
+            disconnect(p);
+            return;
+        }
+        p.in.flip();
+        int type;
+        while ((type = NetProtocol.peekType(p.in)) >= 0) {
+            ByteBuffer payload = NetProtocol.payload(p.in);
+            if (type == NetProtocol.HELLO && !p.joined()) {
+                NetProtocol.checkHello(payload);
+                if (payload.hasRemaining()) {
+                    throw new IOException("Corrupt hello");
+                }
+                join(p);
+            } else if (type == NetProtocol.SPECTATE && !p.joined()) {
+                NetProtocol.checkHello(payload);
+                spectate(p, (int) NetProtocol.getVarint(payload));
+            } else if (type == NetProtocol.INPUT && p.engine != null) {
+                while (payload.hasRemaining()) {
+                    int input = payload.get() & 0xFF;
+                    Action action = NetProtocol.action(input);
+                    if ((input & NetProtocol.RELEASE) != 0) {
+                        p.loop.release(action);
+                    } else {
+                        p.loop.press(action);
+                    }
+                }
+            } else {
+                throw new IOException("Unexpected message " + type);
+            }
+        }
+        p.in.compact();
+        if (!p.in.hasRemaining()) {
+            throw new IOException("Message too long");
+        }
+    }
+
+    private void join(Player p) {
+        if (filling == null || filling.players.size() == playersPerMatch) {
+            filling = new Match(matches.size());
+            matches.add(filling);
+        }
+        p.id = nextPlayerId++;
+        p.match = filling;
+        p.engine = new GameEngine(filling.seed, 0, PieceGenerator.Kind.BAG, RuleSet.STANDARD);
+        p.engine.setLockListener(p);
+        p.loop = new GameLoop(p.engine, null, frame -> { });
+        filling.players.add(p);
+        p.engine.getBoard().checkpoint();
+        NetProtocol.putWelcome(p.out, p.id, filling.id, filling.seed);
+    }
+
+    private void spectate(Player p, int playerId) throws IOException {
+        for (Player target : players) {
+            if (target.id == playerId && target.engine != null) {
+                p.watching = target;
+                target.spectators.add(p);
+                NetProtocol.putWelcome(p.out, target.id, target.match.id, target.match.seed);
+                return;
+            }
+        }
+        throw new IOException("No player " + playerId + " to watch");
+    }
+
+    // Steps every game, then sends each client what changed in one write
+    private void tick() {
+        for (int i = 0; i < players.size(); i++) {
+            Player p = players.get(i);
+            if (p.loop != null) {
+                p.loop.runTasks();
+                p.loop.step();
+                p.loop.publish();
+            }
+        }
+        for (Match match : matches) {
+            match.checkOver();
+        }
+        for (int i = 0; i < players.size(); i++) {
+            Player p = players.get(i);
+            if (p.loop != null) {
+                publish(p);
+            }
+        }
+        for (int i = 0; i < players.size(); i++) {
+            Player p = players.get(i);
+            if (!p.lagging && p.out.position() > 0 && (p.key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+                try {
+                    flush(p);
+                } catch (IOException e) {
+                    p.lagging = true;
+                }
+            }
+            if (p.lagging) {
+                dropped.add(p);
+            }
+        }
+        for (Player p : dropped) {
+            disconnect(p);
+        }
+        dropped.clear();
+    }
+
+    // Queues p's latest frame for p and its spectators. When the board changed, its log since the frame published
+    // before goes to every viewer that had that frame, and the log starts over from this one
+    private void publish(Player p) {
+        GameLoop.Frame frame = p.loop.latestFrame();
+        GameLoop.Frame published = p.published;
+        boolean changed = frame != published;
+        Board.Delta delta = null;
+        if (changed && (published == null || frame.boardVersion() != published.boardVersion())) {
+            Board board = p.engine.getBoard();
+            delta = board.delta();
+            board.checkpoint();
+        }
+        send(p, frame, published, delta);
+        for (Player s : p.spectators) {
+            send(s, frame, published, delta);
+        }
+        p.published = frame;
+    }
+
+    private void send(Player viewer, GameLoop.Frame frame, GameLoop.Frame published, Board.Delta delta) {
+        if (viewer.sent == frame || viewer.lagging) {
+            return;
+        }
+        if (!viewer.hasRoom()) {
+            viewer.lagging = true;
+            return;
+        }
+        boolean inSync = viewer.sent != null && viewer.sent == published;
+        NetProtocol.putFrame(viewer.out, viewer.sent, frame, inSync ? delta : null);
+        viewer.sent = frame;
+    }
+
+    // Writes the pending bytes; what the socket does not take is sent when it becomes writable again
+    private void flush(Player p) throws IOException {
+        p.out.flip();
+        int written = p.channel.write(p.out);
+        bytesSent += written;
+        writes++;
+        p.out.compact();
+        p.key.interestOps(p.out.position() > 0
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    // Drops a player; the match carries on with the leaver counted as topped out. Its spectators go with it
+    private void disconnect(Player p) {
+        if (p.closed) {
+            return;
+        }
+        p.closed = true;
+        players.remove(p);
+        if (p.watching != null) {
+            p.watching.spectators.remove(p);
+        }
+        while (!p.spectators.isEmpty()) {
+            disconnect(p.spectators.get(p.spectators.size() - 1));
+        }
+        p.key.cancel();
+        try {
+            p.channel.close();
+        } catch (IOException ignored) {
+            // already gone
+        }
+        if (p.match != null) {
+            p.match.checkOver();
+        }
+    }
+
+    // Usage: MatchServer [port] [playersPerMatch]. Serves matches until the process is killed,
+    // printing the tick latency and traffic every 10 seconds
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7474;
+        int playersPerMatch = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        long seed = new Random().nextLong();
+        try (MatchServer server = new MatchServer(new InetSocketAddress(port), playersPerMatch, seed)) {
+            server.start();
+            System.out.println("Serving " + playersPerMatch + "-player matches on port " + server.port());
+            while (true) {
+                Thread.sleep(10_000);
+                System.out.print(server.stats());
+            }
+        }
+    }
+}
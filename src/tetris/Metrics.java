@@ -0,0 +1,331 @@
+package tetris;
+
+import javax.management.*;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters and latency histograms for the engine, rendering and persistence.
+// Switched on with -Dtetris.metrics=true. ENABLED is a static final, so when it is off the JIT folds every
+// increment and timing call down to nothing: no allocation, no clock reads, no shared writes.
+// When it is on, counters are LongAdders and histograms are fixed arrays of buckets, so recording never
+// allocates and threads do not contend on one cache line. Readers (JMX, the CSV dump) sum them on demand
+public final class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("tetris.metrics");
+
+    private static final List<Counter> COUNTERS = new ArrayList<>();
+    private static final List<Histogram> HISTOGRAMS = new ArrayList<>();
+
+    // Board-level counters include the boards that searches and bots play out, not just the visible game
+    public static final Counter TICKS = counter("ticks");
+    public static final Counter PIECES_LOCKED = counter("piecesLocked");
+    public static final Counter LINES_CLEARED = counter("linesCleared");
+    public static final Counter CAN_PLACE = counter("canPlace");
+
+    // Summed over every TranspositionCache. cacheBytes is a gauge rather than a count: the slot arrays of the
+    // caches still alive, going down again as each one is closed or collected
+    public static final Counter CACHE_HITS = counter("cacheHits");
+    public static final Counter CACHE_MISSES = counter("cacheMisses");
+    public static final Counter CACHE_EVICTIONS = counter("cacheEvictions");
+    public static final Counter CACHE_BYTES = counter("cacheBytes");
+
+    public static final Histogram PAINT = histogram("paint");
+    public static final Histogram SAVE = histogram("save");
+    public static final Histogram LOAD = histogram("load");
+    public static final Histogram HIGH_SCORE_ADD = histogram("highScoreAdd");
+    public static final Histogram AUTOSAVE = histogram("autosave");
+    public static final Histogram SERVER_TICK = histogram("serverTick");
+
+    private Metrics() {
+    }
+
+    private static Counter counter(String name) {
+        Counter counter = new Counter(name);
+        COUNTERS.add(counter);
+        return counter;
+    }
+
+    private static Histogram histogram(String name) {
+        Histogram histogram = new Histogram(name);
+        HISTOGRAMS.add(histogram);
+        return histogram;
+    }
+
+    // Start time for Histogram.recordSince, or 0 without reading the clock when metrics are off
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    public static List<Counter> counters() {
+        return Collections.unmodifiableList(COUNTERS);
+    }
+
+    public static List<Histogram> histograms() {
+        return Collections.unmodifiableList(HISTOGRAMS);
+    }
+
+    // A monotonically increasing count, or a gauge when it is also given negative amounts
+    public static final class Counter {
+        private final String name;
+        private final LongAdder adder = new LongAdder();
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public void increment() {
+            if (ENABLED) {
+                adder.increment();
+            }
+        }
+
+        public void add(long n) {
+            if (ENABLED) {
+                adder.add(n);
+            }
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long sum() {
+            return adder.sum();
+        }
+    }
+
+    // Latency histogram in nanoseconds with HdrHistogram's bucket layout: values below 32 get a bucket each,
+    // and every power of two above is split into 16 equal buckets, so any recorded value is reported
+    // within 1/16 (about 6%) of its true size. 960 buckets cover the whole long range
+    public static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final String name;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        static int bucket(long value) {
+            if (value < 2 * SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - SUB_BUCKET_BITS - Long.numberOfLeadingZeros(value);
+            return shift * SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        // Largest value that falls into the bucket
+        static long highestValue(int bucket) {
+            if (bucket < 2 * SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+            return ((sub + 1) << shift) - 1;
+        }
+
+        public void record(long nanos) {
+            if (ENABLED) {
+                long value = Math.max(nanos, 0);
+                counts.getAndIncrement(bucket(value));
+                total.add(value);
+                max.accumulate(value);
+            }
+        }
+
+        // Records the time since a Metrics.start() reading
+        public void recordSince(long start) {
+            if (ENABLED) {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long count() {
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                n += counts.get(i);
+            }
+            return n;
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public double mean() {
+            long n = count();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        // Value at the given percentile (0..100), as the upper end of its bucket; 0 when empty
+        public long percentile(double percentile) {
+            long[] snapshot = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max());
+                }
+            }
+            return max();
+        }
+    }
+
+    // Publishes every counter and histogram summary as a read-only attribute of tetris:type=Metrics
+    public static void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("tetris:type=Metrics");
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new MetricsMBean(), name);
+        }
+    }
+
+    // Column names of the CSV dump and attribute names of the MBean, in the same order as values()
+    static List<String> columns() {
+        List<String> columns = new ArrayList<>();
+        for (Counter c : COUNTERS) {
+            columns.add(c.name);
+        }
+        for (Histogram h : HISTOGRAMS) {
+            columns.add(h.name + "Count");
+            columns.add(h.name + "P50Nanos");
+            columns.add(h.name + "P99Nanos");
+            columns.add(h.name + "MaxNanos");
+        }
+        return columns;
+    }
+
+    static long[] values() {
+        long[] values = new long[COUNTERS.size() + 4 * HISTOGRAMS.size()];
+        int i = 0;
+        for (Counter c : COUNTERS) {
+            values[i++] = c.sum();
+        }
+        for (Histogram h : HISTOGRAMS) {
+            values[i++] = h.count();
+            values[i++] = h.percentile(50);
+            values[i++] = h.percentile(99);
+            values[i++] = h.max();
+        }
+        return values;
+    }
+
+    // Appends one CSV row of every metric to file each period, writing the header first if the file is new.
+    // Runs on its own daemon thread; close the returned handle to stop
+    public static AutoCloseable startCsvDump(Path file, long periodMillis) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                appendCsv(file);
+            } catch (IOException e) {
+                System.err.println("Could not write metrics: " + e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return executor::shutdown;
+    }
+
+    static void appendCsv(Path file) throws IOException {
+        boolean header = !Files.exists(file) || Files.size(file) == 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (header) {
+                out.write("timeMillis," + String.join(",", columns()));
+                out.newLine();
+            }
+            StringBuilder row = new StringBuilder().append(System.currentTimeMillis());
+            for (long value : values()) {
+                row.append(',').append(value);
+            }
+            out.write(row.toString());
+            out.newLine();
+        }
+    }
+
+    private static final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            int i = columns().indexOf(attribute);
+            if (i < 0) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return values()[i];
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            List<String> columns = columns();
+            long[] values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                int i = columns.indexOf(attribute);
+                if (i >= 0) {
+                    list.add(new Attribute(attribute, values[i]));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<String> columns = columns();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[columns.size()];
+            for (int i = 0; i < attributes.length; i++) {
+                attributes[i] = new MBeanAttributeInfo(columns.get(i), "long", columns.get(i), true, false, false);
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Tetris game metrics" + (ENABLED ? "" : " (disabled)"),
+                    attributes, null, null, null);
+        }
+    }
+}
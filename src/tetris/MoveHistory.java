@@ -0,0 +1,145 @@
+package tetris;
+
+// Undo/redo log of the last N piece locks, kept in preallocated long arrays.
+// An undo entry is one header long (piece, pose, T-spin and the rows it cleared) followed by Board.colorWords()
+// longs of packed colors per cleared row, so on the standard board a lock costs 8 bytes plus 8 per line it cleared.
+// Color words carry the top bit, headers do not, which lets entries be popped from either end.
+// Redo entries only need the header: re-locking the piece recomputes the clear
+final class MoveHistory {
+
+    private static final long CONTINUATION = 1L << 63;
+    private static final int MAX_CLEARED = 4;
+    private static final int POS_OFF = 16;
+    private static final int SPIN_SHIFT = 23 + 7 * MAX_CLEARED;
+    private static final TSpin[] SPINS = TSpin.values();
+
+    private final int capacity;
+    private final int colorWords;
+    private final long[] undo;
+    private int head;
+    private int length;
+    private int moves;
+
+    private final long[] redo;
+    private int redoMoves;
+
+    MoveHistory(int capacity, int colorWords) {
+        this.capacity = capacity;
+        this.colorWords = colorWords;
+        this.undo = new long[capacity * (1 + MAX_CLEARED * colorWords)];
+        this.redo = new long[capacity];
+    }
+
+    // Packs a lock: type, rotation, position, how it scored as a T-spin and the indices (before clearing,
+    // ascending) of up to four cleared rows. Fields are sized for RuleSet.MAX_WIDTH and MAX_HEIGHT
+    static long header(Tetromino type, int rotation, int x, int y, TSpin spin, int cleared, int[] clearedRows) {
+        long h = type.ordinal()
+                | (long) rotation << 3
+                | (long) (x + POS_OFF) << 5
+                | (long) (y + POS_OFF) << 12
+                | (long) cleared << 20
+                | (long) spin.ordinal() << SPIN_SHIFT;
+        for (int i = 0; i < cleared; i++) {
+            h |= (long) clearedRows[i] << (23 + 7 * i);
+        }
+        return h;
+    }
+
+    static Tetromino type(long header) {
+        return Tetromino.values()[(int) (header & 7)];
+    }
+
+    static int rotation(long header) {
+        return (int) (header >>> 3) & 3;
+    }
+
+    static int x(long header) {
+        return (int) (header >>> 5 & 127) - POS_OFF;
+    }
+
+    static int y(long header) {
+        return (int) (header >>> 12 & 255) - POS_OFF;
+    }
+
+    static int cleared(long header) {
+        return (int) (header >>> 20) & 7;
+    }
+
+    static int clearedRow(long header, int i) {
+        return (int) (header >>> (23 + 7 * i)) & 127;
+    }
+
+    static TSpin spin(long header) {
+        return SPINS[(int) (header >>> SPIN_SHIFT) & 3];
+    }
+
+    // Records a lock with the colors of its cleared rows, colorWords longs per row; when the history is full
+    // the oldest move is forgotten
+    void push(long header, long[] clearedColors) {
+        if (capacity == 0) {
+            return;
+        }
+        if (moves == capacity) {
+            int words = 1 + cleared(undo[head]) * colorWords;
+            head = (head + words) % undo.length;
+            length -= words;
+            moves--;
+        }
+        append(header);
+        for (int i = 0; i < cleared(header) * colorWords; i++) {
+            append(clearedColors[i] | CONTINUATION);
+        }
+        moves++;
+    }
+
+    private void append(long word) {
+        undo[(head + length) % undo.length] = word;
+        length++;
+    }
+
+    // Removes the newest move, writing its cleared rows' colors into clearedColors, and returns its header
+    long popUndo(long[] clearedColors) {
+        int words = 0;
+        long word;
+        while (((word = undo[(head + --length) % undo.length]) & CONTINUATION) != 0) {
+            words++;
+        }
+        for (int i = 0; i < words; i++) {
+            clearedColors[i] = undo[(head + length + 1 + i) % undo.length] & ~CONTINUATION;
+        }
+        moves--;
+        return word;
+    }
+
+    void pushRedo(long header) {
+        redo[redoMoves++] = header;
+    }
+
+    long popRedo() {
+        return redo[--redoMoves];
+    }
+
+    void clearRedo() {
+        redoMoves = 0;
+    }
+
+    void clear() {
+        head = 0;
+        length = 0;
+        moves = 0;
+        redoMoves = 0;
+    }
+
+    int undoMoves() {
+        return moves;
+    }
+
+    int redoMoves() {
+        return redoMoves;
+    }
+
+    // Longs in use by undo entries
+    int size() {
+        return length;
+    }
+}
@@ -0,0 +1,262 @@
+package tetris;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// One player's connection to a MatchServer. The server runs the game; this side sends key presses and
+// releases and rebuilds the frames it receives, so GamePanel renders a networked game exactly like a local one.
+// Key events are batched: the first one after a quiet frame is sent at once, later ones wait for the next
+// frame boundary and go out together, so a client writes at most once per frame.
+// A spectating client receives another player's frames the same way and sends nothing
+public final class NetClient implements Closeable {
+
+    // Key events buffered for one batch; more in a single frame are dropped
+    private static final int MAX_BATCH = NetProtocol.MAX_PAYLOAD;
+
+    private final SocketChannel channel;
+    // Received bytes, kept flipped for reading between messages
+    private final ByteBuffer in = ByteBuffer.allocate(4096).flip();
+    private final NetProtocol.Replica replica = new NetProtocol.Replica();
+
+    private final int playerId;
+    private final int matchId;
+    private final long seed;
+    private final boolean spectating;
+
+    private volatile GameLoop.Frame latest;
+    private volatile int winner = -1;
+    private volatile boolean matchOver;
+    private volatile int garbageReceived;
+    private volatile boolean running = true;
+    private Consumer<GameLoop.Frame> renderer;
+    private Thread reader, writer;
+
+    // Key events waiting to be sent, guarded by this
+    private final byte[] inputs = new byte[MAX_BATCH];
+    private int inputCount;
+
+    private NetClient(SocketChannel channel, ByteBuffer hello, boolean spectating) throws IOException {
+        this.channel = channel;
+        this.spectating = spectating;
+        writeFully(hello.flip());
+
+        int type = await();
+        if (type != NetProtocol.WELCOME) {
+            throw new IOException("Expected a welcome, got message " + type);
+        }
+        ByteBuffer welcome = NetProtocol.payload(in);
+        playerId = (int) NetProtocol.getVarint(welcome);
+        matchId = (int) NetProtocol.getVarint(welcome);
+        seed = welcome.getLong();
+        while (replica.frame() == null) {
+            handle(await(), NetProtocol.payload(in));
+        }
+        latest = replica.frame();
+    }
+
+    // Connects, joins a match and waits for the first frame of the game
+    public static NetClient connect(InetSocketAddress address) throws IOException {
+        ByteBuffer hello = ByteBuffer.allocate(NetProtocol.HEADER + 3);
+        NetProtocol.putHello(hello);
+        return open(address, hello, false);
+    }
+
+    // Connects as a spectator of the given player's game and waits for its first frame
+    public static NetClient spectate(InetSocketAddress address, int playerId) throws IOException {
+        ByteBuffer hello = ByteBuffer.allocate(NetProtocol.HEADER + 8);
+        NetProtocol.putSpectate(hello, playerId);
+        return open(address, hello, true);
+    }
+
+    private static NetClient open(InetSocketAddress address, ByteBuffer hello, boolean spectating)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        try {
+            channel.socket().setTcpNoDelay(true);
+            return new NetClient(channel, hello, spectating);
+        } catch (IOException | BufferUnderflowException e) {
+            channel.close();
+            throw e instanceof IOException io ? io : new IOException("Corrupt message from server", e);
+        }
+    }
+
+    // Starts receiving frames; the renderer is called on the client's reader thread with each one, and once more
+    // with the latest frame when the match is over
+    public synchronized void start(Consumer<GameLoop.Frame> renderer) {
+        if (reader != null) {
+            return;
+        }
+        this.renderer = renderer;
+        reader = new Thread(this::receive, "net-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+        if (!spectating) {
+            writer = new Thread(this::send, "net-client-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    // Key events are ignored while spectating
+    public void press(Action action) {
+        queue(NetProtocol.inputByte(action, false));
+    }
+
+    public void release(Action action) {
+        queue(NetProtocol.inputByte(action, true));
+    }
+
+    private synchronized void queue(int input) {
+        if (!spectating && inputCount < MAX_BATCH) {
+            inputs[inputCount++] = (byte) input;
+            notifyAll();
+        }
+    }
+
+    // This player's id, or the watched player's when spectating
+    public int playerId() {
+        return playerId;
+    }
+
+    public boolean isSpectating() {
+        return spectating;
+    }
+
+    public int matchId() {
+        return matchId;
+    }
+
+    // Seed of the match, shared by all its players
+    public long seed() {
+        return seed;
+    }
+
+    // The most recent frame from the server
+    public GameLoop.Frame latestFrame() {
+        return latest;
+    }
+
+    // The winning player's id once the match is over, -1 until then or when nobody was left standing
+    public int winner() {
+        return winner;
+    }
+
+    public boolean isMatchOver() {
+        return matchOver;
+    }
+
+    // Lines of garbage opponents have sent this player so far
+    public int garbageReceived() {
+        return garbageReceived;
+    }
+
+    // The latest frame as a save, for keeping a copy of a networked game
+    public GameSave snapshot() {
+        synchronized (replica) {
+            return replica.save();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        channel.close();
+    }
+
+    private void receive() {
+        try {
+            while (running) {
+                handle(await(), NetProtocol.payload(in));
+            }
+        } catch (IOException | BufferUnderflowException e) {
+            if (running) {
+                System.err.println("Disconnected from server: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handle(int type, ByteBuffer payload) throws IOException {
+        switch (type) {
+            case NetProtocol.FRAME -> {
+                GameLoop.Frame frame;
+                synchronized (replica) {
+                    frame = replica.apply(payload);
+                }
+                latest = frame;
+                if (renderer != null) {
+                    renderer.accept(frame);
+                }
+            }
+            case NetProtocol.GARBAGE -> {
+                NetProtocol.getVarint(payload);
+                garbageReceived += payload.get() & 0xFF;
+            }
+            case NetProtocol.MATCH_OVER -> {
+                winner = (int) NetProtocol.getVarint(payload);
+                matchOver = true;
+                if (renderer != null) {
+                    renderer.accept(latest);
+                }
+            }
+            default -> throw new IOException("Unexpected message " + type);
+        }
+    }
+
+    // Sends the queued key events, at most one batch per frame
+    private void send() {
+        ByteBuffer out = ByteBuffer.allocate(NetProtocol.HEADER + MAX_BATCH);
+        try {
+            while (running) {
+                synchronized (this) {
+                    while (inputCount == 0 && running) {
+                        wait();
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    int start = NetProtocol.begin(out.clear(), NetProtocol.INPUT);
+                    out.put(inputs, 0, inputCount);
+                    NetProtocol.end(out, start);
+                    inputCount = 0;
+                }
+                long sent = System.nanoTime();
+                writeFully(out.flip());
+                LockSupport.parkNanos(this, GameLoop.FRAME_NANOS - (System.nanoTime() - sent));
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Could not send input: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    // Reads until a whole message is at in's position and returns its type
+    private int await() throws IOException {
+        int type;
+        while ((type = NetProtocol.peekType(in)) < 0) {
+            in.compact();
+            if (channel.read(in) < 0) {
+                throw new IOException("Server closed the connection");
+            }
+            in.flip();
+        }
+        return type;
+    }
+}
@@ -0,0 +1,232 @@
+package tetris;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Load test for MatchServer: connects many headless clients over loopback, all driven by one Selector thread,
+// lets each of them tap a random key every few frames, decodes every message the server sends back and reports
+// the server's tick latency percentiles and traffic next to what the clients received. Measuring starts once
+// every client has joined
+public final class NetLoadRunner {
+
+    // Frames between two key taps of one client, at random up to this many
+    private static final int MAX_INPUT_FRAMES = 20;
+
+    // Taps are moves and rotations; one in this many is a hard drop
+    private static final int HARD_DROP_ODDS = 8;
+    private static final Action[] TAPS = {Action.LEFT, Action.RIGHT, Action.ROTATE_CW, Action.ROTATE_CCW};
+
+    // How long all clients get to connect and join
+    private static final long JOIN_TIMEOUT_NANOS = 30_000_000_000L;
+
+    private final SplittableRandom random;
+    private final Selector selector;
+    private final List<Client> clients = new ArrayList<>();
+
+    private int joined;
+    private long frames;
+    private long bytesReceived;
+    private long garbageLines;
+    private int matchesOver;
+    private int disconnected;
+
+    private static final class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(8192).flip();
+        final ByteBuffer out = ByteBuffer.allocate(64);
+        final NetProtocol.Replica replica = new NetProtocol.Replica();
+        boolean welcomed;
+        int inputCountdown;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    // Result of one run: what the clients saw and the server's own tick statistics
+    public record Report(int clients, int joined, int disconnected, long frames, long bytesReceived,
+                         long garbageLines, int matchesOver, long elapsedNanos, MatchServer.Stats server) {
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("clients: %d, joined %d, disconnected %d, in %.1f s%n"
+                            + "received: %d frames (%.0f/s), %d bytes (%.0f bytes/s per client), %d garbage lines, "
+                            + "%d matches over%n",
+                    clients, joined, disconnected, seconds, frames, frames / seconds, bytesReceived,
+                    bytesReceived / seconds / Math.max(joined, 1), garbageLines, matchesOver) + server;
+        }
+    }
+
+    private NetLoadRunner(long seed) throws IOException {
+        this.random = new SplittableRandom(seed);
+        this.selector = Selector.open();
+    }
+
+    // Connects count clients to the running server and plays for the given time
+    public static Report run(MatchServer server, int count, long millis, long seed) throws Exception {
+        NetLoadRunner runner = new NetLoadRunner(seed);
+        try {
+            return runner.play(server, count, millis);
+        } finally {
+            runner.close();
+        }
+    }
+
+    private Report play(MatchServer server, int count, long millis) throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.port());
+        for (int i = 0; i < count; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(channel);
+            clients.add(client);
+            channel.register(selector, channel.connect(address) ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT,
+                    client);
+            if (channel.isConnected()) {
+                hello(client);
+            }
+        }
+
+        // The connection burst is not part of the measurement: it starts once everyone has joined
+        long joinDeadline = System.nanoTime() + JOIN_TIMEOUT_NANOS;
+        while (joined + disconnected < count && System.nanoTime() < joinDeadline) {
+            selector.select(10);
+            handleKeys();
+        }
+        server.resetStats();
+        frames = 0;
+        bytesReceived = 0;
+
+        long start = System.nanoTime();
+        long end = start + millis * 1_000_000;
+        long deadline = start;
+        while (System.nanoTime() < end) {
+            long wait = deadline - System.nanoTime();
+            selector.select(Math.max(1, wait / 1_000_000));
+            handleKeys();
+            if (System.nanoTime() >= deadline) {
+                tapKeys();
+                deadline += GameLoop.FRAME_NANOS;
+            }
+        }
+        return new Report(count, joined, disconnected, frames, bytesReceived, garbageLines, matchesOver,
+                System.nanoTime() - start, server.stats());
+    }
+
+    private void hello(Client client) throws IOException {
+        NetProtocol.putHello(client.out.clear());
+        client.channel.write(client.out.flip());
+        client.inputCountdown = 1 + random.nextInt(MAX_INPUT_FRAMES);
+    }
+
+    private void handleKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            Client client = (Client) key.attachment();
+            try {
+                if (key.isConnectable() && client.channel.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    hello(client);
+                } else if (key.isReadable()) {
+                    read(client);
+                }
+            } catch (IOException | BufferUnderflowException e) {
+                drop(client, key);
+            }
+        }
+    }
+
+    private void read(Client client) throws IOException {
+        ByteBuffer in = client.in.compact();
+        int n = client.channel.read(in);
+        in.flip();
+        if (n < 0) {
+            throw new IOException("Server closed the connection");
+        }
+        bytesReceived += n;
+        int type;
+        while ((type = NetProtocol.peekType(in)) >= 0) {
+            ByteBuffer payload = NetProtocol.payload(in);
+            switch (type) {
+                case NetProtocol.WELCOME -> {
+                    client.welcomed = true;
+                    joined++;
+                }
+                case NetProtocol.FRAME -> {
+                    client.replica.apply(payload);
+                    frames++;
+                }
+                case NetProtocol.GARBAGE -> {
+                    NetProtocol.getVarint(payload);
+                    garbageLines += payload.get() & 0xFF;
+                }
+                case NetProtocol.MATCH_OVER -> matchesOver++;
+                default -> throw new IOException("Unexpected message " + type);
+            }
+        }
+    }
+
+    // Every client whose countdown ran out taps a key: press and release in one batch
+    private void tapKeys() {
+        for (Client client : clients) {
+            if (!client.welcomed || !client.channel.isOpen() || --client.inputCountdown > 0) {
+                continue;
+            }
+            client.inputCountdown = 1 + random.nextInt(MAX_INPUT_FRAMES);
+            Action action = random.nextInt(HARD_DROP_ODDS) == 0 ? Action.HARD_DROP : TAPS[random.nextInt(TAPS.length)];
+            ByteBuffer out = client.out.clear();
+            int start = NetProtocol.begin(out, NetProtocol.INPUT);
+            out.put((byte) NetProtocol.inputByte(action, false));
+            out.put((byte) NetProtocol.inputByte(action, true));
+            NetProtocol.end(out, start);
+            try {
+                client.channel.write(out.flip());
+            } catch (IOException e) {
+                drop(client, client.channel.keyFor(selector));
+            }
+        }
+    }
+
+    private void drop(Client client, SelectionKey key) {
+        disconnected++;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+            // already gone
+        }
+    }
+
+    private void close() throws IOException {
+        for (Client client : clients) {
+            client.channel.close();
+        }
+        selector.close();
+    }
+
+    // Usage: NetLoadRunner [clients] [seconds] [playersPerMatch]. Starts a MatchServer on a free loopback port,
+    // plays with the clients for the given time and prints the report
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int playersPerMatch = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        try (MatchServer server = new MatchServer(new InetSocketAddress("127.0.0.1", 0), playersPerMatch, 1)) {
+            server.start();
+            System.out.print(run(server, clients, seconds * 1_000L, 1));
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Binary protocol between MatchServer and its clients. Every message is
+//   type (byte) | payload length (byte) | payload
+// and a peer writes all messages it has for one tick with a single write, so a tick costs at most one
+// syscall per connection and direction. Matches are played under RuleSet.STANDARD, so no sizes are sent.
+// Client to server:
+//   HELLO:    magic 'T' 'N' | version
+//   SPECTATE: magic 'T' 'N' | version | varint player id, instead of HELLO: watch that player's game
+//   INPUT:    one byte per key event since the last batch, Action ordinal | RELEASE bit
+// Server to client:
+//   WELCOME:    varint player id (the watched one for spectators) | varint match id | seed (long)
+//   FRAME:      varint frame number | flags | piece type << 2 | rotation | piece x | piece y | next piece |
+//               varint score | varint lines, then how the board changed since the previous frame, whichever is
+//               smaller: with DELTA set a varint mask of the changed rows, each of those rows two cells per byte
+//               (4-bit colors), or with LOG set a varint length and the Board.Delta since the previous frame
+//   GARBAGE:    varint sending player id | lines | hole column
+//   MATCH_OVER: varint winning player id
+final class NetProtocol {
+
+    static final byte MAGIC_0 = 'T';
+    static final byte MAGIC_1 = 'N';
+    static final byte VERSION = 1;
+
+    static final int HELLO = 1;
+    static final int INPUT = 2;
+    static final int SPECTATE = 3;
+    static final int WELCOME = 0x81;
+    static final int FRAME = 0x82;
+    static final int GARBAGE = 0x83;
+    static final int MATCH_OVER = 0x84;
+
+    static final int HEADER = 2;
+    static final int MAX_PAYLOAD = 255;
+
+    // Input byte flag: the key went up
+    static final int RELEASE = 0x80;
+
+    // FRAME flags
+    static final int GAME_OVER = 1;
+    static final int PAUSED = 2;
+    static final int DELTA = 4;
+    static final int LOG = 8;
+
+    private static final Action[] ACTIONS = Action.values();
+    private static final Tetromino[] TYPES = Tetromino.values();
+    private static final int ROW_BYTES = (Board.WIDTH + 1) / 2;
+
+    private NetProtocol() {
+    }
+
+    // Starts a message; its length is filled in by end() with the position returned here
+    static int begin(ByteBuffer out, int type) {
+        out.put((byte) type).put((byte) 0);
+        return out.position();
+    }
+
+    static void end(ByteBuffer out, int start) {
+        int length = out.position() - start;
+        if (length > MAX_PAYLOAD) {
+            throw new IllegalStateException("message payload of " + length + " bytes");
+        }
+        out.put(start - 1, (byte) length);
+    }
+
+    static void putHello(ByteBuffer out) {
+        int start = begin(out, HELLO);
+        out.put(MAGIC_0).put(MAGIC_1).put(VERSION);
+        end(out, start);
+    }
+
+    static void putSpectate(ByteBuffer out, int playerId) {
+        int start = begin(out, SPECTATE);
+        out.put(MAGIC_0).put(MAGIC_1).put(VERSION);
+        putVarint(out, playerId);
+        end(out, start);
+    }
+
+    // Checks the magic and version that start a HELLO or SPECTATE payload
+    static void checkHello(ByteBuffer payload) throws IOException {
+        if (payload.remaining() < 3 || payload.get() != MAGIC_0 || payload.get() != MAGIC_1) {
+            throw new IOException("Not a Tetris client");
+        }
+        byte version = payload.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version " + version);
+        }
+    }
+
+    static int inputByte(Action action, boolean release) {
+        return action.ordinal() | (release ? RELEASE : 0);
+    }
+
+    static Action action(int input) throws IOException {
+        int ordinal = input & ~RELEASE & 0xFF;
+        if (ordinal >= ACTIONS.length) {
+            throw new IOException("Unknown input " + input);
+        }
+        return ACTIONS[ordinal];
+    }
+
+    static void putWelcome(ByteBuffer out, int playerId, int matchId, long seed) {
+        int start = begin(out, WELCOME);
+        putVarint(out, playerId);
+        putVarint(out, matchId);
+        out.putLong(seed);
+        end(out, start);
+    }
+
+    // Encodes next as a FRAME, sending only the rows that differ from previous (all non-empty rows when previous
+    // is null), or instead the board's change log since previous when that is shorter; delta may be null.
+    // Frames whose board version did not change share their cells, so they cost no row compares
+    static void putFrame(ByteBuffer out, GameLoop.Frame previous, GameLoop.Frame next, Board.Delta delta) {
+        int start = begin(out, FRAME);
+        putVarint(out, next.number());
+        long changed = 0;
+        byte[] cells = next.cells();
+        if (previous == null || previous.cells() != cells) {
+            byte[] before = previous == null ? null : previous.cells();
+            for (int y = 0; y < Board.HEIGHT; y++) {
+                int from = y * Board.WIDTH, to = from + Board.WIDTH;
+                if (before == null ? !isEmpty(cells, from, to) : !Arrays.equals(before, from, to, cells, from, to)) {
+                    changed |= 1L << y;
+                }
+            }
+        }
+        int rowBytes = varintSize(changed) + Long.bitCount(changed) * ROW_BYTES;
+        boolean log = changed != 0 && delta != null && varintSize(delta.size()) + delta.size() < rowBytes;
+        int board = log ? LOG : changed != 0 ? DELTA : 0;
+        out.put((byte) ((next.gameOver() ? GAME_OVER : 0) | (next.paused() ? PAUSED : 0) | board));
+        out.put((byte) (next.pieceType().ordinal() << 2 | next.pieceRotation()));
+        out.put((byte) next.pieceX());
+        out.put((byte) next.pieceY());
+        out.put((byte) next.nextPiece().ordinal());
+        putVarint(out, next.score());
+        putVarint(out, next.lines());
+        if (log) {
+            putVarint(out, delta.size());
+            delta.writeTo(out);
+        } else if (changed != 0) {
+            putVarint(out, changed);
+            for (long rows = changed; rows != 0; rows &= rows - 1) {
+                int from = Long.numberOfTrailingZeros(rows) * Board.WIDTH;
+                for (int x = 0; x < Board.WIDTH; x += 2) {
+                    int high = cells[from + x] & 0xF;
+                    int low = x + 1 < Board.WIDTH ? cells[from + x + 1] & 0xF : 0;
+                    out.put((byte) (high << 4 | low));
+                }
+            }
+        }
+        end(out, start);
+    }
+
+    private static boolean isEmpty(byte[] cells, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (cells[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void putGarbage(ByteBuffer out, int fromPlayer, int lines, int hole) {
+        int start = begin(out, GARBAGE);
+        putVarint(out, fromPlayer);
+        out.put((byte) lines).put((byte) hole);
+        end(out, start);
+    }
+
+    static void putMatchOver(ByteBuffer out, int winner) {
+        int start = begin(out, MATCH_OVER);
+        putVarint(out, winner);
+        end(out, start);
+    }
+
+    static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int varintSize(long value) {
+        return Math.max(1, (63 - Long.numberOfLeadingZeros(value)) / 7 + 1);
+    }
+
+    static long getVarint(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IOException("Truncated varint");
+            }
+            int b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    // Type of the message at in's position, or -1 while it has not fully arrived
+    static int peekType(ByteBuffer in) {
+        if (in.remaining() < HEADER || in.remaining() < HEADER + (in.get(in.position() + 1) & 0xFF)) {
+            return -1;
+        }
+        return in.get(in.position()) & 0xFF;
+    }
+
+    // The payload of the complete message at in's position as its own buffer; in moves past the message
+    static ByteBuffer payload(ByteBuffer in) {
+        int length = in.get(in.position() + 1) & 0xFF;
+        ByteBuffer payload = in.slice(in.position() + HEADER, length);
+        in.position(in.position() + HEADER + length);
+        return payload;
+    }
+
+    // The client's copy of one player's game, rebuilt from FRAME messages into the frames GamePanel renders.
+    // The board itself is kept so LOG frames can be replayed on it
+    static final class Replica {
+        private final Board board = new Board();
+        private byte[] cells = new byte[Board.WIDTH * Board.HEIGHT];
+        private long boardVersion;
+        private GameLoop.Frame frame;
+
+        // Applies a FRAME payload and returns the frame it describes
+        GameLoop.Frame apply(ByteBuffer in) throws IOException {
+            long number = getVarint(in);
+            int flags = in.get();
+            int typeAndRotation = in.get() & 0xFF;
+            int x = in.get();
+            int y = in.get();
+            int next = in.get();
+            int score = (int) getVarint(in);
+            int lines = (int) getVarint(in);
+            if ((typeAndRotation >>> 2) >= TYPES.length || next < 0 || next >= TYPES.length) {
+                throw new IOException("Corrupt piece in frame");
+            }
+            if ((flags & LOG) != 0) {
+                int size = (int) getVarint(in);
+                if (size > in.remaining()) {
+                    throw new IOException("Truncated board delta in frame");
+                }
+                try {
+                    Board.Delta.read(in, size).applyTo(board);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Board delta does not match the board", e);
+                }
+            } else if ((flags & DELTA) != 0) {
+                long changed = getVarint(in);
+                if (changed >>> Board.HEIGHT != 0) {
+                    throw new IOException("Corrupt row mask in frame");
+                }
+                try {
+                    for (long rows = changed; rows != 0; rows &= rows - 1) {
+                        int row = Long.numberOfTrailingZeros(rows);
+                        for (int col = 0; col < Board.WIDTH; col += 2) {
+                            int packed = in.get() & 0xFF;
+                            board.set(col, row, packed >>> 4);
+                            if (col + 1 < Board.WIDTH) {
+                                board.set(col + 1, row, packed & 0xF);
+                            }
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Corrupt cell in frame", e);
+                }
+            }
+            if ((flags & (LOG | DELTA)) != 0) {
+                cells = new byte[cells.length];
+                board.copyCellsTo(cells);
+                boardVersion++;
+            }
+            frame = new GameLoop.Frame(number, cells, Board.WIDTH, boardVersion,
+                    TYPES[typeAndRotation >>> 2], typeAndRotation & 3, x, y, TYPES[next], score, lines,
+                    RuleSet.STANDARD.level(lines), (flags & PAUSED) != 0, (flags & GAME_OVER) != 0);
+            return frame;
+        }
+
+        // The last frame applied, null before the first one
+        GameLoop.Frame frame() {
+            return frame;
+        }
+
+        // The frame as a save: the board and pieces, as a local game would snapshot them
+        GameSave save() {
+            Piece piece = new Piece(frame.pieceType(), frame.pieceX(), frame.pieceY());
+            piece.rotation = frame.pieceRotation();
+            return new GameSave(board.copy(), piece, frame.nextPiece(), frame.score(), frame.lines());
+        }
+    }
+}
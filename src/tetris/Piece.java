@@ -4,7 +4,8 @@ import java.awt.Point;
 import java.io.Serial;
 import java.io.Serializable;
 
-//Represents a single falling tetromino on the board and stores its type, rotation, and position
+//Represents a single falling tetromino on the board and stores its type, rotation, and position.
+//It is a thin serializable view: the game mutates it in place and the Board works on (type, rotation, x, y) directly
 public final class Piece implements Serializable {
     @Serial private static final long serialVersionUID = 1L;
 
@@ -21,16 +22,40 @@ public final class Piece implements Serializable {
         this.y = y;
     }
 
+    //Creates a copy of the given piece
+    public Piece(Piece other) {
+        this.type = other.type;
+        this.rotation = other.rotation;
+        this.x = other.x;
+        this.y = other.y;
+    }
+
     //Computes the absolute board coordinates of all 4 cells that this piece currently occupies, based on its type,rotation, and center position
     public Point[] cells() {
-        Point[] base = type.rotations[rotation];
         Point[] out = new Point[4];
         for (int i = 0; i < 4; i++) {
-            out[i] = new Point(x + base[i].x, y + base[i].y);
+            out[i] = new Point(cellX(i), cellY(i));
         }
         return out;
     }
 
+    //Allocation-free access to the absolute board coordinates of cell i (0..3)
+    public int cellX(int i) {
+        return x + Tetromino.unpackX(type.offsets[rotation][i]);
+    }
+
+    public int cellY(int i) {
+        return y + Tetromino.unpackY(type.offsets[rotation][i]);
+    }
+
+    //Moves this piece in place to a new type, rotation and position
+    public void set(Tetromino type, int rotation, int x, int y) {
+        this.type = type;
+        this.rotation = rotation;
+        this.x = x;
+        this.y = y;
+    }
+
     public Piece moved(int dx, int dy) {
         Piece piece = new Piece(type, x + dx, y + dy);
         piece.rotation = rotation;
@@ -0,0 +1,239 @@
+package tetris;
+
+import java.util.SplittableRandom;
+
+// Source of a game's piece sequence. Pieces are produced lazily into a ring buffer of ordinals, so callers
+// can look any number of pieces ahead and nothing is allocated per piece. Every randomizer draws from a
+// SplittableRandom: the same seed always gives the same sequence, however far ahead it was peeked, and
+// split() derives an independent deterministic stream for another game or thread.
+// A generator is not thread-safe; give each thread its own through split()
+public abstract class PieceGenerator {
+
+    // The randomizers a game can be created with
+    public enum Kind {
+        // Modern guideline 7-bag: each run of 7 pieces is a permutation of all 7 tetrominoes
+        BAG,
+        // Every piece uniformly at random, independent of the ones before
+        MEMORYLESS,
+        // Arcade-style: rerolls a few times to avoid the last 4 pieces, which makes droughts and repeats rare
+        HISTORY;
+
+        public PieceGenerator create(long seed) {
+            return create(new SplittableRandom(seed));
+        }
+
+        PieceGenerator create(SplittableRandom random) {
+            return switch (this) {
+                case BAG -> new Bag(random);
+                case MEMORYLESS -> new Memoryless(random);
+                case HISTORY -> new History(random);
+            };
+        }
+    }
+
+    private static final Tetromino[] TYPES = Tetromino.values();
+
+    final SplittableRandom random;
+    private byte[] ring = new byte[16];
+    private int head;
+    private int size;
+    // Pieces handed out by next() less those pushed back, which places the head within the sequence
+    long dealt;
+
+    PieceGenerator(SplittableRandom random) {
+        this.random = random;
+    }
+
+    public static PieceGenerator bag(long seed) {
+        return Kind.BAG.create(seed);
+    }
+
+    public static PieceGenerator memoryless(long seed) {
+        return Kind.MEMORYLESS.create(seed);
+    }
+
+    public static PieceGenerator history(long seed) {
+        return Kind.HISTORY.create(seed);
+    }
+
+    public abstract Kind kind();
+
+    // A generator of the same kind with its own stream, drawn from this one's. Deterministic given the seed
+    public PieceGenerator split() {
+        return kind().create(random.split());
+    }
+
+    // Removes and returns the next piece
+    public final Tetromino next() {
+        fill(1);
+        Tetromino t = TYPES[ring[head]];
+        head = (head + 1) & (ring.length - 1);
+        size--;
+        dealt++;
+        return t;
+    }
+
+    // The piece that next() will return after `ahead` more calls, without consuming anything
+    public final Tetromino peek(int ahead) {
+        if (ahead < 0) {
+            throw new IndexOutOfBoundsException("negative lookahead " + ahead);
+        }
+        fill(ahead + 1);
+        return TYPES[ring[(head + ahead) & (ring.length - 1)]];
+    }
+
+    // Copies the next n pieces into dst[offset..offset+n) without consuming them
+    public final void peek(Tetromino[] dst, int offset, int n) {
+        fill(n);
+        for (int i = 0; i < n; i++) {
+            dst[offset + i] = TYPES[ring[(head + i) & (ring.length - 1)]];
+        }
+    }
+
+    // Puts a piece back in front of the queue, e.g. when a move is undone; the random stream is unaffected
+    public final void pushBack(Tetromino t) {
+        if (size == ring.length) {
+            grow();
+        }
+        head = (head - 1) & (ring.length - 1);
+        ring[head] = (byte) t.ordinal();
+        size++;
+        dealt--;
+    }
+
+    // How many of the coming pieces a player could work out from the ones already dealt, without seeing the
+    // generator's hidden queue. Only the 7-bag gives any away; the other randomizers keep every piece a surprise
+    public int deducible() {
+        return 0;
+    }
+
+    // Appends at least one freshly decided piece through emit()
+    abstract void generate();
+
+    final void emit(int ordinal) {
+        if (size == ring.length) {
+            grow();
+        }
+        ring[(head + size) & (ring.length - 1)] = (byte) ordinal;
+        size++;
+    }
+
+    private void fill(int n) {
+        while (size < n) {
+            generate();
+        }
+    }
+
+    // Doubles the ring; only a long undo streak or a deep peek gets here, never steady play
+    private void grow() {
+        byte[] bigger = new byte[ring.length * 2];
+        for (int i = 0; i < size; i++) {
+            bigger[i] = ring[(head + i) & (ring.length - 1)];
+        }
+        ring = bigger;
+        head = 0;
+    }
+
+    private static final class Bag extends PieceGenerator {
+        private final byte[] bag = new byte[TYPES.length];
+
+        Bag(SplittableRandom random) {
+            super(random);
+            for (int i = 0; i < bag.length; i++) {
+                bag[i] = (byte) i;
+            }
+        }
+
+        @Override
+        public Kind kind() {
+            return Kind.BAG;
+        }
+
+        // The rest of the bag being dealt; the next bag is unknown until its first piece comes out
+        @Override
+        public int deducible() {
+            int into = (int) Math.floorMod(dealt, (long) bag.length);
+            return into == 0 ? 0 : bag.length - into;
+        }
+
+        // Fisher-Yates in place; shuffling the previous permutation is as uniform as shuffling a fresh one
+        @Override
+        void generate() {
+            for (int i = bag.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                byte t = bag[i];
+                bag[i] = bag[j];
+                bag[j] = t;
+            }
+            for (byte t : bag) {
+                emit(t);
+            }
+        }
+    }
+
+    private static final class Memoryless extends PieceGenerator {
+        Memoryless(SplittableRandom random) {
+            super(random);
+        }
+
+        @Override
+        public Kind kind() {
+            return Kind.MEMORYLESS;
+        }
+
+        @Override
+        void generate() {
+            emit(random.nextInt(TYPES.length));
+        }
+    }
+
+    // The Tetris: The Grand Master 2 randomizer: up to 6 rolls to find a piece outside the last 4, starting
+    // from a history of Z S Z S, and never an S, Z or O first, which would force an overhang
+    private static final class History extends PieceGenerator {
+        private static final int ROLLS = 6;
+
+        private final byte[] history = {
+                (byte) Tetromino.Z.ordinal(), (byte) Tetromino.S.ordinal(),
+                (byte) Tetromino.Z.ordinal(), (byte) Tetromino.S.ordinal()
+        };
+        private boolean first = true;
+
+        History(SplittableRandom random) {
+            super(random);
+        }
+
+        @Override
+        public Kind kind() {
+            return Kind.HISTORY;
+        }
+
+        @Override
+        void generate() {
+            int piece;
+            if (first) {
+                do {
+                    piece = random.nextInt(TYPES.length);
+                } while (piece == Tetromino.S.ordinal() || piece == Tetromino.Z.ordinal()
+                        || piece == Tetromino.O.ordinal());
+                first = false;
+            } else {
+                piece = random.nextInt(TYPES.length);
+                for (int roll = 1; roll < ROLLS && inHistory(piece); roll++) {
+                    piece = random.nextInt(TYPES.length);
+                }
+            }
+            System.arraycopy(history, 0, history, 1, history.length - 1);
+            history[0] = (byte) piece;
+            emit(piece);
+        }
+
+        private boolean inHistory(int piece) {
+            for (byte h : history) {
+                if (h == piece) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
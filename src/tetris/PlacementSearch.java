@@ -0,0 +1,419 @@
+package tetris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Enumerates every resting position a piece can reach from a start state using the same moves and
+// wall kicks (the board's RuleSet) as GameEngine: shifts, soft drops (so tucks and spins under overhangs
+// are found) and rotations in both directions. Placements covering the same cells are reported once.
+//
+// States are (rotation, x, y). For every (rotation, x) column the search keeps two bitsets over y:
+// where the piece fits (built from the board's column occupancy with a few shifts) and which
+// positions are reachable. Reachability is flood-filled a whole column at a time: soft drops are an
+// occluded fill down the column, shifts AND with the neighbouring column and every kick is one
+// masked step, so an empty board settles in a few dozen word operations per column.
+// Input paths are only needed for the placement actually played, so the per-state breadth-first
+// search that records parents runs lazily on the first path() call.
+// Buffers are sized for the board size of the last search (a column over y has to fit in a long, so boards
+// may be at most MAX_SEARCH_HEIGHT tall) and reused while it stays the same.
+// Instances are not thread-safe
+public final class PlacementSearch {
+
+    // Margins around the board so every placeable piece position has a state index
+    private static final int X_OFF = 2;
+    private static final int Y_OFF = 2;
+
+    // Column occupancy words put cell row y at bit y + CELL_OFF; everything outside the board is set
+    private static final int CELL_OFF = 4;
+    private static final int CELL_X_OFF = X_OFF + 1;
+
+    public static final int MAX_SEARCH_HEIGHT = 64 - 2 * Y_OFF;
+
+    // Longest possible input path on the standard board; no path visits a state twice
+    public static final int MAX_PATH = maxPath(RuleSet.STANDARD);
+
+    // Moves tried from every state, in the order they appear in reconstructed paths
+    private static final Action[] MOVES = {
+            Action.LEFT, Action.RIGHT, Action.SOFT_DROP, Action.ROTATE_CW, Action.ROTATE_CCW
+    };
+
+    // Geometry of the current buffers: xs x-positions and ys y-positions per rotation
+    private RuleSet rules;
+    private int width;
+    private int height;
+    private int xs;
+    private int ys;
+    private long yMask;
+    private long outside;
+    // More than 64 columns, so the worklist does not fit one word
+    private boolean wide;
+    private KickTable kicks;
+
+    // Kicks of the piece being searched: tests per transition and kickX[transition * kickTests + i]
+    private int kickTests;
+    private int[] kickX;
+    private int[] kickY;
+
+    private long[] occupied;
+    private long[] free;
+    private long[] reach;
+    private long[] resting;
+    private long[] pending;
+    private int[] placements;
+    private Board scratch;
+
+    // Parent links for path reconstruction, filled by bfs()
+    private long[] visited;
+    private int[] queue;
+    private int[] parent;
+    private byte[] move;
+    private boolean pathsReady;
+
+    private Board board;
+    private Tetromino type;
+    private int start;
+    private int count;
+
+    public PlacementSearch() {
+        resize(RuleSet.STANDARD);
+    }
+
+    // Longest possible input path on a board of the rule set's size
+    public static int maxPath(RuleSet rules) {
+        return 4 * (rules.width() + 2 * X_OFF) * (rules.height() + 2 * Y_OFF);
+    }
+
+    // Reallocates the buffers for another board size; a rule set of the same size only swaps the kick table
+    private void resize(RuleSet rules) {
+        this.rules = rules;
+        kicks = rules.kicks;
+        if (rules.width() == width && rules.height() == height) {
+            return;
+        }
+        if (rules.height() > MAX_SEARCH_HEIGHT) {
+            throw new IllegalArgumentException("boards taller than " + MAX_SEARCH_HEIGHT + " rows cannot be searched");
+        }
+        width = rules.width();
+        height = rules.height();
+        xs = width + 2 * X_OFF;
+        ys = height + 2 * Y_OFF;
+        yMask = -1L >>> (64 - ys);
+        outside = ~((-1L >>> (64 - height)) << CELL_OFF);
+        int columns = 4 * xs;
+        int states = columns * ys;
+        occupied = new long[width + 2 * CELL_X_OFF + 1];
+        free = new long[columns];
+        reach = new long[columns];
+        resting = new long[columns];
+        wide = columns > 64;
+        pending = new long[(columns + 63) >>> 6];
+        placements = new int[states];
+        scratch = new Board(rules);
+        visited = new long[(states + 63) >>> 6];
+        queue = new int[states];
+        parent = new int[states];
+        move = new byte[states];
+    }
+
+    // Finds all placements of the piece starting at (rotation, x, y); returns how many there are.
+    // The start state must itself be placeable, otherwise nothing is found
+    public int search(Board board, Tetromino type, int rotation, int x, int y) {
+        if (board.rules() != rules) {
+            resize(board.rules());
+        }
+        this.board = board;
+        this.type = type;
+        kickTests = kicks.tests(type);
+        kickX = kicks.kickX(type);
+        kickY = kicks.kickY(type);
+        this.count = 0;
+        this.pathsReady = false;
+        if (!board.canPlace(type, rotation, x, y)) {
+            return 0;
+        }
+        start = state(rotation, x, y);
+
+        buildFreeMasks();
+        Arrays.fill(reach, 0L);
+        int startColumn = start / ys;
+        reach[startColumn] = 1L << (start % ys);
+        if (!wide) {
+            // Up to 64 columns (56 on the standard board), so the worklist is one bitset in a register
+            long work = 1L << startColumn;
+            while (work != 0) {
+                int column = Long.numberOfTrailingZeros(work);
+                work &= work - 1;
+                work |= spread(column);
+            }
+        } else {
+            // Wider boards keep the worklist in pending[] and rescan it from the first word after every column
+            pending[startColumn >>> 6] |= 1L << startColumn;
+            for (int w = 0; w < pending.length; ) {
+                long bits = pending[w];
+                if (bits == 0) {
+                    w++;
+                    continue;
+                }
+                pending[w] = bits & (bits - 1);
+                spread((w << 6) + Long.numberOfTrailingZeros(bits));
+                w = 0;
+            }
+        }
+        collectPlacements();
+        return count;
+    }
+
+    // free[rotation * xs + x + X_OFF] has bit y + Y_OFF set when the piece fits at (rotation, x, y)
+    private void buildFreeMasks() {
+        Arrays.fill(occupied, -1L);
+        for (int x = 0; x < width; x++) {
+            occupied[x + CELL_X_OFF] = outside;
+        }
+        for (int y = 0; y < height; y++) {
+            for (long row = board.rowMask(y); row != 0; row &= row - 1) {
+                occupied[Long.numberOfTrailingZeros(row) + CELL_X_OFF] |= 1L << (y + CELL_OFF);
+            }
+        }
+        for (int r = 0; r < 4; r++) {
+            int[] offsets = type.offsets[r];
+            for (int xi = 0; xi < xs; xi++) {
+                long blocked = 0;
+                for (int packed : offsets) {
+                    // Cell (x + dx, y + dy) lives at bit y + dy + CELL_OFF = b + dy + (CELL_OFF - Y_OFF)
+                    long column = occupied[xi - X_OFF + Tetromino.unpackX(packed) + CELL_X_OFF];
+                    blocked |= column >>> (Tetromino.unpackY(packed) + CELL_OFF - Y_OFF);
+                }
+                free[r * xs + xi] = ~blocked & yMask;
+            }
+        }
+    }
+
+    // Closes a column under soft drops and pushes its states through every other move.
+    // Returns the columns that gained states (see add)
+    private long spread(int column) {
+        long f = free[column];
+        long a = reach[column];
+        // Kogge-Stone occluded fill towards higher y through the free positions
+        long g = f;
+        a |= (a << 1) & g;
+        g &= g << 1;
+        a |= (a << 2) & g;
+        g &= g << 2;
+        a |= (a << 4) & g;
+        g &= g << 4;
+        a |= (a << 8) & g;
+        g &= g << 8;
+        a |= (a << 16) & g;
+        if (ys > 32) {
+            g &= g << 16;
+            a |= (a << 32) & g;
+        }
+        reach[column] = a;
+
+        int r = column / xs;
+        int xi = column % xs;
+        long changed = 0;
+        if (xi > 0) {
+            changed |= add(column - 1, a & free[column - 1]);
+        }
+        if (xi < xs - 1) {
+            changed |= add(column + 1, a & free[column + 1]);
+        }
+        changed |= rotate(a, r, (r + 1) & 3, xi);
+        changed |= rotate(a, r, (r + 3) & 3, xi);
+        return changed;
+    }
+
+    // Mirrors GameEngine.tryRotate for every reachable y at once: each position takes the first kick that fits
+    private long rotate(long a, int from, int rotation, int xi) {
+        long changed = 0;
+        long rest = a;
+        int base = KickTable.transition(from, rotation) * kickTests;
+        for (int i = 0; i < kickTests && rest != 0; i++) {
+            int kx = xi + kickX[base + i];
+            if (kx < 0 || kx >= xs) {
+                continue;
+            }
+            int target = rotation * xs + kx;
+            int dy = kickY[base + i];
+            long fits = dy >= 0 ? rest & (free[target] >>> dy) : rest & (free[target] << -dy);
+            rest &= ~fits;
+            changed |= add(target, dy >= 0 ? fits << dy : fits >>> -dy);
+        }
+        return changed;
+    }
+
+    // Adds states to a column; returns the column's worklist bit if any were new, else 0.
+    // On wide boards the bit is only meaningful within its word, so it also goes straight into pending[]
+    private long add(int column, long bits) {
+        long fresh = bits & ~reach[column];
+        if (fresh == 0) {
+            return 0;
+        }
+        reach[column] |= fresh;
+        if (wide) {
+            pending[column >>> 6] |= 1L << column;
+        }
+        return 1L << column;
+    }
+
+    // Reachable states that cannot move down, minus rotations repeating an earlier rotation's footprint
+    private void collectPlacements() {
+        for (int r = 0; r < 4; r++) {
+            int shape = type.shape[r];
+            // (r, x, y) covers the same cells as (shape, x + dx, y + dy)
+            int dx = type.minX[r] - type.minX[shape];
+            int dy = type.minY[r] - type.minY[shape];
+            for (int xi = 0; xi < xs; xi++) {
+                int column = r * xs + xi;
+                long rest = reach[column] & ~(free[column] >>> 1);
+                int same = xi + dx;
+                if (shape != r && same >= 0 && same < xs) {
+                    long seen = resting[shape * xs + same];
+                    rest &= ~(dy >= 0 ? seen >>> dy : seen << -dy);
+                }
+                resting[column] = rest;
+                for (long bits = rest; bits != 0; bits &= bits - 1) {
+                    placements[count++] = column * ys + Long.numberOfTrailingZeros(bits);
+                }
+            }
+        }
+    }
+
+    private int state(int rotation, int x, int y) {
+        return (rotation * xs + x + X_OFF) * ys + y + Y_OFF;
+    }
+
+    // Number of placements found by the last search
+    public int count() {
+        return count;
+    }
+
+    public int rotation(int i) {
+        return placements[check(i)] / (xs * ys);
+    }
+
+    public int x(int i) {
+        return (placements[check(i)] / ys) % xs - X_OFF;
+    }
+
+    public int y(int i) {
+        return placements[check(i)] % ys - Y_OFF;
+    }
+
+    private int check(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException(i);
+        }
+        return i;
+    }
+
+    // Writes the inputs that take the piece from the start state to placement i into out
+    // (length maxPath(board rules) is always enough) and returns how many were written.
+    // A HARD_DROP, or gravity, then locks the piece in place
+    public int path(int i, Action[] out) {
+        int target = placements[check(i)];
+        if (!pathsReady) {
+            bfs();
+            pathsReady = true;
+        }
+        if ((visited[target >>> 6] & (1L << target)) == 0) {
+            throw new IllegalStateException("placement " + i + " not reached by input search");
+        }
+        int length = 0;
+        for (int s = target; s != start; s = parent[s]) {
+            length++;
+        }
+        int at = length;
+        for (int s = target; s != start; s = parent[s]) {
+            out[--at] = MOVES[move[s]];
+        }
+        return length;
+    }
+
+    public List<Action> path(int i) {
+        Action[] out = new Action[maxPath(rules)];
+        return new ArrayList<>(Arrays.asList(out).subList(0, path(i, out)));
+    }
+
+    // Breadth-first search over single states from the start, recording how each one was first reached
+    private void bfs() {
+        Arrays.fill(visited, 0L);
+        visit(start, -1, -1);
+        int head = 0;
+        int tail = 1;
+        queue[0] = start;
+        while (head < tail) {
+            int s = queue[head++];
+            int r = s / (xs * ys);
+            int sx = (s / ys) % xs - X_OFF;
+            int sy = s % ys - Y_OFF;
+            tail = expand(s, r, sx - 1, sy, 0, tail);
+            tail = expand(s, r, sx + 1, sy, 1, tail);
+            tail = expand(s, r, sx, sy + 1, 2, tail);
+            tail = kick(s, r, sx, sy, 1, 3, tail);
+            tail = kick(s, r, sx, sy, -1, 4, tail);
+        }
+    }
+
+    // Enqueues (r, x, y) if it is free and not yet visited
+    private int expand(int from, int r, int x, int y, int via, int tail) {
+        if (board.canPlace(type, r, x, y)) {
+            int s = state(r, x, y);
+            if ((visited[s >>> 6] & (1L << s)) == 0) {
+                visit(s, from, via);
+                queue[tail++] = s;
+            }
+        }
+        return tail;
+    }
+
+    // Single-state GameEngine.tryRotate: the first kick that fits wins, even if that state was already seen
+    private int kick(int from, int r, int x, int y, int dir, int via, int tail) {
+        int rotation = (r + dir) & 3;
+        int i = kicks.resolve(board, type, r, rotation, x, y);
+        if (i < 0) {
+            return tail;
+        }
+        return expand(from, rotation, x + kicks.x(type, r, rotation, i), y + kicks.y(type, r, rotation, i), via, tail);
+    }
+
+    private void visit(int s, int from, int via) {
+        visited[s >>> 6] |= 1L << s;
+        parent[s] = from;
+        move[s] = (byte) via;
+    }
+
+    // Locks each placement of the last search into a scratch copy of the board, clears lines and
+    // scores the result. Returns the index of the best placement, or -1 if there are none
+    public int best(Heuristic heuristic) {
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            int s = placements[i];
+            scratch.copyFrom(board);
+            scratch.lock(type, s / (xs * ys), (s / ys) % xs - X_OFF, s % ys - Y_OFF);
+            int cleared = scratch.clearLines();
+            double score = heuristic.evaluate(scratch, cleared);
+            if (score > bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // An input path array that grows to maxPath() of whatever board size it is asked for
+    static final class PathBuffer {
+        private Action[] actions = new Action[MAX_PATH];
+
+        Action[] forRules(RuleSet rules) {
+            int needed = maxPath(rules);
+            if (actions.length < needed) {
+                actions = new Action[needed];
+            }
+            return actions;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package tetris;
+
+import java.util.SplittableRandom;
+
+// Decides the inputs of a simulated game. act() is called once before every gravity tick
+// and may apply any number of actions to the engine
+@FunctionalInterface
+public interface Policy {
+
+    void act(GameEngine engine);
+
+    // Plays up to two random inputs per tick, drawn from its own seeded generator
+    static Policy random(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Action[] actions = Action.values();
+        return engine -> {
+            int inputs = random.nextInt(3);
+            for (int i = 0; i < inputs; i++) {
+                engine.apply(actions[random.nextInt(actions.length)]);
+            }
+        };
+    }
+
+    // Places every piece where the heuristic likes it best: searches all reachable placements,
+    // replays the input path to the winner and hard drops. Each policy owns its search buffers
+    static Policy greedy(Heuristic heuristic) {
+        PlacementSearch search = new PlacementSearch();
+        PlacementSearch.PathBuffer path = new PlacementSearch.PathBuffer();
+        return engine -> {
+            Piece p = engine.getCurrentPiece();
+            search.search(engine.getBoard(), p.type, p.rotation, p.x, p.y);
+            int best = search.best(heuristic);
+            if (best < 0) {
+                return;
+            }
+            Action[] actions = path.forRules(engine.getRules());
+            int length = search.path(best, actions);
+            for (int i = 0; i < length; i++) {
+                engine.apply(actions[i]);
+            }
+            engine.apply(Action.HARD_DROP);
+        };
+    }
+
+    // Beam-search lookahead over the preview and the known rest of the bag, one placement per call.
+    // Expands each level on the calling thread; see BeamSearch for a pool-backed search
+    static Policy beam(Heuristic heuristic, int beamWidth, int maxDepth) {
+        BeamSearch search = new BeamSearch(null, heuristic, beamWidth, maxDepth);
+        PlacementSearch.PathBuffer path = new PlacementSearch.PathBuffer();
+        return engine -> {
+            Action[] actions = path.forRules(engine.getRules());
+            int length = search.plan(engine, Long.MAX_VALUE, actions);
+            if (length < 0) {
+                return;
+            }
+            for (int i = 0; i < length; i++) {
+                engine.apply(actions[i]);
+            }
+            engine.apply(Action.HARD_DROP);
+        };
+    }
+}
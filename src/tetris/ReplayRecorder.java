@@ -0,0 +1,113 @@
+package tetris;
+
+import java.io.*;
+import java.util.zip.CRC32;
+
+// Records a game as an append-only replay: the engine seed and randomizer followed by a timestamped stream of
+// inputs and gravity ticks, closed by an end record holding the final result. Layout:
+//   header: magic 'T' 'R' | version | seed (long) | randomizer (PieceGenerator.Kind ordinal)
+//   event:  one byte, low 3 bits = code (TICK, Action ordinal + 1, or END), high 5 bits = milliseconds
+//           since the previous event; 31 means the delay follows as a varint
+//   end:    varint score | varint lines | varint pieces | game-over flag | board checksum (int)
+// All inputs go through the recorder so the replay and the engine can never disagree.
+// Replays carry no rule set, so only games under RuleSet.STANDARD can be recorded. Version 3 is the first under
+// the SRS rotation states and kicks; older replays would play out differently, so they are not accepted
+public final class ReplayRecorder implements Closeable {
+
+    static final byte MAGIC_0 = 'T';
+    static final byte MAGIC_1 = 'R';
+    static final byte VERSION = 3;
+
+    static final int CODE_TICK = 0;
+    static final int CODE_END = 7;
+    static final int INLINE_DELAY_LIMIT = 31;
+
+    private final GameEngine engine;
+    private final DataOutputStream out;
+    private long lastMillis;
+    private boolean finished;
+
+    // Starts a replay of a freshly created engine; startMillis is the time base of the first event
+    public ReplayRecorder(GameEngine engine, OutputStream out, long startMillis) throws IOException {
+        if (engine.getRules() != RuleSet.STANDARD) {
+            throw new IllegalArgumentException("replays record standard-rules games only");
+        }
+        this.engine = engine;
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.lastMillis = startMillis;
+        this.out.writeByte(MAGIC_0);
+        this.out.writeByte(MAGIC_1);
+        this.out.writeByte(VERSION);
+        this.out.writeLong(engine.getSeed());
+        this.out.writeByte(engine.getRandomizer().ordinal());
+    }
+
+    // Applies an input to the engine and records it
+    public boolean apply(Action action, long nowMillis) throws IOException {
+        writeEvent(action.ordinal() + 1, nowMillis);
+        return engine.apply(action);
+    }
+
+    // Advances gravity on the engine and records the tick
+    public void tick(long nowMillis) throws IOException {
+        writeEvent(CODE_TICK, nowMillis);
+        engine.tick();
+    }
+
+    // Writes the end record with the engine's current result. Further events are rejected
+    public void finish(long nowMillis) throws IOException {
+        if (finished) {
+            return;
+        }
+        writeEvent(CODE_END, nowMillis);
+        writeVarint(out, engine.getScore());
+        writeVarint(out, engine.getLinesCleared());
+        writeVarint(out, engine.getPiecesLocked());
+        out.writeByte(engine.isGameOver() ? 1 : 0);
+        out.writeInt(boardChecksum(engine.getBoard()));
+        out.flush();
+        finished = true;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeEvent(int code, long nowMillis) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Replay already finished");
+        }
+        long delay = Math.max(0, nowMillis - lastMillis);
+        lastMillis = Math.max(lastMillis, nowMillis);
+        if (delay < INLINE_DELAY_LIMIT) {
+            out.writeByte((int) delay << 3 | code);
+        } else {
+            out.writeByte(INLINE_DELAY_LIMIT << 3 | code);
+            writeVarint(out, delay);
+        }
+    }
+
+    static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    // CRC32 of all cell values in row-major order
+    static int boardChecksum(Board board) {
+        CRC32 crc = new CRC32();
+        for (int y = 0; y < board.height(); y++) {
+            for (int x = 0; x < board.width(); x++) {
+                crc.update(board.get(x, y));
+            }
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,133 @@
+package tetris;
+
+import java.io.*;
+
+// Re-simulates replays written by ReplayRecorder on a headless GameEngine and checks that the final
+// score, line count, piece count and board match the recorded end record. Replays are streamed event by
+// event, so memory use does not depend on game length
+public final class ReplayVerifier {
+
+    private static final Action[] ACTIONS = Action.values();
+
+    private ReplayVerifier() {
+    }
+
+    // Outcome of verifying one replay
+    public record Result(boolean valid, String reason, long seed, int score, long events, long durationMillis) {
+
+        static Result invalid(String reason, long seed, long events) {
+            return new Result(false, reason, seed, 0, events, 0);
+        }
+    }
+
+    // Verifies a replay file
+    public static Result verify(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return verify(in);
+        }
+    }
+
+    // Verifies a replay read from the stream; the stream should be buffered
+    public static Result verify(InputStream stream) throws IOException {
+        try {
+            return replay(new DataInputStream(stream));
+        } catch (EOFException e) {
+            return Result.invalid("replay is truncated", 0, 0);
+        }
+    }
+
+    private static Result replay(DataInputStream in) throws IOException {
+        if (in.read() != ReplayRecorder.MAGIC_0 || in.read() != ReplayRecorder.MAGIC_1) {
+            return Result.invalid("not a replay", 0, 0);
+        }
+        int version = in.read();
+        if (version != ReplayRecorder.VERSION) {
+            return Result.invalid("unsupported replay version " + version
+                    + (version < ReplayRecorder.VERSION ? " (recorded before SRS rotation)" : ""), 0, 0);
+        }
+        long seed = in.readLong();
+        int randomizer = in.readUnsignedByte();
+        if (randomizer >= PieceGenerator.Kind.values().length) {
+            return Result.invalid("unknown randomizer " + randomizer, seed, 0);
+        }
+        GameEngine engine = new GameEngine(seed, 0, PieceGenerator.Kind.values()[randomizer]);
+
+        long events = 0;
+        long millis = 0;
+        while (true) {
+            int event = in.read();
+            if (event < 0) {
+                return Result.invalid("replay ends without an end record", seed, events);
+            }
+            int code = event & 7;
+            long delay = event >>> 3;
+            if (delay == ReplayRecorder.INLINE_DELAY_LIMIT) {
+                delay = readVarint(in);
+            }
+            millis += delay;
+            events++;
+
+            if (code == ReplayRecorder.CODE_TICK) {
+                engine.tick();
+            } else if (code == ReplayRecorder.CODE_END) {
+                break;
+            } else {
+                engine.apply(ACTIONS[code - 1]);
+            }
+        }
+
+        long score = readVarint(in);
+        long lines = readVarint(in);
+        long pieces = readVarint(in);
+        boolean gameOver = in.readByte() != 0;
+        int checksum = in.readInt();
+
+        String mismatch = null;
+        if (score != engine.getScore()) {
+            mismatch = "score " + score + " recorded, " + engine.getScore() + " replayed";
+        } else if (lines != engine.getLinesCleared()) {
+            mismatch = "lines " + lines + " recorded, " + engine.getLinesCleared() + " replayed";
+        } else if (pieces != engine.getPiecesLocked()) {
+            mismatch = "pieces " + pieces + " recorded, " + engine.getPiecesLocked() + " replayed";
+        } else if (gameOver != engine.isGameOver()) {
+            mismatch = "game-over state differs";
+        } else if (checksum != ReplayRecorder.boardChecksum(engine.getBoard())) {
+            mismatch = "final board differs";
+        }
+        if (mismatch != null) {
+            return new Result(false, mismatch, seed, engine.getScore(), events, millis);
+        }
+        return new Result(true, "ok", seed, engine.getScore(), events, millis);
+    }
+
+    static long readVarint(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in replay");
+    }
+
+    // Usage: ReplayVerifier <replay files...>. Prints one line per replay and the verification rate
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+        int failures = 0;
+        for (String name : args) {
+            Result result = verify(new File(name));
+            if (!result.valid()) {
+                failures++;
+            }
+            System.out.printf("%s: %s (seed %d, score %d, %d events)%n",
+                    name, result.reason(), result.seed(), result.score(), result.events());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d replays, %d invalid, %.0f replays/s%n", args.length, failures, args.length / seconds);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+}
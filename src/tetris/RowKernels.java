@@ -0,0 +1,68 @@
+package tetris;
+
+// Inner loops of BoardBatch: one operation applied to a contiguous run of row words, one per board.
+// SCALAR is plain Java; VectorRowKernels does the same with jdk.incubator.vector, several boards per
+// instruction. DEFAULT is the vector version when the JVM was started with
+// --add-modules jdk.incubator.vector (and -Dtetris.vector=false was not given), otherwise the scalar one.
+// The vector class is only ever loaded by name, so without the module nothing references it
+interface RowKernels {
+
+    // hits[i] |= rows[base + i] & mask
+    void collide(long[] rows, int base, long mask, long[] hits, int n);
+
+    // rows[base + i] |= mask where where[i], or everywhere when where is null
+    void lock(long[] rows, int base, long mask, boolean[] where, int n);
+
+    // full[i] |= bit where rows[base + i] is a full row
+    void markFull(long[] rows, int base, long bit, long[] full, int n);
+
+    String name();
+
+    RowKernels SCALAR = new RowKernels() {
+        @Override
+        public void collide(long[] rows, int base, long mask, long[] hits, int n) {
+            for (int i = 0; i < n; i++) {
+                hits[i] |= rows[base + i] & mask;
+            }
+        }
+
+        @Override
+        public void lock(long[] rows, int base, long mask, boolean[] where, int n) {
+            if (where == null) {
+                for (int i = 0; i < n; i++) {
+                    rows[base + i] |= mask;
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    rows[base + i] |= where[i] ? mask : 0;
+                }
+            }
+        }
+
+        @Override
+        public void markFull(long[] rows, int base, long bit, long[] full, int n) {
+            for (int i = 0; i < n; i++) {
+                full[i] |= rows[base + i] == Board.FULL_ROW ? bit : 0;
+            }
+        }
+
+        @Override
+        public String name() {
+            return "scalar";
+        }
+    };
+
+    RowKernels DEFAULT = load();
+
+    private static RowKernels load() {
+        if (!Boolean.parseBoolean(System.getProperty("tetris.vector", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return SCALAR;
+        }
+        try {
+            return (RowKernels) Class.forName("tetris.VectorRowKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+    }
+}
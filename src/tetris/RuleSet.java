@@ -0,0 +1,208 @@
+package tetris;
+
+import java.util.Arrays;
+
+// The rules a game is played by: board size, hidden rows above the visible field, spawn position,
+// wall kicks, points per line clear and T-spin and the level / gravity curve. STANDARD is the 10x22 game
+// with SRS kicks;
+// variants are derived from it with the with* methods, each of which returns a new immutable RuleSet.
+// Rule sets of the same size share their Zobrist keys, so equal positions hash alike across variants
+public final class RuleSet {
+
+    // Occupancy rows are longs; 120 rows keeps piece y in a byte for saves and journals
+    public static final int MAX_WIDTH = 64;
+    public static final int MAX_HEIGHT = 120;
+    static final int MIN_SIZE = 4;
+
+    public static final RuleSet STANDARD = new RuleSet(Board.WIDTH, Board.HEIGHT, 2,
+            Board.WIDTH / 2, 1,
+            KickTable.SRS,
+            new int[]{0, 100, 300, 500, 800},
+            // Guideline T-spin points by lines cleared: full 0..3 lines, mini 0..2 lines
+            new int[]{400, 800, 1200, 1600}, new int[]{100, 200, 400},
+            10,
+            // Frames per row at 60 Hz for each level; level 0 is 500 ms per row, level 29+ falls a row every frame
+            new int[]{
+                    30, 27, 24, 21, 18, 15, 12, 10, 8, 6,
+                    5, 5, 5, 4, 4, 4, 3, 3, 3, 2,
+                    2, 2, 2, 2, 2, 2, 2, 2, 2, 1
+            },
+            new Board.Keys(Board.WIDTH, Board.HEIGHT));
+
+    private final int width;
+    private final int height;
+    private final int hiddenRows;
+    private final int spawnX;
+    private final int spawnY;
+    // Wall kicks tried in order when rotating; PlacementSearch replays the same table
+    final KickTable kicks;
+    private final int[] lineScores;
+    private final int[] tSpinScores;
+    private final int[] miniScores;
+    private final int linesPerLevel;
+    private final int[] gravity;
+    final Board.Keys keys;
+
+    private RuleSet(int width, int height, int hiddenRows, int spawnX, int spawnY, KickTable kicks,
+                    int[] lineScores, int[] tSpinScores, int[] miniScores, int linesPerLevel, int[] gravity,
+                    Board.Keys keys) {
+        if (width < MIN_SIZE || width > MAX_WIDTH || height < MIN_SIZE || height > MAX_HEIGHT) {
+            throw new IllegalArgumentException("board size " + width + "x" + height + " outside "
+                    + MIN_SIZE + ".." + MAX_WIDTH + " x " + MIN_SIZE + ".." + MAX_HEIGHT);
+        }
+        if (hiddenRows < 0 || hiddenRows >= height) {
+            throw new IllegalArgumentException("hidden rows " + hiddenRows + " on a board of height " + height);
+        }
+        if (spawnX < 0 || spawnX >= width || spawnY < 0 || spawnY >= height) {
+            throw new IllegalArgumentException("spawn (" + spawnX + ", " + spawnY + ") outside the board");
+        }
+        if (lineScores.length < 2) {
+            throw new IllegalArgumentException("scoring table needs entries for 0 and 1 lines at least");
+        }
+        if (tSpinScores.length == 0 || miniScores.length == 0) {
+            throw new IllegalArgumentException("T-spin scoring tables need an entry for 0 lines at least");
+        }
+        if (linesPerLevel < 1 || gravity.length == 0) {
+            throw new IllegalArgumentException("level curve needs lines per level >= 1 and a gravity entry");
+        }
+        for (int frames : gravity) {
+            if (frames < 1) {
+                throw new IllegalArgumentException("gravity must be at least one frame per row: " + frames);
+            }
+        }
+        this.width = width;
+        this.height = height;
+        this.hiddenRows = hiddenRows;
+        this.spawnX = spawnX;
+        this.spawnY = spawnY;
+        this.kicks = kicks;
+        this.lineScores = lineScores;
+        this.tSpinScores = tSpinScores;
+        this.miniScores = miniScores;
+        this.linesPerLevel = linesPerLevel;
+        this.gravity = gravity;
+        this.keys = keys;
+    }
+
+    // Same rules on a board of another size; the spawn column moves to the new middle
+    public RuleSet withSize(int width, int height, int hiddenRows) {
+        Board.Keys sized = width == this.width && height == this.height ? keys
+                : width == Board.WIDTH && height == Board.HEIGHT ? STANDARD.keys : new Board.Keys(width, height);
+        return new RuleSet(width, height, hiddenRows, width / 2, Math.min(spawnY, height - 1), kicks,
+                lineScores, tSpinScores, miniScores, linesPerLevel, gravity, sized);
+    }
+
+    public RuleSet withSpawn(int x, int y) {
+        return new RuleSet(width, height, hiddenRows, x, y, kicks, lineScores, tSpinScores, miniScores,
+                linesPerLevel, gravity, keys);
+    }
+
+    // Offsets (kickX[i], kickY[i]) tried in order after any rotation of any piece until one fits,
+    // e.g. {0, -1, 1, 0} / {0, 0, 0, -1} for the simple kicks this game had before SRS
+    public RuleSet withKicks(int[] kickX, int[] kickY) {
+        return new RuleSet(width, height, hiddenRows, spawnX, spawnY, KickTable.uniform(kickX, kickY),
+                lineScores, tSpinScores, miniScores, linesPerLevel, gravity, keys);
+    }
+
+    // Back to the Super Rotation System's per-piece, per-transition kicks
+    public RuleSet withSrsKicks() {
+        return new RuleSet(width, height, hiddenRows, spawnX, spawnY, KickTable.SRS, lineScores, tSpinScores,
+                miniScores, linesPerLevel, gravity, keys);
+    }
+
+    // Points for clearing i lines at once; clears beyond the table score its last entry
+    public RuleSet withScoring(int... lineScores) {
+        return new RuleSet(width, height, hiddenRows, spawnX, spawnY, kicks, lineScores.clone(), tSpinScores,
+                miniScores, linesPerLevel, gravity, keys);
+    }
+
+    // Points for a T-spin or mini T-spin clearing i lines, in place of the plain line score
+    public RuleSet withTSpinScoring(int[] tSpinScores, int[] miniScores) {
+        return new RuleSet(width, height, hiddenRows, spawnX, spawnY, kicks, lineScores, tSpinScores.clone(),
+                miniScores.clone(), linesPerLevel, gravity, keys);
+    }
+
+    // The level rises every linesPerLevel lines; framesPerRow[level] is its gravity, the last entry applies beyond
+    public RuleSet withLevels(int linesPerLevel, int... framesPerRow) {
+        return new RuleSet(width, height, hiddenRows, spawnX, spawnY, kicks, lineScores, tSpinScores, miniScores,
+                linesPerLevel, framesPerRow.clone(), keys);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    // Rows at the top where pieces spawn but which are not drawn
+    public int hiddenRows() {
+        return hiddenRows;
+    }
+
+    public int visibleHeight() {
+        return height - hiddenRows;
+    }
+
+    public int spawnX() {
+        return spawnX;
+    }
+
+    public int spawnY() {
+        return spawnY;
+    }
+
+    // Kick tests of a piece per rotation transition
+    public int kicks(Tetromino type) {
+        return kicks.tests(type);
+    }
+
+    // Kick test index that makes any T-spin a full one (SRS's T-spin triple kick), or -1 when the kicks have none
+    public int tripleKick() {
+        return kicks.tripleKick();
+    }
+
+    // Offset of kick test i when the piece turns from rotation `from` to `to` (one step either way)
+    public int kickX(Tetromino type, int from, int to, int i) {
+        return kicks.x(type, from, to, i);
+    }
+
+    public int kickY(Tetromino type, int from, int to, int i) {
+        return kicks.y(type, from, to, i);
+    }
+
+    public int lineScore(int cleared) {
+        return lineScores[Math.min(cleared, lineScores.length - 1)];
+    }
+
+    // Points for a lock that cleared `cleared` lines and counted as the given kind of T-spin
+    public int lockScore(int cleared, TSpin spin) {
+        return switch (spin) {
+            case NONE -> lineScore(cleared);
+            case MINI -> miniScores[Math.min(cleared, miniScores.length - 1)];
+            case FULL -> tSpinScores[Math.min(cleared, tSpinScores.length - 1)];
+        };
+    }
+
+    public int level(int linesCleared) {
+        return linesCleared / linesPerLevel;
+    }
+
+    public int framesPerRow(int level) {
+        return gravity[Math.min(Math.max(level, 0), gravity.length - 1)];
+    }
+
+    // True when boards of both rule sets have the same size and so can be copied into each other
+    public boolean sameBoardSize(RuleSet other) {
+        return width == other.width && height == other.height;
+    }
+
+    @Override
+    public String toString() {
+        return "RuleSet[" + width + "x" + height + ", hidden " + hiddenRows + ", spawn (" + spawnX + ", " + spawnY
+                + "), kicks " + kicks + ", scores " + Arrays.toString(lineScores) + ", T-spins "
+                + Arrays.toString(tSpinScores) + ", minis " + Arrays.toString(miniScores) + ", "
+                + linesPerLevel + " lines per level]";
+    }
+}
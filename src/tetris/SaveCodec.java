@@ -0,0 +1,240 @@
+package tetris;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+// Compact versioned binary format for GameSave. Layout (big-endian):
+//   magic 'T' 'S' | version | grid, two cells per byte (4-bit colors, row-major) |
+//   piece type << 2 | rotation | piece x | piece y | next piece | score (int) | lines (unsigned short) |
+//   CRC32 of all previous bytes (int)
+// Version 3 is the standard 10x22 board. Boards of any other size are written as version 4, which adds
+// width and height bytes after the version; standard boards keep the version 3 bytes.
+// Versions 1 and 2 are the same layouts without lines, from before the SRS rotation states: they still
+// load, at 0 lines, with the falling piece moved to the SRS state and position that best covers its old cells.
+// An instance owns a reusable buffer and checksum, so it must not be shared between threads
+public final class SaveCodec {
+
+    static final byte MAGIC_0 = 'T';
+    static final byte MAGIC_1 = 'S';
+    static final byte LEGACY_VERSION = 1;
+    static final byte LEGACY_SIZED_VERSION = 2;
+    static final byte VERSION = 3;
+    static final byte SIZED_VERSION = 4;
+
+    // Cells of each piece before SRS, as x, y pairs indexed [type][rotation]; only used to migrate old saves
+    private static final int[][][] LEGACY_CELLS = {
+            {{-1, 0, 0, 0, 1, 0, 2, 0}, {1, -1, 1, 0, 1, 1, 1, 2}, {-1, 1, 0, 1, 1, 1, 2, 1}, {0, -1, 0, 0, 0, 1, 0, 2}},
+            {{0, 0, 1, 0, 0, 1, 1, 1}, {0, 0, 1, 0, 0, 1, 1, 1}, {0, 0, 1, 0, 0, 1, 1, 1}, {0, 0, 1, 0, 0, 1, 1, 1}},
+            {{-1, 0, 0, 0, 1, 0, 0, 1}, {0, -1, 0, 0, 1, 0, 0, 1}, {0, -1, -1, 0, 0, 0, 1, 0}, {0, -1, -1, 0, 0, 0, 0, 1}},
+            {{0, 0, 1, 0, -1, 1, 0, 1}, {0, -1, 0, 0, 1, 0, 1, 1}, {0, 0, 1, 0, -1, 1, 0, 1}, {0, -1, 0, 0, 1, 0, 1, 1}},
+            {{-1, 0, 0, 0, 0, 1, 1, 1}, {1, -1, 1, 0, 0, 0, 0, 1}, {-1, 0, 0, 0, 0, 1, 1, 1}, {1, -1, 1, 0, 0, 0, 0, 1}},
+            {{-1, 0, -1, 1, 0, 0, 1, 0}, {0, -1, 0, 0, 0, 1, 1, -1}, {-1, 0, 0, 0, 1, 0, 1, -1}, {-1, 1, 0, -1, 0, 0, 0, 1}},
+            {{-1, 0, 0, 0, 1, 0, 1, 1}, {0, -1, 0, 0, 0, 1, 1, 1}, {-1, -1, -1, 0, 0, 0, 1, 0}, {-1, -1, 0, -1, 0, 0, 0, 1}}
+    };
+
+    // Encoded size of every standard-board save
+    public static final int SIZE = sizeOf(VERSION, Board.WIDTH, Board.HEIGHT);
+
+    private static final int MAX_SIZE = sizeOf(SIZED_VERSION, RuleSet.MAX_WIDTH, RuleSet.MAX_HEIGHT);
+
+    private ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+    private final CRC32 crc = new CRC32();
+
+    static int sizeOf(int version, int width, int height) {
+        return headerSize(version) + (width * height + 1) / 2 + 4 + 4 + (version >= VERSION ? 2 : 0) + 4;
+    }
+
+    private static int headerSize(int version) {
+        return version == VERSION || version == LEGACY_VERSION ? 3 : 5;
+    }
+
+    // The reusable buffer, cleared and grown to at least size bytes
+    private ByteBuffer buffer(int size) {
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        return buffer.clear();
+    }
+
+    // Encodes the save into the codec's buffer and returns it, flipped and ready to be written
+    public ByteBuffer encode(GameSave save) {
+        Board board = save.board;
+        int width = board.width();
+        int height = board.height();
+        boolean standard = width == Board.WIDTH && height == Board.HEIGHT;
+        ByteBuffer buf = buffer(sizeOf(standard ? VERSION : SIZED_VERSION, width, height));
+        buf.put(MAGIC_0).put(MAGIC_1);
+        if (standard) {
+            buf.put(VERSION);
+        } else {
+            buf.put(SIZED_VERSION).put((byte) width).put((byte) height);
+        }
+
+        int packed = 0;
+        for (int i = 0; i < width * height; i++) {
+            int value = board.get(i % width, i / width) & 0xF;
+            if ((i & 1) == 0) {
+                packed = value << 4;
+            } else {
+                buf.put((byte) (packed | value));
+            }
+        }
+        if ((width * height & 1) != 0) {
+            buf.put((byte) packed);
+        }
+
+        Piece piece = save.currentPiece;
+        buf.put((byte) (piece.type.ordinal() << 2 | piece.rotation));
+        buf.put((byte) piece.x);
+        buf.put((byte) piece.y);
+        buf.put((byte) save.nextPiece.ordinal());
+        buf.putInt(save.score);
+        buf.putShort((short) Math.min(save.lines, 0xFFFF));
+
+        crc.reset();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        return buf.flip();
+    }
+
+    // Decodes a save from the buffer's remaining bytes, verifying header and checksum
+    public GameSave decode(ByteBuffer in) throws IOException {
+        if (in.remaining() < 3) {
+            throw new IOException("Truncated save: " + in.remaining() + " bytes");
+        }
+        int start = in.position();
+        if (in.get(start) != MAGIC_0 || in.get(start + 1) != MAGIC_1) {
+            throw new IOException("Not a binary Tetris save");
+        }
+        byte version = in.get(start + 2);
+        int width = Board.WIDTH;
+        int height = Board.HEIGHT;
+        if (version == SIZED_VERSION || version == LEGACY_SIZED_VERSION) {
+            if (in.remaining() < 5) {
+                throw new IOException("Truncated save: " + in.remaining() + " bytes");
+            }
+            width = in.get(start + 3) & 0xFF;
+            height = in.get(start + 4) & 0xFF;
+        } else if (version != VERSION && version != LEGACY_VERSION) {
+            throw new IOException("Unsupported save version " + version);
+        }
+        int size = sizeOf(version, width, height);
+        if (in.remaining() < size) {
+            throw new IOException("Truncated save: " + in.remaining() + " bytes");
+        }
+        // A view of the save's bytes, decoded in place: in may be this codec's own buffer (see read), so copying
+        // through buffer() would overwrite what it is reading
+        ByteBuffer body = in.slice(start, size);
+        in.position(start + size);
+        crc.reset();
+        crc.update(body.duplicate().limit(size - 4));
+        if ((int) crc.getValue() != body.getInt(size - 4)) {
+            throw new IOException("Save checksum mismatch");
+        }
+
+        body.position(headerSize(version));
+        Board board;
+        try {
+            board = new Board(Board.rulesFor(width, height));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unsupported board size in save: " + e.getMessage());
+        }
+        try {
+            for (int i = 0; i < width * height; i += 2) {
+                int packed = body.get() & 0xFF;
+                board.set(i % width, i / width, packed >>> 4);
+                if (i + 1 < width * height) {
+                    board.set((i + 1) % width, (i + 1) / width, packed & 0xF);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt cell in save: " + e.getMessage());
+        }
+
+        Tetromino[] types = Tetromino.values();
+        int typeAndRotation = body.get() & 0xFF;
+        int x = body.get();
+        int y = body.get();
+        int next = body.get();
+        int score = body.getInt();
+        int lines = version >= VERSION ? body.getShort() & 0xFFFF : 0;
+        if ((typeAndRotation >>> 2) >= types.length || next < 0 || next >= types.length) {
+            throw new IOException("Corrupt piece data in save");
+        }
+        Piece piece = new Piece(types[typeAndRotation >>> 2], x, y);
+        piece.rotation = typeAndRotation & 3;
+        if (version < VERSION) {
+            migrateRotation(piece, board);
+        }
+        return new GameSave(board, piece, types[next], score, lines);
+    }
+
+    // Moves a piece saved under the old rotation states to the SRS state and offset covering the most of its
+    // old cells: placements that fit the board first, then the most overlap, then the smallest move. I, O, T,
+    // S and Z always have an exact match; the old J and L were drawn mirrored, so they keep at most three cells.
+    // Also used for Java-serialized saves, which all predate SRS
+    static void migrateRotation(Piece piece, Board board) {
+        int[] old = LEGACY_CELLS[piece.type.ordinal()][piece.rotation];
+        int bestRotation = piece.rotation;
+        int bestX = piece.x;
+        int bestY = piece.y;
+        int bestScore = Integer.MIN_VALUE;
+        for (int rotation = 0; rotation < 4; rotation++) {
+            for (int dy = -2; dy <= 2; dy++) {
+                for (int dx = -2; dx <= 2; dx++) {
+                    int overlap = 0;
+                    for (Point cell : piece.type.rotations[rotation]) {
+                        for (int i = 0; i < old.length; i += 2) {
+                            if (cell.x + dx == old[i] && cell.y + dy == old[i + 1]) {
+                                overlap++;
+                            }
+                        }
+                    }
+                    int fits = board.canPlace(piece.type, rotation, piece.x + dx, piece.y + dy) ? 1 : 0;
+                    int score = (fits * 8 + overlap) * 8 - Math.abs(dx) - Math.abs(dy);
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestRotation = rotation;
+                        bestX = piece.x + dx;
+                        bestY = piece.y + dy;
+                    }
+                }
+            }
+        }
+        piece.set(piece.type, bestRotation, bestX, bestY);
+    }
+
+    // Writes the save at the start of the channel and truncates anything after it
+    public void write(FileChannel channel, GameSave save) throws IOException {
+        ByteBuffer buf = encode(save);
+        long position = 0;
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+        channel.truncate(position);
+    }
+
+    // Reads a save from the start of the channel
+    public GameSave read(FileChannel channel) throws IOException {
+        int size = (int) Math.min(channel.size(), MAX_SIZE);
+        ByteBuffer buf = buffer(size).limit(size);
+        long position = 0;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                break;
+            }
+            position += n;
+        }
+        return decode(buf.flip());
+    }
+
+    // True when the leading bytes are this codec's magic
+    static boolean isBinary(ByteBuffer header) {
+        return header.remaining() >= 2 && header.get(header.position()) == MAGIC_0
+                && header.get(header.position() + 1) == MAGIC_1;
+    }
+}
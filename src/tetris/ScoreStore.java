@@ -0,0 +1,537 @@
+package tetris;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Large leaderboard persisted in a memory-mapped, append-only file.
+// File layout: header (magic 'TSCO', version, record count) followed by fixed-size records
+//   score (int) | created at, epoch seconds UTC (long) | name length (byte) | name, UTF-8, at most 35 bytes
+// The ranking lives in memory as an order-statistic treap over primitive arrays, keyed by record index,
+// so add, rankOf and top(k) cost O(log n) (+ k). Only the best `capacity` entries are kept: lower ones are
+// dropped from the index and their records are removed by the next compaction, which rewrites the file
+// once dropped records outnumber live ones, into a new file that the store then switches to.
+// A store has a single owner and is not thread-safe: an owner that serves readers on other threads must guard
+// it with a lock, and can append() and run prepareCompaction() outside that lock and only commit() the result
+// under it. Mappings are never unmapped by hand; one that is replaced stays valid until the GC collects it
+public final class ScoreStore implements Closeable {
+
+    private static final int MAGIC = 0x5453434F; // "TSCO"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 8;
+
+    static final int RECORD_SIZE = 48;
+    static final int MAX_NAME_BYTES = 35;
+
+    // File mappings grow by at least this many records at a time
+    private static final int GROW_RECORDS = 1 << 14;
+
+    private static final int NIL = -1;
+
+    private final Path path;
+    private final int capacity;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private int records;
+    private Ranking ranking;
+    // Number of upcoming appends to fail before they change anything, as a full disk would; for tests
+    int failAppends;
+    // Makes those failures unchecked, like a bug in the store rather than the disk; for tests
+    boolean failAppendsUnchecked;
+    // Number of upcoming compaction commits to fail as if the rename were refused; for tests
+    int failCommits;
+    // After a failed compaction none is tried again until the file holds this many records
+    private int retryCompactionAt;
+
+    private ScoreStore(Path path, int capacity) {
+        this.path = path;
+        this.capacity = capacity;
+        this.ranking = new Ranking(capacity);
+    }
+
+    // Opens (or creates) a store that keeps every entry
+    public static ScoreStore open(Path path) throws IOException {
+        return open(path, Integer.MAX_VALUE);
+    }
+
+    // Opens (or creates) a store that keeps only the best `capacity` entries
+    public static ScoreStore open(Path path, int capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        ScoreStore store = new ScoreStore(path, capacity);
+        try {
+            store.load();
+        } catch (IOException | RuntimeException e) {
+            store.release();
+            throw e;
+        }
+        return store;
+    }
+
+    private void load() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            remap(GROW_RECORDS);
+            map.putInt(0, MAGIC).putInt(4, VERSION).putInt(COUNT_OFFSET, 0);
+            return;
+        }
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            throw new IOException("Truncated score store: " + path);
+        }
+        long stored = (size - HEADER_SIZE) / RECORD_SIZE;
+        remap((int) Math.max(GROW_RECORDS, Math.min(stored, Integer.MAX_VALUE / RECORD_SIZE)));
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+            throw new IOException("Not a score store: " + path);
+        }
+        int count = map.getInt(COUNT_OFFSET);
+        if (count < 0 || count > stored) {
+            throw new IOException("Corrupt score store, " + count + " records in " + size + " bytes: " + path);
+        }
+        for (int i = 0; i < count; i++) {
+            int length = nameLength(i);
+            if (length > MAX_NAME_BYTES) {
+                throw new IOException("Corrupt score store, record " + i + " has a " + length + "-byte name: " + path);
+            }
+            ranking.index(i, map.getInt(offset(i)));
+        }
+        records = count;
+    }
+
+    // Maps room for at least the given number of records
+    private void remap(int recordCapacity) throws IOException {
+        if (map != null) {
+            map.force();
+        }
+        map = map(channel, recordCapacity);
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, int recordCapacity) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) recordCapacity * RECORD_SIZE);
+    }
+
+    private static int offset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    private int mappedRecords() {
+        return (map.capacity() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    // Appends a new result. O(log n) plus an occasional remap or compaction
+    public void add(String name, int score) throws IOException {
+        add(new HighScores.Entry(name, score));
+    }
+
+    // The entry is in once append() returns: a compaction that fails afterwards is only logged (see
+    // compactQuietly), so the caller never sees an error for an entry that was stored
+    public void add(HighScores.Entry entry) throws IOException {
+        append(entry);
+        if (needsCompaction()) {
+            compactQuietly(this::compact);
+        }
+    }
+
+    // Runs a compaction whose failure is not the caller's: it is logged and the store carries on with its
+    // current file, trying again once another GROW_RECORDS records have come in
+    void compactQuietly(IoTask compaction) {
+        try {
+            compaction.run();
+        } catch (IOException e) {
+            retryCompactionAt = records + GROW_RECORDS;
+            System.err.println("Score store compaction failed, retrying after " + GROW_RECORDS + " more records: "
+                    + e.getMessage());
+        }
+    }
+
+    interface IoTask {
+        void run() throws IOException;
+    }
+
+    // add() without the compaction, for owners that compact on their own schedule
+    void append(HighScores.Entry entry) throws IOException {
+        if (failAppends > 0) {
+            failAppends--;
+            if (failAppendsUnchecked) {
+                throw new IllegalStateException("Injected append failure: " + path);
+            }
+            throw new IOException("Injected append failure: " + path);
+        }
+        long start = Metrics.start();
+        GameEvents.HighScore event = new GameEvents.HighScore();
+        event.begin();
+        if (records == mappedRecords()) {
+            remap(records + Math.max(GROW_RECORDS, records / 2));
+        }
+        int record = records;
+        write(record, entry);
+        records++;
+        map.putInt(COUNT_OFFSET, records);
+        ranking.index(record, entry.score);
+        Metrics.HIGH_SCORE_ADD.recordSince(start);
+        if (event.shouldCommit()) {
+            event.name = entry.name;
+            event.score = entry.score;
+            event.commit();
+        }
+    }
+
+    private void write(int record, HighScores.Entry entry) {
+        byte[] name = truncatedName(entry.name);
+        int at = offset(record);
+        map.putInt(at, entry.score);
+        map.putLong(at + 4, entry.createdAt.toEpochSecond(ZoneOffset.UTC));
+        map.put(at + 12, (byte) name.length);
+        map.put(at + 13, name);
+    }
+
+    // UTF-8 bytes of the name, cut at a character boundary to fit a record
+    static byte[] truncatedName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_NAME_BYTES) {
+            return bytes;
+        }
+        int end = MAX_NAME_BYTES;
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+            end--;
+        }
+        return Arrays.copyOf(bytes, end);
+    }
+
+    // Dropped records outnumber the live ones (and a mapping's worth): time to compact, unless the last
+    // attempt failed too recently
+    boolean needsCompaction() {
+        return records >= retryCompactionAt && records - size() > Math.max(GROW_RECORDS, size());
+    }
+
+    // Unsigned name length of a record; load() has checked every record it found to be at most MAX_NAME_BYTES,
+    // which keeps the name inside its record and the mapping
+    private int nameLength(int record) {
+        return map.get(offset(record) + 12) & 0xFF;
+    }
+
+    private HighScores.Entry read(int record) {
+        int at = offset(record);
+        byte[] name = new byte[nameLength(record)];
+        map.get(at + 13, name);
+        return new HighScores.Entry(new String(name, StandardCharsets.UTF_8), map.getInt(at),
+                LocalDateTime.ofEpochSecond(map.getLong(at + 4), 0, ZoneOffset.UTC));
+    }
+
+    // Number of entries currently ranked
+    public int size() {
+        return ranking.size();
+    }
+
+    // 1-based rank a new result with this score would get: one more than the number of strictly better entries
+    public int rankOf(int score) {
+        return ranking.rankOf(score);
+    }
+
+    // The best k entries, best first
+    public List<HighScores.Entry> top(int k) {
+        int[] best = ranking.top(k);
+        List<HighScores.Entry> out = new ArrayList<>(best.length);
+        for (int record : best) {
+            out.add(read(record));
+        }
+        return out;
+    }
+
+    // The top 10, matching HighScores.top()
+    public List<HighScores.Entry> top() {
+        return top(10);
+    }
+
+    // The ranking: an order-statistic treap whose nodes are record numbers, holding at most capacity entries
+    private static final class Ranking {
+        private final int capacity;
+        private int[] scores = new int[1024];
+        private int[] left = new int[1024];
+        private int[] right = new int[1024];
+        private int[] sizes = new int[1024];
+        private int[] priorities = new int[1024];
+        private int root = NIL;
+        private final SplittableRandom random = new SplittableRandom(0x5EED);
+
+        Ranking(int capacity) {
+            this.capacity = capacity;
+        }
+
+        // Adds a record to the ranking, evicting the lowest entry when over capacity
+        void index(int record, int score) {
+            ensureNodes(record + 1);
+            scores[record] = score;
+            left[record] = NIL;
+            right[record] = NIL;
+            sizes[record] = 1;
+            priorities[record] = random.nextInt();
+            root = insert(root, record);
+            if (size() > capacity) {
+                root = remove(root, last(root));
+            }
+        }
+
+        private void ensureNodes(int n) {
+            if (n > scores.length) {
+                int length = Math.max(n, scores.length * 2);
+                scores = Arrays.copyOf(scores, length);
+                left = Arrays.copyOf(left, length);
+                right = Arrays.copyOf(right, length);
+                sizes = Arrays.copyOf(sizes, length);
+                priorities = Arrays.copyOf(priorities, length);
+            }
+        }
+
+        // Ranking order: higher score first, earlier record first among equal scores
+        private boolean before(int a, int b) {
+            return scores[a] > scores[b] || (scores[a] == scores[b] && a < b);
+        }
+
+        private int size(int node) {
+            return node == NIL ? 0 : sizes[node];
+        }
+
+        private void update(int node) {
+            sizes[node] = 1 + size(left[node]) + size(right[node]);
+        }
+
+        private int insert(int node, int record) {
+            if (node == NIL) {
+                return record;
+            }
+            if (before(record, node)) {
+                left[node] = insert(left[node], record);
+                if (priorities[left[node]] > priorities[node]) {
+                    node = rotateRight(node);
+                }
+            } else {
+                right[node] = insert(right[node], record);
+                if (priorities[right[node]] > priorities[node]) {
+                    node = rotateLeft(node);
+                }
+            }
+            update(node);
+            return node;
+        }
+
+        private int remove(int node, int record) {
+            if (node == record) {
+                if (left[node] == NIL) {
+                    return right[node];
+                }
+                if (right[node] == NIL) {
+                    return left[node];
+                }
+                if (priorities[left[node]] > priorities[right[node]]) {
+                    node = rotateRight(node);
+                    right[node] = remove(right[node], record);
+                } else {
+                    node = rotateLeft(node);
+                    left[node] = remove(left[node], record);
+                }
+            } else if (before(record, node)) {
+                left[node] = remove(left[node], record);
+            } else {
+                right[node] = remove(right[node], record);
+            }
+            update(node);
+            return node;
+        }
+
+        private int rotateRight(int node) {
+            int l = left[node];
+            left[node] = right[l];
+            right[l] = node;
+            update(node);
+            update(l);
+            return l;
+        }
+
+        private int rotateLeft(int node) {
+            int r = right[node];
+            right[node] = left[r];
+            left[r] = node;
+            update(node);
+            update(r);
+            return r;
+        }
+
+        private int last(int node) {
+            while (right[node] != NIL) {
+                node = right[node];
+            }
+            return node;
+        }
+
+        // Number of entries currently ranked
+        int size() {
+            return size(root);
+        }
+
+        // 1-based rank a new result with this score would get: one more than the number of strictly better entries
+        int rankOf(int score) {
+            int better = 0;
+            int node = root;
+            while (node != NIL) {
+                if (scores[node] > score) {
+                    better += size(left[node]) + 1;
+                    node = right[node];
+                } else {
+                    node = left[node];
+                }
+            }
+            return better + 1;
+        }
+
+        int score(int record) {
+            return scores[record];
+        }
+
+        // Record numbers of the best k entries, best first
+        int[] top(int k) {
+            int[] out = new int[Math.min(k, size())];
+            collect(root, out, new int[1]);
+            return out;
+        }
+
+        // Record numbers of every ranked entry, best first
+        int[] records() {
+            return top(size());
+        }
+
+        private void collect(int node, int[] out, int[] n) {
+            if (node == NIL || n[0] >= out.length) {
+                return;
+            }
+            collect(left[node], out, n);
+            if (n[0] < out.length) {
+                out[n[0]++] = node;
+                collect(right[node], out, n);
+            }
+        }
+    }
+
+    // Rewrites the file with only the ranked records, in their original order, and swaps it in atomically
+    public void compact() throws IOException {
+        commit(prepareCompaction());
+    }
+
+    // A compacted file written next to the store and the ranking of its records, ready to replace both
+    static final class Compaction {
+        private final Path file;
+        private final int source;
+        private final int records;
+        private final Ranking ranking;
+
+        private Compaction(Path file, int source, int records, Ranking ranking) {
+            this.file = file;
+            this.source = source;
+            this.records = records;
+            this.ranking = ranking;
+        }
+    }
+
+    // The slow half of compact(): writes the compacted file and ranks its records without changing the store,
+    // so readers may keep using it meanwhile
+    Compaction prepareCompaction() throws IOException {
+        int[] live = ranking.records();
+        Arrays.sort(live);
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putInt(live.length);
+            out.write(header.flip(), 0);
+            ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            long position = HEADER_SIZE;
+            for (int i = 0; i < live.length; i++) {
+                chunk.put(map.slice(offset(live[i]), RECORD_SIZE));
+                if (!chunk.hasRemaining() || i == live.length - 1) {
+                    chunk.flip();
+                    while (chunk.hasRemaining()) {
+                        position += out.write(chunk, position);
+                    }
+                    chunk.clear();
+                }
+            }
+            out.force(true);
+        }
+        Ranking next = new Ranking(capacity);
+        for (int i = 0; i < live.length; i++) {
+            next.index(i, ranking.score(live[i]));
+        }
+        return new Compaction(tmp, records, live.length, next);
+    }
+
+    // The quick half of compact(): switches to a prepared compaction, provided nothing was added since. The
+    // compacted file is opened and mapped first, then renamed over the store's file; only once that worked does
+    // the store let go of the old file. If anything fails the store carries on with the old file, as on Windows,
+    // which refuses to replace a file that is still mapped; add() and Leaderboard then back off (compactQuietly)
+    void commit(Compaction compaction) throws IOException {
+        if (compaction.source != records) {
+            Files.deleteIfExists(compaction.file);
+            throw new IllegalStateException("the store changed since the compaction was prepared");
+        }
+        FileChannel next = null;
+        MappedByteBuffer nextMap;
+        try {
+            if (failCommits > 0) {
+                failCommits--;
+                throw new IOException("Injected compaction failure: " + path);
+            }
+            next = FileChannel.open(compaction.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            nextMap = map(next, Math.max(GROW_RECORDS, compaction.records));
+            map.force();
+            Files.move(compaction.file, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            if (next != null) {
+                next.close();
+            }
+            Files.deleteIfExists(compaction.file);
+            throw e;
+        }
+        FileChannel old = channel;
+        channel = next;
+        map = nextMap;
+        ranking = compaction.ranking;
+        records = compaction.records;
+        old.close();
+    }
+
+    // Flushes the mapping and closes the channel; the mapping itself goes with the GC
+    private void release() throws IOException {
+        if (map != null) {
+            map.force();
+            map = null;
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    // Flushes mapped changes to disk
+    public void flush() {
+        map.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        release();
+    }
+}
@@ -1,25 +1,134 @@
 package tetris;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 
-//Utility class for saving and loading serializable objects to and from disk using Java's built-in object serialization
+//Utility class for saving and loading objects to and from disk. Game saves use the compact binary SaveCodec,
+//everything else uses Java's built-in object serialization. Files are replaced atomically: the new contents go to a
+//temporary file next to the target, are forced to disk and then renamed over it, so a crash leaves either the old
+//file or the new one, never a torn mix
 public final class Serializer {
 
+    // Java serialization stream magic, used to recognise saves written before the binary format
+    private static final short JAVA_STREAM_MAGIC = (short) 0xACED;
+
+    // Classes a serialized file may contain: the old game saves and high-score tables and nothing else, since the
+    // file may come from anywhere. Arrays are checked by element type; primitive ones (the board grid) pass, and
+    // java.lang.Object is only there for the Object[] inside ArrayList
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=16;maxrefs=4096;maxarray=4096;maxbytes=1048576;"
+                    + "tetris.GameSave;tetris.Board;tetris.Piece;tetris.Tetromino;tetris.HighScores;"
+                    + "tetris.HighScores$Entry;java.time.*;java.util.ArrayList;java.lang.Enum;java.lang.Object;!*");
+
+    // One codec (and its buffer) per thread, reused for every save and load
+    private static final ThreadLocal<SaveCodec> CODEC = ThreadLocal.withInitial(SaveCodec::new);
+
     private Serializer() {
     }
 
     public static <T> void save(File file, T obj) throws IOException {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
+        long start = Metrics.start();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
             out.writeObject(obj);
         }
+        writeAtomically(file.toPath(), ByteBuffer.wrap(bytes.toByteArray()));
+        Metrics.SAVE.recordSince(start);
     }
 
     public static <T> T load(File file, Class<T> clazz)
             throws IOException, ClassNotFoundException {
+        long start = Metrics.start();
+        GameEvents.Load event = new GameEvents.Load();
+        event.begin();
         try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+            in.setObjectInputFilter(FILTER);
             Object obj = in.readObject();
             return (T) clazz.cast(obj);
+        } finally {
+            Metrics.LOAD.recordSince(start);
+            if (event.shouldCommit()) {
+                event.file = file.getPath();
+                event.bytes = file.length();
+                event.commit();
+            }
+        }
+    }
+
+    //Writes the game state in the binary save format
+    public static void saveGame(File file, GameSave save) throws IOException {
+        long start = Metrics.start();
+        writeAtomically(file.toPath(), CODEC.get().encode(save));
+        Metrics.SAVE.recordSince(start);
+    }
+
+    //Replaces target with the buffer's remaining bytes: temp file, fsync, atomic rename, then fsync of the directory
+    static void writeAtomically(Path target, ByteBuffer data) throws IOException {
+        GameEvents.Save event = new GameEvents.Save();
+        event.begin();
+        event.bytes = data.remaining();
+        Path dir = target.toAbsolutePath().getParent();
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(dir);
+        if (event.shouldCommit()) {
+            event.file = target.toString();
+            event.commit();
+        }
+    }
+
+    //Makes a rename durable. Not every platform can open a directory for syncing; there the rename is left to the OS
+    static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            // best effort
+        }
+    }
+
+    //Loads a game state, accepting both the binary format and older Java-serialized saves.
+    //Older saves are rewritten in the binary format after they are read. They all predate SRS, so the falling piece
+    //is moved to the SRS rotation covering its old cells first, as for binary version 1 and 2 saves
+    public static GameSave loadGame(File file) throws IOException, ClassNotFoundException {
+        long start = Metrics.start();
+        GameEvents.Load event = new GameEvents.Load();
+        event.begin();
+        short magic;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(2);
+            channel.read(header, 0);
+            header.flip();
+            if (SaveCodec.isBinary(header)) {
+                GameSave save = CODEC.get().read(channel);
+                Metrics.LOAD.recordSince(start);
+                if (event.shouldCommit()) {
+                    event.file = file.getPath();
+                    event.bytes = channel.size();
+                    event.commit();
+                }
+                return save;
+            }
+            magic = header.remaining() == 2 ? header.getShort(0) : 0;
+        }
+        if (magic != JAVA_STREAM_MAGIC) {
+            throw new IOException("Unrecognised save file format: " + file);
         }
+        GameSave save = load(file, GameSave.class);
+        SaveCodec.migrateRotation(save.currentPiece, save.board);
+        saveGame(file, save);
+        return save;
     }
 }
@@ -0,0 +1,172 @@
+package tetris;
+
+import java.io.Serial;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongFunction;
+
+// Plays large batches of headless games in parallel. Consecutive seeds are split into shards over a
+// ForkJoinPool; every game gets its own GameEngine and Policy, and each shard merges its totals into
+// the shared SimulationStats once, so workers never contend on mutable state while playing
+public final class SimulationRunner {
+
+    // Games played sequentially by one leaf task before results are merged
+    private static final int SHARD_SIZE = 256;
+
+    private final ForkJoinPool pool;
+    private final LongFunction<Policy> policies;
+    private final int maxPieces;
+    private final PieceGenerator.Kind randomizer;
+    private final RuleSet rules;
+
+    // Runs 7-bag games on the given pool; each game stops at game over or after maxPieces locked pieces
+    public SimulationRunner(ForkJoinPool pool, LongFunction<Policy> policies, int maxPieces) {
+        this(pool, policies, maxPieces, PieceGenerator.Kind.BAG);
+    }
+
+    // As above, with pieces drawn from the given randomizer
+    public SimulationRunner(ForkJoinPool pool, LongFunction<Policy> policies, int maxPieces,
+                            PieceGenerator.Kind randomizer) {
+        this(pool, policies, maxPieces, randomizer, RuleSet.STANDARD);
+    }
+
+    // As above, playing every game by the given rules
+    public SimulationRunner(ForkJoinPool pool, LongFunction<Policy> policies, int maxPieces,
+                            PieceGenerator.Kind randomizer, RuleSet rules) {
+        this.pool = pool;
+        this.policies = policies;
+        this.maxPieces = maxPieces;
+        this.randomizer = randomizer;
+        this.rules = rules;
+    }
+
+    // Result of one run: the aggregate stats plus the wall-clock time it took
+    public record Report(SimulationStats stats, long elapsedNanos, int parallelism) {
+
+        public double gamesPerSecond() {
+            return stats.games() * 1e9 / Math.max(elapsedNanos, 1);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("games: %d in %.2f s on %d threads (%.0f games/s, %.0f pieces/s)%n",
+                    stats.games(), elapsedNanos / 1e9, parallelism, gamesPerSecond(),
+                    stats.totalPieces() * 1e9 / Math.max(elapsedNanos, 1)));
+            sb.append(String.format("score:  mean %.1f, max %d%n", stats.meanScore(), stats.maxScore()));
+            sb.append(String.format("lines:  mean %.2f, max %d%n", stats.meanLines(), stats.maxLines()));
+            sb.append(String.format("pieces: mean %.1f, max %d%n", stats.meanPieces(), stats.maxPieces()));
+            sb.append(String.format("game-over height: mean %.1f over %d games topped out, %d capped%n",
+                    stats.meanGameOverHeight(), stats.toppedOutGames(), stats.cappedGames()));
+            sb.append("score distribution:\n");
+            for (int i = 0; i < SimulationStats.SCORE_BUCKETS; i++) {
+                long count = stats.scoreBucketCount(i);
+                if (count > 0) {
+                    long low = i == 0 ? 0 : 1L << (i - 1);
+                    long high = i == 0 ? 0 : (1L << i) - 1;
+                    sb.append(String.format("  %8d..%-8d %d%n", low, high, count));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    // Plays games for seeds firstSeed .. firstSeed + games - 1 and returns the aggregated results
+    public Report run(long firstSeed, long games) {
+        SimulationStats stats = new SimulationStats();
+        long start = System.nanoTime();
+        pool.invoke(new Shard(stats, firstSeed, firstSeed + games));
+        return new Report(stats, System.nanoTime() - start, pool.getParallelism());
+    }
+
+    // Plays a single seeded game to completion and records it
+    private void play(long seed, SimulationStats.Local local) {
+        // Simulated games never undo, so they keep no history
+        GameEngine engine = new GameEngine(seed, 0, randomizer, rules);
+        Policy policy = policies.apply(seed);
+        long ticks = 0;
+        while (!engine.isGameOver() && engine.getPiecesLocked() < maxPieces) {
+            policy.act(engine);
+            engine.tick();
+            ticks++;
+        }
+        local.record(engine, ticks);
+    }
+
+    // Splits a seed range in halves until it is small enough to play sequentially
+    private final class Shard extends RecursiveAction {
+        @Serial private static final long serialVersionUID = 1L;
+
+        private final SimulationStats stats;
+        private final long from, to;
+
+        Shard(SimulationStats stats, long from, long to) {
+            this.stats = stats;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SHARD_SIZE) {
+                SimulationStats.Local local = new SimulationStats.Local();
+                for (long seed = from; seed < to; seed++) {
+                    play(seed, local);
+                }
+                stats.merge(local);
+                return;
+            }
+            long mid = (from + to) >>> 1;
+            invokeAll(new Shard(stats, from, mid), new Shard(stats, mid, to));
+        }
+    }
+
+    // Usage: SimulationRunner [games] [threads] [firstSeed] [random|greedy|beam<width>] [maxPieces] [cacheEntries]
+    //        [bag|memoryless|history] [<width>x<height>].
+    // Plays the games with the given policy (random inputs by default) and prints the report. With cacheEntries
+    // above 0 the bots share a TranspositionCache of heuristic scores across all games
+    public static void main(String[] args) {
+        long games = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long firstSeed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        String policy = args.length > 3 ? args[3] : "random";
+        int maxPieces = args.length > 4 ? Integer.parseInt(args[4]) : 10_000;
+
+        int cacheEntries = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+        PieceGenerator.Kind randomizer = args.length > 6
+                ? PieceGenerator.Kind.valueOf(args[6].toUpperCase()) : PieceGenerator.Kind.BAG;
+        RuleSet rules = RuleSet.STANDARD;
+        if (args.length > 7) {
+            String[] size = args[7].split("x");
+            rules = Board.rulesFor(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+        }
+
+        TranspositionCache cache = cacheEntries > 0 ? new TranspositionCache(cacheEntries) : null;
+        Heuristic heuristic = cache != null ? Heuristic.cached(Heuristic.DEFAULT, cache) : Heuristic.DEFAULT;
+        LongFunction<Policy> policies;
+        if (policy.equals("random")) {
+            policies = Policy::random;
+        } else if (policy.equals("greedy")) {
+            policies = seed -> Policy.greedy(heuristic);
+        } else if (policy.startsWith("beam")) {
+            int width = Integer.parseInt(policy.substring("beam".length()));
+            policies = seed -> Policy.beam(heuristic, width, 4);
+        } else {
+            throw new IllegalArgumentException("unknown policy " + policy);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            SimulationRunner runner = new SimulationRunner(pool, policies, maxPieces, randomizer, rules);
+            System.out.print(runner.run(firstSeed, games));
+            if (cache != null) {
+                System.out.println(cache);
+            }
+        } finally {
+            pool.shutdown();
+            if (cache != null) {
+                cache.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package tetris;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Aggregate results of many simulated games. Workers merge their local totals through lock-free
+// adders and atomic histograms, so the stats can be shared by every thread of a simulation run
+public final class SimulationStats {
+
+    // Score histogram buckets: bucket 0 holds score 0, bucket i holds scores in [2^(i-1), 2^i)
+    public static final int SCORE_BUCKETS = 33;
+
+    private final LongAdder games = new LongAdder();
+    private final LongAdder totalScore = new LongAdder();
+    private final LongAdder totalLines = new LongAdder();
+    private final LongAdder totalPieces = new LongAdder();
+    private final LongAdder totalTicks = new LongAdder();
+    private final LongAdder capped = new LongAdder();
+    private final LongAccumulator maxScore = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxLines = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxPieces = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray scoreHistogram = new AtomicLongArray(SCORE_BUCKETS);
+    private final AtomicLongArray heightHistogram = new AtomicLongArray(RuleSet.MAX_HEIGHT + 1);
+
+    // Single-threaded totals of one worker, merged into the shared stats once the worker is done
+    static final class Local {
+        long games, score, lines, pieces, ticks, capped, maxScore, maxLines, maxPieces;
+        final long[] scoreHistogram = new long[SCORE_BUCKETS];
+        final long[] heightHistogram = new long[RuleSet.MAX_HEIGHT + 1];
+
+        void record(GameEngine engine, long ticks) {
+            int score = engine.getScore();
+            games++;
+            this.score += score;
+            this.lines += engine.getLinesCleared();
+            this.pieces += engine.getPiecesLocked();
+            this.ticks += ticks;
+            maxScore = Math.max(maxScore, score);
+            maxLines = Math.max(maxLines, engine.getLinesCleared());
+            maxPieces = Math.max(maxPieces, engine.getPiecesLocked());
+            scoreHistogram[scoreBucket(score)]++;
+            // Only a topped-out game has a game-over height; one stopped at the piece cap is counted apart
+            if (engine.isGameOver()) {
+                heightHistogram[engine.getBoard().stackHeight()]++;
+            } else {
+                capped++;
+            }
+        }
+    }
+
+    void merge(Local local) {
+        games.add(local.games);
+        totalScore.add(local.score);
+        totalLines.add(local.lines);
+        totalPieces.add(local.pieces);
+        totalTicks.add(local.ticks);
+        capped.add(local.capped);
+        maxScore.accumulate(local.maxScore);
+        maxLines.accumulate(local.maxLines);
+        maxPieces.accumulate(local.maxPieces);
+        for (int i = 0; i < SCORE_BUCKETS; i++) {
+            if (local.scoreHistogram[i] != 0) {
+                scoreHistogram.addAndGet(i, local.scoreHistogram[i]);
+            }
+        }
+        for (int i = 0; i <= RuleSet.MAX_HEIGHT; i++) {
+            if (local.heightHistogram[i] != 0) {
+                heightHistogram.addAndGet(i, local.heightHistogram[i]);
+            }
+        }
+    }
+
+    static int scoreBucket(int score) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(score, 0));
+    }
+
+    public long games() {
+        return games.sum();
+    }
+
+    public long totalScore() {
+        return totalScore.sum();
+    }
+
+    public long totalLines() {
+        return totalLines.sum();
+    }
+
+    public long totalPieces() {
+        return totalPieces.sum();
+    }
+
+    public long totalTicks() {
+        return totalTicks.sum();
+    }
+
+    // Games stopped at the piece cap before they topped out
+    public long cappedGames() {
+        return capped.sum();
+    }
+
+    // Games that topped out, the ones the game-over height histogram covers
+    public long toppedOutGames() {
+        return games() - cappedGames();
+    }
+
+    public long maxScore() {
+        return maxScore.get();
+    }
+
+    public long maxLines() {
+        return maxLines.get();
+    }
+
+    public long maxPieces() {
+        return maxPieces.get();
+    }
+
+    // Number of games whose score fell into the given bucket, see SCORE_BUCKETS
+    public long scoreBucketCount(int bucket) {
+        return scoreHistogram.get(bucket);
+    }
+
+    // Number of games that topped out with the stack at the given height
+    public long gameOverHeightCount(int height) {
+        return heightHistogram.get(height);
+    }
+
+    public double meanScore() {
+        return mean(totalScore());
+    }
+
+    public double meanLines() {
+        return mean(totalLines());
+    }
+
+    public double meanPieces() {
+        return mean(totalPieces());
+    }
+
+    // Mean stack height of the games that topped out, 0 if none did
+    public double meanGameOverHeight() {
+        long sum = 0;
+        long n = 0;
+        for (int h = 0; h <= RuleSet.MAX_HEIGHT; h++) {
+            long count = heightHistogram.get(h);
+            sum += h * count;
+            n += count;
+        }
+        return n == 0 ? 0 : (double) sum / n;
+    }
+
+    private double mean(long total) {
+        long n = games();
+        return n == 0 ? 0 : (double) total / n;
+    }
+}
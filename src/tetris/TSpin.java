@@ -0,0 +1,38 @@
+package tetris;
+
+// How a lock counts for T-spin scoring, by the guideline's 3-corner rule: a T whose last move was a rotation
+// and with at least three of the four cells diagonal to its center blocked (walls and floor count) is a
+// T-spin. It is a full one when both corners on the side the T points to are blocked, or when the rotation
+// took the board's rule set's T-spin triple kick (the last SRS test; custom kick tables have none); otherwise a mini
+public enum TSpin {
+    NONE,
+    MINI,
+    FULL;
+
+    // Corner offsets in the order top-left, top-right, bottom-right, bottom-left
+    private static final int[] CORNER_X = {-1, 1, 1, -1};
+    private static final int[] CORNER_Y = {-1, -1, 1, 1};
+
+    // Classifies a piece about to lock at (rotation, x, y) on a board that does not contain it yet.
+    // kick is the test index of the rotation that was the piece's last move, or -1 if its last move was not a rotation
+    public static TSpin detect(Board board, Tetromino type, int rotation, int x, int y, int kick) {
+        if (type != Tetromino.T || kick < 0) {
+            return NONE;
+        }
+        int blocked = 0;
+        for (int i = 0; i < 4; i++) {
+            int cx = x + CORNER_X[i];
+            int cy = y + CORNER_Y[i];
+            if (!board.inBounds(cx, cy) || board.get(cx, cy) != 0) {
+                blocked |= 1 << i;
+            }
+        }
+        if (Integer.bitCount(blocked) < 3) {
+            return NONE;
+        }
+        // State 0 points up, so its front corners are 0 and 1; each clockwise turn moves the front one corner on
+        int front = 0b11 << rotation;
+        front = (front | front >>> 4) & 0b1111;
+        return (blocked & front) == front || kick == board.rules().tripleKick() ? FULL : MINI;
+    }
+}
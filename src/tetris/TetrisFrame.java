@@ -3,25 +3,42 @@ package tetris;
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 //Hosts the GamePanel and provides a menu bar for user actions
 public class TetrisFrame extends JFrame {
 
-    private final GamePanel gamePanel = new GamePanel();
+    private final GamePanel gamePanel;
 
     private final File saveFile = new File("tetris.save");
     private final File scoresFile = new File("scores.ser");
+    private static final Path SCORES_DB = Path.of("scores.db");
+    private static final Path AUTOSAVE_DIR = Path.of("autosave");
 
-    private HighScores highScores;
+    // Opened once and shared by every window of this process, since only one writer may append to the file
+    private static ScoreStore highScores;
 //Constructor the main game window,sets up the menu bar, attaches the GamePanel, and loads high scores.
     public TetrisFrame() {
+        this(new GamePanel());
+    }
+
+    //Hosts the given panel, e.g. one playing on a match server; only local games are autosaved
+    public TetrisFrame(GamePanel panel) {
         super("Tetris Game (Swing)");
+        gamePanel = panel;
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setJMenuBar(buildMenuBar());
         add(gamePanel);
         pack();
         setLocationRelativeTo(null);
         loadHighScores();
+        if (panel.isLocal()) {
+            resumeAutosave();
+        }
     }
 //Builds the main menu bar with File, Game, and Help menus. Each menu item is wired to the corresponding game action.
     private JMenuBar buildMenuBar() {
@@ -32,19 +49,33 @@ public class TetrisFrame extends JFrame {
             //Starts a new game
             @Override
             public void actionPerformed(ActionEvent e) {
+                gamePanel.discardAutosave();
                 dispose();
                 new TetrisFrame().setVisible(true);
             }
         }));
         file.add(new JMenuItem(new AbstractAction("Save") {
-            //Saves the current game state to disk using serialization
+            //Saves the current game state to disk in the binary save format, off the EDT
             @Override
             public void actionPerformed(ActionEvent e) {
-                try {
-                    Serializer.save(saveFile, gamePanel.snapshot());
-                } catch (Exception ex) {
-                    showError(ex);
-                }
+                new SwingWorker<Void, Void>() {
+                    @Override
+                    protected Void doInBackground() throws Exception {
+                        Serializer.saveGame(saveFile, gamePanel.snapshot());
+                        return null;
+                    }
+
+                    @Override
+                    protected void done() {
+                        try {
+                            get();
+                        } catch (ExecutionException ex) {
+                            showError(ex.getCause() instanceof Exception cause ? cause : ex);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }.execute();
             }
         }));
         file.add(new JMenuItem(new AbstractAction("Load") {
@@ -52,7 +83,7 @@ public class TetrisFrame extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e) {
                 try {
-                    GameSave save = Serializer.load(saveFile, GameSave.class);
+                    GameSave save = Serializer.loadGame(saveFile);
                     gamePanel.restore(save);
                 } catch (Exception ex) {
                     showError(ex);
@@ -100,11 +131,31 @@ public class TetrisFrame extends JFrame {
         return bar;
     }
 
-    private void loadHighScores() {
+    //Offers to continue a game that was autosaved but never finished, then keeps autosaving this one
+    private void resumeAutosave() {
         try {
-            highScores = Serializer.load(scoresFile, HighScores.class);
-        } catch (Exception e) {
-            highScores = new HighScores();
+            GameSave save = AutoSaver.recover(AUTOSAVE_DIR);
+            if (save != null && JOptionPane.showConfirmDialog(
+                    this,
+                    "Resume the game that was in progress (score " + save.score + ")?",
+                    "Autosave",
+                    JOptionPane.YES_NO_OPTION
+            ) == JOptionPane.YES_OPTION) {
+                gamePanel.restore(save);
+            }
+        } catch (IOException e) {
+            showError(e);
+        }
+        gamePanel.startAutosave(AUTOSAVE_DIR);
+    }
+
+    private void loadHighScores() {
+        if (highScores == null) {
+            try {
+                highScores = openScoreStore();
+            } catch (IOException e) {
+                showError(e);
+            }
         }
 
         addWindowListener(new java.awt.event.WindowAdapter() {
@@ -119,20 +170,41 @@ public class TetrisFrame extends JFrame {
                 if (name == null || name.isBlank()) {
                     name = defaultName;
                 }
-                highScores.add(name, gamePanel.getScore());
+                if (highScores == null) {
+                    return;
+                }
                 try {
-                    Serializer.save(scoresFile, highScores);
-                } catch (Exception ignored) {
+                    highScores.add(name, gamePanel.getScore());
+                    highScores.flush();
+                } catch (IOException ex) {
+                    showError(ex);
                 }
             }
         });
     }
 
+    //Opens the score store, importing the old scores.ser table the first time it is created
+    private ScoreStore openScoreStore() throws IOException {
+        boolean created = !Files.exists(SCORES_DB);
+        ScoreStore store = ScoreStore.open(SCORES_DB);
+        if (created && scoresFile.exists()) {
+            try {
+                for (HighScores.Entry e : Serializer.load(scoresFile, HighScores.class).top()) {
+                    store.add(e);
+                }
+                store.flush();
+            } catch (ClassNotFoundException | IOException e) {
+                showError(e);
+            }
+        }
+        return store;
+    }
+
     //Builds and shows a simple text dialog with the top 10 scores
     private void showScoresDialog() {
         StringBuilder sb = new StringBuilder("Top 10 scores:\n");
         int i = 1;
-        for (HighScores.Entry e : highScores.top()) {
+        for (HighScores.Entry e : highScores == null ? List.<HighScores.Entry>of() : highScores.top()) {
             sb.append(i++)
                     .append(". ")
                     .append(e.name)
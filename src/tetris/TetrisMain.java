@@ -1,9 +1,48 @@
 package tetris;
 
+import javax.management.JMException;
 import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.text.ParseException;
 
 public class TetrisMain {
     public static void main(String[] args) {
+        // With -Dtetris.metrics=true, metrics are published over JMX and appended to metrics.csv every 10 s
+        if (Metrics.ENABLED) {
+            try {
+                Metrics.registerMBean();
+            } catch (JMException e) {
+                System.err.println("Metrics MBean not registered: " + e.getMessage());
+            }
+            Metrics.startCsvDump(Path.of("metrics.csv"), 10_000);
+        }
+        // With -Dtetris.jfr=true, a flight recording runs in the background and is dumped to recordings/
+        // on game over or an uncaught exception
+        if (Boolean.getBoolean("tetris.jfr")) {
+            try {
+                FlightRecording.start(Path.of("recordings"));
+            } catch (IOException | ParseException e) {
+                System.err.println("Flight recording not started: " + e.getMessage());
+            }
+        }
+
+        // With --connect host:port, plays a match on a MatchServer instead of a local game;
+        // with --spectate host:port playerId, watches that player's game
+        boolean spectate = args.length > 2 && args[0].equals("--spectate");
+        if (spectate || args.length > 1 && args[0].equals("--connect")) {
+            String[] hostPort = args[1].split(":");
+            InetSocketAddress address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+            try {
+                NetClient client = spectate
+                        ? NetClient.spectate(address, Integer.parseInt(args[2])) : NetClient.connect(address);
+                SwingUtilities.invokeLater(() -> new TetrisFrame(new GamePanel(client)).setVisible(true));
+            } catch (IOException e) {
+                System.err.println("Could not join " + args[1] + ": " + e.getMessage());
+            }
+            return;
+        }
 
         SwingUtilities.invokeLater(() -> new TetrisFrame().setVisible(true));
     }
@@ -1,7 +1,12 @@
 package tetris;
 
 import java.awt.Point;
-// shapes
+import java.util.Arrays;
+
+// Tetromino shapes and wall kicks of the Super Rotation System. Rotation states are 0 (spawn), R, 2 and L,
+// each clockwise of the one before; cells are offsets from the rotation center with y growing downwards.
+// JLSTZ turn about the center cell of their 3x3 box, I about the center of its 4x4 box (offsets are relative
+// to box cell (1, 1)), and O does not move
 public enum Tetromino {
     I(new Point[][]{
             {p(-1,0), p(0,0), p(1,0), p(2,0)},
@@ -10,46 +15,158 @@ public enum Tetromino {
             {p(0,-1), p(0,0), p(0,1), p(0,2)}
     }),
     O(new Point[][]{
-            {p(0,0), p(1,0), p(0,1), p(1,1)},
-            {p(0,0), p(1,0), p(0,1), p(1,1)},
-            {p(0,0), p(1,0), p(0,1), p(1,1)},
-            {p(0,0), p(1,0), p(0,1), p(1,1)}
+            {p(0,-1), p(1,-1), p(0,0), p(1,0)},
+            {p(0,-1), p(1,-1), p(0,0), p(1,0)},
+            {p(0,-1), p(1,-1), p(0,0), p(1,0)},
+            {p(0,-1), p(1,-1), p(0,0), p(1,0)}
     }),
     T(new Point[][]{
-            {p(-1,0), p(0,0), p(1,0), p(0,1)},
-            {p(0,-1), p(0,0), p(1,0), p(0,1)},
             {p(0,-1), p(-1,0), p(0,0), p(1,0)},
+            {p(0,-1), p(0,0), p(1,0), p(0,1)},
+            {p(-1,0), p(0,0), p(1,0), p(0,1)},
             {p(0,-1), p(-1,0), p(0,0), p(0,1)}
     }),
     S(new Point[][]{
-            {p(0,0), p(1,0), p(-1,1), p(0,1)},
+            {p(0,-1), p(1,-1), p(-1,0), p(0,0)},
             {p(0,-1), p(0,0), p(1,0), p(1,1)},
             {p(0,0), p(1,0), p(-1,1), p(0,1)},
-            {p(0,-1), p(0,0), p(1,0), p(1,1)}
+            {p(-1,-1), p(-1,0), p(0,0), p(0,1)}
     }),
     Z(new Point[][]{
+            {p(-1,-1), p(0,-1), p(0,0), p(1,0)},
+            {p(1,-1), p(0,0), p(1,0), p(0,1)},
             {p(-1,0), p(0,0), p(0,1), p(1,1)},
-            {p(1,-1), p(1,0), p(0,0), p(0,1)},
-            {p(-1,0), p(0,0), p(0,1), p(1,1)},
-            {p(1,-1), p(1,0), p(0,0), p(0,1)}
+            {p(0,-1), p(-1,0), p(0,0), p(-1,1)}
     }),
     J(new Point[][]{
-            {p(-1,0), p(-1,1), p(0,0), p(1,0)},
-            {p(0,-1), p(0,0), p(0,1), p(1,-1)},
-            {p(-1,0), p(0,0), p(1,0), p(1,-1)},
-            {p(-1,1), p(0,-1), p(0,0), p(0,1)}
+            {p(-1,-1), p(-1,0), p(0,0), p(1,0)},
+            {p(0,-1), p(1,-1), p(0,0), p(0,1)},
+            {p(-1,0), p(0,0), p(1,0), p(1,1)},
+            {p(0,-1), p(0,0), p(-1,1), p(0,1)}
     }),
     L(new Point[][]{
-            {p(-1,0), p(0,0), p(1,0), p(1,1)},
+            {p(1,-1), p(-1,0), p(0,0), p(1,0)},
             {p(0,-1), p(0,0), p(0,1), p(1,1)},
-            {p(-1,-1), p(-1,0), p(0,0), p(1,0)},
+            {p(-1,0), p(0,0), p(1,0), p(-1,1)},
             {p(-1,-1), p(0,-1), p(0,0), p(0,1)}
     });
 
+    // SRS wall kicks: five (x, y) offsets tried in order for each transition, indexed
+    // [transition * 5 + test] with transitions ordered 0->R, 0->L, R->2, R->0, 2->L, 2->R, L->0, L->2
+    // (see KickTable.transition). The usual tables are written with y up; these are negated for y down
+    static final int SRS_TESTS = 5;
+    private static final int[] JLSTZ_KICK_X = {
+            0, -1, -1, 0, -1,
+            0, 1, 1, 0, 1,
+            0, 1, 1, 0, 1,
+            0, 1, 1, 0, 1,
+            0, 1, 1, 0, 1,
+            0, -1, -1, 0, -1,
+            0, -1, -1, 0, -1,
+            0, -1, -1, 0, -1
+    };
+    private static final int[] JLSTZ_KICK_Y = {
+            0, 0, -1, 2, 2,
+            0, 0, -1, 2, 2,
+            0, 0, 1, -2, -2,
+            0, 0, 1, -2, -2,
+            0, 0, -1, 2, 2,
+            0, 0, -1, 2, 2,
+            0, 0, 1, -2, -2,
+            0, 0, 1, -2, -2
+    };
+    private static final int[] I_KICK_X = {
+            0, -2, 1, -2, 1,
+            0, -1, 2, -1, 2,
+            0, -1, 2, -1, 2,
+            0, 2, -1, 2, -1,
+            0, 2, -1, 2, -1,
+            0, 1, -2, 1, -2,
+            0, 1, -2, 1, -2,
+            0, -2, 1, -2, 1
+    };
+    private static final int[] I_KICK_Y = {
+            0, 0, 0, 1, -2,
+            0, 0, 0, -2, 1,
+            0, 0, 0, -2, 1,
+            0, 0, 0, -1, 2,
+            0, 0, 0, -1, 2,
+            0, 0, 0, 2, -1,
+            0, 0, 0, 2, -1,
+            0, 0, 0, 1, -2
+    };
+    // O never kicks: one test per transition, in place
+    private static final int[] O_KICK = new int[8];
+
     public final Point[][] rotations;
 
+    // Bounding box of each rotation relative to the piece center
+    final int[] minX = new int[4];
+    final int[] maxX = new int[4];
+    final int[] minY = new int[4];
+    final int[] maxY = new int[4];
+
+    // Packed cell offsets of each rotation, see pack/unpackX/unpackY
+    final int[][] offsets = new int[4][4];
+
+    // Row occupancy masks of each rotation: rowMasks[r][dy - minY[r]] has bit (dx - minX[r]) set for every cell
+    final long[][] rowMasks = new long[4][];
+
+    // Lowest rotation index with the same row masks as each rotation, i.e. the same footprint up to
+    // translation (O has one shape, I/S/Z two)
+    final int[] shape = new int[4];
+
     Tetromino(Point[][] rotations) {
         this.rotations = rotations;
+        for (int r = 0; r < 4; r++) {
+            int x0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE, y0 = Integer.MAX_VALUE, y1 = Integer.MIN_VALUE;
+            for (Point c : rotations[r]) {
+                x0 = Math.min(x0, c.x);
+                x1 = Math.max(x1, c.x);
+                y0 = Math.min(y0, c.y);
+                y1 = Math.max(y1, c.y);
+            }
+            long[] masks = new long[y1 - y0 + 1];
+            for (int i = 0; i < 4; i++) {
+                Point c = rotations[r][i];
+                masks[c.y - y0] |= 1L << (c.x - x0);
+                offsets[r][i] = pack(c.x, c.y);
+            }
+            minX[r] = x0;
+            maxX[r] = x1;
+            minY[r] = y0;
+            maxY[r] = y1;
+            rowMasks[r] = masks;
+            shape[r] = r;
+            for (int q = 0; q < r; q++) {
+                if (Arrays.equals(rowMasks[q], masks)) {
+                    shape[r] = shape[q];
+                    break;
+                }
+            }
+        }
+    }
+
+    // SRS kick x offsets of this piece, see JLSTZ_KICK_X
+    int[] srsKickX() {
+        return this == I ? I_KICK_X : this == O ? O_KICK : JLSTZ_KICK_X;
+    }
+
+    int[] srsKickY() {
+        return this == I ? I_KICK_Y : this == O ? O_KICK : JLSTZ_KICK_Y;
+    }
+
+    // Packs a cell offset into one int: the low 16 bits hold dx and the high 16 bits hold dy, both signed
+    static int pack(int dx, int dy) {
+        return (dy << 16) | (dx & 0xFFFF);
+    }
+
+    static int unpackX(int packed) {
+        return (short) packed;
+    }
+
+    static int unpackY(int packed) {
+        return packed >> 16;
     }
 
     private static Point p(int x, int y) {
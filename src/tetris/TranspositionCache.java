@@ -0,0 +1,157 @@
+package tetris;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded cache from 64-bit position keys (normally Board.zobrist()) to double values, held in primitive
+// arrays so millions of entries cost no objects. Entries sit in sets of WAYS slots picked by the key;
+// a full set evicts with the clock algorithm: a hit marks its slot referenced, and the set's hand skips
+// (and unmarks) referenced slots until it finds one that was not used since the hand last passed.
+// Many threads may share one cache without locking: each slot stores key ^ value next to the value,
+// so a slot torn by racing writers fails the check on read and simply counts as a miss.
+// Hits, misses, evictions and the slot arrays' size also go to the process-wide Metrics (cache* counters).
+// The size counts only while the cache is live: close() takes it back out, or a Cleaner does once the cache
+// is collected without being closed
+public final class TranspositionCache implements AutoCloseable {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private static final int WAYS = 4;
+
+    // Slot states; only ever written whole, so races can at worst lose a reference mark
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte REFERENCED = 2;
+
+    // Stands in for key 0 so an empty slot (check 0, value 0) never reads as a hit
+    private static final long ZERO_KEY = 0x9E3779B97F4A7C15L;
+
+    private final long[] checks;
+    private final long[] values;
+    private final byte[] states;
+    private final byte[] hands;
+    private final int setMask;
+    private final Cleaner.Cleanable footprint;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Holds up to capacity entries, rounded up to a power of two of at least WAYS
+    public TranspositionCache(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        int slots = Math.max(WAYS, Integer.highestOneBit(capacity - 1) << 1);
+        checks = new long[slots];
+        values = new long[slots];
+        states = new byte[slots];
+        hands = new byte[slots / WAYS];
+        setMask = slots / WAYS - 1;
+        long bytes = footprintBytes();
+        Metrics.CACHE_BYTES.add(bytes);
+        footprint = CLEANER.register(this, () -> Metrics.CACHE_BYTES.add(-bytes));
+    }
+
+    // The cached value for key, or NaN if it is not cached
+    public double get(long key) {
+        key = key == 0 ? ZERO_KEY : key;
+        int base = set(key) * WAYS;
+        for (int i = base; i < base + WAYS; i++) {
+            long value = values[i];
+            if ((checks[i] ^ value) == key && states[i] != EMPTY) {
+                states[i] = REFERENCED;
+                hits.increment();
+                Metrics.CACHE_HITS.increment();
+                return Double.longBitsToDouble(value);
+            }
+        }
+        misses.increment();
+        Metrics.CACHE_MISSES.increment();
+        return Double.NaN;
+    }
+
+    public void put(long key, double value) {
+        key = key == 0 ? ZERO_KEY : key;
+        long bits = Double.doubleToRawLongBits(value);
+        int set = set(key);
+        int base = set * WAYS;
+        int free = -1;
+        for (int i = base; i < base + WAYS; i++) {
+            if (states[i] == EMPTY) {
+                free = free < 0 ? i : free;
+            } else if ((checks[i] ^ values[i]) == key) {
+                store(i, key, bits);
+                return;
+            }
+        }
+        if (free < 0) {
+            free = victim(set, base);
+            evictions.increment();
+            Metrics.CACHE_EVICTIONS.increment();
+        }
+        store(free, key, bits);
+    }
+
+    // Advances the set's clock hand past referenced slots, clearing their marks, and returns the first unmarked one
+    private int victim(int set, int base) {
+        int hand = hands[set];
+        while (states[base + hand] == REFERENCED) {
+            states[base + hand] = USED;
+            hand = (hand + 1) & (WAYS - 1);
+        }
+        hands[set] = (byte) ((hand + 1) & (WAYS - 1));
+        return base + hand;
+    }
+
+    private void store(int i, long key, long bits) {
+        values[i] = bits;
+        checks[i] = key ^ bits;
+        states[i] = USED;
+    }
+
+    private int set(long key) {
+        return (int) (key ^ (key >>> 32)) & setMask;
+    }
+
+    // Slots available
+    public int capacity() {
+        return states.length;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    // Share of lookups that hit, 0 before the first lookup
+    public double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    // Bytes held by the slot arrays
+    public long footprintBytes() {
+        return (long) checks.length * Long.BYTES + (long) values.length * Long.BYTES + states.length + hands.length;
+    }
+
+    // Takes this cache out of the cacheBytes gauge; only the first call counts. The cache itself keeps working
+    @Override
+    public void close() {
+        footprint.clean();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cache: %d slots, %.1f MiB, hit rate %.1f%% (%d hits, %d misses), %d evictions",
+                capacity(), footprintBytes() / (1024.0 * 1024.0), 100 * hitRate(), hits(), misses(), evictions());
+    }
+}
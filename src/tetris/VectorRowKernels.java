@@ -0,0 +1,69 @@
+package tetris;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// RowKernels on the Java Vector API: LongVector.SPECIES_PREFERRED lanes at a time (8 boards with AVX-512,
+// 4 with AVX2), then a scalar tail. Needs --add-modules jdk.incubator.vector at run time; RowKernels.DEFAULT
+// only loads this class when the module is there
+final class VectorRowKernels implements RowKernels {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    @Override
+    public void collide(long[] rows, int base, long mask, long[] hits, int n) {
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            LongVector.fromArray(SPECIES, rows, base + i)
+                    .and(mask)
+                    .or(LongVector.fromArray(SPECIES, hits, i))
+                    .intoArray(hits, i);
+        }
+        for (; i < n; i++) {
+            hits[i] |= rows[base + i] & mask;
+        }
+    }
+
+    @Override
+    public void lock(long[] rows, int base, long mask, boolean[] where, int n) {
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            LongVector row = LongVector.fromArray(SPECIES, rows, base + i);
+            if (where == null) {
+                row.or(mask).intoArray(rows, base + i);
+            } else {
+                row.lanewise(VectorOperators.OR, mask, VectorMask.fromArray(SPECIES, where, i))
+                        .intoArray(rows, base + i);
+            }
+        }
+        for (; i < n; i++) {
+            if (where == null || where[i]) {
+                rows[base + i] |= mask;
+            }
+        }
+    }
+
+    @Override
+    public void markFull(long[] rows, int base, long bit, long[] full, int n) {
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            LongVector row = LongVector.fromArray(SPECIES, rows, base + i);
+            LongVector.fromArray(SPECIES, full, i)
+                    .lanewise(VectorOperators.OR, bit, row.eq(Board.FULL_ROW))
+                    .intoArray(full, i);
+        }
+        for (; i < n; i++) {
+            full[i] |= rows[base + i] == Board.FULL_ROW ? bit : 0;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector (" + SPECIES.length() + " x long)";
+    }
+}
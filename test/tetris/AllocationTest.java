@@ -0,0 +1,94 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Verifies that moving, rotating, dropping and locking pieces does not allocate on the heap
+public class AllocationTest {
+
+    private static final Tetromino[] TYPES = Tetromino.values();
+    private static final KickTable KICKS = KickTable.SRS;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Board board = new Board();
+    private final Piece piece = new Piece(Tetromino.T, Board.WIDTH / 2, 1);
+    private long checksum;
+
+    // Plays many pieces through the primitive Board/Piece API and measures bytes allocated by this thread
+    @Test
+    void movePieceRotateDropAndLockAllocateNothing() {
+        assumeAllocationCounting();
+
+        // Warm up so the loop is JIT-compiled before measuring
+        for (int i = 0; i < 50; i++) {
+            play(2_000);
+        }
+
+        long baseline = measure(0);
+        long allocated = measure(20_000) - baseline;
+
+        assertEquals(0, allocated, "bytes allocated while playing 20000 pieces");
+        assertTrue(checksum != 0);
+    }
+
+    private long measure(int pieces) {
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        play(pieces);
+        return threads.getThreadAllocatedBytes(id) - before;
+    }
+
+    private void play(int pieces) {
+        for (int n = 0; n < pieces; n++) {
+            Piece p = piece;
+            p.set(TYPES[n % TYPES.length], 0, Board.WIDTH / 2, 1);
+            if (!board.canPlace(p.type, p.rotation, p.x, p.y)) {
+                clear();
+                continue;
+            }
+            rotate(p, (n & 1) == 0 ? 1 : -1);
+            int shift = (n * 7) % Board.WIDTH - Board.WIDTH / 2;
+            int dx = Integer.signum(shift);
+            for (int i = 0; i != shift; i += dx) {
+                if (board.canPlace(p.type, p.rotation, p.x + dx, p.y)) {
+                    p.x += dx;
+                }
+            }
+            while (board.canPlace(p.type, p.rotation, p.x, p.y + 1)) {
+                p.y++;
+            }
+            board.lock(p.type, p.rotation, p.x, p.y);
+            checksum += board.clearLines() + p.cellX(n & 3) + p.cellY(n & 3);
+        }
+    }
+
+    // SRS kicks as GameEngine resolves them
+    private void rotate(Piece p, int dir) {
+        int rotation = (p.rotation + dir) & 3;
+        int i = KICKS.resolve(board, p.type, p.rotation, rotation, p.x, p.y);
+        if (i >= 0) {
+            p.set(p.type, rotation, p.x + KICKS.x(p.type, p.rotation, rotation, i),
+                    p.y + KICKS.y(p.type, p.rotation, rotation, i));
+        }
+    }
+
+    private void clear() {
+        for (int y = 0; y < Board.HEIGHT; y++) {
+            for (int x = 0; x < Board.WIDTH; x++) {
+                board.set(x, y, 0);
+            }
+        }
+    }
+
+    private void assumeAllocationCounting() {
+        assumeTrue(
+                threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled(),
+                "per-thread allocation counting is not available on this JVM");
+    }
+}
@@ -0,0 +1,138 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests for the checkpoint + journal autosave and its recovery
+
+public class AutoSaverTest {
+
+    private static final long NEVER = 3_600_000;
+
+    @TempDir
+    Path dir;
+
+    // Plays pieces with the saver attached and returns the game as it was after each lock, first entry at the start
+    private static List<GameSave> play(GameEngine engine, AutoSaver saver, int pieces) {
+        List<GameSave> states = new ArrayList<>();
+        states.add(engine.snapshot());
+        saver.checkpoint(engine.snapshot());
+        engine.setLockListener((e, type, rotation, x, y) -> {
+            saver.pieceLocked(e, type, rotation, x, y);
+            states.add(e.snapshot());
+        });
+        playOn(engine, pieces);
+        return states;
+    }
+
+    // Keeps playing until the engine has locked the given number of pieces
+    private static void playOn(GameEngine engine, int pieces) {
+        Policy policy = Policy.greedy(Heuristic.DEFAULT);
+        while (engine.getPiecesLocked() < pieces && !engine.isGameOver()) {
+            policy.act(engine);
+            engine.tick();
+        }
+    }
+
+    private static void assertSameGame(GameSave expected, GameSave actual) {
+        assertEquals(expected.board, actual.board);
+        assertEquals(expected.score, actual.score);
+        assertEquals(expected.lines, actual.lines);
+        assertEquals(expected.nextPiece, actual.nextPiece);
+        assertEquals(expected.currentPiece.type, actual.currentPiece.type);
+    }
+
+    // Recovery replays the journal on top of the checkpoint and arrives at the game as it was
+    @Test
+    void recoversCheckpointPlusJournal() throws Exception {
+        GameEngine engine = new GameEngine(5);
+        try (AutoSaver saver = new AutoSaver(dir, 1000, NEVER)) {
+            List<GameSave> states = play(engine, saver, 60);
+            saver.flush();
+            assertEquals(8 + 60 * AutoSaver.RECORD_SIZE, Files.size(dir.resolve(AutoSaver.JOURNAL_FILE)));
+            assertSameGame(states.get(60), AutoSaver.recover(dir));
+        }
+    }
+
+    // A record cut short by a crash is dropped, leaving the game as of the lock before
+    @Test
+    void ignoresTornRecord() throws Exception {
+        List<GameSave> states;
+        try (AutoSaver saver = new AutoSaver(dir, 1000, NEVER)) {
+            states = play(new GameEngine(6), saver, 20);
+            saver.flush();
+        }
+        Path journal = dir.resolve(AutoSaver.JOURNAL_FILE);
+        byte[] bytes = Files.readAllBytes(journal);
+        Files.write(journal, Arrays.copyOf(bytes, bytes.length - 5));
+        assertSameGame(states.get(19), AutoSaver.recover(dir));
+    }
+
+    // The journal is folded into a new checkpoint every few records, and a journal left over from an
+    // older checkpoint is not replayed onto a newer one
+    @Test
+    void compactsJournalAndIgnoresStaleOnes() throws Exception {
+        GameEngine engine = new GameEngine(7);
+        Path journal = dir.resolve(AutoSaver.JOURNAL_FILE);
+        Path stale = dir.resolve("stale.bin");
+        try (AutoSaver saver = new AutoSaver(dir, 10, NEVER)) {
+            List<GameSave> states = play(engine, saver, 35);
+            saver.flush();
+            assertEquals(8 + 5 * AutoSaver.RECORD_SIZE, Files.size(journal));
+            assertSameGame(states.get(35), AutoSaver.recover(dir));
+
+            Files.copy(journal, stale);
+            saver.checkpoint(engine.snapshot());
+            saver.flush();
+        }
+        Files.move(stale, journal, StandardCopyOption.REPLACE_EXISTING);
+        assertSameGame(engine.snapshot(), AutoSaver.recover(dir));
+    }
+
+    // A checkpoint that cannot be written is retried by the next lock, and no lock is lost meanwhile
+    @Test
+    void failedCheckpointIsRetried() throws Exception {
+        GameEngine engine = new GameEngine(9);
+        Path checkpoint = dir.resolve(AutoSaver.CHECKPOINT_FILE);
+        AutoSaver saver = new AutoSaver(dir, 10, NEVER);
+        List<GameSave> states = play(engine, saver, 5);
+        saver.flush();
+        // A non-empty directory in its place makes replacing the checkpoint fail
+        Files.delete(checkpoint);
+        Files.createDirectories(checkpoint.resolve("blocker"));
+        playOn(engine, 10);
+        assertThrows(IOException.class, saver::flush);
+
+        Files.delete(checkpoint.resolve("blocker"));
+        Files.delete(checkpoint);
+        playOn(engine, 15);
+        // The failure stays reported, but everything since is on disk
+        assertThrows(IOException.class, saver::close);
+        assertEquals(8 + 5 * AutoSaver.RECORD_SIZE, Files.size(dir.resolve(AutoSaver.JOURNAL_FILE)));
+        assertSameGame(states.get(15), AutoSaver.recover(dir));
+    }
+
+    // Discarding removes both files, after which there is nothing to recover
+    @Test
+    void discardForgetsTheGame() throws Exception {
+        try (AutoSaver saver = new AutoSaver(dir, 1000, NEVER)) {
+            play(new GameEngine(8), saver, 5);
+            saver.discard();
+            saver.flush();
+        }
+        assertNull(AutoSaver.recover(dir));
+        assertFalse(Files.exists(dir.resolve(AutoSaver.CHECKPOINT_FILE)));
+    }
+}
@@ -0,0 +1,103 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests for the beam-search player
+
+public class BeamSearchTest {
+
+
+    // The planned inputs leave the current piece resting where it can be hard dropped
+    @Test
+    void planLeadsToRestingPlacement() {
+        GameEngine engine = new GameEngine(4);
+        BeamSearch search = new BeamSearch(null, Heuristic.DEFAULT, 8, 4);
+        Action[] path = new Action[PlacementSearch.MAX_PATH];
+
+        int length = search.plan(engine, Long.MAX_VALUE, path);
+        assertTrue(length >= 0);
+        for (int i = 0; i < length; i++) {
+            assertTrue(engine.apply(path[i]));
+        }
+        Piece p = engine.getCurrentPiece();
+        assertFalse(engine.getBoard().canPlace(p.type, p.rotation, p.x, p.y + 1));
+        assertEquals(4, search.lastDepth());
+        assertTrue(search.nodes() > 0);
+    }
+
+    // Splitting levels across a pool changes nothing about the moves chosen
+    @Test
+    void parallelSearchMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            GameEngine sequential = new GameEngine(9);
+            GameEngine parallel = new GameEngine(9);
+            Policy a = Policy.beam(Heuristic.DEFAULT, 8, 3);
+            BeamSearch search = new BeamSearch(pool, Heuristic.DEFAULT, 8, 3);
+            Action[] path = new Action[PlacementSearch.MAX_PATH];
+
+            for (int piece = 0; piece < 60; piece++) {
+                a.act(sequential);
+                int length = search.plan(parallel, Long.MAX_VALUE, path);
+                for (int i = 0; i < length; i++) {
+                    parallel.apply(path[i]);
+                }
+                parallel.apply(Action.HARD_DROP);
+                assertArrayEquals(sequential.getBoard().snapshot(), parallel.getBoard().snapshot());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Without any time left only the current piece is considered
+    @Test
+    void exhaustedBudgetStopsAfterFirstPiece() {
+        GameEngine engine = new GameEngine(4);
+        BeamSearch search = new BeamSearch(null, Heuristic.DEFAULT, 8, 4);
+        assertTrue(search.plan(engine, 0, new Action[PlacementSearch.MAX_PATH]) >= 0);
+        assertEquals(1, search.lastDepth());
+    }
+
+    // Only the preview and the rest of the bag are searched unless reading the hidden queue is asked for
+    @Test
+    void lookaheadStopsAtPiecesAPlayerCouldKnow() {
+        Action[] path = new Action[PlacementSearch.MAX_PATH];
+        GameEngine memoryless = new GameEngine(4, 0, PieceGenerator.Kind.MEMORYLESS);
+        BeamSearch fair = new BeamSearch(null, Heuristic.DEFAULT, 8, 4);
+        assertTrue(fair.plan(memoryless, Long.MAX_VALUE, path) >= 0);
+        assertEquals(2, fair.lastDepth());
+
+        BeamSearch hidden = new BeamSearch(null, Heuristic.DEFAULT, 8, 4, true);
+        assertTrue(hidden.plan(memoryless, Long.MAX_VALUE, path) >= 0);
+        assertEquals(4, hidden.lastDepth());
+
+        // Six pieces in, the preview is the last of the first bag and nothing after it is known yet
+        GameEngine bag = new GameEngine(4);
+        for (int i = 0; i < 5; i++) {
+            bag.apply(Action.HARD_DROP);
+        }
+        assertEquals(0, bag.getDeduciblePieces());
+        assertTrue(fair.plan(bag, Long.MAX_VALUE, path) >= 0);
+        assertEquals(2, fair.lastDepth());
+    }
+
+    // A narrow beam already survives and keeps clearing lines
+    @Test
+    void beamPolicyClearsLines() {
+        GameEngine engine = new GameEngine(2);
+        Policy policy = Policy.beam(Heuristic.DEFAULT, 4, 3);
+        while (engine.getPiecesLocked() < 300 && !engine.isGameOver()) {
+            policy.act(engine);
+            engine.tick();
+        }
+        assertFalse(engine.isGameOver());
+        assertTrue(engine.getLinesCleared() >= 100, "lines: " + engine.getLinesCleared());
+    }
+}
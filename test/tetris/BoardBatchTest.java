@@ -0,0 +1,180 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Differential tests of the struct-of-arrays BoardBatch against separate Board instances
+
+public class BoardBatchTest {
+
+    private static final int BOARDS = 257;
+    private static final Tetromino[] TYPES = Tetromino.values();
+
+
+    // Random placements, batched per pose and per board, keep every slot equal to its own Board
+    @Test
+    void batchedOperationsMatchBoards() {
+        playAgainstBoards(RowKernels.SCALAR);
+    }
+
+    // The same game with the Vector API kernels; 257 boards leave a scalar tail for any lane count
+    @Test
+    void vectorKernelsMatchBoards() {
+        playAgainstBoards(new VectorRowKernels());
+    }
+
+    // Every kernel agrees with the scalar one at each length around the lane count, offset into the rows
+    @Test
+    void vectorKernelsMatchScalarAtEveryLength() {
+        SplittableRandom random = new SplittableRandom(9);
+        RowKernels vector = new VectorRowKernels();
+        for (int n = 0; n <= 40; n++) {
+            long[] rows = new long[n + 5];
+            boolean[] where = new boolean[n];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = random.nextBoolean() ? Board.FULL_ROW : random.nextLong() & Board.FULL_ROW;
+            }
+            for (int i = 0; i < n; i++) {
+                where[i] = random.nextBoolean();
+            }
+            long mask = random.nextLong() & Board.FULL_ROW;
+
+            long[] expected = new long[n], actual = new long[n];
+            RowKernels.SCALAR.collide(rows, 5, mask, expected, n);
+            vector.collide(rows, 5, mask, actual, n);
+            assertArrayEquals(expected, actual);
+
+            RowKernels.SCALAR.markFull(rows, 5, 1L << 3, expected, n);
+            vector.markFull(rows, 5, 1L << 3, actual, n);
+            assertArrayEquals(expected, actual);
+
+            long[] scalarRows = rows.clone();
+            RowKernels.SCALAR.lock(scalarRows, 5, mask, where, n);
+            vector.lock(rows, 5, mask, where, n);
+            assertArrayEquals(scalarRows, rows);
+            RowKernels.SCALAR.lock(scalarRows, 5, mask << 1, null, n);
+            vector.lock(rows, 5, mask << 1, null, n);
+            assertArrayEquals(scalarRows, rows);
+        }
+    }
+
+    private static void playAgainstBoards(RowKernels kernels) {
+        SplittableRandom random = new SplittableRandom(7);
+        Board[] boards = new Board[BOARDS];
+        BoardBatch batch = new BoardBatch(BOARDS, kernels);
+        for (int b = 0; b < BOARDS; b++) {
+            boards[b] = new Board();
+        }
+        boolean[] fits = new boolean[BOARDS];
+        int[] xs = new int[BOARDS], ys = new int[BOARDS];
+        int[] cleared = new int[BOARDS];
+        int[] features = new int[BOARDS];
+
+        for (int step = 0; step < 400; step++) {
+            Tetromino type = TYPES[random.nextInt(TYPES.length)];
+            int rotation = random.nextInt(4);
+            if (step % 2 == 0) {
+                int x = random.nextInt(-2, Board.WIDTH + 2);
+                int y = random.nextInt(-2, Board.HEIGHT + 2);
+                batch.canPlace(type, rotation, x, y, fits);
+                for (int b = 0; b < BOARDS; b++) {
+                    assertEquals(boards[b].canPlace(type, rotation, x, y), fits[b]);
+                    if (fits[b]) {
+                        boards[b].lock(type, rotation, x, y);
+                    }
+                }
+                batch.lock(type, rotation, x, y, fits);
+            } else {
+                for (int b = 0; b < BOARDS; b++) {
+                    xs[b] = random.nextInt(-2, Board.WIDTH + 2);
+                    ys[b] = random.nextInt(-2, Board.HEIGHT + 2);
+                }
+                batch.canPlace(type, rotation, xs, ys, fits);
+                for (int b = 0; b < BOARDS; b++) {
+                    assertEquals(boards[b].canPlace(type, rotation, xs[b], ys[b]), fits[b]);
+                    if (fits[b]) {
+                        boards[b].lock(type, rotation, xs[b], ys[b]);
+                    }
+                }
+                batch.lock(type, rotation, xs, ys, fits);
+            }
+
+            int total = batch.clearLines(cleared);
+            int expectedTotal = 0;
+            for (int b = 0; b < BOARDS; b++) {
+                int n = boards[b].clearLines();
+                assertEquals(n, cleared[b]);
+                expectedTotal += n;
+            }
+            assertEquals(expectedTotal, total);
+
+            batch.holes(features);
+            for (int b = 0; b < BOARDS; b++) {
+                assertEquals(boards[b].holes(), features[b]);
+            }
+            assertBatchEquals(boards, batch);
+        }
+
+        batch.aggregateHeight(features);
+        for (int b = 0; b < BOARDS; b++) {
+            assertEquals(boards[b].aggregateHeight(), features[b]);
+        }
+        batch.bumpiness(features);
+        for (int b = 0; b < BOARDS; b++) {
+            assertEquals(boards[b].bumpiness(), features[b]);
+        }
+    }
+
+    // The flyweight view reads, writes and clears one slot exactly like a Board
+    @Test
+    void viewBehavesLikeBoard() {
+        SplittableRandom random = new SplittableRandom(8);
+        BoardBatch batch = new BoardBatch(3);
+        BoardBatch.View view = batch.view(1);
+        Board board = new Board();
+        for (int i = 0; i < 2_000; i++) {
+            Tetromino type = TYPES[random.nextInt(TYPES.length)];
+            int rotation = random.nextInt(4);
+            int x = random.nextInt(Board.WIDTH);
+            int y = random.nextInt(Board.HEIGHT);
+            assertEquals(board.canPlace(type, rotation, x, y), view.canPlace(type, rotation, x, y));
+            if (board.canPlace(type, rotation, x, y)) {
+                board.lock(type, rotation, x, y);
+                view.lock(type, rotation, x, y);
+            }
+            assertEquals(board.clearLines(), view.clearLines());
+            assertEquals(board.stackHeight(), view.stackHeight());
+            assertEquals(board.aggregateHeight(), view.aggregateHeight());
+            assertEquals(board.holes(), view.holes());
+            assertEquals(board.bumpiness(), view.bumpiness());
+        }
+        for (int y = 0; y < Board.HEIGHT; y++) {
+            assertEquals(0, batch.rowMask(0, y));
+            assertEquals(0, batch.rowMask(2, y));
+            for (int x = 0; x < Board.WIDTH; x++) {
+                assertEquals(board.get(x, y) != 0 ? 1 : 0, view.get(x, y));
+            }
+        }
+
+        Board copy = new Board();
+        view.copyTo(copy, 1);
+        BoardBatch reloaded = new BoardBatch(1);
+        reloaded.load(0, copy);
+        for (int y = 0; y < Board.HEIGHT; y++) {
+            assertEquals(board.rowMask(y), reloaded.rowMask(0, y));
+        }
+    }
+
+    private static void assertBatchEquals(Board[] boards, BoardBatch batch) {
+        for (int b = 0; b < boards.length; b++) {
+            for (int y = 0; y < Board.HEIGHT; y++) {
+                assertEquals(boards[b].rowMask(y), batch.rowMask(b, y), "board " + b + " row " + y);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Fuzz tests for the board change log: a delta sent through a buffer and applied to the checkpointed board
+// always reproduces the board it was taken from
+
+public class BoardDeltaTest {
+
+    private static final Tetromino[] TYPES = Tetromino.values();
+
+
+    // Random locks, line clears and garbage on narrow, standard and 64-column boards, with deltas taken
+    // after random stretches of changes
+    @Test
+    void randomChangesReplayExactly() {
+        SplittableRandom random = new SplittableRandom(25);
+        for (RuleSet rules : new RuleSet[] {RuleSet.STANDARD.withSize(4, 12, 2), RuleSet.STANDARD,
+                RuleSet.STANDARD.withSize(64, 40, 2)}) {
+            Board board = new Board(rules);
+            board.checkpoint();
+            Board receiver = board.copy();
+            for (int i = 0; i < 3_000; i++) {
+                if (random.nextInt(10) == 0) {
+                    board.addGarbage(1 + random.nextInt(3), random.nextInt(board.width()), 1 + random.nextInt(7));
+                } else if (!dropRandomPiece(board, random)) {
+                    board = new Board(rules);
+                    board.checkpoint();
+                    receiver = board.copy();
+                    continue;
+                }
+                board.clearLines();
+                if (random.nextInt(4) == 0) {
+                    receiver = sync(board, receiver);
+                }
+            }
+            sync(board, receiver);
+        }
+    }
+
+    // A whole engine game with garbage rising between locks, synced after every piece
+    @Test
+    void engineGameReplaysWithGarbage() {
+        SplittableRandom random = new SplittableRandom(7);
+        GameEngine engine = new GameEngine(7);
+        engine.getBoard().checkpoint();
+        Board receiver = engine.getBoard().copy();
+        Action[] moves = {Action.LEFT, Action.RIGHT, Action.ROTATE_CW, Action.ROTATE_CCW};
+        for (int i = 0; i < 300 && !engine.isGameOver(); i++) {
+            for (int n = random.nextInt(4); n > 0; n--) {
+                engine.apply(moves[random.nextInt(moves.length)]);
+            }
+            if (random.nextInt(5) == 0) {
+                engine.addGarbage(1 + random.nextInt(2), random.nextInt(Board.WIDTH), Tetromino.Z);
+            }
+            engine.apply(Action.HARD_DROP);
+            receiver = sync(engine.getBoard(), receiver);
+        }
+    }
+
+    // Changes the log cannot express leave no delta until the next checkpoint
+    @Test
+    void untrackedChangesBreakTheLog() {
+        Board board = new Board();
+        assertNull(board.delta());
+        board.checkpoint();
+        assertTrue(board.delta().isEmpty());
+        board.lock(Tetromino.O, 0, 3, 18);
+        assertEquals(3, board.delta().size());
+        board.set(0, 21, 1);
+        assertNull(board.delta());
+        board.checkpoint();
+        assertNotNull(board.delta());
+
+        // A delta applied to a board that is not the checkpointed one is rejected
+        board.lock(Tetromino.O, 0, 3, 18);
+        assertThrows(IllegalArgumentException.class, () -> board.delta().applyTo(board.copy()));
+    }
+
+    // Drops a random piece straight down from the top; false when it does not fit there
+    private static boolean dropRandomPiece(Board board, SplittableRandom random) {
+        Tetromino type = TYPES[random.nextInt(TYPES.length)];
+        int rotation = random.nextInt(4);
+        int x = random.nextInt(-2, board.width());
+        int y = 0;
+        while (!board.canPlace(type, rotation, x, y) && y < 2) {
+            y++;
+        }
+        if (!board.canPlace(type, rotation, x, y)) {
+            return false;
+        }
+        while (board.canPlace(type, rotation, x, y + 1)) {
+            y++;
+        }
+        board.lock(type, rotation, x, y);
+        return true;
+    }
+
+    // Sends the board's delta through a buffer, applies it to the receiver and checks they match; returns the
+    // receiver for the next round, with the log started over
+    private static Board sync(Board board, Board receiver) {
+        Board.Delta delta = board.delta();
+        ByteBuffer wire = ByteBuffer.allocate(delta.size());
+        delta.writeTo(wire);
+        Board.Delta.read(wire.flip(), delta.size()).applyTo(receiver);
+        assertArrayEquals(board.snapshot(), receiver.snapshot());
+        assertEquals(board.zobrist(), receiver.zobrist());
+        board.checkpoint();
+        return receiver;
+    }
+}
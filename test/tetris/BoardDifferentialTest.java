@@ -0,0 +1,155 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Cross-checks the bitmask Board against the original grid implementation on random operations
+
+public class BoardDifferentialTest {
+
+
+    // Random pieces are placed, locked and cleared on both boards; every observable result must match
+    @Test
+    void matchesGridBoardOnRandomPlay() {
+        Random random = new Random(42);
+        Tetromino[] types = Tetromino.values();
+
+        for (int game = 0; game < 200; game++) {
+            Board board = new Board();
+            GridBoard reference = new GridBoard();
+
+            for (int step = 0; step < 400; step++) {
+                Piece piece = new Piece(types[random.nextInt(types.length)],
+                        random.nextInt(Board.WIDTH + 4) - 2, random.nextInt(Board.HEIGHT + 4) - 2);
+                piece.rotation = random.nextInt(4);
+
+                assertEquals(reference.canPlace(piece), board.canPlace(piece));
+
+                if (random.nextInt(3) == 0) {
+                    // Lock anywhere, including partially out of bounds
+                    board.lock(piece);
+                    reference.lock(piece);
+                } else if (random.nextInt(4) == 0) {
+                    int x = random.nextInt(Board.WIDTH);
+                    int y = random.nextInt(Board.HEIGHT);
+                    int value = random.nextInt(8);
+                    board.set(x, y, value);
+                    reference.set(x, y, value);
+                }
+                if (random.nextInt(5) == 0) {
+                    fillRow(board, reference, random.nextInt(Board.HEIGHT));
+                }
+
+                assertEquals(reference.clearLines(), board.clearLines());
+                assertArrayEquals(reference.snapshot(), board.snapshot());
+                assertEquals(board.computeHash(), board.zobrist());
+            }
+        }
+    }
+
+    // A copy keeps its contents whichever of the two boards is written afterwards
+    @Test
+    void copiesAreIndependent() {
+        Random random = new Random(3);
+        Board board = new Board();
+        for (int step = 0; step < 2_000; step++) {
+            Board copy = board.copy();
+            assertEquals(board, copy);
+            int[][] before = board.snapshot();
+
+            boolean writeOriginal = random.nextBoolean();
+            Board written = writeOriginal ? board : copy;
+            Board kept = writeOriginal ? copy : board;
+            written.lock(new Piece(Tetromino.values()[random.nextInt(7)], random.nextInt(Board.WIDTH), Board.HEIGHT - 2));
+            fillRow(written, new GridBoard(), random.nextInt(Board.HEIGHT));
+            written.clearLines();
+
+            assertArrayEquals(before, kept.snapshot());
+            assertEquals(kept.computeHash(), kept.zobrist());
+            assertEquals(written.computeHash(), written.zobrist());
+            board = random.nextInt(4) == 0 ? new Board() : written;
+        }
+    }
+
+    // Boards with the same cells are equal and hash alike however they were built
+    @Test
+    void equalBoardsShareZobristHash() {
+        Board locked = new Board();
+        locked.lock(Tetromino.O, 0, 0, Board.HEIGHT - 1);
+        locked.lock(Tetromino.I, 0, 5, Board.HEIGHT - 1);
+
+        Board set = new Board();
+        for (int y = Board.HEIGHT - 1; y >= Board.HEIGHT - 2; y--) {
+            set.set(0, y, Tetromino.O.ordinal() + 1);
+            set.set(1, y, Tetromino.O.ordinal() + 1);
+        }
+        for (int x = 4; x < 8; x++) {
+            set.set(x, Board.HEIGHT - 1, Tetromino.I.ordinal() + 1);
+        }
+
+        assertEquals(locked, set);
+        assertEquals(locked.hashCode(), set.hashCode());
+        assertEquals(locked.zobrist(), set.zobrist());
+
+        set.set(9, 0, 1);
+        assertNotEquals(locked, set);
+        assertNotEquals(locked.zobrist(), set.zobrist());
+        set.set(9, 0, 0);
+        assertEquals(locked.zobrist(), set.zobrist());
+        assertEquals(0, new Board().zobrist());
+    }
+
+    // Clearing several non-adjacent full rows keeps the order of the surviving rows
+    @Test
+    void clearsNonAdjacentRowsLikeGridBoard() {
+        Board board = new Board();
+        GridBoard reference = new GridBoard();
+        for (int y = 0; y < Board.HEIGHT; y++) {
+            board.set(y % Board.WIDTH, y, y % 7 + 1);
+            reference.set(y % Board.WIDTH, y, y % 7 + 1);
+        }
+        for (int y : new int[]{3, 10, 11, 21}) {
+            fillRow(board, reference, y);
+        }
+
+        assertEquals(4, board.clearLines());
+        assertEquals(4, reference.clearLines());
+        assertArrayEquals(reference.snapshot(), board.snapshot());
+    }
+
+    // The serialized form still carries the int[][] grid, so boards round-trip through Java serialization
+    @Test
+    void serializedBoardRoundTrips() throws Exception {
+        Board board = new Board();
+        board.lock(new Piece(Tetromino.T, 4, 20));
+        board.set(0, 21, 3);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(board);
+        }
+        Board loaded;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            loaded = (Board) in.readObject();
+        }
+
+        assertArrayEquals(board.snapshot(), loaded.snapshot());
+        assertFalse(loaded.canPlace(new Piece(Tetromino.T, 4, 20)));
+    }
+
+    private static void fillRow(Board board, GridBoard reference, int y) {
+        for (int x = 0; x < Board.WIDTH; x++) {
+            board.set(x, y, 1 + x % 7);
+            reference.set(x, y, 1 + x % 7);
+        }
+    }
+}
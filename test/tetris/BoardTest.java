@@ -49,4 +49,17 @@ public class BoardTest {
         // Now the same spot is no longer empty
         assertFalse(board.canPlace(piece));
     }
+
+    // Cell values outside the 7 tetromino colors are rejected and leave the board unchanged
+    @Test
+    void outOfRangeCellValueIsRejected() {
+        Board board = new Board();
+        board.set(0, 0, 7);
+
+        assertThrows(IllegalArgumentException.class, () -> board.set(1, 0, 8));
+        assertThrows(IllegalArgumentException.class, () -> board.set(1, 0, 256));
+        assertThrows(IllegalArgumentException.class, () -> board.set(1, 0, -1));
+        assertEquals(0, board.get(1, 0));
+        assertEquals(board.computeHash(), board.zobrist());
+    }
 }
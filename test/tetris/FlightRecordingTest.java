@@ -0,0 +1,54 @@
+package tetris;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests for the game's flight recorder events and the ring-buffer recording
+
+public class FlightRecordingTest {
+
+
+    // A dump of the running recording holds the engine and persistence events of a game just played
+    @Test
+    void dumpContainsGameEvents(@TempDir Path dir) throws Exception {
+        FlightRecording recording = FlightRecording.start(dir);
+        Path dump;
+        try {
+            GameEngine engine = new GameEngine(11);
+            Policy policy = Policy.greedy(Heuristic.DEFAULT);
+            while (engine.getLinesCleared() == 0) {
+                policy.act(engine);
+                engine.tick();
+            }
+            File save = dir.resolve("game.save").toFile();
+            Serializer.saveGame(save, engine.snapshot());
+            Serializer.loadGame(save);
+            dump = recording.dumpNow("test");
+        } finally {
+            recording.stop();
+        }
+        assertNull(FlightRecording.active());
+
+        Map<String, RecordedEvent> last = new HashMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+            last.put(event.getEventType().getName(), event);
+        }
+        for (String name : new String[] {"tetris.Tick", "tetris.Spawn", "tetris.Lock", "tetris.LineClear",
+                "tetris.Save", "tetris.Load"}) {
+            assertTrue(last.containsKey(name), name);
+        }
+        assertTrue(last.get("tetris.LineClear").getInt("lines") > 0);
+        assertEquals(SaveCodec.SIZE, last.get("tetris.Load").getLong("bytes"));
+    }
+}
@@ -0,0 +1,237 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests for the headless game engine
+
+public class GameEngineTest {
+
+
+    // Two engines with the same seed and the same inputs must produce identical games
+    @Test
+    void sameSeedAndInputsGiveSameGame() {
+        GameEngine a = new GameEngine(7);
+        GameEngine b = new GameEngine(7);
+        Random inputs = new Random(99);
+        Action[] actions = Action.values();
+
+        for (int i = 0; i < 5_000 && !a.isGameOver(); i++) {
+            if (inputs.nextInt(3) == 0) {
+                a.tick();
+                b.tick();
+            } else {
+                Action action = actions[inputs.nextInt(actions.length)];
+                assertEquals(a.apply(action), b.apply(action));
+            }
+            assertEquals(a.getScore(), b.getScore());
+            assertEquals(a.getNextPiece(), b.getNextPiece());
+        }
+
+        assertArrayEquals(a.getBoard().snapshot(), b.getBoard().snapshot());
+        assertEquals(a.getPiecesLocked(), b.getPiecesLocked());
+        assertEquals(a.isGameOver(), b.isGameOver());
+    }
+
+    // Every run of 7 pieces from the bag contains each tetromino exactly once
+    @Test
+    void bagDealsEachTetrominoOncePerSeven() {
+        GameEngine engine = new GameEngine(123);
+        for (int bag = 0; bag < 2; bag++) {
+            boolean[] seen = new boolean[Tetromino.values().length];
+            for (int i = 0; i < 7; i++) {
+                Tetromino type = engine.getCurrentPiece().type;
+                assertFalse(seen[type.ordinal()], "duplicate " + type + " in bag");
+                seen[type.ordinal()] = true;
+                // Spread pieces out so the stack stays low
+                for (int step = 0; step < i % 4 + 1; step++) {
+                    engine.apply(i % 2 == 0 ? Action.LEFT : Action.RIGHT);
+                }
+                engine.apply(Action.HARD_DROP);
+            }
+        }
+    }
+
+    // Hard dropping a piece locks it at the bottom and spawns the preview piece
+    @Test
+    void hardDropLocksAndSpawnsNext() {
+        GameEngine engine = new GameEngine(1);
+        Tetromino next = engine.getNextPiece();
+
+        assertTrue(engine.apply(Action.HARD_DROP));
+
+        assertEquals(1, engine.getPiecesLocked());
+        assertEquals(next, engine.getCurrentPiece().type);
+        assertEquals(GameEngine.SPAWN_Y, engine.getCurrentPiece().y);
+        boolean bottomFilled = false;
+        for (int x = 0; x < Board.WIDTH; x++) {
+            bottomFilled |= engine.getBoard().get(x, Board.HEIGHT - 1) != 0;
+        }
+        assertTrue(bottomFilled);
+    }
+
+    // Completing a line through tick() clears it and scores 100 points
+    @Test
+    void tickLockClearsLinesAndScores() {
+        GameEngine engine = new GameEngine(5);
+        Board board = engine.getBoard();
+        for (int x = 0; x < Board.WIDTH; x++) {
+            board.set(x, Board.HEIGHT - 1, 1);
+        }
+        board.set(0, Board.HEIGHT - 1, 0);
+        engine.restore(new GameSave(board, new Piece(Tetromino.I, 0, Board.HEIGHT - 3), Tetromino.O, 0));
+        engine.apply(Action.ROTATE_CCW);
+        engine.apply(Action.LEFT);
+
+        while (engine.getPiecesLocked() == 0) {
+            engine.tick();
+        }
+
+        assertEquals(1, engine.getLinesCleared());
+        assertEquals(100, engine.getScore());
+    }
+
+    // Once the stack reaches the spawn area the engine stops accepting input
+    @Test
+    void gameEndsWhenStackReachesSpawn() {
+        GameEngine engine = new GameEngine(3);
+        int guard = 0;
+        while (!engine.isGameOver() && guard++ < 1_000) {
+            engine.apply(Action.HARD_DROP);
+        }
+
+        assertTrue(engine.isGameOver());
+        assertFalse(engine.apply(Action.LEFT));
+    }
+
+    // Undoing every lock walks back through exactly the states the game went through, and redo replays them
+    @Test
+    void undoAndRedoRetraceTheGame() {
+        GameEngine engine = new GameEngine(8, 200);
+        Policy policy = Policy.greedy(Heuristic.DEFAULT);
+        List<GameSave> states = new ArrayList<>();
+        List<Integer> lines = new ArrayList<>();
+        states.add(engine.snapshot());
+        lines.add(0);
+        for (int i = 0; i < 150; i++) {
+            policy.act(engine);
+            states.add(engine.snapshot());
+            lines.add(engine.getLinesCleared());
+        }
+        assertTrue(engine.getLinesCleared() > 0);
+
+        for (int i = 149; i >= 0; i--) {
+            assertTrue(engine.undo());
+            assertState(states.get(i), lines.get(i), engine);
+        }
+        assertFalse(engine.undo());
+
+        for (int i = 1; i <= 150; i++) {
+            assertTrue(engine.redo());
+            assertState(states.get(i), lines.get(i), engine);
+        }
+        assertFalse(engine.redo());
+
+        // Fully rewound, the game deals the same pieces as a fresh one
+        GameEngine fresh = new GameEngine(8);
+        Policy freshPolicy = Policy.greedy(Heuristic.DEFAULT);
+        for (int i = 0; i < 150; i++) {
+            assertTrue(engine.undo());
+        }
+        for (int i = 0; i < 300; i++) {
+            policy.act(engine);
+            freshPolicy.act(fresh);
+            assertEquals(fresh.getBoard(), engine.getBoard());
+            assertEquals(fresh.getNextPiece(), engine.getNextPiece());
+        }
+    }
+
+    private static void assertState(GameSave expected, int lines, GameEngine engine) {
+        assertEquals(expected.board, engine.getBoard());
+        assertEquals(expected.score, engine.getScore());
+        assertEquals(lines, engine.getLinesCleared());
+        assertEquals(expected.currentPiece.type, engine.getCurrentPiece().type);
+        assertEquals(expected.nextPiece, engine.getNextPiece());
+    }
+
+    // The history keeps only the newest moves and costs one long per lock plus one per cleared line
+    @Test
+    void historyIsBoundedAndCompact() {
+        GameEngine engine = new GameEngine(8, 10);
+        Policy policy = Policy.greedy(Heuristic.DEFAULT);
+        for (int i = 0; i < 30; i++) {
+            policy.act(engine);
+        }
+        assertEquals(10, engine.getUndoMoves());
+        assertTrue(engine.historySize() <= 10 + 4 * 10);
+
+        int undone = 0;
+        while (engine.undo()) {
+            undone++;
+        }
+        assertEquals(10, undone);
+        assertEquals(20, engine.getPiecesLocked());
+    }
+
+    // A new lock after an undo discards the redo history
+    @Test
+    void lockingAfterUndoDropsRedo() {
+        GameEngine engine = new GameEngine(8);
+        engine.apply(Action.HARD_DROP);
+        engine.apply(Action.HARD_DROP);
+        assertTrue(engine.undo());
+        assertEquals(1, engine.getRedoMoves());
+        engine.apply(Action.LEFT);
+        engine.apply(Action.HARD_DROP);
+        assertEquals(0, engine.getRedoMoves());
+        assertFalse(engine.redo());
+    }
+
+    // Garbage waits for the next lock, then rises under the stack with one hole and cannot be undone;
+    // pushing the stack out over the top ends the game
+    @Test
+    void garbageRisesAtTheNextLock() {
+        GameEngine engine = new GameEngine(8);
+        engine.addGarbage(2, 3, Tetromino.T);
+        assertEquals(2, engine.getPendingGarbage());
+        assertEquals(0, engine.getBoard().stackHeight());
+
+        engine.apply(Action.HARD_DROP);
+        assertEquals(0, engine.getPendingGarbage());
+        Board board = engine.getBoard();
+        for (int y = Board.HEIGHT - 2; y < Board.HEIGHT; y++) {
+            for (int x = 0; x < Board.WIDTH; x++) {
+                assertEquals(x == 3 ? 0 : Tetromino.T.ordinal() + 1, board.get(x, y));
+            }
+        }
+        assertTrue(board.stackHeight() > 2);
+        assertFalse(engine.undo());
+
+        engine.addGarbage(Board.HEIGHT, 0, Tetromino.I);
+        engine.apply(Action.HARD_DROP);
+        assertTrue(engine.isGameOver());
+    }
+
+    // A restore takes its lines, and so its level, from the save instead of the game it replaces
+    @Test
+    void restoreTakesLinesFromTheSave() {
+        GameEngine engine = new GameEngine(9);
+        GameSave save = new GameSave(new Board(), new Piece(Tetromino.T, 4, 1), Tetromino.O, 0, 25);
+        engine.restore(save);
+        assertEquals(25, engine.getLinesCleared());
+        assertEquals(engine.getRules().level(25), engine.getLevel());
+        assertEquals(0, engine.getPiecesLocked());
+        assertEquals(25, engine.snapshot().lines);
+
+        engine.restore(new GameSave(new Board(), new Piece(Tetromino.T, 4, 1), Tetromino.O, 0));
+        assertEquals(0, engine.getLinesCleared());
+        assertEquals(0, engine.getLevel());
+    }
+}
@@ -0,0 +1,208 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests for gravity, lock delay and key repeat in the fixed-timestep loop, stepped by hand without its thread
+
+public class GameLoopTest {
+
+    private final GameEngine engine = new GameEngine(21);
+    private final List<GameLoop.Frame> frames = new ArrayList<>();
+    private final GameLoop loop = new GameLoop(engine, null, frames::add);
+
+
+    // At level 0 the piece falls one row every framesPerRow(0) frames
+    @Test
+    void gravityFollowsLevelSpeed() {
+        int y = engine.getCurrentPiece().y;
+        int perRow = RuleSet.STANDARD.framesPerRow(0);
+
+        frames(perRow - 1);
+        assertEquals(y, engine.getCurrentPiece().y);
+        frames(1);
+        assertEquals(y + 1, engine.getCurrentPiece().y);
+    }
+
+    // Gravity speeds up with level down to one row per frame
+    @Test
+    void gravityCurveReachesOneFramePerRow() {
+        for (int level = 1; level < 40; level++) {
+            assertTrue(RuleSet.STANDARD.framesPerRow(level) <= RuleSet.STANDARD.framesPerRow(level - 1));
+        }
+        assertEquals(1, RuleSet.STANDARD.framesPerRow(29));
+        assertEquals(1, RuleSet.STANDARD.framesPerRow(1_000));
+    }
+
+    // A grounded piece locks only after the lock delay has run out
+    @Test
+    void groundedPieceLocksAfterDelay() {
+        dropToFloorWithoutLocking();
+
+        frames(GameLoop.LOCK_DELAY_FRAMES - 1);
+        assertEquals(0, engine.getPiecesLocked());
+        frames(1);
+        assertEquals(1, engine.getPiecesLocked());
+    }
+
+    // Moving a grounded piece restarts its lock delay
+    @Test
+    void movingGroundedPieceResetsLockDelay() {
+        dropToFloorWithoutLocking();
+        frames(GameLoop.LOCK_DELAY_FRAMES - 5);
+
+        input(() -> loop.press(Action.LEFT));
+        input(() -> loop.release(Action.LEFT));
+        frames(GameLoop.LOCK_DELAY_FRAMES - 5);
+
+        assertEquals(0, engine.getPiecesLocked());
+    }
+
+    // Holding a direction moves once, waits DAS frames, then repeats every ARR frames
+    @Test
+    void heldDirectionRepeatsAfterDelayedAutoShift() {
+        int x = engine.getCurrentPiece().x;
+        input(() -> loop.press(Action.LEFT));
+        assertEquals(x - 1, engine.getCurrentPiece().x);
+
+        frames(GameLoop.DAS_FRAMES - 1);
+        assertEquals(x - 1, engine.getCurrentPiece().x);
+        frames(1);
+        assertEquals(x - 2, engine.getCurrentPiece().x);
+        frames(GameLoop.ARR_FRAMES);
+        assertEquals(x - 3, engine.getCurrentPiece().x);
+
+        // Keyboard auto-repeat presses do not add moves
+        input(() -> loop.press(Action.LEFT));
+        assertEquals(x - 3, engine.getCurrentPiece().x);
+
+        input(() -> loop.release(Action.LEFT));
+        frames(GameLoop.DAS_FRAMES * 2);
+        assertEquals(x - 3, engine.getCurrentPiece().x);
+    }
+
+    // Frames are only published when something visible changed, and their board cells are copies
+    @Test
+    void publishesImmutableFramesOnChange() {
+        loop.publish();
+        assertTrue(frames.isEmpty());
+
+        input(() -> loop.press(Action.HARD_DROP));
+        assertEquals(1, frames.size());
+        GameLoop.Frame frame = frames.get(0);
+        assertEquals(1, frame.boardVersion());
+
+        byte[] before = frame.cells().clone();
+        input(() -> loop.press(Action.HARD_DROP));
+        assertArrayEquals(before, frame.cells());
+    }
+
+    // Pausing stops gravity until resumed
+    @Test
+    void pauseStopsGravity() {
+        int y = engine.getCurrentPiece().y;
+        input(loop::togglePause);
+        frames(RuleSet.STANDARD.framesPerRow(0) * 3);
+        assertEquals(y, engine.getCurrentPiece().y);
+        assertTrue(loop.latestFrame().paused());
+    }
+
+    private void dropToFloorWithoutLocking() {
+        Piece p = engine.getCurrentPiece();
+        while (engine.getBoard().canPlace(p.type, p.rotation, p.x, p.y + 1)) {
+            engine.apply(Action.SOFT_DROP);
+        }
+    }
+
+    // With autoplay on, the bot places a piece every AUTOPLAY_FRAMES frames
+    @Test
+    void autoplayPlacesPieces() {
+        input(() -> loop.setAutoplay(new BeamSearch(null, Heuristic.DEFAULT, 4, 2)));
+        frames(GameLoop.AUTOPLAY_FRAMES * 20);
+        assertTrue(engine.getPiecesLocked() >= 20);
+        assertFalse(engine.isGameOver());
+
+        input(() -> loop.setAutoplay(null));
+        int locked = engine.getPiecesLocked();
+        frames(GameLoop.AUTOPLAY_FRAMES * 3);
+        assertEquals(locked, engine.getPiecesLocked());
+    }
+
+    // A save taken from the loop keeps its board while the game goes on and while undo rewinds it
+    @Test
+    void snapshotsStayFixedWhileGamePlays() throws Exception {
+        GameSave save = loop.snapshot();
+        int[][] cells = save.board.snapshot();
+
+        input(() -> loop.setAutoplay(new BeamSearch(null, Heuristic.DEFAULT, 2, 2)));
+        frames(GameLoop.AUTOPLAY_FRAMES * 30);
+        input(loop::undo);
+        assertTrue(engine.getPiecesLocked() >= 20);
+
+        assertArrayEquals(cells, save.board.snapshot());
+        assertEquals(save.board.computeHash(), save.board.zobrist());
+    }
+
+    // A stopped loop runs again after start(), as when its panel is removed and added back
+    @Test
+    void restartsAfterStop() throws Exception {
+        loop.start();
+        moveLeftOnLoopThread();
+        loop.stop();
+        loop.start();
+        try {
+            moveLeftOnLoopThread();
+        } finally {
+            loop.stop();
+        }
+    }
+
+    // A task that throws stops the loop instead of leaving callers waiting on a dead thread
+    @Test
+    void failedTaskStopsLoopWithoutHangingCallers() throws Exception {
+        loop.start();
+        try {
+            loop.post(() -> {
+                throw new IllegalStateException("broken task");
+            });
+            assertEquals(engine.getScore(), loop.snapshot().score);
+            assertEquals(42, (int) loop.call(() -> 42));
+
+            loop.stop();
+            loop.start();
+            moveLeftOnLoopThread();
+        } finally {
+            loop.stop();
+        }
+    }
+
+    private void moveLeftOnLoopThread() throws InterruptedException {
+        int x = loop.latestFrame().pieceX();
+        loop.press(Action.LEFT);
+        loop.release(Action.LEFT);
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        while (loop.latestFrame().pieceX() == x) {
+            assertTrue(System.nanoTime() < deadline, "loop is not running");
+            Thread.sleep(5);
+        }
+    }
+
+    private void input(Runnable post) {
+        post.run();
+        loop.runTasks();
+        loop.publish();
+    }
+
+    private void frames(int n) {
+        for (int i = 0; i < n; i++) {
+            loop.step();
+        }
+        loop.publish();
+    }
+}
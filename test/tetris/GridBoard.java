@@ -0,0 +1,74 @@
+package tetris;
+
+import java.util.Arrays;
+
+// Reference implementation of the original int[][] board, used to cross-check Board
+final class GridBoard {
+
+    private final int[][] grid = new int[Board.HEIGHT][Board.WIDTH];
+
+    int get(int x, int y) {
+        return grid[y][x];
+    }
+
+    void set(int x, int y, int value) {
+        grid[y][x] = value;
+    }
+
+    boolean inBounds(int x, int y) {
+        return (x >= 0) && (x < Board.WIDTH) && (y >= 0) && (y < Board.HEIGHT);
+    }
+
+    boolean canPlace(Piece piece) {
+        for (var cell : piece.cells()) {
+            if (!inBounds(cell.x, cell.y) || get(cell.x, cell.y) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void lock(Piece piece) {
+        int value = piece.type.ordinal() + 1;
+        for (var cell : piece.cells()) {
+            if (inBounds(cell.x, cell.y)) {
+                set(cell.x, cell.y, value);
+            }
+        }
+    }
+
+    int clearLines() {
+        int cleared = 0;
+        int write = Board.HEIGHT - 1;
+
+        for (int y = Board.HEIGHT - 1; y >= 0; y--) {
+            boolean full = true;
+            for (int x = 0; x < Board.WIDTH; x++) {
+                if (grid[y][x] == 0) {
+                    full = false;
+                    break;
+                }
+            }
+            if (!full) {
+                if (write != y) {
+                    grid[write] = Arrays.copyOf(grid[y], Board.WIDTH);
+                }
+                write--;
+            } else {
+                cleared++;
+            }
+        }
+        while (write >= 0) {
+            Arrays.fill(grid[write--], 0);
+        }
+        return cleared;
+    }
+
+    int[][] snapshot() {
+        int[][] copy = new int[Board.HEIGHT][Board.WIDTH];
+        for (int y = 0; y < Board.HEIGHT; y++) {
+            copy[y] = Arrays.copyOf(grid[y], Board.WIDTH);
+        }
+        return copy;
+    }
+}
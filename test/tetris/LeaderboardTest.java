@@ -0,0 +1,207 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Stress tests for the concurrent leaderboard
+
+public class LeaderboardTest {
+
+    private static final int WRITERS = 64;
+    private static final int PER_WRITER = 2_000;
+
+    @TempDir
+    Path dir;
+
+
+    // 64 writers submit concurrently while readers check that every view they get is consistent
+    @Test
+    void concurrentWritersAndReaders() throws Exception {
+        Path file = dir.resolve("scores.db");
+        AtomicReference<Throwable> readerError = new AtomicReference<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        try (Leaderboard board = new Leaderboard(ScoreStore.open(file), 2)) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                int id = w;
+                Thread t = new Thread(() -> {
+                    await(start);
+                    for (int i = 0; i < PER_WRITER; i++) {
+                        // Scores are unique: writer id in the low bits
+                        board.submit("w" + id, i * WRITERS + id);
+                    }
+                });
+                writers.add(t);
+                t.start();
+            }
+            List<Thread> readers = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                Thread t = new Thread(() -> {
+                    await(start);
+                    try {
+                        int lastSize = 0;
+                        while (writing.get()) {
+                            lastSize = checkConsistent(board, lastSize);
+                        }
+                    } catch (Throwable e) {
+                        readerError.compareAndSet(null, e);
+                    }
+                });
+                readers.add(t);
+                t.start();
+            }
+
+            start.countDown();
+            for (Thread t : writers) {
+                t.join();
+            }
+            board.flush();
+            writing.set(false);
+            for (Thread t : readers) {
+                t.join();
+            }
+
+            assertNull(readerError.get());
+            assertEquals(WRITERS * PER_WRITER, board.submitted());
+            assertEquals(WRITERS * PER_WRITER, board.size());
+            assertEquals(1, board.rankOf(WRITERS * PER_WRITER));
+            assertEquals(WRITERS * PER_WRITER, board.rankOf(0));
+            assertEquals(WRITERS * PER_WRITER - 1, board.top(1).get(0).score);
+        }
+
+        // Everything submitted was written to disk
+        try (ScoreStore store = ScoreStore.open(file)) {
+            assertEquals(WRITERS * PER_WRITER, store.size());
+        }
+    }
+
+    // Results become visible after flush, in rank order
+    @Test
+    void flushMakesSubmissionsVisible() throws Exception {
+        try (Leaderboard board = new Leaderboard(ScoreStore.open(dir.resolve("scores.db")), 60_000)) {
+            board.submit("a", 10);
+            board.submit("b", 30);
+            board.submit("c", 20);
+            board.flush();
+
+            assertEquals(List.of(30, 20, 10), board.top(5).stream().map(e -> e.score).toList());
+            assertEquals(2, board.rankOf(25));
+        }
+    }
+
+    // An entry the store fails to append stays queued and goes in with the next drain, in its place
+    @Test
+    void failedAppendIsRetried() throws Exception {
+        ScoreStore store = ScoreStore.open(dir.resolve("scores.db"));
+        try (Leaderboard board = new Leaderboard(store, 60_000)) {
+            store.failAppends = 1;
+            board.submit("a", 10);
+            board.submit("b", 30);
+            board.submit("c", 20);
+
+            assertThrows(IOException.class, board::flush);
+            assertEquals(0, board.size());
+
+            board.flush();
+            assertEquals(List.of(30, 20, 10), board.top(5).stream().map(e -> e.score).toList());
+        }
+    }
+
+    // An unchecked failure from the store is reported by flush(), and the periodic drain survives it
+    @Test
+    void uncheckedFailureIsReportedAndRetried() throws Exception {
+        ScoreStore store = ScoreStore.open(dir.resolve("scores.db"));
+        try (Leaderboard board = new Leaderboard(store, 60_000)) {
+            store.failAppendsUnchecked = true;
+            store.failAppends = 1;
+            board.submit("a", 10);
+
+            assertThrows(IllegalStateException.class, board::flush);
+            board.flush();
+            assertEquals(1, board.size());
+        }
+
+        ScoreStore periodic = ScoreStore.open(dir.resolve("periodic.db"));
+        try (Leaderboard board = new Leaderboard(periodic, 10)) {
+            periodic.failAppendsUnchecked = true;
+            periodic.failAppends = 1;
+            board.submit("b", 30);
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (board.size() < 1) {
+                assertTrue(System.nanoTime() < deadline, "periodic drain stopped");
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    // A compaction that fails in the background is not reported as a failed flush; the entries are all in
+    @Test
+    void failedCompactionDoesNotFailFlush() throws Exception {
+        ScoreStore store = ScoreStore.open(dir.resolve("scores.db"), 100);
+        try (Leaderboard board = new Leaderboard(store, 60_000)) {
+            store.failCommits = 1;
+            for (int i = 0; i < 40_000; i++) {
+                board.submit("p" + i, i);
+            }
+            board.flush();
+            assertEquals(0, store.failCommits);
+            assertEquals(100, board.size());
+            assertEquals(39_999, board.top(1).get(0).score);
+        }
+    }
+
+    // With a capacity the writer compacts in the background; readers keep seeing the best entries throughout
+    @Test
+    void compactionKeepsServingReaders() throws Exception {
+        Path file = dir.resolve("scores.db");
+        try (Leaderboard board = new Leaderboard(ScoreStore.open(file, 100), 60_000)) {
+            for (int round = 0; round < 4; round++) {
+                for (int i = 0; i < 10_000; i++) {
+                    board.submit("p" + i, round * 10_000 + i);
+                }
+                board.flush();
+                assertEquals(100, board.size());
+                assertEquals(round * 10_000 + 9_999, board.top(1).get(0).score);
+                checkConsistent(board, 100);
+            }
+        }
+        assertTrue(file.toFile().length() < 40_000L * ScoreStore.RECORD_SIZE, "file was compacted");
+        try (ScoreStore store = ScoreStore.open(file, 100)) {
+            assertEquals(39_999, store.top(1).get(0).score);
+        }
+    }
+
+    // A reader's view is ordered, never shrinks, and ranks every applied entry above a negative score
+    private static int checkConsistent(Leaderboard board, int lastSize) {
+        List<HighScores.Entry> top = board.top(20);
+        for (int i = 1; i < top.size(); i++) {
+            assertTrue(top.get(i - 1).score > top.get(i).score);
+        }
+        int size = board.size();
+        assertTrue(size >= lastSize);
+        assertTrue(board.rankOf(-1) >= size + 1);
+        return size;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
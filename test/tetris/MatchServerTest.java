@@ -0,0 +1,199 @@
+package tetris;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Plays matches against a MatchServer over loopback with real clients
+
+public class MatchServerTest {
+
+    private final MatchServer server;
+
+    MatchServerTest() throws Exception {
+        server = new MatchServer(new InetSocketAddress("127.0.0.1", 0), 2, 11);
+        server.start();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        server.close();
+    }
+
+
+    // Inputs sent by a client move its game on the server, and the frames it gets back rebuild the server's
+    // board cell for cell; the other player of the match shares the seed but not the board
+    @Test
+    void clientMirrorsTheServerGame() throws Exception {
+        try (NetClient a = connect(); NetClient b = connect()) {
+            assertEquals(a.matchId(), b.matchId());
+            assertEquals(a.seed(), b.seed());
+            assertNotEquals(a.playerId(), b.playerId());
+
+            for (int i = 0; i < 3; i++) {
+                drop(a);
+            }
+            await(() -> sameGame(serverFrame(a), a.latestFrame()));
+            assertTrue(a.snapshot().board.stackHeight() > 0);
+            assertEquals(0, b.snapshot().board.stackHeight());
+        }
+    }
+
+    // A tetris sends four lines of garbage to the opponent, who gets them under the stack at its next lock
+    @Test
+    void tetrisSendsGarbage() throws Exception {
+        try (NetClient a = connect(); NetClient b = connect()) {
+            Board board = new Board();
+            for (int y = Board.HEIGHT - 4; y < Board.HEIGHT; y++) {
+                for (int x = 1; x < Board.WIDTH; x++) {
+                    board.set(x, y, 1 + x % 7);
+                }
+            }
+            Piece vertical = new Piece(Tetromino.I, -1, 5);
+            vertical.rotation = 1;
+            server.call(() -> {
+                server.loop(a.playerId()).restore(new GameSave(board, vertical, Tetromino.O, 0));
+                return null;
+            });
+            a.press(Action.HARD_DROP);
+            a.release(Action.HARD_DROP);
+            await(() -> a.latestFrame().lines() == 4);
+            assertEquals(800, a.latestFrame().score());
+            await(() -> b.garbageReceived() == 4);
+
+            b.press(Action.HARD_DROP);
+            b.release(Action.HARD_DROP);
+            await(() -> b.snapshot().board.stackHeight() > 4);
+            Board garbage = b.snapshot().board;
+            int hole = -1;
+            for (int y = Board.HEIGHT - 4; y < Board.HEIGHT; y++) {
+                int empty = 0;
+                for (int x = 0; x < Board.WIDTH; x++) {
+                    if (garbage.get(x, y) == 0) {
+                        empty++;
+                        assertTrue(hole < 0 || hole == x, "holes line up");
+                        hole = x;
+                    }
+                }
+                assertEquals(1, empty);
+            }
+            assertFalse(b.isMatchOver());
+        }
+    }
+
+    // A spectator joining mid-game gets the whole board, then follows the player's locks from the board change log
+    @Test
+    void spectatorFollowsAPlayer() throws Exception {
+        try (NetClient a = connect(); NetClient b = connect()) {
+            drop(a);
+            try (NetClient watcher = NetClient.spectate(new InetSocketAddress("127.0.0.1", server.port()),
+                    a.playerId())) {
+                watcher.start(frame -> { });
+                assertTrue(watcher.isSpectating());
+                assertEquals(a.playerId(), watcher.playerId());
+                assertEquals(a.matchId(), watcher.matchId());
+                watcher.press(Action.HARD_DROP);
+                for (int i = 0; i < 4; i++) {
+                    drop(a);
+                }
+                await(() -> sameGame(serverFrame(a), watcher.latestFrame()));
+                assertArrayEquals(a.snapshot().board.snapshot(), watcher.snapshot().board.snapshot());
+                assertEquals(0, b.snapshot().board.stackHeight());
+            }
+        }
+    }
+
+    // Many clients at once: everyone joins and keeps receiving frames while the server ticks on time. Kept to
+    // 64 clients (128 sockets) so it fits the default open-file limit; NetLoadRunner.main runs the 1,000-client load
+    @Test
+    void manyClients() throws Exception {
+        NetLoadRunner.Report report = NetLoadRunner.run(server, 64, 2_000, 3);
+        assertEquals(64, report.joined());
+        assertEquals(0, report.disconnected());
+        assertTrue(report.frames() > 64);
+        assertTrue(report.server().ticks() > 60);
+        assertEquals(64, report.server().players());
+    }
+
+    // Closing the server ends every connection, and a call() made afterwards still returns
+    @Test
+    void closeEndsConnectionsAndCallsStillReturn() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.port())) {
+            socket.setSoTimeout(5_000);
+            await(() -> server.stats().players() == 1);
+            server.close();
+
+            assertEquals(0, server.stats().players());
+            try {
+                assertEquals(-1, socket.getInputStream().read());
+            } catch (SocketException reset) {
+                // closed with data unread: just as ended
+            }
+        }
+    }
+
+    // A frame carrying a cell value no tetromino has is refused, not drawn as the nearest color
+    @Test
+    void corruptCellInFrameIsRejected() {
+        byte[] cells = new byte[Board.WIDTH * Board.HEIGHT];
+        cells[cells.length - 1] = 9;
+        GameLoop.Frame frame = new GameLoop.Frame(1, cells, Board.WIDTH, 1, Tetromino.T, 0, 4, 1,
+                Tetromino.I, 0, 0, 0, false, false);
+        ByteBuffer out = ByteBuffer.allocate(NetProtocol.HEADER + NetProtocol.MAX_PAYLOAD);
+        NetProtocol.putFrame(out, null, frame, null);
+        out.flip();
+        assertEquals(NetProtocol.FRAME, NetProtocol.peekType(out));
+
+        ByteBuffer payload = NetProtocol.payload(out);
+        assertThrows(IOException.class, () -> new NetProtocol.Replica().apply(payload));
+    }
+
+    private NetClient connect() throws Exception {
+        NetClient client = NetClient.connect(new InetSocketAddress("127.0.0.1", server.port()));
+        client.start(frame -> { });
+        return client;
+    }
+
+    // Moves the piece left and hard-drops it, then waits for the lock on the server
+    private void drop(NetClient client) throws Exception {
+        long version = serverFrame(client).boardVersion();
+        client.press(Action.LEFT);
+        client.release(Action.LEFT);
+        client.press(Action.HARD_DROP);
+        client.release(Action.HARD_DROP);
+        await(() -> serverFrame(client).boardVersion() > version);
+    }
+
+    private GameLoop.Frame serverFrame(NetClient client) throws Exception {
+        return server.call(() -> server.loop(client.playerId()).latestFrame());
+    }
+
+    private static boolean sameGame(GameLoop.Frame server, GameLoop.Frame client) {
+        return Arrays.equals(server.cells(), client.cells()) && server.pieceType() == client.pieceType()
+                && server.pieceRotation() == client.pieceRotation() && server.pieceX() == client.pieceX()
+                && server.pieceY() == client.pieceY() && server.nextPiece() == client.nextPiece()
+                && server.score() == client.score();
+    }
+
+    private interface Condition {
+        boolean test() throws Exception;
+    }
+
+    private static void await(Condition condition) throws Exception {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.test()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests for the metrics registry; surefire runs this class alone with -Dtetris.metrics=true
+
+public class MetricsTest {
+
+
+    // Every value is reported within one sixteenth of itself, and percentiles walk the buckets in order
+    @Test
+    void histogramBucketsArePrecise() {
+        for (long v = 0; v < 1_000_000; v = v * 5 / 4 + 1) {
+            long reported = Metrics.Histogram.highestValue(Metrics.Histogram.bucket(v));
+            assertTrue(reported >= v && reported - v <= v / 16, v + " -> " + reported);
+        }
+        assertEquals(Metrics.Histogram.BUCKETS - 1, Metrics.Histogram.bucket(Long.MAX_VALUE));
+
+        Metrics.Histogram h = new Metrics.Histogram("test");
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+        assertEquals(1000, h.count());
+        assertEquals(1_000_000, h.max());
+        assertEquals(500_000, h.percentile(50), 500_000 / 16);
+        assertEquals(990_000, h.percentile(99), 990_000 / 16);
+        assertEquals(500_500, h.mean(), 1e-6);
+    }
+
+    // Playing a game moves the engine counters, and the CSV dump and MBean report them
+    @Test
+    void gameIsCountedAndExported(@TempDir Path dir) throws Exception {
+        long ticks = Metrics.TICKS.sum();
+        long locks = Metrics.PIECES_LOCKED.sum();
+        GameEngine engine = new GameEngine(9);
+        Policy policy = Policy.greedy(Heuristic.DEFAULT);
+        for (int i = 0; i < 200; i++) {
+            policy.act(engine);
+            engine.tick();
+        }
+        assertTrue(Metrics.TICKS.sum() - ticks >= 200);
+        assertEquals(engine.getPiecesLocked(), Metrics.PIECES_LOCKED.sum() - locks);
+
+        Path csv = dir.resolve("metrics.csv");
+        Metrics.appendCsv(csv);
+        Metrics.appendCsv(csv);
+        List<String> lines = Files.readAllLines(csv);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).startsWith("timeMillis,ticks,piecesLocked,"));
+        assertEquals(lines.get(0).split(",").length, lines.get(2).split(",").length);
+
+        Metrics.registerMBean();
+        Object value = ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName("tetris:type=Metrics"), "piecesLocked");
+        assertTrue((Long) value >= engine.getPiecesLocked());
+    }
+
+    // Transposition caches report their lookups and live size through the process-wide counters
+    @Test
+    void cacheIsCounted() {
+        long hits = Metrics.CACHE_HITS.sum();
+        long misses = Metrics.CACHE_MISSES.sum();
+        long bytes = Metrics.CACHE_BYTES.sum();
+        TranspositionCache cache = new TranspositionCache(64);
+        cache.put(42, 4.5);
+        cache.get(42);
+        cache.get(42);
+        cache.get(43);
+        cache.get(44);
+
+        assertEquals(2, Metrics.CACHE_HITS.sum() - hits);
+        assertEquals(2, Metrics.CACHE_MISSES.sum() - misses);
+        assertEquals(cache.footprintBytes(), Metrics.CACHE_BYTES.sum() - bytes);
+
+        cache.close();
+        cache.close();
+        assertEquals(bytes, Metrics.CACHE_BYTES.sum());
+    }
+}
@@ -0,0 +1,167 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+
+
+// Tests for the piece generators: distribution, determinism, lookahead and throughput
+
+public class PieceGeneratorTest {
+
+    private static final int PIECES = 70_000;
+
+
+    // Every aligned run of 7 bag pieces is a permutation, so no piece is ever more than 12 apart from its last
+    @Test
+    void bagDealsPermutations() {
+        PieceGenerator bag = PieceGenerator.bag(1);
+        int[] last = new int[7];
+        Arrays.fill(last, -1);
+        for (int i = 0; i < PIECES; i += 7) {
+            int seen = 0;
+            for (int j = 0; j < 7; j++) {
+                int t = bag.next().ordinal();
+                seen |= 1 << t;
+                assertTrue(i + j - last[t] <= 13);
+                last[t] = i + j;
+            }
+            assertEquals(0x7F, seen);
+        }
+    }
+
+    // A bag gives away the rest of itself as it is dealt, and pushing back rewinds that; other randomizers never do
+    @Test
+    void onlyTheBagIsDeducible() {
+        PieceGenerator bag = PieceGenerator.bag(3);
+        for (int i = 0; i < 15; i++) {
+            assertEquals(i % 7 == 0 ? 0 : 7 - i % 7, bag.deducible());
+            bag.next();
+        }
+        bag.pushBack(bag.next());
+        assertEquals(6, bag.deducible());
+        bag.next();
+        bag.pushBack(bag.next());
+        assertEquals(5, bag.deducible());
+
+        for (PieceGenerator.Kind kind : new PieceGenerator.Kind[]{PieceGenerator.Kind.MEMORYLESS, PieceGenerator.Kind.HISTORY}) {
+            PieceGenerator generator = kind.create(3);
+            for (int i = 0; i < 10; i++) {
+                generator.next();
+                assertEquals(0, generator.deducible());
+            }
+        }
+    }
+
+    // All randomizers are uniform overall; the history randomizer repeats a piece far less often than chance
+    @Test
+    void distributionsMatchTheirRandomizer() {
+        for (PieceGenerator.Kind kind : PieceGenerator.Kind.values()) {
+            PieceGenerator generator = kind.create(2);
+            int[] counts = new int[7];
+            int repeats = 0;
+            Tetromino previous = null;
+            for (int i = 0; i < PIECES; i++) {
+                Tetromino t = generator.next();
+                counts[t.ordinal()]++;
+                if (t == previous) {
+                    repeats++;
+                }
+                previous = t;
+            }
+            // Chi-square with 6 degrees of freedom; 22.46 is the 0.1% critical value
+            double expected = PIECES / 7.0;
+            double chiSquare = 0;
+            for (int c : counts) {
+                chiSquare += (c - expected) * (c - expected) / expected;
+            }
+            assertTrue(chiSquare < 22.46, kind + " chi-square " + chiSquare);
+
+            double repeatRate = (double) repeats / PIECES;
+            switch (kind) {
+                case MEMORYLESS -> assertEquals(1 / 7.0, repeatRate, 0.01);
+                case HISTORY -> assertTrue(repeatRate < 0.01, "history repeats " + repeatRate);
+                case BAG -> assertTrue(repeatRate < 1 / 7.0 / 7 + 0.01, "bag repeats " + repeatRate);
+            }
+        }
+    }
+
+    // Peeking and pushing back never change the sequence, and equal seeds give equal sequences
+    @Test
+    void lookaheadDoesNotDisturbTheSequence() {
+        for (PieceGenerator.Kind kind : PieceGenerator.Kind.values()) {
+            PieceGenerator plain = kind.create(3);
+            PieceGenerator peeked = kind.create(3);
+            Tetromino[] ahead = new Tetromino[40];
+            for (int i = 0; i < 1_000; i++) {
+                peeked.peek(ahead, 0, 1 + i % ahead.length);
+                Tetromino t = peeked.next();
+                assertEquals(ahead[0], t);
+                if (i % 5 == 0) {
+                    peeked.pushBack(t);
+                    assertEquals(t, peeked.next());
+                }
+                assertEquals(plain.next(), t);
+                assertEquals(plain.peek(3), peeked.peek(3));
+            }
+        }
+    }
+
+    // Split streams are reproducible and differ from each other and from their parent
+    @Test
+    void splitStreamsAreIndependentAndDeterministic() {
+        PieceGenerator a = PieceGenerator.memoryless(4);
+        PieceGenerator b = PieceGenerator.memoryless(4);
+        PieceGenerator childA = a.split();
+        PieceGenerator childB = b.split();
+        PieceGenerator sibling = a.split();
+        int sameAsSibling = 0;
+        int sameAsParent = 0;
+        for (int i = 0; i < 7_000; i++) {
+            Tetromino t = childA.next();
+            assertEquals(childB.next(), t);
+            sameAsSibling += t == sibling.next() ? 1 : 0;
+            sameAsParent += t == a.next() ? 1 : 0;
+        }
+        assertEquals(1_000, sameAsSibling, 150);
+        assertEquals(1_000, sameAsParent, 150);
+        assertEquals(PieceGenerator.Kind.MEMORYLESS, childA.kind());
+    }
+
+    // Steady play draws pieces without allocating, for well over a million pieces a second
+    @Test
+    void generatesWithoutAllocating() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        for (PieceGenerator.Kind kind : PieceGenerator.Kind.values()) {
+            PieceGenerator generator = kind.create(5);
+            long checksum = drain(generator, 1_000_000);
+            long id = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(id);
+            long start = System.nanoTime();
+            checksum += drain(generator, 1_000_000);
+            long nanos = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+            assertEquals(0, allocated, kind + " bytes allocated");
+            assertTrue(nanos < 1_000_000_000L, kind + " took " + nanos / 1e6 + " ms for 1M pieces");
+            assertTrue(checksum > 0);
+        }
+    }
+
+    private static long drain(PieceGenerator generator, int pieces) {
+        long sum = 0;
+        for (int i = 0; i < pieces; i++) {
+            sum += generator.next().ordinal() + generator.peek(4).ordinal();
+        }
+        return sum;
+    }
+}
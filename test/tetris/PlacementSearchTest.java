@@ -0,0 +1,185 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Point;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests for placement enumeration and the board heuristics
+
+public class PlacementSearchTest {
+
+
+    // On an empty board every column a rotation fits in is one placement; identical shapes count once
+    @Test
+    void emptyBoardPlacementCounts() {
+        PlacementSearch search = new PlacementSearch();
+        Board board = new Board();
+
+        assertEquals(9, search.search(board, Tetromino.O, 0, GameEngine.SPAWN_X, GameEngine.SPAWN_Y));
+        assertEquals(17, search.search(board, Tetromino.I, 0, GameEngine.SPAWN_X, GameEngine.SPAWN_Y));
+        assertEquals(34, search.search(board, Tetromino.T, 0, GameEngine.SPAWN_X, GameEngine.SPAWN_Y));
+    }
+
+    // Replaying a placement's path through the engine leaves the piece resting exactly there
+    @Test
+    void pathsLeadToTheirPlacements() {
+        PlacementSearch search = new PlacementSearch();
+        for (long seed = 0; seed < 7; seed++) {
+            GameEngine engine = new GameEngine(seed);
+            Piece start = engine.getCurrentPiece();
+            int count = search.search(engine.getBoard(), start.type, start.rotation, start.x, start.y);
+            assertTrue(count > 0);
+
+            for (int i = 0; i < count; i++) {
+                GameEngine replay = new GameEngine(seed);
+                for (Action action : search.path(i)) {
+                    assertTrue(replay.apply(action), "input had no effect: " + action);
+                }
+                Piece p = replay.getCurrentPiece();
+                assertEquals(search.rotation(i), p.rotation);
+                assertEquals(search.x(i), p.x);
+                assertEquals(search.y(i), p.y);
+                assertFalse(replay.getBoard().canPlace(p.type, p.rotation, p.x, p.y + 1));
+            }
+        }
+    }
+
+    // The column-parallel search finds exactly the footprints a naive state-by-state search finds
+    @Test
+    void matchesNaiveSearchOnRandomBoards() {
+        PlacementSearch search = new PlacementSearch();
+        Random random = new Random(5);
+        for (int round = 0; round < 200; round++) {
+            Board board = new Board();
+            for (int y = 6 + random.nextInt(10); y < Board.HEIGHT; y++) {
+                for (int x = 0; x < Board.WIDTH; x++) {
+                    if (random.nextInt(3) != 0) {
+                        board.set(x, y, 1);
+                    }
+                }
+            }
+            for (Tetromino type : Tetromino.values()) {
+                int count = search.search(board, type, 0, GameEngine.SPAWN_X, GameEngine.SPAWN_Y);
+                Set<Set<Integer>> found = new HashSet<>();
+                for (int i = 0; i < count; i++) {
+                    assertTrue(found.add(footprint(type, search.rotation(i), search.x(i), search.y(i))));
+                }
+                assertEquals(naivePlacements(board, type), found, type + " in round " + round);
+            }
+        }
+    }
+
+    // Cells covered by a piece, as y * WIDTH + x
+    private static Set<Integer> footprint(Tetromino type, int rotation, int x, int y) {
+        Set<Integer> cells = new HashSet<>();
+        for (Point c : type.rotations[rotation]) {
+            cells.add((y + c.y) * Board.WIDTH + x + c.x);
+        }
+        return cells;
+    }
+
+    // Reference search straight from the engine's rules: explore every (rotation, x, y) one by one
+    private static Set<Set<Integer>> naivePlacements(Board board, Tetromino type) {
+        Set<List<Integer>> seen = new HashSet<>();
+        ArrayDeque<List<Integer>> queue = new ArrayDeque<>();
+        Set<Set<Integer>> placements = new HashSet<>();
+        List<Integer> first = List.of(0, GameEngine.SPAWN_X, GameEngine.SPAWN_Y);
+        if (board.canPlace(type, 0, GameEngine.SPAWN_X, GameEngine.SPAWN_Y)) {
+            seen.add(first);
+            queue.add(first);
+        }
+        while (!queue.isEmpty()) {
+            List<Integer> s = queue.poll();
+            int r = s.get(0), x = s.get(1), y = s.get(2);
+            if (!board.canPlace(type, r, x, y + 1)) {
+                placements.add(footprint(type, r, x, y));
+            }
+            List<List<Integer>> next = new ArrayList<>();
+            next.add(List.of(r, x - 1, y));
+            next.add(List.of(r, x + 1, y));
+            next.add(List.of(r, x, y + 1));
+            for (int dir : new int[]{1, 3}) {
+                int rotation = (r + dir) % 4;
+                RuleSet rules = RuleSet.STANDARD;
+                for (int k = 0; k < rules.kicks(type); k++) {
+                    int kx = x + rules.kickX(type, r, rotation, k);
+                    int ky = y + rules.kickY(type, r, rotation, k);
+                    if (board.canPlace(type, rotation, kx, ky)) {
+                        next.add(List.of(rotation, kx, ky));
+                        break;
+                    }
+                }
+            }
+            for (List<Integer> n : next) {
+                if (board.canPlace(type, n.get(0), n.get(1), n.get(2)) && seen.add(n)) {
+                    queue.add(n);
+                }
+            }
+        }
+        return placements;
+    }
+
+    // An O can reach the cavity under a roof only by soft dropping beside it and sliding in
+    @Test
+    void findsTucksUnderOverhangs() {
+        int bottom = Board.HEIGHT - 1;
+        Board board = new Board();
+        for (int x = 4; x < Board.WIDTH; x++) {
+            board.set(x, bottom, 1);
+            board.set(x, bottom - 1, 1);
+        }
+        board.set(0, bottom - 2, 1);
+        board.set(1, bottom - 2, 1);
+
+        PlacementSearch search = new PlacementSearch();
+        int count = search.search(board, Tetromino.O, 0, GameEngine.SPAWN_X, GameEngine.SPAWN_Y);
+        int tuck = -1;
+        for (int i = 0; i < count; i++) {
+            if (search.x(i) == 0 && search.y(i) == bottom) {
+                tuck = i;
+            }
+        }
+        assertTrue(tuck >= 0, "tuck under the roof not found");
+        List<Action> path = search.path(tuck);
+        assertEquals(Action.LEFT, path.get(path.size() - 1));
+        assertTrue(path.contains(Action.SOFT_DROP));
+    }
+
+    // Column heights 2,0,3 over a single hole: height 5, one hole, bumpiness 2 + 3 + 3
+    @Test
+    void boardFeatures() {
+        int bottom = Board.HEIGHT - 1;
+        Board board = new Board();
+        board.set(0, bottom, 1);
+        board.set(0, bottom - 1, 1);
+        board.set(2, bottom - 2, 1);
+        board.set(2, bottom, 1);
+
+        assertEquals(5, board.aggregateHeight());
+        assertEquals(1, board.holes());
+        assertEquals(8, board.bumpiness());
+    }
+
+    // The default heuristic keeps a greedy bot alive and clearing lines
+    @Test
+    void greedyPolicyClearsLines() {
+        GameEngine engine = new GameEngine(1);
+        Policy policy = Policy.greedy(Heuristic.DEFAULT);
+        while (engine.getPiecesLocked() < 500 && !engine.isGameOver()) {
+            policy.act(engine);
+            engine.tick();
+        }
+        assertFalse(engine.isGameOver());
+        assertTrue(engine.getLinesCleared() >= 150, "lines: " + engine.getLinesCleared());
+    }
+}
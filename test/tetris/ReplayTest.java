@@ -0,0 +1,104 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests recording games and verifying them by re-simulation
+
+public class ReplayTest {
+
+
+    // A recorded game replays to the same score and board
+    @Test
+    void recordedGameVerifies() throws IOException {
+        byte[] replay = record(17, 400);
+
+        ReplayVerifier.Result result = ReplayVerifier.verify(new ByteArrayInputStream(replay));
+
+        assertTrue(result.valid(), result.reason());
+        assertEquals(17, result.seed());
+        assertTrue(result.events() > 400);
+        assertEquals(400 * 5, result.durationMillis());
+    }
+
+    // Changing any recorded input changes the replayed game, which no longer matches the end record
+    @Test
+    void tamperedInputIsDetected() throws IOException {
+        byte[] replay = record(17, 400);
+        // Turn every hard drop into a left move; the game then runs differently
+        byte[] tampered = replay.clone();
+        for (int i = 11; i < tampered.length - 12; i++) {
+            if ((tampered[i] & 7) == Action.HARD_DROP.ordinal() + 1) {
+                tampered[i] = (byte) ((tampered[i] & ~7) | (Action.LEFT.ordinal() + 1));
+            }
+        }
+
+        assertFalse(ReplayVerifier.verify(new ByteArrayInputStream(tampered)).valid());
+    }
+
+    // A replay cut off before its end record is rejected rather than accepted
+    @Test
+    void truncatedReplayIsRejected() throws IOException {
+        byte[] replay = record(3, 100);
+        byte[] truncated = Arrays.copyOf(replay, replay.length - 20);
+
+        assertFalse(ReplayVerifier.verify(new ByteArrayInputStream(truncated)).valid());
+    }
+
+    // Replays from before the SRS rotation states are refused as an old version, not replayed into a mismatch
+    @Test
+    void preSrsReplayIsUnsupported() throws IOException {
+        byte[] replay = record(17, 50);
+        replay[2] = 2;
+
+        ReplayVerifier.Result result = ReplayVerifier.verify(new ByteArrayInputStream(replay));
+
+        assertFalse(result.valid());
+        assertTrue(result.reason().startsWith("unsupported replay version 2"), result.reason());
+    }
+
+    // Long pauses between events are stored as varints and survive the round trip
+    @Test
+    void longDelaysRoundTrip() throws IOException {
+        GameEngine engine = new GameEngine(9);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ReplayRecorder recorder = new ReplayRecorder(engine, bytes, 0)) {
+            recorder.tick(10);
+            recorder.apply(Action.LEFT, 100_000);
+            recorder.finish(100_030);
+        }
+
+        ReplayVerifier.Result result = ReplayVerifier.verify(new ByteArrayInputStream(bytes.toByteArray()));
+        assertTrue(result.valid(), result.reason());
+        assertEquals(100_030, result.durationMillis());
+    }
+
+    // Plays a random-input game for the given number of ticks, 5 ms apart
+    private static byte[] record(long seed, int ticks) throws IOException {
+        GameEngine engine = new GameEngine(seed);
+        Action[] actions = Action.values();
+        Random random = new Random(seed);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ReplayRecorder recorder = new ReplayRecorder(engine, bytes, 0)) {
+            long time = 0;
+            for (int i = 0; i < ticks; i++) {
+                if (random.nextBoolean()) {
+                    recorder.apply(actions[random.nextInt(actions.length)], time + 2);
+                }
+                time += 5;
+                recorder.tick(time);
+            }
+            recorder.finish(time);
+        }
+        return bytes.toByteArray();
+    }
+}
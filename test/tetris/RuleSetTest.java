@@ -0,0 +1,150 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests for games played by non-standard rule sets: board sizes, scoring and levels
+
+public class RuleSetTest {
+
+
+    // A full-width 64 column board (4 color words per row) plays, undoes and redoes like the standard one.
+    // The game starts on a many-colored stack with a well in the last column, so lines get cleared
+    @Test
+    void wideBoardUndoesAndRedoes() {
+        RuleSet rules = RuleSet.STANDARD.withSize(RuleSet.MAX_WIDTH, 24, 2);
+        GameEngine engine = new GameEngine(3, 300, PieceGenerator.Kind.BAG, rules);
+        Board stack = new Board(rules);
+        for (int y = 12; y < 24; y++) {
+            for (int x = 0; x < RuleSet.MAX_WIDTH - 1; x++) {
+                stack.set(x, y, 1 + (x * 3 + y) % 7);
+            }
+        }
+        engine.restore(new GameSave(stack, new Piece(engine.getCurrentPiece()), engine.getNextPiece(), 0));
+        Policy policy = Policy.greedy(Heuristic.DEFAULT);
+        List<GameSave> states = new ArrayList<>();
+        states.add(engine.snapshot());
+        for (int i = 0; i < 200 && !engine.isGameOver(); i++) {
+            policy.act(engine);
+            states.add(engine.snapshot());
+            assertEquals(engine.getBoard().computeHash(), engine.getBoard().zobrist());
+        }
+        assertTrue(engine.getLinesCleared() > 0);
+
+        for (int i = states.size() - 2; i >= 0; i--) {
+            assertTrue(engine.undo());
+            assertEquals(states.get(i).board, engine.getBoard());
+            assertEquals(states.get(i).score, engine.getScore());
+        }
+        for (int i = 1; i < states.size(); i++) {
+            assertTrue(engine.redo());
+            assertEquals(states.get(i).board, engine.getBoard());
+        }
+    }
+
+    // A board taller than PlacementSearch covers still plays through the engine, with random inputs
+    @Test
+    void tallBoardPlaysWithoutSearch() {
+        RuleSet rules = RuleSet.STANDARD.withSize(8, RuleSet.MAX_HEIGHT, 4);
+        GameEngine engine = new GameEngine(9, 50, PieceGenerator.Kind.BAG, rules);
+        Policy policy = Policy.random(9);
+        while (engine.getPiecesLocked() < 60 && !engine.isGameOver()) {
+            policy.act(engine);
+            engine.tick();
+        }
+        Board board = engine.getBoard();
+        assertEquals(RuleSet.MAX_HEIGHT, board.height());
+        assertEquals(board.computeHash(), board.zobrist());
+        assertThrows(IllegalArgumentException.class, () -> new PlacementSearch()
+                .search(board, Tetromino.T, 0, rules.spawnX(), rules.spawnY()));
+    }
+
+    // Line clears score from the rule set's table and the level and gravity follow its curve
+    @Test
+    void customScoringAndLevels() {
+        int[] points = {0, 1, 10, 100, 1000};
+        RuleSet rules = RuleSet.STANDARD.withSize(6, 14, 2).withScoring(points).withLevels(3, 20, 12, 4);
+        GameEngine engine = new GameEngine(1, 0, PieceGenerator.Kind.BAG, rules);
+        int[] expected = new int[1];
+        int[] lines = new int[1];
+        engine.setLockListener((e, type, rotation, x, y) -> {
+            int cleared = e.getLinesCleared() - lines[0];
+            expected[0] += e.getLastSpin() == TSpin.NONE ? points[cleared] : rules.lockScore(cleared, e.getLastSpin());
+            lines[0] = e.getLinesCleared();
+        });
+        Policy policy = Policy.greedy(Heuristic.DEFAULT);
+        for (int i = 0; i < 100 && !engine.isGameOver(); i++) {
+            policy.act(engine);
+        }
+        assertTrue(engine.getLinesCleared() >= 6);
+        assertEquals(expected[0], engine.getScore());
+        assertEquals(engine.getLinesCleared() / 3, engine.getLevel());
+        assertEquals(12, rules.framesPerRow(1));
+        assertEquals(4, rules.framesPerRow(50));
+    }
+
+    // The beam player searches every level under the game's own rules: a wider board, and a standard-sized one
+    // whose only kick is staying in place
+    @Test
+    void beamSearchKeepsTheRuleSet() {
+        for (RuleSet rules : new RuleSet[]{RuleSet.STANDARD.withSize(12, 22, 2),
+                RuleSet.STANDARD.withKicks(new int[]{0}, new int[]{0})}) {
+            GameEngine engine = new GameEngine(6, 0, PieceGenerator.Kind.BAG, rules);
+            Policy policy = Policy.beam(Heuristic.DEFAULT, 4, 3);
+            for (int i = 0; i < 40 && !engine.isGameOver(); i++) {
+                policy.act(engine);
+            }
+            assertTrue(engine.getPiecesLocked() >= 40);
+            assertSame(rules, engine.getBoard().rules());
+        }
+    }
+
+    // Standard boards keep the original save format; other sizes use the sized version and come back equal
+    @Test
+    void savesRoundTripOnEverySize() throws Exception {
+        SaveCodec codec = new SaveCodec();
+        for (RuleSet rules : new RuleSet[]{RuleSet.STANDARD, RuleSet.STANDARD.withSize(64, 30, 2),
+                RuleSet.STANDARD.withSize(5, 120, 3)}) {
+            GameEngine engine = new GameEngine(4, 0, PieceGenerator.Kind.BAG, rules);
+            Policy policy = Policy.random(4);
+            while (engine.getPiecesLocked() < 20 && !engine.isGameOver()) {
+                policy.act(engine);
+                engine.tick();
+            }
+            GameSave save = engine.snapshot();
+            ByteBuffer encoded = codec.encode(save);
+            boolean standard = rules == RuleSet.STANDARD;
+            assertEquals(standard ? SaveCodec.SIZE : SaveCodec.sizeOf(SaveCodec.SIZED_VERSION, rules.width(),
+                    rules.height()), encoded.remaining());
+            GameSave decoded = codec.decode(encoded);
+            assertEquals(save.board, decoded.board);
+            assertTrue(decoded.board.rules().sameBoardSize(rules));
+            assertEquals(save.score, decoded.score);
+
+            GameEngine restored = new GameEngine(4, 0, PieceGenerator.Kind.BAG, rules);
+            restored.restore(decoded);
+            assertEquals(save.board, restored.getBoard());
+        }
+    }
+
+    // Sizes outside the supported range and inconsistent tables are rejected up front
+    @Test
+    void rejectsInvalidRules() {
+        RuleSet s = RuleSet.STANDARD;
+        assertThrows(IllegalArgumentException.class, () -> s.withSize(RuleSet.MAX_WIDTH + 1, 22, 2));
+        assertThrows(IllegalArgumentException.class, () -> s.withSize(10, RuleSet.MAX_HEIGHT + 1, 2));
+        assertThrows(IllegalArgumentException.class, () -> s.withSize(10, 22, 22));
+        assertThrows(IllegalArgumentException.class, () -> s.withKicks(new int[]{0, 1}, new int[]{0}));
+        assertThrows(IllegalArgumentException.class, () -> s.withLevels(10, 5, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new GameEngine(1, 0, PieceGenerator.Kind.BAG, s).restore(
+                        new GameEngine(1, 0, PieceGenerator.Kind.BAG, s.withSize(12, 22, 2)).snapshot()));
+    }
+}
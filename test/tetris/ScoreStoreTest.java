@@ -0,0 +1,193 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests for the memory-mapped leaderboard
+
+public class ScoreStoreTest {
+
+    @TempDir
+    Path dir;
+
+
+    // top() ranks entries exactly like HighScores, including ties
+    @Test
+    void topMatchesHighScores() throws Exception {
+        HighScores reference = new HighScores();
+        try (ScoreStore store = ScoreStore.open(dir.resolve("scores.db"))) {
+            Random random = new Random(1);
+            for (int i = 0; i < 500; i++) {
+                int score = random.nextInt(50) * 100;
+                reference.add("p" + i, score);
+                store.add("p" + i, score);
+            }
+
+            assertEquals(names(reference.top()), names(store.top()));
+            assertEquals(500, store.size());
+        }
+    }
+
+    // rankOf counts the entries with a strictly higher score
+    @Test
+    void rankOfCountsBetterScores() throws Exception {
+        List<Integer> scores = new ArrayList<>();
+        try (ScoreStore store = ScoreStore.open(dir.resolve("scores.db"))) {
+            Random random = new Random(2);
+            for (int i = 0; i < 2_000; i++) {
+                int score = random.nextInt(10_000);
+                scores.add(score);
+                store.add("p", score);
+            }
+            for (int probe = -1; probe <= 10_000; probe += 97) {
+                int expected = 1;
+                for (int s : scores) {
+                    if (s > probe) {
+                        expected++;
+                    }
+                }
+                assertEquals(expected, store.rankOf(probe));
+            }
+        }
+    }
+
+    // Entries survive closing and reopening the file
+    @Test
+    void entriesPersistAcrossReopen() throws Exception {
+        Path file = dir.resolve("scores.db");
+        try (ScoreStore store = ScoreStore.open(file)) {
+            store.add("alice", 800);
+            store.add("bob", 1200);
+        }
+        try (ScoreStore store = ScoreStore.open(file)) {
+            store.add("carol", 1000);
+
+            assertEquals(List.of("bob", "carol", "alice"), names(store.top()));
+            assertEquals(1200, store.top(1).get(0).score);
+        }
+    }
+
+    // With a capacity only the best entries are kept, through compaction and reopening
+    @Test
+    void capacityKeepsBestEntriesAcrossCompaction() throws Exception {
+        Path file = dir.resolve("scores.db");
+        List<Integer> all = new ArrayList<>();
+        Random random = new Random(3);
+        try (ScoreStore store = ScoreStore.open(file, 1_000)) {
+            for (int i = 0; i < 60_000; i++) {
+                int score = random.nextInt(1_000_000);
+                all.add(score);
+                store.add("p" + i, score);
+            }
+            assertEquals(1_000, store.size());
+        }
+        all.sort(Comparator.reverseOrder());
+
+        try (ScoreStore store = ScoreStore.open(file, 1_000)) {
+            List<HighScores.Entry> top = store.top(1_000);
+            assertEquals(1_000, top.size());
+            for (int i = 0; i < top.size(); i++) {
+                assertEquals(all.get(i), top.get(i).score);
+            }
+        }
+        assertTrue(file.toFile().length() < 60_000L * ScoreStore.RECORD_SIZE, "file was compacted");
+    }
+
+    // A compaction that cannot switch files does not fail the add that triggered it, and is only retried once
+    // another mapping's worth of records has come in
+    @Test
+    void failedCompactionBacksOff() throws Exception {
+        Path file = dir.resolve("scores.db");
+        try (ScoreStore store = ScoreStore.open(file, 1_000)) {
+            store.failCommits = 1;
+            int failedAt = -1;
+            for (int i = 0; i < 60_000; i++) {
+                store.add("p" + i, i);
+                if (failedAt < 0 && store.failCommits == 0) {
+                    failedAt = i;
+                    assertFalse(store.needsCompaction());
+                }
+            }
+            assertTrue(failedAt >= 0, "compaction was attempted");
+            assertEquals(1_000, store.size());
+            assertEquals(59_999, store.top(1).get(0).score);
+        }
+        assertTrue(file.toFile().length() < 60_000L * ScoreStore.RECORD_SIZE, "compaction was retried");
+    }
+
+    // A record count the file cannot hold is reported as corruption, like a bad header
+    @Test
+    void countBeyondTheFileIsRejected() throws Exception {
+        Path file = dir.resolve("scores.db");
+        try (ScoreStore store = ScoreStore.open(file)) {
+            store.add("alice", 800);
+            store.add("bob", 1200);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE), 8);
+        }
+        assertThrows(IOException.class, () -> ScoreStore.open(file));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 2), 8);
+            channel.truncate(16 + ScoreStore.RECORD_SIZE);
+        }
+        assertThrows(IOException.class, () -> ScoreStore.open(file));
+    }
+
+    // A name length that would run past its record, including one that reads negative as a signed byte, is corruption
+    @Test
+    void badNameLengthIsRejected() throws Exception {
+        Path file = dir.resolve("scores.db");
+        try (ScoreStore store = ScoreStore.open(file)) {
+            store.add("alice", 800);
+            store.add("bob", 1200);
+        }
+        long lengthAt = 16 + ScoreStore.RECORD_SIZE + 12;
+        for (int length : new int[]{0xFF, ScoreStore.MAX_NAME_BYTES + 1}) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{(byte) length}), lengthAt);
+            }
+            assertThrows(IOException.class, () -> ScoreStore.open(file));
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{3}), lengthAt);
+        }
+        try (ScoreStore store = ScoreStore.open(file)) {
+            assertEquals(List.of("bob", "alice"), names(store.top()));
+        }
+    }
+
+    // Long names are cut at a character boundary to fit a record
+    @Test
+    void longNamesAreTruncated() throws Exception {
+        String name = "ü".repeat(30);
+        try (ScoreStore store = ScoreStore.open(dir.resolve("scores.db"))) {
+            store.add(name, 1);
+            assertEquals("ü".repeat(17), store.top().get(0).name);
+        }
+    }
+
+    private static List<String> names(List<HighScores.Entry> entries) {
+        List<String> names = new ArrayList<>();
+        for (HighScores.Entry e : entries) {
+            names.add(e.name);
+        }
+        return names;
+    }
+}
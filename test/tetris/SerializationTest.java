@@ -3,6 +3,11 @@ package tetris;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -30,4 +35,147 @@ public class SerializationTest {
         assertEquals(1234, loaded.score);
         assertEquals(save.currentPiece.type, loaded.currentPiece.type);
     }
+
+    // The binary format restores board, piece, preview and score exactly and stays under 128 bytes
+    @Test
+    void binarySaveRoundTrip() throws Exception {
+        GameEngine engine = new GameEngine(11);
+        for (int i = 0; i < 15; i++) {
+            engine.apply(i % 3 == 0 ? Action.LEFT : Action.ROTATE_CW);
+            engine.apply(Action.HARD_DROP);
+        }
+        engine.apply(Action.ROTATE_CCW);
+        GameSave save = engine.snapshot();
+
+        File tmp = File.createTempFile("tetris-save", ".bin");
+        Serializer.saveGame(tmp, save);
+        GameSave loaded = Serializer.loadGame(tmp);
+
+        assertTrue(tmp.length() < 128, "save is " + tmp.length() + " bytes");
+        assertArrayEquals(save.board.snapshot(), loaded.board.snapshot());
+        assertEquals(save.currentPiece.type, loaded.currentPiece.type);
+        assertEquals(save.currentPiece.rotation, loaded.currentPiece.rotation);
+        assertEquals(save.currentPiece.x, loaded.currentPiece.x);
+        assertEquals(save.currentPiece.y, loaded.currentPiece.y);
+        assertEquals(save.nextPiece, loaded.nextPiece);
+        assertEquals(save.score, loaded.score);
+        assertEquals(save.lines, loaded.lines);
+    }
+
+    // A save is decoded where it lies, from any buffer and position, and the buffer is left just past it
+    @Test
+    void decodeReadsSaveInPlace() throws Exception {
+        SaveCodec codec = new SaveCodec();
+        GameSave save = new GameSave(new Board(), new Piece(Tetromino.L, 3, 4), Tetromino.I, 250, 7);
+        ByteBuffer encoded = codec.encode(save);
+        ByteBuffer in = ByteBuffer.allocateDirect(encoded.remaining() + 8).position(5);
+        in.put(encoded).flip().position(5);
+
+        GameSave loaded = codec.decode(in);
+
+        assertEquals(5 + SaveCodec.SIZE, in.position());
+        assertEquals(Tetromino.L, loaded.currentPiece.type);
+        assertEquals(Tetromino.I, loaded.nextPiece);
+        assertEquals(250, loaded.score);
+        assertEquals(7, loaded.lines);
+    }
+
+    // A flipped bit anywhere in the save is caught by the checksum
+    @Test
+    void corruptBinarySaveIsRejected() {
+        SaveCodec codec = new SaveCodec();
+        GameSave save = new GameSave(new Board(), new Piece(Tetromino.S, 3, 4), Tetromino.L, 500);
+        ByteBuffer encoded = codec.encode(save);
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        bytes[40] ^= 0x10;
+
+        assertThrows(IOException.class, () -> new SaveCodec().decode(ByteBuffer.wrap(bytes)));
+    }
+
+    // Version 1 saves from before SRS load at 0 lines with the falling piece covering the same cells as before
+    @Test
+    void preSrsBinarySaveIsMigrated() throws Exception {
+        // The old T pointing up was rotation 2, and the old flat S rotation 0; SRS numbers them 0 and 2
+        assertMigrated(Tetromino.T, 2, 0);
+        assertMigrated(Tetromino.S, 0, 2);
+        assertMigrated(Tetromino.I, 1, 1);
+    }
+
+    // Saves written with Java serialization still load and are migrated to the binary format
+    @Test
+    void legacySaveIsMigrated() throws Exception {
+        Board board = new Board();
+        board.lock(new Piece(Tetromino.J, 4, 20));
+        GameSave save = new GameSave(board, new Piece(Tetromino.O, 5, 1), Tetromino.Z, 300);
+
+        File tmp = File.createTempFile("tetris-save", ".ser");
+        Serializer.save(tmp, save);
+        GameSave loaded = Serializer.loadGame(tmp);
+
+        assertArrayEquals(board.snapshot(), loaded.board.snapshot());
+        assertEquals(300, loaded.score);
+        byte[] migrated = Files.readAllBytes(tmp.toPath());
+        assertEquals(SaveCodec.SIZE, migrated.length);
+        assertEquals('T', migrated[0]);
+        assertEquals(300, Serializer.loadGame(tmp).score);
+    }
+
+    // A Java-serialized save from before SRS gets the same rotation migration before it is rewritten as binary
+    @Test
+    void legacySerializedSaveIsMigratedToSrs() throws Exception {
+        // The old T at rotation 0 pointed down, which is SRS rotation 2
+        Piece piece = new Piece(Tetromino.T, 4, 5);
+        File tmp = File.createTempFile("tetris-save", ".ser");
+        Serializer.save(tmp, new GameSave(new Board(), piece, Tetromino.O, 900));
+
+        GameSave loaded = Serializer.loadGame(tmp);
+        GameSave reloaded = Serializer.loadGame(tmp);
+
+        for (GameSave save : new GameSave[]{loaded, reloaded}) {
+            assertEquals(Tetromino.T, save.currentPiece.type);
+            assertEquals(2, save.currentPiece.rotation);
+            assertEquals(4, save.currentPiece.x);
+            assertEquals(5, save.currentPiece.y);
+            assertEquals(900, save.score);
+        }
+    }
+
+    // Old-format files only deserialize save and high-score classes; anything else is refused before it is built
+    @Test
+    void foreignClassInLegacyFileIsRefused() throws Exception {
+        File tmp = File.createTempFile("tetris-save", ".ser");
+        Serializer.save(tmp, new java.util.HashMap<>(java.util.Map.of("board", new Board())));
+        long length = tmp.length();
+
+        assertThrows(InvalidClassException.class, () -> Serializer.loadGame(tmp));
+        assertThrows(InvalidClassException.class, () -> Serializer.load(tmp, Object.class));
+        assertEquals(length, tmp.length());
+
+        HighScores scores = new HighScores();
+        scores.add("ann", 1200);
+        Serializer.save(tmp, scores);
+        assertEquals(1200, Serializer.load(tmp, HighScores.class).top().get(0).score);
+    }
+
+    // Writes a version 1 save holding a piece in an old rotation state and checks it loads in the given SRS one
+    private static void assertMigrated(Tetromino type, int oldRotation, int rotation) throws IOException {
+        Piece piece = new Piece(type, 4, 5);
+        piece.rotation = oldRotation;
+        ByteBuffer encoded = new SaveCodec().encode(new GameSave(new Board(), piece, Tetromino.O, 700, 12));
+        byte[] bytes = new byte[SaveCodec.sizeOf(SaveCodec.LEGACY_VERSION, Board.WIDTH, Board.HEIGHT)];
+        encoded.get(bytes, 0, bytes.length - 4);
+        bytes[2] = SaveCodec.LEGACY_VERSION;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 4, (int) crc.getValue());
+
+        GameSave loaded = new SaveCodec().decode(ByteBuffer.wrap(bytes));
+
+        assertEquals(700, loaded.score);
+        assertEquals(0, loaded.lines);
+        assertEquals(rotation, loaded.currentPiece.rotation);
+        assertEquals(4, loaded.currentPiece.x);
+        assertEquals(5, loaded.currentPiece.y);
+    }
 }
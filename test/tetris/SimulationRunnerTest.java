@@ -0,0 +1,82 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests for the parallel simulation runner
+
+public class SimulationRunnerTest {
+
+
+    // Seeded games are independent, so the totals must not depend on how many threads play them
+    @Test
+    void resultsDoNotDependOnParallelism() {
+        SimulationStats single = run(1, 2_000);
+        SimulationStats parallel = run(4, 2_000);
+
+        assertEquals(2_000, single.games());
+        assertEquals(single.games(), parallel.games());
+        assertEquals(single.totalScore(), parallel.totalScore());
+        assertEquals(single.totalLines(), parallel.totalLines());
+        assertEquals(single.totalPieces(), parallel.totalPieces());
+        assertEquals(single.totalTicks(), parallel.totalTicks());
+        assertEquals(single.maxScore(), parallel.maxScore());
+        for (int i = 0; i < SimulationStats.SCORE_BUCKETS; i++) {
+            assertEquals(single.scoreBucketCount(i), parallel.scoreBucketCount(i));
+        }
+        for (int h = 0; h <= Board.HEIGHT; h++) {
+            assertEquals(single.gameOverHeightCount(h), parallel.gameOverHeightCount(h));
+        }
+    }
+
+    // Histograms account for every game played
+    @Test
+    void histogramsCountEveryGame() {
+        SimulationStats stats = run(2, 500);
+
+        long scored = 0;
+        long heights = 0;
+        for (int i = 0; i < SimulationStats.SCORE_BUCKETS; i++) {
+            scored += stats.scoreBucketCount(i);
+        }
+        for (int h = 0; h <= Board.HEIGHT; h++) {
+            heights += stats.gameOverHeightCount(h);
+        }
+        assertEquals(500, scored);
+        assertEquals(stats.toppedOutGames(), heights);
+        assertEquals(500, heights + stats.cappedGames());
+        assertTrue(stats.meanPieces() > 0);
+    }
+
+    // Games stopped at the piece cap count as capped and stay out of the game-over heights
+    @Test
+    void cappedGamesAreNotGameOvers() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            SimulationStats stats = new SimulationRunner(pool, seed -> Policy.greedy(Heuristic.DEFAULT), 20)
+                    .run(100, 8).stats();
+            assertEquals(8, stats.cappedGames());
+            assertEquals(0, stats.toppedOutGames());
+            assertEquals(0, stats.meanGameOverHeight());
+            for (int h = 0; h <= Board.HEIGHT; h++) {
+                assertEquals(0, stats.gameOverHeightCount(h));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static SimulationStats run(int threads, int games) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return new SimulationRunner(pool, Policy::random, 10_000).run(100, games).stats();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Checks the rotation states, wall kicks and T-spin rule against the Super Rotation System reference
+
+public class SrsTest {
+
+    // Reference pictures of states 0, R, 2 and L: I in its 4x4 box, the others in their 3x3 box
+    private static final String[][] STATES = {
+            {"....|IIII|....|....", "..I.|..I.|..I.|..I.", "....|....|IIII|....", ".I..|.I..|.I..|.I.."},
+            {".OO|.OO|...", ".OO|.OO|...", ".OO|.OO|...", ".OO|.OO|..."},
+            {".T.|TTT|...", ".T.|.TT|.T.", "...|TTT|.T.", ".T.|TT.|.T."},
+            {".SS|SS.|...", ".S.|.SS|..S", "...|.SS|SS.", "S..|SS.|.S."},
+            {"ZZ.|.ZZ|...", "..Z|.ZZ|.Z.", "...|ZZ.|.ZZ", ".Z.|ZZ.|Z.."},
+            {"J..|JJJ|...", ".JJ|.J.|.J.", "...|JJJ|..J", ".J.|.J.|JJ."},
+            {"..L|LLL|...", ".L.|.L.|.LL", "...|LLL|L..", "LL.|.L.|.L."}
+    };
+
+    // Reference kick tables as usually published, with y pointing up, for transitions 0->R, R->0, R->2, 2->R,
+    // 2->L, L->2, L->0 and 0->L
+    private static final int[][] TRANSITIONS = {{0, 1}, {1, 0}, {1, 2}, {2, 1}, {2, 3}, {3, 2}, {3, 0}, {0, 3}};
+    private static final String[] JLSTZ_KICKS = {
+            "0,0 -1,0 -1,+1 0,-2 -1,-2",
+            "0,0 +1,0 +1,-1 0,+2 +1,+2",
+            "0,0 +1,0 +1,-1 0,+2 +1,+2",
+            "0,0 -1,0 -1,+1 0,-2 -1,-2",
+            "0,0 +1,0 +1,+1 0,-2 +1,-2",
+            "0,0 -1,0 -1,-1 0,+2 -1,+2",
+            "0,0 -1,0 -1,-1 0,+2 -1,+2",
+            "0,0 +1,0 +1,+1 0,-2 +1,-2"
+    };
+    private static final String[] I_KICKS = {
+            "0,0 -2,0 +1,0 -2,-1 +1,+2",
+            "0,0 +2,0 -1,0 +2,+1 -1,-2",
+            "0,0 -1,0 +2,0 -1,+2 +2,-1",
+            "0,0 +1,0 -2,0 +1,-2 -2,+1",
+            "0,0 +2,0 -1,0 +2,+1 -1,-2",
+            "0,0 -2,0 +1,0 -2,-1 +1,+2",
+            "0,0 +1,0 -2,0 +1,-2 -2,+1",
+            "0,0 -1,0 +2,0 -1,+2 +2,-1"
+    };
+
+
+    // Every state of every piece matches its reference picture, which also pins J and L to the right hand
+    @Test
+    void statesMatchReferencePictures() {
+        for (Tetromino type : Tetromino.values()) {
+            for (int r = 0; r < 4; r++) {
+                String expected = STATES[type.ordinal()][r];
+                int size = expected.indexOf('|');
+                char[][] box = new char[size][size];
+                for (char[] row : box) {
+                    Arrays.fill(row, '.');
+                }
+                for (int packed : type.offsets[r]) {
+                    box[1 + Tetromino.unpackY(packed)][1 + Tetromino.unpackX(packed)] = type.name().charAt(0);
+                }
+                StringBuilder actual = new StringBuilder();
+                for (char[] row : box) {
+                    actual.append(actual.length() == 0 ? "" : "|").append(row);
+                }
+                assertEquals(expected, actual.toString(), type + " state " + r);
+            }
+        }
+    }
+
+    // The rule set's kick offsets are the reference tables with y flipped, O never kicks
+    @Test
+    void kicksMatchReferenceTables() {
+        RuleSet rules = RuleSet.STANDARD;
+        for (Tetromino type : Tetromino.values()) {
+            for (int t = 0; t < TRANSITIONS.length; t++) {
+                int from = TRANSITIONS[t][0], to = TRANSITIONS[t][1];
+                int[][] reference = reference(type, t);
+                assertEquals(reference.length, rules.kicks(type));
+                for (int i = 0; i < reference.length; i++) {
+                    assertEquals(reference[i][0], rules.kickX(type, from, to, i), type + " " + from + "->" + to);
+                    assertEquals(-reference[i][1], rules.kickY(type, from, to, i), type + " " + from + "->" + to);
+                }
+            }
+        }
+    }
+
+    // On random boards of several widths, the precomputed kick masks pick the same test as trying the
+    // reference offsets one by one with canPlace, at walls and floor too
+    @Test
+    void resolvesLikeTheReferenceFirstFit() {
+        Random random = new Random(23);
+        for (int width : new int[]{4, 10, 37, 64}) {
+            RuleSet rules = RuleSet.STANDARD.withSize(width, 12, 2);
+            for (int round = 0; round < 300; round++) {
+                Board board = new Board(rules);
+                int density = 2 + random.nextInt(4);
+                for (int y = 0; y < board.height(); y++) {
+                    for (int x = 0; x < width; x++) {
+                        if (random.nextInt(density) == 0) {
+                            board.set(x, y, 1);
+                        }
+                    }
+                }
+                for (Tetromino type : Tetromino.values()) {
+                    for (int t = 0; t < TRANSITIONS.length; t++) {
+                        int from = TRANSITIONS[t][0], to = TRANSITIONS[t][1];
+                        int x = random.nextInt(width + 4) - 2, y = random.nextInt(board.height() + 4) - 2;
+                        int[][] reference = reference(type, t);
+                        int expected = -1;
+                        for (int i = 0; i < reference.length && expected < 0; i++) {
+                            if (board.canPlace(type, to, x + reference[i][0], y - reference[i][1])) {
+                                expected = i;
+                            }
+                        }
+                        assertEquals(expected, rules.kicks.resolve(board, type, from, to, x, y),
+                                type + " " + from + "->" + to + " at " + x + "," + y + " on " + width);
+                    }
+                }
+            }
+        }
+    }
+
+    // The T-spin triple setup: a T hanging beside the slot turns clockwise, only the fifth kick fits,
+    // and the lock clears three lines as a full T-spin. Undo takes the points back, redo restores them
+    @Test
+    void tSpinTripleTakesTheLastKick() {
+        Board board = new Board();
+        for (int y = 19; y < 22; y++) {
+            for (int x = 0; x < Board.WIDTH; x++) {
+                board.set(x, y, 1 + x % 7);
+            }
+        }
+        board.set(2, 19, 0);
+        board.set(2, 20, 0);
+        board.set(3, 20, 0);
+        board.set(2, 21, 0);
+        board.set(2, 17, 1);
+
+        GameEngine engine = new GameEngine(1);
+        engine.restore(new GameSave(board, new Piece(Tetromino.T, 3, 18), Tetromino.I, 0));
+        assertTrue(engine.apply(Action.ROTATE_CW));
+        Piece p = engine.getCurrentPiece();
+        assertEquals(1, p.rotation);
+        assertEquals(2, p.x);
+        assertEquals(20, p.y);
+
+        engine.apply(Action.HARD_DROP);
+        assertEquals(3, engine.getLinesCleared());
+        assertEquals(TSpin.FULL, engine.getLastSpin());
+        assertEquals(1600, engine.getScore());
+
+        assertTrue(engine.undo());
+        assertEquals(0, engine.getScore());
+        assertEquals(board, engine.getBoard());
+        assertTrue(engine.redo());
+        assertEquals(1600, engine.getScore());
+        assertEquals(TSpin.FULL, engine.getLastSpin());
+    }
+
+    // Three blocked corners make a T-spin: full with both front corners or the triple kick, else a mini
+    @Test
+    void cornerRule() {
+        int floor = Board.HEIGHT - 1;
+        Board board = new Board();
+        assertEquals(TSpin.NONE, TSpin.detect(board, Tetromino.T, 0, 4, floor, 0));
+
+        board.set(3, floor - 1, 1);
+        assertEquals(TSpin.MINI, TSpin.detect(board, Tetromino.T, 0, 4, floor, 0));
+        assertEquals(TSpin.FULL, TSpin.detect(board, Tetromino.T, 0, 4, floor, RuleSet.STANDARD.tripleKick()));
+        assertEquals(TSpin.NONE, TSpin.detect(board, Tetromino.T, 0, 4, floor, -1));
+        assertEquals(TSpin.NONE, TSpin.detect(board, Tetromino.L, 0, 4, floor, 0));
+
+        board.set(5, floor - 1, 1);
+        assertEquals(TSpin.FULL, TSpin.detect(board, Tetromino.T, 0, 4, floor, 0));
+
+        // Pointing down in mid air: both top corners are back corners, so one bottom corner more is a mini
+        Board air = new Board();
+        air.set(3, 9, 1);
+        air.set(5, 9, 1);
+        air.set(3, 11, 1);
+        assertEquals(TSpin.MINI, TSpin.detect(air, Tetromino.T, 2, 4, 10, 1));
+        assertEquals(TSpin.NONE, TSpin.detect(air, Tetromino.T, 0, 4, 10, -1));
+        air.set(5, 11, 1);
+        assertEquals(TSpin.FULL, TSpin.detect(air, Tetromino.T, 2, 4, 10, 1));
+    }
+
+    // Custom kick tables have no triple kick, so their fifth test leaves a mini a mini
+    @Test
+    void uniformKicksHaveNoTripleKick() {
+        int floor = Board.HEIGHT - 1;
+        RuleSet rules = RuleSet.STANDARD.withKicks(new int[]{0, -1, 1, 0, 2}, new int[]{0, 0, 0, -1, 0});
+        assertEquals(-1, rules.tripleKick());
+        assertEquals(Tetromino.SRS_TESTS - 1, RuleSet.STANDARD.tripleKick());
+
+        Board board = new Board(rules);
+        board.set(3, floor - 1, 1);
+        assertEquals(TSpin.MINI, TSpin.detect(board, Tetromino.T, 0, 4, floor, Tetromino.SRS_TESTS - 1));
+    }
+
+    // Offsets (x, y up) of the reference table for a piece and transition
+    private static int[][] reference(Tetromino type, int t) {
+        if (type == Tetromino.O) {
+            return new int[][]{{0, 0}};
+        }
+        String[] tests = (type == Tetromino.I ? I_KICKS : JLSTZ_KICKS)[t].split(" ");
+        int[][] offsets = new int[tests.length][];
+        for (int i = 0; i < tests.length; i++) {
+            String[] xy = tests[i].split(",");
+            offsets[i] = new int[]{Integer.parseInt(xy[0]), Integer.parseInt(xy[1])};
+        }
+        return offsets;
+    }
+}
@@ -0,0 +1,85 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+// Tests for the primitive-array transposition cache
+
+public class TranspositionCacheTest {
+
+
+    // Stored values come back, unknown keys miss, and key 0 is a key like any other
+    @Test
+    void storesAndFindsValues() {
+        TranspositionCache cache = new TranspositionCache(64);
+        assertTrue(Double.isNaN(cache.get(0)));
+        cache.put(0, -1.5);
+        cache.put(42, 3.25);
+        cache.put(42, 4.5);
+
+        assertEquals(-1.5, cache.get(0));
+        assertEquals(4.5, cache.get(42));
+        assertTrue(Double.isNaN(cache.get(43)));
+        assertEquals(2, cache.misses());
+        assertEquals(2, cache.hits());
+        assertEquals(64 * 17 + 16, cache.footprintBytes());
+    }
+
+    // A full cache evicts entries that were not looked up since the clock hand last passed
+    @Test
+    void clockKeepsReferencedEntries() {
+        TranspositionCache cache = new TranspositionCache(4);
+        for (long key = 1; key <= 4; key++) {
+            cache.put(key, key);
+        }
+        assertEquals(1.0, cache.get(1));
+        cache.put(5, 5);
+
+        assertEquals(1, cache.evictions());
+        assertEquals(1.0, cache.get(1));
+        assertTrue(Double.isNaN(cache.get(2)));
+        assertEquals(5.0, cache.get(5));
+    }
+
+    // Racing readers and writers never see a value stored under another key
+    @Test
+    void concurrentUseNeverReturnsWrongValues() throws Exception {
+        TranspositionCache cache = new TranspositionCache(1 << 10);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                long seed = t;
+                futures.add(executor.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(seed);
+                    for (int i = 0; i < 200_000; i++) {
+                        long key = random.nextLong(1 << 14);
+                        double value = cache.get(key);
+                        if (Double.isNaN(value)) {
+                            cache.put(key, key * 0.5);
+                        } else {
+                            assertEquals(key * 0.5, value);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(cache.hits() > 0);
+        assertEquals(800_000, cache.hits() + cache.misses());
+    }
+}